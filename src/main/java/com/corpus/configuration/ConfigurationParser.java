@@ -7,8 +7,12 @@ import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -23,16 +27,30 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
+import com.corpus.controller.OutputController;
 import com.corpus.controller.SceneController;
 import com.corpus.filter.Filter;
+import com.corpus.filter.FilterChain;
 import com.corpus.fuser.ConfidenceWeightedFuser;
 import com.corpus.fuser.Fuser;
+import com.corpus.history.TieredHistory;
+import com.corpus.recording.FrameJournal;
+import com.corpus.recording.FrameJournalWriter;
+import com.corpus.recording.OfflineFusion;
+import com.corpus.recording.SessionPlayer;
+import com.corpus.recording.SensorCaptureWriter;
 import com.corpus.scene.Joint;
 import com.corpus.scene.JointType;
 import com.corpus.scene.ModelInitializer;
+import com.corpus.scene.ParallelSubtreeExecutor;
 import com.corpus.scene.Scene;
+import com.corpus.scene.SceneInterpolator;
 import com.corpus.scene.SceneNode;
 import com.corpus.sensor.Sensor;
+import com.corpus.sensor.replay.ReplaySensor;
+import com.corpus.web.websocket.QueuePolicy;
+import com.corpus.web.websocket.StreamFormat;
+import com.corpus.web.websocket.WebSocketHandler;
 
 /**
  * This class is responsible for parsing the configuration file and initializing
@@ -49,8 +67,6 @@ public class ConfigurationParser {
 	 * 
 	 * @param configFile
 	 *            The path to the configuration file
-	 * @param currentScene
-	 *            The start {@link Scene}
 	 * @throws ParserConfigurationException
 	 * @throws InterruptedException
 	 * @throws XMLStreamException
@@ -61,10 +77,160 @@ public class ConfigurationParser {
 	 */
 	public static void readConfigAndInitSceneController(String configFile) throws XMLStreamException, InterruptedException,
 			ParserConfigurationException {
+		Element configElement = openConfiguration(configFile);
+		Scene startScene = parseConfiguration(configElement);
 
-		// create start scene
-		Scene startScene = new Scene();
+		// get the additional search paths for implementable classes
+		URL[] additionalPaths = getAdditionalPaths(configElement);
+
+		// start the capture of the sensor data
+		Node node = getUnrequiredNode("sensorCapture", configElement);
+		if (node != null) {
+			String capturePath = node.getFirstChild().getNodeValue();
+			try {
+				SensorCaptureWriter.start(new File(capturePath));
+			} catch (IOException e) {
+				throw new XMLStreamException("Cannot open capture file " + capturePath + ": " + e.getMessage());
+			}
+		}
+
+		// start the journal of the fused frames
+		node = getUnrequiredNode("frameJournal", configElement);
+		if (node != null)
+			parseFrameJournal((Element) node);
+
+		// get the fuser
+		node = getRequiredNode("fuser", configElement);
+		Fuser fuser = node != null ? parseFuser((Element) node, additionalPaths) : new ConfidenceWeightedFuser(
+				new HashMap<String, String>());
+
+		// get the filter or the chain of filters
+		Filter filter = parseFilters(configElement, additionalPaths);
+
+		// get the sensors
+		node = getUnrequiredNode("sensors", configElement);
+		if (node != null) {
+			NodeList nodeList = ((Element) node).getElementsByTagName("sensor");
+			for (int j = 0; j < nodeList.getLength(); j++) {
+				Sensor sensor = parseSensor((Element) nodeList.item(j), startScene, additionalPaths, null);
+				startScene.getSensors().add(sensor);
+			}
+		}
+
+		// check if sensors are defined
+		if (startScene.getSensors().isEmpty())
+			System.err.println("WARNING: Sensor list is empty.");
+
+		// initialize SceneController
+		SceneController.getInstance().reset(startScene, fuser, filter);
+	}
+
+	/**
+	 * Parses the configuration file and initializes the {@link SceneController}
+	 * in playback mode. The frames are read from the given journal, thus the
+	 * sensors, the fuser and the filter defined in the configuration file are
+	 * ignored and no sensor classes are loaded.
+	 * 
+	 * @param configFile
+	 *            The path to the configuration file
+	 * @param journal
+	 *            directory of the recorded {@link FrameJournal}
+	 * @throws ParserConfigurationException
+	 * @throws InterruptedException
+	 * @throws XMLStreamException
+	 *             If there went something wrong during the parsing process of
+	 *             the configuration file or the journal could not be opened.
+	 */
+	public static void readConfigAndInitPlayback(String configFile, File journal) throws XMLStreamException, InterruptedException,
+			ParserConfigurationException {
+		Element configElement = openConfiguration(configFile);
+		Scene startScene = parseConfiguration(configElement);
+
+		SessionPlayer player;
+		try {
+			player = new SessionPlayer(journal);
+		} catch (IOException e) {
+			throw new XMLStreamException("Cannot open frame journal " + journal + ": " + e.getMessage());
+		}
+
+		// initialize SceneController
+		SceneController.getInstance().reset(startScene, player);
+	}
+
+	/**
+	 * Parses the configuration file and creates an {@link OfflineFusion} of the
+	 * given capture. The body model, the fuser and the filter are created as
+	 * defined in the configuration file. Every sensor is replaced by a
+	 * {@link ReplaySensor} replaying the captured data of the sensor with the
+	 * same id at the same place in the {@link Scene}. Neither the
+	 * {@link SceneController} nor a capture or journal is started.
+	 * 
+	 * @param configFile
+	 *            The path to the configuration file
+	 * @param capture
+	 *            capture file written by the {@link SensorCaptureWriter}
+	 * @return {@link OfflineFusion}
+	 * @throws ParserConfigurationException
+	 * @throws XMLStreamException
+	 *             If there went something wrong during the parsing process of
+	 *             the configuration file or the capture could not be opened.
+	 */
+	public static OfflineFusion readConfigForOfflineFusion(String configFile, File capture) throws XMLStreamException,
+			ParserConfigurationException {
+		Element configElement = openConfiguration(configFile);
+		Scene startScene = parseConfiguration(configElement);
+		URL[] additionalPaths = getAdditionalPaths(configElement);
+
+		// get the fuser
+		Node node = getRequiredNode("fuser", configElement);
+		Fuser fuser = parseFuser((Element) node, additionalPaths);
+
+		// get the filter or the chain of filters
+		Filter filter = parseFilters(configElement, additionalPaths);
 
+		// get the sensors replaying the capture
+		node = getUnrequiredNode("sensors", configElement);
+		if (node != null) {
+			NodeList nodeList = ((Element) node).getElementsByTagName("sensor");
+			for (int j = 0; j < nodeList.getLength(); j++) {
+				Sensor sensor = parseSensor((Element) nodeList.item(j), startScene, additionalPaths, capture);
+				startScene.getSensors().add(sensor);
+			}
+		}
+
+		try {
+			return new OfflineFusion(startScene, fuser, filter, capture);
+		} catch (IOException e) {
+			throw new XMLStreamException("Cannot replay capture " + capture + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Parses the configuration file and creates the body model. Neither
+	 * sensors, fuser nor filter are created and nothing is started.
+	 * 
+	 * @param configFile
+	 *            The path to the configuration file
+	 * @return {@link Scene} containing the body model
+	 * @throws ParserConfigurationException
+	 * @throws XMLStreamException
+	 *             If there went something wrong during the parsing process of
+	 *             the configuration file.
+	 */
+	public static Scene readModel(String configFile) throws XMLStreamException, ParserConfigurationException {
+		return parseConfiguration(openConfiguration(configFile));
+	}
+
+	/**
+	 * Opens the configuration file.
+	 * 
+	 * @param configFile
+	 *            The path to the configuration file
+	 * @return config element
+	 * @throws ParserConfigurationException
+	 * @throws XMLStreamException
+	 */
+	private static Element openConfiguration(String configFile) throws ParserConfigurationException, XMLStreamException {
 		// open the configuration file
 		File file = new File(configFile);
 		DocumentBuilder dBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
@@ -82,21 +248,27 @@ public class ConfigurationParser {
 		NodeList nodeList = doc.getElementsByTagName("config");
 		if (nodeList.getLength() != 1)
 			throw new XMLStreamException("There has to be exactly one config tag in the config file.");
-		Element configElement = (Element) nodeList.item(0);
+		return (Element) nodeList.item(0);
+	}
+
+	/**
+	 * Parses the settings shared by the normal and the playback mode: the base
+	 * URI, the body model, the update rate and the WebSocket stream.
+	 * 
+	 * @param configElement
+	 *            corresponding XML-{@link Element}
+	 * @return start {@link Scene} containing the body model
+	 * @throws XMLStreamException
+	 */
+	private static Scene parseConfiguration(Element configElement) throws XMLStreamException {
+		// create start scene
+		Scene startScene = new Scene();
 
 		// determine the base URI
 		com.corpus.controller.Controller.BASE_URI = getRequiredNode("baseURI", configElement).getFirstChild().getNodeValue();
 
-		// get the additional search paths for implementable classes
-		Node node = getUnrequiredNode("additionalSearchPaths", configElement);
-		URL[] additionalPaths = null;
-		if (node != null)
-			additionalPaths = parseAdditionalPath((Element) node);
-		else
-			additionalPaths = new URL[0];
-
 		// create body model in dependence of the chosen types
-		node = getRequiredNode("modelType", configElement);
+		Node node = getRequiredNode("modelType", configElement);
 		ModelType torsoType = ModelType.valueOf(getRequiredNode("torso", configElement).getFirstChild().getNodeValue());
 		ModelType handsType = ModelType.valueOf(getRequiredNode("hands", configElement).getFirstChild().getNodeValue());
 		ModelType feetType = ModelType.valueOf(getRequiredNode("feet", configElement).getFirstChild().getNodeValue());
@@ -117,6 +289,55 @@ public class ConfigurationParser {
 			com.corpus.controller.Controller.UPDATE_FREQUENCY = updateFrequency;
 		}
 
+		// determine the rate and delay of the output stage
+		node = getUnrequiredNode("outputFrequency", configElement);
+		if (node != null) {
+			int outputFrequency = Integer.parseInt(node.getFirstChild().getNodeValue());
+			if (outputFrequency < 0)
+				throw new XMLStreamException("The output frequency should be greater than or equal to 0.");
+			com.corpus.controller.Controller.OUTPUT_FREQUENCY = outputFrequency;
+		}
+		node = getUnrequiredNode("outputDelay", configElement);
+		if (node != null) {
+			long outputDelay = Long.parseLong(node.getFirstChild().getNodeValue());
+			if (outputDelay < 0)
+				throw new XMLStreamException("The output delay should be greater than or equal to 0.");
+			OutputController.OUTPUT_DELAY = outputDelay;
+		}
+
+		// determine the size of the frame history
+		node = getUnrequiredNode("frameHistory", configElement);
+		if (node != null) {
+			int frameHistory = Integer.parseInt(node.getFirstChild().getNodeValue());
+			if (frameHistory < 0)
+				throw new XMLStreamException("The frame history should be greater than or equal to 0.");
+			SceneController.FRAME_HISTORY = frameHistory;
+		}
+
+		// determine how far scenes are extrapolated past the newest frame
+		node = getUnrequiredNode("maxExtrapolation", configElement);
+		if (node != null) {
+			long maxExtrapolation = Long.parseLong(node.getFirstChild().getNodeValue());
+			if (maxExtrapolation < 0)
+				throw new XMLStreamException("The maximal extrapolation should be greater than or equal to 0.");
+			SceneInterpolator.MAX_EXTRAPOLATION = maxExtrapolation;
+		}
+
+		// determine the number of threads fusing and filtering independent
+		// subtrees of the body model
+		node = getUnrequiredNode("parallelism", configElement);
+		if (node != null) {
+			int parallelism = Integer.parseInt(node.getFirstChild().getNodeValue());
+			if (parallelism < 0)
+				throw new XMLStreamException("The parallelism should be greater than or equal to 0.");
+			ParallelSubtreeExecutor.PARALLELISM = parallelism;
+		}
+
+		// get the tiers of the long term history
+		node = getUnrequiredNode("historyTiers", configElement);
+		if (node != null)
+			parseHistoryTiers((Element) node);
+
 		// get the length of time until joints will return to their default
 		// position and orientation
 		node = getUnrequiredNode("returnToDefault", configElement);
@@ -127,31 +348,28 @@ public class ConfigurationParser {
 			com.corpus.controller.Controller.RETURN_TO_DEFAULT = returnToDefault;
 		}
 
-		// get the fuser
-		node = getRequiredNode("fuser", configElement);
-		Fuser fuser = node != null ? parseFuser((Element) node, additionalPaths) : new ConfidenceWeightedFuser(
-				new HashMap<String, String>());
-
-		// get the filter
-		node = getUnrequiredNode("filter", configElement);
-		Filter filter = node != null ? parseFilter((Element) node, additionalPaths) : null;
-
-		// get the sensors
-		node = getUnrequiredNode("sensors", configElement);
-		if (node != null) {
-			nodeList = ((Element) node).getElementsByTagName("sensor");
-			for (int j = 0; j < nodeList.getLength(); j++) {
-				Sensor sensor = parseSensor((Element) nodeList.item(j), startScene, additionalPaths);
-				startScene.getSensors().add(sensor);
-			}
-		}
+		// get the settings of the WebSocket stream
+		node = getUnrequiredNode("webSocket", configElement);
+		if (node != null)
+			parseWebSocket((Element) node);
 
-		// check if sensors are defined
-		if (startScene.getSensors().isEmpty())
-			System.err.println("WARNING: Sensor list is empty.");
+		return startScene;
+	}
 
-		// initialize SceneController
-		SceneController.getInstance().reset(startScene, fuser, filter);
+	/**
+	 * Returns the additional search paths for implementable classes defined in
+	 * the configuration file.
+	 * 
+	 * @param configElement
+	 *            corresponding XML-{@link Element}
+	 * @return additional search paths
+	 * @throws XMLStreamException
+	 */
+	private static URL[] getAdditionalPaths(Element configElement) throws XMLStreamException {
+		Node node = getUnrequiredNode("additionalSearchPaths", configElement);
+		if (node != null)
+			return parseAdditionalPath((Element) node);
+		return new URL[0];
 	}
 
 	/**
@@ -177,6 +395,142 @@ public class ConfigurationParser {
 		return pathList;
 	}
 
+	/**
+	 * Parses the tiers of the long term history.
+	 * 
+	 * @param tiersElement
+	 *            corresponding XML-{@link Element}
+	 * @throws XMLStreamException
+	 */
+	private static void parseHistoryTiers(Element tiersElement) throws XMLStreamException {
+		Node node = getUnrequiredNode("budget", tiersElement);
+		if (node != null) {
+			long budget = Long.parseLong(node.getFirstChild().getNodeValue());
+			if (budget <= 0)
+				throw new XMLStreamException("The history budget should be greater than 0.");
+			TieredHistory.BUDGET = budget * 1024 * 1024;
+		}
+
+		NodeList nodeList = tiersElement.getElementsByTagName("tier");
+		long[] resolutions = new long[nodeList.getLength()];
+		long[] durations = new long[nodeList.getLength()];
+		for (int i = 0; i < nodeList.getLength(); i++) {
+			Element tierElement = (Element) nodeList.item(i);
+			resolutions[i] = Long.parseLong(getRequiredNode("resolution", tierElement).getFirstChild().getNodeValue());
+			durations[i] = Long.parseLong(getRequiredNode("duration", tierElement).getFirstChild().getNodeValue());
+			if (resolutions[i] <= 0 || durations[i] < resolutions[i])
+				throw new XMLStreamException("The resolution of a history tier should be greater than 0 and less than its duration.");
+			if (i > 0 && resolutions[i] % resolutions[i - 1] != 0)
+				throw new XMLStreamException("The resolution of a history tier should be a multiple of the previous resolution.");
+		}
+		TieredHistory.RESOLUTIONS = resolutions;
+		TieredHistory.DURATIONS = durations;
+	}
+
+	/**
+	 * Parses the settings of the frame journal and starts it.
+	 * 
+	 * @param journalElement
+	 *            corresponding XML-{@link Element}
+	 * @throws XMLStreamException
+	 */
+	private static void parseFrameJournal(Element journalElement) throws XMLStreamException {
+		Node node = getUnrequiredNode("segmentSize", journalElement);
+		if (node != null) {
+			int segmentSize = Integer.parseInt(node.getFirstChild().getNodeValue());
+			if (segmentSize <= 0 || segmentSize > 1024)
+				throw new XMLStreamException("The segment size should be between 1 and 1024 megabytes.");
+			FrameJournal.SEGMENT_SIZE = segmentSize * 1024 * 1024;
+		}
+
+		node = getUnrequiredNode("indexInterval", journalElement);
+		if (node != null) {
+			int indexInterval = Integer.parseInt(node.getFirstChild().getNodeValue());
+			if (indexInterval <= 0)
+				throw new XMLStreamException("The index interval should be greater than 0.");
+			FrameJournal.INDEX_INTERVAL = indexInterval;
+		}
+
+		node = getUnrequiredNode("queueCapacity", journalElement);
+		if (node != null) {
+			int queueCapacity = Integer.parseInt(node.getFirstChild().getNodeValue());
+			if (queueCapacity <= 0)
+				throw new XMLStreamException("The queue capacity should be greater than 0.");
+			FrameJournalWriter.QUEUE_CAPACITY = queueCapacity;
+		}
+
+		node = getRequiredNode("directory", journalElement);
+		String directory = node.getFirstChild().getNodeValue();
+		try {
+			FrameJournalWriter.start(new File(directory));
+		} catch (IOException e) {
+			throw new XMLStreamException("Cannot open frame journal " + directory + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Parses the settings of the WebSocket stream.
+	 * 
+	 * @param webSocketElement
+	 *            corresponding XML-{@link Element}
+	 * @throws XMLStreamException
+	 */
+	private static void parseWebSocket(Element webSocketElement) throws XMLStreamException {
+		Node node = getUnrequiredNode("format", webSocketElement);
+		if (node != null) {
+			try {
+				WebSocketHandler.STREAM_FORMAT = StreamFormat.valueOf(node.getFirstChild().getNodeValue().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				throw new XMLStreamException("Unknown WebSocket format: " + node.getFirstChild().getNodeValue());
+			}
+		}
+
+		node = getUnrequiredNode("keyframeInterval", webSocketElement);
+		if (node != null) {
+			int keyframeInterval = Integer.parseInt(node.getFirstChild().getNodeValue());
+			if (keyframeInterval <= 0)
+				throw new XMLStreamException("The keyframe interval should be greater than 0.");
+			WebSocketHandler.KEYFRAME_INTERVAL = keyframeInterval;
+		}
+
+		node = getUnrequiredNode("positionEpsilon", webSocketElement);
+		if (node != null)
+			WebSocketHandler.POSITION_EPSILON = Double.parseDouble(node.getFirstChild().getNodeValue());
+
+		node = getUnrequiredNode("orientationEpsilon", webSocketElement);
+		if (node != null)
+			WebSocketHandler.ORIENTATION_EPSILON = Double.parseDouble(node.getFirstChild().getNodeValue());
+
+		node = getUnrequiredNode("queueCapacity", webSocketElement);
+		if (node != null) {
+			int queueCapacity = Integer.parseInt(node.getFirstChild().getNodeValue());
+			if (queueCapacity <= 0)
+				throw new XMLStreamException("The queue capacity should be greater than 0.");
+			WebSocketHandler.QUEUE_CAPACITY = queueCapacity;
+		}
+
+		node = getUnrequiredNode("queuePolicy", webSocketElement);
+		if (node != null) {
+			try {
+				WebSocketHandler.QUEUE_POLICY = QueuePolicy.valueOf(node.getFirstChild().getNodeValue().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				throw new XMLStreamException("Unknown queue policy: " + node.getFirstChild().getNodeValue());
+			}
+		}
+
+		node = getUnrequiredNode("evictionTimeout", webSocketElement);
+		if (node != null)
+			WebSocketHandler.EVICTION_TIMEOUT = Integer.parseInt(node.getFirstChild().getNodeValue());
+
+		node = getUnrequiredNode("sendTimeout", webSocketElement);
+		if (node != null) {
+			int sendTimeout = Integer.parseInt(node.getFirstChild().getNodeValue());
+			if (sendTimeout <= 0)
+				throw new XMLStreamException("The send timeout should be greater than 0.");
+			WebSocketHandler.SEND_TIMEOUT = sendTimeout;
+		}
+	}
+
 	/**
 	 * Parses the additional joints defined by the user and adds them to the
 	 * current joints. Overrides already defined joints but preserves the
@@ -288,6 +642,54 @@ public class ConfigurationParser {
 		return instantiateClass(getRequiredNode("class", fuserElement).getFirstChild().getNodeValue(), additionalPaths, arguments);
 	}
 
+	/**
+	 * Parses the filter of the configuration. Either a single filter is
+	 * defined by the <code>filter</code> tag or a {@link FilterChain} by the
+	 * <code>filters</code> tag containing the filters in the order they are
+	 * applied. A filter of the chain can be limited to a <code>scope</code>
+	 * containing <code>jointType</code> tags (single joints) and
+	 * <code>subtree</code> tags (joints and their descendants).
+	 * 
+	 * @param configElement
+	 *            the config XML-{@link Element}
+	 * @param additionalPaths
+	 *            additional search paths for the implemented {@link Filter}s
+	 * @return instance of the {@link Filter} or <code>null</code> if no
+	 *         filter is defined
+	 * @throws XMLStreamException
+	 */
+	private static Filter parseFilters(Element configElement, URL[] additionalPaths) throws XMLStreamException {
+		Node node = getUnrequiredNode("filters", configElement);
+		if (node == null) {
+			node = getUnrequiredNode("filter", configElement);
+			return node != null ? parseFilter((Element) node, additionalPaths) : null;
+		}
+
+		List<FilterChain.Stage> stages = new ArrayList<FilterChain.Stage>();
+		NodeList nodeList = ((Element) node).getElementsByTagName("filter");
+		for (int i = 0; i < nodeList.getLength(); i++) {
+			Element filterElement = (Element) nodeList.item(i);
+			Filter filter = parseFilter(filterElement, additionalPaths);
+			Node scopeNode = getUnrequiredNode("scope", filterElement);
+			if (scopeNode == null) {
+				stages.add(new FilterChain.Stage(filter));
+				continue;
+			}
+			Set<JointType> jointTypes = new HashSet<JointType>();
+			NodeList scopeList = ((Element) scopeNode).getElementsByTagName("jointType");
+			for (int j = 0; j < scopeList.getLength(); j++)
+				jointTypes.add(parseJointType(scopeList.item(j).getFirstChild().getNodeValue()));
+			Set<JointType> subtrees = new HashSet<JointType>();
+			scopeList = ((Element) scopeNode).getElementsByTagName("subtree");
+			for (int j = 0; j < scopeList.getLength(); j++)
+				subtrees.add(parseJointType(scopeList.item(j).getFirstChild().getNodeValue()));
+			stages.add(new FilterChain.Stage(filter, jointTypes, subtrees));
+		}
+		if (stages.isEmpty())
+			throw new XMLStreamException("The filters tag should contain at least one filter.");
+		return new FilterChain(stages);
+	}
+
 	/**
 	 * Parses the filter XML-{@link Element} and creates the corresponding
 	 * {@link Filter}.
@@ -320,10 +722,14 @@ public class ConfigurationParser {
 	 *            start {@link Scene}
 	 * @param additionalPaths
 	 *            additional search paths for the implemented {@link Sensor}
+	 * @param capture
+	 *            capture file replayed instead of the defined {@link Sensor}
+	 *            or <code>null</code>
 	 * @return instance of the {@link Sensor}
 	 * @throws XMLStreamException
 	 */
-	private static Sensor parseSensor(Element sensorElement, Scene scene, URL[] additionalPaths) throws XMLStreamException {
+	private static Sensor parseSensor(Element sensorElement, Scene scene, URL[] additionalPaths, File capture)
+			throws XMLStreamException {
 		Node node = getUnrequiredNode("arguments", sensorElement);
 		Map<String, String> arguments;
 		if (node != null)
@@ -331,11 +737,22 @@ public class ConfigurationParser {
 		else
 			arguments = new HashMap<String, String>();
 
-		Sensor sensor = instantiateClass(getRequiredNode("class", sensorElement).getFirstChild().getNodeValue(), additionalPaths, arguments);
-
-		node = getUnrequiredNode("id", sensorElement);
-		if (node != null) {
-			sensor.setId(node.getFirstChild().getNodeValue());
+		String className = getRequiredNode("class", sensorElement).getFirstChild().getNodeValue();
+		Node idNode = getUnrequiredNode("id", sensorElement);
+		Sensor sensor;
+		if (capture != null) {
+			// the captured sensors are identified by their id
+			if (idNode == null)
+				throw new XMLStreamException("Cannot replay Sensor " + className + ". The sensor has no id.");
+			arguments.put("file", capture.getPath());
+			arguments.put("sensorId", idNode.getFirstChild().getNodeValue());
+			arguments.put("speed", "0");
+			sensor = new ReplaySensor(arguments);
+		} else
+			sensor = instantiateClass(className, additionalPaths, arguments);
+
+		if (idNode != null) {
+			sensor.setId(idNode.getFirstChild().getNodeValue());
 		}
 
 		node = getUnrequiredNode("parent", sensorElement);
@@ -1,7 +1,10 @@
 package com.corpus.controller;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Timer;
 
@@ -11,7 +14,14 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
 
 import org.glassfish.grizzly.http.server.HttpServer;
 import org.glassfish.grizzly.http.server.NetworkListener;
@@ -22,6 +32,23 @@ import org.glassfish.jersey.server.ResourceConfig;
 
 import com.corpus.configuration.ConfigurationParser;
 import com.corpus.configuration.NativeLibrary;
+import com.corpus.history.HistoryBucket;
+import com.corpus.history.TieredHistory;
+import com.corpus.recording.ExportFormat;
+import com.corpus.recording.FrameJournalWriter;
+import com.corpus.recording.SensorCaptureWriter;
+import com.corpus.recording.SessionPlayer;
+import com.corpus.scene.JointType;
+import com.corpus.scene.Scene;
+import com.corpus.web.json.JsonCreator;
+import com.corpus.web.stream.BucketRange;
+import com.corpus.web.stream.Downsampling;
+import com.corpus.web.stream.FrameHeaders;
+import com.corpus.web.stream.FrameRequests;
+import com.corpus.web.stream.HistoryRange;
+import com.corpus.web.stream.ModelStream;
+import com.corpus.web.stream.ModelStreamFormat;
+import com.corpus.web.stream.RecordingExport;
 import com.corpus.web.websocket.WebSocketHandler;
 import com.fasterxml.jackson.core.JsonProcessingException;
 
@@ -34,6 +61,21 @@ import com.fasterxml.jackson.core.JsonProcessingException;
  * Before the server is initialized a configuration file is parsed. Thus the
  * framework will be configured.
  * </p>
+ * <p>
+ * The responses containing the model are tagged with the sequence number of
+ * the frame (<code>ETag</code> and <code>X-Frame-Sequence</code> header). A
+ * request with an <code>If-None-Match</code> header containing the tag of the
+ * current frame is answered with <code>304 Not Modified</code>. If the output
+ * stage is enabled, all model resources serve the output frames, thus a tag
+ * can be passed to any of them (see
+ * {@link OutputController#getCurrentFrame()}).
+ * </p>
+ * <p>
+ * If the server is started with <code>--playback &lt;journal&gt;</code>, it
+ * plays a recorded frame journal back instead of running the sensors. No
+ * native libraries are loaded in this mode. The playback is controlled through
+ * the <code>playback</code> resources.
+ * </p>
  * 
  * @author Matthias Weise
  * 
@@ -47,6 +89,10 @@ public class Controller {
 	// Update frequency of the model
 	public static int UPDATE_FREQUENCY = 30;
 
+	// Frequency of the output stage delivering the model to the WebSocket
+	// clients (0 to deliver every fused model)
+	public static int OUTPUT_FREQUENCY = 0;
+
 	// Time until a joint is reset to its default position if no new data is
 	// received by a sensor
 	public static int RETURN_TO_DEFAULT = 2000;
@@ -54,8 +100,13 @@ public class Controller {
 	// Path to the configuration file
 	private static final String CONFIG_PATH = "config.xml";
 
+	// header containing the resolution of a history response (0 for the full
+	// rate history)
+	private static final String HISTORY_RESOLUTION_HEADER = "X-History-Resolution";
+
 	private static HttpServer server;
 	private static Timer sceneControllerTimer;
+	private static Timer outputTimer;
 
 	/**
 	 * Main method.
@@ -66,13 +117,26 @@ public class Controller {
 	 */
 	public static void main(String[] args) throws IOException, InterruptedException {
 
-		// load native libraries
-		if (!NativeLibrary.loadSystem("native"))
+		// parse the arguments
+		String configPath = CONFIG_PATH;
+		String playbackPath = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--playback") && i + 1 < args.length)
+				playbackPath = args[++i];
+			else
+				configPath = args[i];
+		}
+
+		// load native libraries (not needed to play a recording back)
+		if (playbackPath == null && !NativeLibrary.loadSystem("native"))
 			System.err.println("Warning: Native libraries could not successful loaded.");
 
 		// parse config file and initialize SceneController
 		try {
-			ConfigurationParser.readConfigAndInitSceneController(args.length > 0 ? args[0] : CONFIG_PATH);
+			if (playbackPath != null)
+				ConfigurationParser.readConfigAndInitPlayback(configPath, new File(playbackPath));
+			else
+				ConfigurationParser.readConfigAndInitSceneController(configPath);
 		} catch (Exception e) {
 			System.err.println("ERROR: " + e.getMessage());
 			System.err.println("Shutting down server!");
@@ -83,6 +147,12 @@ public class Controller {
 		sceneControllerTimer = new Timer();
 		sceneControllerTimer.schedule(SceneController.getInstance(), 0l, (long) (1000 / UPDATE_FREQUENCY));
 
+		// start the output stage
+		if (OUTPUT_FREQUENCY > 0) {
+			outputTimer = new Timer();
+			outputTimer.schedule(OutputController.getInstance(), 0l, (long) (1000 / OUTPUT_FREQUENCY));
+		}
+
 		// start the server
 		try {
 			startServer();
@@ -110,9 +180,13 @@ public class Controller {
 	 * @throws InterruptedException
 	 */
 	private static void shutDownGracefully(int returnCode) throws InterruptedException {
+		if (outputTimer != null)
+			outputTimer.cancel();
 		if (sceneControllerTimer != null)
 			sceneControllerTimer.cancel();
 		SceneController.getInstance().terminate();
+		SensorCaptureWriter.stop();
+		FrameJournalWriter.stop();
 		if (server != null)
 			server.shutdown();
 		System.out.println("Server shut down.");
@@ -148,35 +222,95 @@ public class Controller {
 		return server;
 	}
 
+	/**
+	 * Creates the response to a model request if no frame has been created
+	 * yet.
+	 * 
+	 * @return response
+	 */
+	private static Response noFrameResponse() {
+		return Response.status(Status.NOT_FOUND).entity("ERROR: No frame has been created yet!").build();
+	}
+
 	@GET
 	@Path("fullHierarchicalModel")
 	@Produces(MediaType.APPLICATION_JSON)
-	public static String getFullHierarchicalModel() throws JsonProcessingException {
-		return SceneController.getInstance().getFullHierarchicalModelJSON();
+	public static Response getFullHierarchicalModel(@Context Request request) {
+		Scene scene = OutputController.getCurrentFrame();
+		if (scene == null)
+			return noFrameResponse();
+		ResponseBuilder builder = FrameHeaders.evaluate(request, scene);
+		if (builder == null)
+			builder = FrameHeaders.tag(Response.ok(JsonCreator.getFullHierarchicalModelJSON(scene)), scene);
+		return builder.build();
 	}
 
 	@GET
 	@Path("fullListModel")
 	@Produces(MediaType.APPLICATION_JSON)
-	public static String getFullListModel() throws JsonProcessingException {
-		return SceneController.getInstance().getFullListModelJSON();
+	public static Response getFullListModel(@Context Request request) {
+		Scene scene = OutputController.getCurrentFrame();
+		if (scene == null)
+			return noFrameResponse();
+		ResponseBuilder builder = FrameHeaders.evaluate(request, scene);
+		if (builder == null)
+			builder = FrameHeaders.tag(Response.ok(JsonCreator.getFullListModelJSON(scene)), scene);
+		return builder.build();
 	}
 
 	@GET
 	@Path("customModel")
 	@Produces(MediaType.APPLICATION_JSON)
-	public static String getCustomModel(@DefaultValue("list") @QueryParam("type") String type,
-			@DefaultValue("absolutePosition_absoluteOrientation") @QueryParam("field") List<String> fields) throws JsonProcessingException {
-		String result = SceneController.getInstance().getCustomModelJSON(type, fields);
-		return result;
+	public static Response getCustomModel(@DefaultValue("list") @QueryParam("type") String type,
+			@DefaultValue("absolutePosition_absoluteOrientation") @QueryParam("field") List<String> fields, @Context Request request) {
+		Scene scene = OutputController.getCurrentFrame();
+		if (scene == null)
+			return noFrameResponse();
+		ResponseBuilder builder = FrameHeaders.evaluate(request, scene);
+		if (builder == null)
+			builder = FrameHeaders.tag(Response.ok(JsonCreator.getCustomModelJSON(scene, type, fields)), scene);
+		return builder.build();
+	}
+
+	@GET
+	@Path("nextFrame")
+	@Produces(MediaType.APPLICATION_JSON)
+	public static void getNextFrame(@DefaultValue("0") @QueryParam("since") long since, @DefaultValue("list") @QueryParam("type") String type,
+			@QueryParam("field") List<String> fields, @DefaultValue("30000") @QueryParam("timeout") long timeout,
+			@Suspended AsyncResponse response) {
+		FrameRequests.getInstance().await(response, since, type, fields, timeout);
+	}
+
+	@GET
+	@Path("modelStream")
+	public static Response getModelStream(@DefaultValue("sse") @QueryParam("format") String format,
+			@DefaultValue("list") @QueryParam("type") String type, @QueryParam("field") List<String> fields) {
+		ModelStreamFormat streamFormat;
+		try {
+			streamFormat = ModelStreamFormat.valueOf(format.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			return Response.status(Status.BAD_REQUEST).entity("ERROR: Unknown stream format!").build();
+		}
+		ModelStream stream = new ModelStream(streamFormat, type, fields);
+		if (OutputController.isEnabled())
+			OutputController.getInstance().addSceneListener(stream);
+		else
+			SceneController.getInstance().addSceneListener(stream);
+		return Response.ok(stream.getOutput(), streamFormat.getMediaType()).header("Cache-Control", "no-cache").build();
 	}
 
 	@GET
 	@Path("singleJoint")
 	@Produces(MediaType.APPLICATION_JSON)
-	public static String getSingleJoints(@DefaultValue("SPINE_BASE") @QueryParam("jointType") List<String> jointTypes,
-			@DefaultValue("absolutePosition_absoluteOrientation") @QueryParam("field") List<String> fields) throws JsonProcessingException {
-		return SceneController.getInstance().getSingleJointsJSON(jointTypes, fields);
+	public static Response getSingleJoints(@DefaultValue("SPINE_BASE") @QueryParam("jointType") List<String> jointTypes,
+			@DefaultValue("absolutePosition_absoluteOrientation") @QueryParam("field") List<String> fields, @Context Request request) {
+		Scene scene = OutputController.getCurrentFrame();
+		if (scene == null)
+			return noFrameResponse();
+		ResponseBuilder builder = FrameHeaders.evaluate(request, scene);
+		if (builder == null)
+			builder = FrameHeaders.tag(Response.ok(JsonCreator.getJointsJSON(scene, jointTypes, fields)), scene);
+		return builder.build();
 	}
 
 	@GET
@@ -193,6 +327,198 @@ public class Controller {
 		return SceneController.getInstance().getElapsedSceneJSON(index);
 	}
 
+	@GET
+	@Path("sceneAt")
+	@Produces(MediaType.APPLICATION_JSON)
+	public static Response getSceneAt(@QueryParam("timestamp") Long timestamp, @DefaultValue("list") @QueryParam("type") String type,
+			@DefaultValue("absolutePosition_absoluteOrientation") @QueryParam("field") List<String> fields) {
+		Scene scene = SceneController.getInstance().getSceneAt(timestamp != null ? timestamp : System.currentTimeMillis());
+		if (scene == null)
+			return noFrameResponse();
+		return FrameHeaders.tag(Response.ok(JsonCreator.getCustomModelJSON(scene, type, fields)), scene).build();
+	}
+
+	@GET
+	@Path("history")
+	@Produces(MediaType.APPLICATION_JSON)
+	public static Response getHistory(@QueryParam("from") Long from, @QueryParam("to") Long to, @QueryParam("last") Long last,
+			@QueryParam("fromSequence") Long fromSequence, @QueryParam("toSequence") Long toSequence,
+			@QueryParam("jointType") List<String> jointTypeNames, @QueryParam("field") List<String> fields,
+			@DefaultValue("0") @QueryParam("points") int points, @DefaultValue("decimate") @QueryParam("mode") String mode,
+			@QueryParam("resolution") Long resolution) {
+		Downsampling downsampling;
+		try {
+			downsampling = Downsampling.valueOf(mode.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			return Response.status(Status.BAD_REQUEST).entity("ERROR: Unknown downsampling mode!").build();
+		}
+
+		// all joints of the model if no joint is given
+		List<JointType> jointTypes = new ArrayList<JointType>();
+		try {
+			for (String jointType : jointTypeNames)
+				jointTypes.add(JointType.valueOf(jointType));
+		} catch (IllegalArgumentException e) {
+			return Response.status(Status.BAD_REQUEST).entity("ERROR: Invalid joint type!").build();
+		}
+		if (jointTypes.isEmpty())
+			jointTypes.addAll(Arrays.asList(JointType.values()));
+
+		// select the range by sequence number or time
+		List<Scene> frames;
+		SceneController sceneController = SceneController.getInstance();
+		if (fromSequence != null || toSequence != null) {
+			frames = sceneController.getSceneHistory(fromSequence != null ? fromSequence : 0,
+					toSequence != null ? toSequence : Long.MAX_VALUE, false);
+		} else {
+			long start = from != null ? from : 0;
+			if (last != null)
+				start = System.currentTimeMillis() - last;
+			long end = to != null ? to : Long.MAX_VALUE;
+
+			// use a history tier if the full rate history does not reach back
+			// far enough or a resolution is requested
+			TieredHistory tieredHistory = sceneController.getTieredHistory();
+			int tier = -1;
+			if (resolution != null && resolution > 0) {
+				tier = tieredHistory != null ? tieredHistory.getTier(resolution) : -1;
+				if (tier < 0)
+					return Response.status(Status.BAD_REQUEST).entity("ERROR: There is no history tier with the given resolution!")
+							.build();
+			} else if (resolution == null && tieredHistory != null && start < sceneController.getOldestHistoryTimestamp())
+				tier = tieredHistory.selectTier(start);
+			if (tier >= 0) {
+				List<HistoryBucket> buckets = HistoryBucket.merge(tieredHistory.getBuckets(tier, start, end, jointTypes), points);
+				return Response.ok(new BucketRange(buckets)).header(HISTORY_RESOLUTION_HEADER, tieredHistory.getResolution(tier))
+						.build();
+			}
+
+			frames = sceneController.getSceneHistory(start, end, true);
+		}
+
+		frames = downsampling.select(frames, jointTypes, points);
+		return Response.ok(new HistoryRange(frames, jointTypes, fields)).header(HISTORY_RESOLUTION_HEADER, 0).build();
+	}
+
+	@GET
+	@Path("export")
+	public static Response export(@DefaultValue("csv") @QueryParam("format") String format, @QueryParam("from") Long from,
+			@QueryParam("to") Long to, @QueryParam("jointType") List<String> jointTypeNames) {
+		ExportFormat exportFormat;
+		try {
+			exportFormat = ExportFormat.valueOf(format.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			return Response.status(Status.BAD_REQUEST).entity("ERROR: Unknown export format!").build();
+		}
+
+		// all joints of the model if no joint is given
+		List<JointType> jointTypes = new ArrayList<JointType>();
+		try {
+			for (String jointType : jointTypeNames)
+				jointTypes.add(JointType.valueOf(jointType));
+		} catch (IllegalArgumentException e) {
+			return Response.status(Status.BAD_REQUEST).entity("ERROR: Invalid joint type!").build();
+		}
+		if (jointTypes.isEmpty())
+			jointTypes.addAll(Arrays.asList(JointType.values()));
+
+		// export the played journal or the journal which is recorded
+		SceneController sceneController = SceneController.getInstance();
+		File journal = null;
+		if (sceneController.getSessionPlayer() != null)
+			journal = sceneController.getSessionPlayer().getDirectory();
+		else if (FrameJournalWriter.getInstance() != null)
+			journal = FrameJournalWriter.getInstance().getDirectory();
+		if (journal == null)
+			return Response.status(Status.NOT_FOUND).entity("ERROR: No frame journal is recorded!").build();
+
+		RecordingExport export = new RecordingExport(journal, sceneController.getCopyOfScene(), exportFormat, jointTypes,
+				from != null ? from : 0, to != null ? to : Long.MAX_VALUE);
+		return Response.ok(export, exportFormat.getMediaType())
+				.header("Content-Disposition", "attachment; filename=\"" + journal.getName() + "." + exportFormat.getExtension() + "\"")
+				.build();
+	}
+
+	@GET
+	@Path("webSocketClients")
+	@Produces(MediaType.APPLICATION_JSON)
+	public static String getWebSocketClients() {
+		return SceneController.getInstance().getWebSocketClientsJSON();
+	}
+
+	@GET
+	@Path("filterStages")
+	@Produces(MediaType.APPLICATION_JSON)
+	public static String getFilterStages() {
+		return SceneController.getInstance().getFilterStagesJSON();
+	}
+
+	@GET
+	@Path("playback")
+	@Produces(MediaType.APPLICATION_JSON)
+	public static Response getPlayback() {
+		SessionPlayer player = SceneController.getInstance().getSessionPlayer();
+		if (player == null)
+			return notInPlaybackMode();
+		return Response.ok(player.getStatusJSON()).build();
+	}
+
+	@POST
+	@Path("playback/play")
+	@Produces(MediaType.APPLICATION_JSON)
+	public static Response play() {
+		SessionPlayer player = SceneController.getInstance().getSessionPlayer();
+		if (player == null)
+			return notInPlaybackMode();
+		player.play();
+		return Response.ok(player.getStatusJSON()).build();
+	}
+
+	@POST
+	@Path("playback/pause")
+	@Produces(MediaType.APPLICATION_JSON)
+	public static Response pause() {
+		SessionPlayer player = SceneController.getInstance().getSessionPlayer();
+		if (player == null)
+			return notInPlaybackMode();
+		player.pause();
+		return Response.ok(player.getStatusJSON()).build();
+	}
+
+	@POST
+	@Path("playback/seek")
+	@Produces(MediaType.APPLICATION_JSON)
+	public static Response seek(@DefaultValue("0") @QueryParam("position") long position) throws IOException {
+		SessionPlayer player = SceneController.getInstance().getSessionPlayer();
+		if (player == null)
+			return notInPlaybackMode();
+		player.seek(position);
+		return Response.ok(player.getStatusJSON()).build();
+	}
+
+	@POST
+	@Path("playback/speed")
+	@Produces(MediaType.APPLICATION_JSON)
+	public static Response setSpeed(@DefaultValue("1") @QueryParam("value") double speed) {
+		SessionPlayer player = SceneController.getInstance().getSessionPlayer();
+		if (player == null)
+			return notInPlaybackMode();
+		if (speed <= 0)
+			return Response.status(Status.BAD_REQUEST).entity("ERROR: The speed should be greater than 0!").build();
+		player.setSpeed(speed);
+		return Response.ok(player.getStatusJSON()).build();
+	}
+
+	/**
+	 * Creates the response to a playback request if the server is not in
+	 * playback mode.
+	 * 
+	 * @return <code>409 Conflict</code> response
+	 */
+	private static Response notInPlaybackMode() {
+		return Response.status(Status.CONFLICT).entity("ERROR: The server is not in playback mode!").build();
+	}
+
 	@POST
 	@Path("callSensorMethod")
 	@Produces(MediaType.APPLICATION_JSON)
@@ -0,0 +1,139 @@
+package com.corpus.controller;
+
+import java.util.List;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.corpus.scene.Scene;
+import com.corpus.scene.SceneInterpolator;
+import com.corpus.web.websocket.WebSocketHandler;
+
+/**
+ * <p>
+ * Delivers the model at the output rate ({@link Controller#OUTPUT_FREQUENCY}),
+ * independent of the rate at which the {@link SceneController} fuses the data
+ * of the sensors. For every output frame the {@link Scene} at the current time
+ * minus {@link #OUTPUT_DELAY} is computed from the frame history by the
+ * {@link SceneInterpolator}: without a delay the joints are extrapolated from
+ * the newest frame with the velocity between the last two frames, with a delay
+ * of about one update interval they are interpolated between two fused frames.
+ * Frames which are not fused themselves are marked as predicted.
+ * </p>
+ * <p>
+ * The output frames are numbered by the output stage, thus every output frame
+ * has its own sequence number, even if it is computed from the same fused
+ * frames as the previous one. If the output stage is enabled, all resources
+ * serving the model (the WebSocket clients, the model streams, the long-poll
+ * requests and the model requests) deliver the output frames instead of the
+ * fused frames (see {@link #getCurrentFrame()}).
+ * </p>
+ * 
+ * @author agent
+ * 
+ */
+public class OutputController extends TimerTask {
+
+	// instance of this class
+	private static OutputController instance;
+
+	// time (milliseconds) the output lags behind the current time
+	public static long OUTPUT_DELAY = 0;
+
+	// listeners notified after every output frame
+	private final List<SceneListener> sceneListeners = new CopyOnWriteArrayList<SceneListener>();
+
+	// sequence number of the last output frame
+	private long sequenceNumber;
+
+	// last output frame
+	private volatile Scene currentScene;
+
+	/**
+	 * Private Constructor to realize singleton pattern.
+	 */
+	private OutputController() {
+	}
+
+	/**
+	 * Returns the instance of the class.
+	 * 
+	 * @return {@link OutputController} instance
+	 */
+	public static OutputController getInstance() {
+		if (instance == null)
+			instance = new OutputController();
+		return instance;
+	}
+
+	/**
+	 * Returns whether the output stage is enabled.
+	 * 
+	 * @return <code>true</code> if {@link Controller#OUTPUT_FREQUENCY} is
+	 *         greater than 0
+	 */
+	public static boolean isEnabled() {
+		return Controller.OUTPUT_FREQUENCY > 0;
+	}
+
+	/**
+	 * Returns the frame delivered to the clients: the last output frame if the
+	 * output stage is enabled, else the current fused frame. The resources
+	 * serving the model use this frame, thus their tags share one sequence
+	 * space.
+	 * 
+	 * @return {@link Scene} or <code>null</code> if no frame has been created
+	 *         yet
+	 */
+	public static Scene getCurrentFrame() {
+		return isEnabled() ? getInstance().getCurrentScene() : SceneController.getInstance().getCurrentScene();
+	}
+
+	@Override
+	public void run() {
+		SceneController sceneController = SceneController.getInstance();
+		Scene scene = sceneController.getSceneAt(System.currentTimeMillis() - OUTPUT_DELAY);
+		if (scene == null)
+			return;
+		scene.setSequenceNumber(++sequenceNumber);
+
+		// the listeners are notified after the current scene is set
+		currentScene = scene;
+
+		// send the output frame to the WebSocket-Clients
+		WebSocketHandler webSocketHandler = sceneController.webSocketHandler;
+		if (webSocketHandler != null)
+			webSocketHandler.send(scene);
+
+		// notify the listeners
+		for (SceneListener listener : sceneListeners)
+			listener.sceneUpdated(scene);
+	}
+
+	/**
+	 * Adds a {@link SceneListener} which is notified after every output frame.
+	 * 
+	 * @param listener
+	 */
+	public void addSceneListener(SceneListener listener) {
+		sceneListeners.add(listener);
+	}
+
+	/**
+	 * Removes a {@link SceneListener}.
+	 * 
+	 * @param listener
+	 */
+	public void removeSceneListener(SceneListener listener) {
+		sceneListeners.remove(listener);
+	}
+
+	/**
+	 * Returns the last output frame.
+	 * 
+	 * @return {@link Scene} or <code>null</code> if no output frame has been
+	 *         created yet
+	 */
+	public Scene getCurrentScene() {
+		return currentScene;
+	}
+}
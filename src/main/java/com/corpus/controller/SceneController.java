@@ -1,16 +1,23 @@
 package com.corpus.controller;
 
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.corpus.filter.Filter;
+import com.corpus.filter.FilterChain;
 import com.corpus.fuser.Fuser;
-import com.corpus.scene.JointType;
+import com.corpus.history.JointHistory;
+import com.corpus.history.TieredHistory;
+import com.corpus.recording.SensorCaptureWriter;
+import com.corpus.recording.SessionPlayer;
 import com.corpus.scene.Scene;
+import com.corpus.scene.SceneInterpolator;
 import com.corpus.sensor.Sensor;
 import com.corpus.sensor.SensorInitializationException;
 import com.corpus.web.json.JsonCreator;
@@ -28,6 +35,11 @@ import com.corpus.web.websocket.WebSocketHandler;
  * process the {@link Fuser} and {@link Filter} is called, which are defined in
  * the configuration file.
  * </p>
+ * <p>
+ * In playback mode the frames are read from a recorded journal by a
+ * {@link SessionPlayer} instead. The history, the WebSocket stream and the
+ * listeners are served the same way.
+ * </p>
  * 
  * @author Matthias Weise
  * 
@@ -40,6 +52,9 @@ public class SceneController extends TimerTask {
 	// current Scene
 	private Scene currentScene;
 
+	// copy of the last frame, not changed by the following updates
+	private Scene latestFrame;
+
 	// size of the frame history
 	public static int FRAME_HISTORY = 60;
 
@@ -49,8 +64,12 @@ public class SceneController extends TimerTask {
 
 	// Scene history
 	private List<Scene> sceneHistory;
+	private long sequenceNumber;
+	private TieredHistory tieredHistory;
+	private JointHistory jointHistory;
 	private Fuser fuser;
 	private Filter filter;
+	private SessionPlayer player;
 
 	// lock objects
 	private final Object currentSceneLock = new Object();
@@ -59,6 +78,9 @@ public class SceneController extends TimerTask {
 	// WebSocketHandler
 	public WebSocketHandler webSocketHandler;
 
+	// listeners notified after every update
+	private final List<SceneListener> sceneListeners = new CopyOnWriteArrayList<SceneListener>();
+
 	/**
 	 * Private Constructor to realize singleton pattern.
 	 */
@@ -97,12 +119,61 @@ public class SceneController extends TimerTask {
 				terminate();
 			}
 			this.currentScene = startScene;
+			this.latestFrame = null;
 		}
 		this.fuser = fuser;
 		this.filter = filter;
+		this.player = null;
+		createTieredHistory(startScene);
+		jointHistory = null;
+		if (filter != null && filter.usesJointHistory() && FRAME_HISTORY > 0)
+			jointHistory = new JointHistory(startScene.getJoints().keySet(), FRAME_HISTORY);
+		if (filter != null)
+			filter.setJointHistory(jointHistory);
 		startSensors();
 	}
 
+	/**
+	 * Resets the {@link SceneController} in playback mode. The frames are read
+	 * by the given {@link SessionPlayer}, no {@link Sensor}s are started.
+	 * 
+	 * @param startScene
+	 *            initial {@link Scene} containing the body model
+	 * @param player
+	 *            {@link SessionPlayer} providing the frames
+	 * @throws InterruptedException
+	 */
+	public void reset(Scene startScene, SessionPlayer player) throws InterruptedException {
+		synchronized (currentSceneLock) {
+			if (currentScene != null) {
+				terminate();
+			}
+			startScene.getSensors().clear();
+			this.currentScene = startScene;
+			this.latestFrame = null;
+		}
+		this.fuser = null;
+		this.filter = null;
+		this.player = player;
+		this.jointHistory = null;
+		createTieredHistory(startScene);
+		startSensors();
+	}
+
+	/**
+	 * Creates the {@link TieredHistory} for the body model of the given
+	 * {@link Scene} if history tiers are configured.
+	 * 
+	 * @param startScene
+	 */
+	private void createTieredHistory(Scene startScene) {
+		if (TieredHistory.RESOLUTIONS.length == 0) {
+			tieredHistory = null;
+			return;
+		}
+		tieredHistory = new TieredHistory(startScene.getJoints().keySet(), FRAME_HISTORY);
+	}
+
 	/**
 	 * Starts the {@link Sensor}s. If a {@link Sensor} throws a exception during
 	 * the initialization process, the {@link Sensor} will be ignored.
@@ -130,19 +201,53 @@ public class SceneController extends TimerTask {
 
 	@Override
 	public void run() {
-		// copy current scene
+		// in playback mode the model is only updated if a new frame is due
+		try {
+			if (player != null && !player.isFrameDue())
+				return;
+		} catch (IOException e) {
+			System.err.println("ERROR: Frame could not be read from the journal: " + e.getMessage());
+			return;
+		}
+
+		// replace the current scene by its copy while it is updated
 		Scene workingScene = currentScene;
 		synchronized (currentSceneLock) {
-			currentScene = workingScene.clone();
+			currentScene = latestFrame != null ? latestFrame : workingScene.clone();
 		}
 
-		// fuse data
-		fuser.fuseData(workingScene);
+		Calendar timestamp = Calendar.getInstance();
+		if (player != null) {
+			// read the recorded frame
+			try {
+				player.readFrame(workingScene);
+			} catch (IOException e) {
+				System.err.println("ERROR: Frame could not be read from the journal: " + e.getMessage());
+			}
+		} else {
+			// fuse data, the timestamp is set before, thus the fuser can
+			// determine the time since the last update
+			workingScene.setTimestamp(timestamp);
+			fuser.fuseData(workingScene);
+
+			// filter data, the fused frame is added to the joint history
+			// before, thus the filter reads its input series
+			if (jointHistory != null)
+				jointHistory.add(workingScene);
+			if (filter != null)
+				filter.filterData(sceneHistory, workingScene);
+		}
+		workingScene.setTimestamp(timestamp);
+		workingScene.setSequenceNumber(++sequenceNumber);
 
-		// filter data
-		if (filter != null)
-			filter.filterData(sceneHistory, workingScene);
-		workingScene.setTimestamp(Calendar.getInstance());
+		// mark the end of the frame in the sensor capture
+		SensorCaptureWriter captureWriter = SensorCaptureWriter.getInstance();
+		if (captureWriter != null)
+			captureWriter.writeFrame(sequenceNumber, workingScene.getTimestamp().getTimeInMillis());
+
+		// aggregate the new scene in the history tiers
+		if (tieredHistory != null)
+			tieredHistory.add(workingScene);
 
 		// add old scene to scene history
 		if (FRAME_HISTORY > 0) {
@@ -153,13 +258,41 @@ public class SceneController extends TimerTask {
 			}
 		}
 
-		// set current scene
-		currentScene = workingScene;
+		// set current scene, its copy is read by getSceneAt without holding
+		// the lock
+		Scene frame = workingScene.clone();
+		synchronized (currentSceneLock) {
+			latestFrame = frame;
+			currentScene = workingScene;
+		}
 
-		// send new model to the WebSocket-Clients
-		if (webSocketHandler != null) {
-			webSocketHandler.send(getFullListModelJSON());
+		// send new model to the WebSocket-Clients, unless the output stage
+		// delivers the model at its own rate
+		if (webSocketHandler != null && Controller.OUTPUT_FREQUENCY <= 0) {
+			webSocketHandler.send(workingScene);
 		}
+
+		// notify the listeners
+		for (SceneListener listener : sceneListeners)
+			listener.sceneUpdated(workingScene);
+	}
+
+	/**
+	 * Adds a {@link SceneListener} which is notified after every update.
+	 * 
+	 * @param listener
+	 */
+	public void addSceneListener(SceneListener listener) {
+		sceneListeners.add(listener);
+	}
+
+	/**
+	 * Removes a {@link SceneListener}.
+	 * 
+	 * @param listener
+	 */
+	public void removeSceneListener(SceneListener listener) {
+		sceneListeners.remove(listener);
 	}
 
 	/**
@@ -178,72 +311,71 @@ public class SceneController extends TimerTask {
 		for (Thread t : sensorThreads) {
 			t.join();
 		}
+		if (player != null)
+			player.close();
 	}
 
 	/**
-	 * Creates a copy of the current {@link Scene}.
+	 * Returns the {@link SessionPlayer} of the playback mode.
 	 * 
-	 * @return current {@link Scene}
+	 * @return {@link SessionPlayer} or <code>null</code> if the server is not
+	 *         in playback mode
 	 */
-	public Scene getCopyOfScene() {
-		return currentScene.clone();
+	public SessionPlayer getSessionPlayer() {
+		return player;
 	}
 
 	/**
-	 * Creates a hierarchical JSON representation of the full body model.
+	 * Returns the current {@link Scene}. The {@link Scene} is reused by the
+	 * update process and must not be changed.
 	 * 
-	 * @return JSON string
+	 * @return current {@link Scene}
 	 */
-	public String getFullHierarchicalModelJSON() {
-		return JsonCreator.getFullHierarchicalModelJSON(currentScene);
+	public Scene getCurrentScene() {
+		return currentScene;
 	}
 
 	/**
-	 * Creates a JSON representation of the full body model in form of a list.
+	 * Creates a copy of the current {@link Scene}.
 	 * 
-	 * @return JSON string
+	 * @return current {@link Scene}
 	 */
-	public String getFullListModelJSON() {
-		return JsonCreator.getFullListModelJSON(currentScene);
+	public Scene getCopyOfScene() {
+		return currentScene.clone();
 	}
 
 	/**
-	 * Creates a custom JSON representation of the body model in dependence of
-	 * the given <code>type</code> and <code>fields</code>.
+	 * Creates a JSON representation of the list of {@link Sensor}s.
 	 * 
-	 * @param type
-	 *            Determines the type (<code>hierarchical</code> or
-	 *            <code>list</code>).
-	 * @param fields
-	 *            Determines which fields of the {@link Joint}-class are
-	 *            serialized.
 	 * @return JSON string
 	 */
-	public String getCustomModelJSON(String type, List<String> fields) {
-		return JsonCreator.getCustomModelJSON(currentScene, type, fields);
+	public String getSensorsJSON() {
+		return JsonCreator.getSensorsJSON(currentScene);
 	}
 
 	/**
-	 * Creates a JSON representation of a the specified {@link Joint}s.
+	 * Creates a JSON representation of the statistics of the WebSocket
+	 * clients.
 	 * 
-	 * @param jointTypes
-	 *            {@link JointType}s of the {@link Joint}s
-	 * @param fields
-	 *            Determines which fields of the {@link Joint}-class are
-	 *            serialized.
 	 * @return JSON string
 	 */
-	public String getSingleJointsJSON(List<String> jointTypes, List<String> fields) {
-		return JsonCreator.getJointsJSON(currentScene, jointTypes, fields);
+	public String getWebSocketClientsJSON() {
+		if (webSocketHandler == null)
+			return "[]";
+		return webSocketHandler.getClientStatisticsJSON();
 	}
 
 	/**
-	 * Creates a JSON representation of the list of {@link Sensor}s.
+	 * Creates a JSON representation of the time the stages of the
+	 * {@link FilterChain} need.
 	 * 
-	 * @return JSON string
+	 * @return JSON string, an empty list if no chain of filters is used
 	 */
-	public String getSensorsJSON() {
-		return JsonCreator.getSensorsJSON(currentScene);
+	public String getFilterStagesJSON() {
+		Filter filter = this.filter;
+		if (!(filter instanceof FilterChain))
+			return "[]";
+		return ((FilterChain) filter).getStatisticsJSON();
 	}
 
 	/**
@@ -296,6 +428,121 @@ public class SceneController extends TimerTask {
 		return (String) result;
 	}
 
+	/**
+	 * Returns the {@link Scene}s of the scene history within the given range.
+	 * 
+	 * @param from
+	 *            first sequence number or timestamp (inclusive)
+	 * @param to
+	 *            last sequence number or timestamp (inclusive)
+	 * @param timestamps
+	 *            the range is given as timestamps in milliseconds instead of
+	 *            sequence numbers
+	 * @return {@link Scene}s in chronological order
+	 */
+	public List<Scene> getSceneHistory(long from, long to, boolean timestamps) {
+		synchronized (sceneHistoryLock) {
+			int start = findInHistory(from, timestamps);
+			int end = findInHistory(to == Long.MAX_VALUE ? to : to + 1, timestamps);
+			return new ArrayList<Scene>(sceneHistory.subList(start, Math.max(start, end)));
+		}
+	}
+
+	/**
+	 * Returns the timestamp of the oldest {@link Scene} of the scene history.
+	 * 
+	 * @return time in milliseconds or <code>Long.MAX_VALUE</code> if the
+	 *         history is empty
+	 */
+	public long getOldestHistoryTimestamp() {
+		synchronized (sceneHistoryLock) {
+			if (sceneHistory.isEmpty() || sceneHistory.get(0).getTimestamp() == null)
+				return Long.MAX_VALUE;
+			return sceneHistory.get(0).getTimestamp().getTimeInMillis();
+		}
+	}
+
+	/**
+	 * Returns the {@link TieredHistory} keeping the aggregated long term
+	 * history.
+	 * 
+	 * @return {@link TieredHistory} or <code>null</code> if no history tiers
+	 *         are configured
+	 */
+	public TieredHistory getTieredHistory() {
+		return tieredHistory;
+	}
+
+	/**
+	 * Computes the {@link Scene} at an arbitrary point in time from the scene
+	 * history and the current {@link Scene}. Between two frames the joints are
+	 * interpolated, after the current {@link Scene} they are extrapolated from
+	 * the last two frames (at most {@link SceneInterpolator#MAX_EXTRAPOLATION}
+	 * milliseconds). Before the oldest frame of the history a copy of the
+	 * oldest frame is returned.
+	 * 
+	 * @param timestamp
+	 *            time in milliseconds
+	 * @return new {@link Scene} with the given timestamp or <code>null</code>
+	 *         if no frame has been created yet
+	 */
+	public Scene getSceneAt(long timestamp) {
+		Scene older;
+		Scene newer;
+		// the current scene is changed by the next update, thus its copy is
+		// interpolated, which like the history is never changed
+		synchronized (currentSceneLock) {
+			Scene newest = latestFrame;
+			if (newest == null || newest.getTimestamp() == null)
+				return null;
+			synchronized (sceneHistoryLock) {
+				int index = findInHistory(timestamp + 1, true);
+				if (timestamp >= newest.getTimestamp().getTimeInMillis() || index == sceneHistory.size()) {
+					older = sceneHistory.isEmpty() ? newest : sceneHistory.get(sceneHistory.size() - 1);
+					newer = newest;
+				} else if (index == 0) {
+					older = sceneHistory.get(0);
+					newer = older;
+				} else {
+					older = sceneHistory.get(index - 1);
+					newer = sceneHistory.get(index);
+				}
+			}
+		}
+		if (older.getTimestamp() == null)
+			older = newer;
+		return SceneInterpolator.interpolate(older, newer, timestamp);
+	}
+
+	/**
+	 * Finds the first {@link Scene} of the scene history whose sequence number
+	 * or timestamp is greater than or equal to the given key. The history has
+	 * to be locked.
+	 * 
+	 * @param key
+	 * @param timestamps
+	 *            the key is a timestamp
+	 * @return index or the size of the history if there is no such
+	 *         {@link Scene}
+	 */
+	private int findInHistory(long key, boolean timestamps) {
+		if (key == Long.MAX_VALUE)
+			return sceneHistory.size();
+		int low = 0;
+		int high = sceneHistory.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			Scene scene = sceneHistory.get(middle);
+			long value = timestamps ? (scene.getTimestamp() != null ? scene.getTimestamp().getTimeInMillis() : 0) : scene
+					.getSequenceNumber();
+			if (value < key)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
 	/**
 	 * Creates a JSON representation of a {@link Scene} contained in the scene
 	 * history.
@@ -0,0 +1,24 @@
+package com.corpus.controller;
+
+import com.corpus.scene.Scene;
+
+/**
+ * Listener which is notified by the {@link SceneController} after every update
+ * of the model.
+ * 
+ * @author agent
+ * 
+ */
+public interface SceneListener {
+
+	/**
+	 * Called by the update thread after the {@link Scene} was fused and
+	 * filtered. The {@link Scene} is reused by the next update, thus the
+	 * listener has to process it immediately and must not keep a reference to
+	 * it. Time consuming work should be passed to another thread.
+	 * 
+	 * @param scene
+	 *            updated {@link Scene}
+	 */
+	public void sceneUpdated(Scene scene);
+}
@@ -1,6 +1,6 @@
 package com.corpus.filter;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -12,8 +12,9 @@ import com.corpus.controller.Controller;
 import com.corpus.helper.ParsingHelper;
 import com.corpus.scene.Joint;
 import com.corpus.scene.JointType;
+import com.corpus.scene.ParallelSubtreeExecutor;
+import com.corpus.scene.ParallelSubtreeExecutor.JointVisitor;
 import com.corpus.scene.Scene;
-import com.corpus.scene.SceneNode;
 
 /**
  * An Adaptive Double Exponential Filter. Smoothes the data with the help of the
@@ -43,15 +44,40 @@ public class AdaptiveDoubleExponentialFilter extends Filter {
 	private float gammaLow = 0.5f;
 	private float gammaHigh = 0.9f;
 
-	// alpha
-	private float alpha = 0.75f;
+	// alpha and gamma before the first adaption
+	private float initialAlpha = 0.75f;
+	private float initialGamma = 0.75f;
 
-	// gamma
-	private float gamma = 0.75f;
+	// states of the filter history of a joint
+	private static final byte EMPTY = 0;
+	private static final byte OUTPUT = 1;
+	private static final byte TREND = 2;
 
-	// history
-	private Map<JointType, FilterOutput> positionFilterHistory;
-	private Map<JointType, FilterOutput> orientationFilterHistory;
+	// history indexed by the ordinal of the joint type (3 values per position,
+	// 4 per orientation)
+	private final byte[] positionState = new byte[JointType.values().length];
+	private final double[] positionOutput = new double[JointType.values().length * 3];
+	private final double[] positionTrend = new double[JointType.values().length * 3];
+	private final double[] positionInput = new double[JointType.values().length * 3];
+	private final byte[] orientationState = new byte[JointType.values().length];
+	private final double[] orientationOutput = new double[JointType.values().length * 4];
+	private final double[] orientationTrend = new double[JointType.values().length * 4];
+	private final double[] orientationInput = new double[JointType.values().length * 4];
+
+	// adapted alpha and gamma of the position and the orientation of every
+	// joint, thus the joints are filtered independently of each other
+	private final float[] positionAlpha = new float[JointType.values().length];
+	private final float[] positionGamma = new float[JointType.values().length];
+	private final float[] orientationAlpha = new float[JointType.values().length];
+	private final float[] orientationGamma = new float[JointType.values().length];
+
+	// filters the joints of the scene
+	private final JointVisitor visitor = new JointVisitor() {
+		@Override
+		public void visit(Joint joint) {
+			applyFilter(joint);
+		}
+	};
 
 	/**
 	 * Constructor which parses the given arguments to determine alpha and gamma
@@ -61,89 +87,127 @@ public class AdaptiveDoubleExponentialFilter extends Filter {
 	 */
 	public AdaptiveDoubleExponentialFilter(Map<String, String> arguments) {
 		super(arguments);
-		positionFilterHistory = new HashMap<JointType, FilterOutput>();
-		orientationFilterHistory = new HashMap<JointType, FilterOutput>();
 		parseArguments();
+		Arrays.fill(positionAlpha, initialAlpha);
+		Arrays.fill(positionGamma, initialGamma);
+		Arrays.fill(orientationAlpha, initialAlpha);
+		Arrays.fill(orientationGamma, initialGamma);
 	}
 
 	@Override
 	public void filterData(List<Scene> sceneHistory, Scene currentScene) {
-		for (Joint joint : currentScene.getRootJoints()) {
-			applyFilter(joint);
-		}
-
+		ParallelSubtreeExecutor.visit(currentScene.getRootJoints(), visitor);
 	}
 
 	/**
-	 * Applies the filter to a single {@link Joint}.
+	 * Applies the filter to a single {@link Joint}. The history and the
+	 * parameters are updated in place. Only the state of the given joint is
+	 * read and written, thus independent subtrees can be filtered concurrently.
 	 * 
 	 * @param joint
 	 */
 	private void applyFilter(Joint joint) {
+		JointType jointType = joint.getJointType();
+		if (jointType == null || !isInScope(jointType))
+			return;
+		int j = jointType.ordinal();
 		if (joint.getPositionTracked()) {
 			Vector3D pos = joint.getAbsolutePosition();
-			if (positionFilterHistory.containsKey(joint.getJointType())) {
-				FilterOutput output = positionFilterHistory.get(joint.getJointType());
-				setParameterPosition((float) pos.distance(new Vector3D(output.Input)) * Controller.UPDATE_FREQUENCY);
-				if (output.Trend != null) {
-					double[] newOutput = new double[] { calculateFilter(pos.getX(), output.Output[0], output.Trend[0]),
-							calculateFilter(pos.getY(), output.Output[1], output.Trend[1]),
-							calculateFilter(pos.getZ(), output.Output[2], output.Trend[2]) };
-					output.Trend = new double[] { calculateTrend(newOutput[0], output.Output[0], output.Trend[0]),
-							calculateTrend(newOutput[1], output.Output[1], output.Trend[1]),
-							calculateTrend(newOutput[2], output.Output[2], output.Trend[2]) };
-					output.Output = newOutput;
-					joint.setAbsolutePosition(new Vector3D(newOutput[0], newOutput[1], newOutput[2]));
-				} else {
-					output.Trend = new double[] { calculateFirstTrend(pos.getX(), output.Output[0]),
-							calculateFirstTrend(pos.getY(), output.Output[1]), calculateFirstTrend(pos.getZ(), output.Output[2]) };
-				}
-				output.Input = pos.toArray();
+			int i = j * 3;
+			if (positionState[j] != EMPTY) {
+				double dx = pos.getX() - positionInput[i];
+				double dy = pos.getY() - positionInput[i + 1];
+				double dz = pos.getZ() - positionInput[i + 2];
+				setParameterPosition(j, (float) Math.sqrt(dx * dx + dy * dy + dz * dz) * Controller.UPDATE_FREQUENCY);
+			}
+			if (positionState[j] == TREND) {
+				double x = calculateStep(positionOutput, positionTrend, i, pos.getX(), positionAlpha[j], positionGamma[j]);
+				double y = calculateStep(positionOutput, positionTrend, i + 1, pos.getY(), positionAlpha[j], positionGamma[j]);
+				double z = calculateStep(positionOutput, positionTrend, i + 2, pos.getZ(), positionAlpha[j], positionGamma[j]);
+				joint.setAbsolutePosition(new Vector3D(x, y, z));
+			} else if (positionState[j] == OUTPUT) {
+				positionTrend[i] = calculateFirstTrend(pos.getX(), positionOutput[i]);
+				positionTrend[i + 1] = calculateFirstTrend(pos.getY(), positionOutput[i + 1]);
+				positionTrend[i + 2] = calculateFirstTrend(pos.getZ(), positionOutput[i + 2]);
+				positionState[j] = TREND;
 			} else {
-				positionFilterHistory.put(joint.getJointType(), new FilterOutput(pos.toArray(), pos.toArray(), 3));
+				positionOutput[i] = pos.getX();
+				positionOutput[i + 1] = pos.getY();
+				positionOutput[i + 2] = pos.getZ();
+				positionState[j] = OUTPUT;
 			}
+			positionInput[i] = pos.getX();
+			positionInput[i + 1] = pos.getY();
+			positionInput[i + 2] = pos.getZ();
 		} else {
-			positionFilterHistory.remove(joint.getJointType());
+			positionState[j] = EMPTY;
+			positionAlpha[j] = initialAlpha;
+			positionGamma[j] = initialGamma;
 		}
 
 		if (joint.getOrientationTracked()) {
 			Rotation ori = joint.getAbsoluteOrientation();
-			if (orientationFilterHistory.containsKey(joint.getJointType())) {
-				FilterOutput output = orientationFilterHistory.get(joint.getJointType());
-				setParameterOrientation((float) (Rotation.distance(new Rotation(output.Input[0], output.Input[1], output.Input[2],
-						output.Input[3], false), ori)
-						* (180d / Math.PI) * Controller.UPDATE_FREQUENCY));
-				if (output.Trend != null) {
-					double[] newOutput = new double[] { calculateFilter(ori.getQ0(), output.Output[0], output.Trend[0]),
-							calculateFilter(ori.getQ1(), output.Output[1], output.Trend[1]),
-							calculateFilter(ori.getQ2(), output.Output[2], output.Trend[2]),
-							calculateFilter(ori.getQ3(), output.Output[3], output.Trend[3]) };
-					output.Trend = new double[] { calculateTrend(newOutput[0], output.Output[0], output.Trend[0]),
-							calculateTrend(newOutput[1], output.Output[1], output.Trend[1]),
-							calculateTrend(newOutput[2], output.Output[2], output.Trend[2]),
-							calculateTrend(newOutput[3], output.Output[3], output.Trend[3]) };
-					output.Output = newOutput;
-					// output.AddToLastOutputs();
-					joint.setAbsoluteOrientation(new Rotation(newOutput[0], newOutput[1], newOutput[2], newOutput[3], true));
-				} else {
-					output.Trend = new double[] { calculateFirstTrend(ori.getQ0(), output.Output[0]),
-							calculateFirstTrend(ori.getQ1(), output.Output[1]), calculateFirstTrend(ori.getQ2(), output.Output[2]),
-							calculateFirstTrend(ori.getQ3(), output.Output[3]) };
-				}
-				output.Input = new double[] { ori.getQ0(), ori.getQ1(), ori.getQ2(), ori.getQ3() };
+			int i = j * 4;
+			if (orientationState[j] != EMPTY) {
+				// angle between the last and the current input, equals
+				// Rotation.distance for unit quaternions
+				double dot = Math.abs(ori.getQ0() * orientationInput[i] + ori.getQ1() * orientationInput[i + 1] + ori.getQ2()
+						* orientationInput[i + 2] + ori.getQ3() * orientationInput[i + 3]);
+				setParameterOrientation(j, (float) (2 * Math.acos(Math.min(dot, 1)) * (180d / Math.PI) * Controller.UPDATE_FREQUENCY));
+			}
+			if (orientationState[j] == TREND) {
+				double q0 = calculateStep(orientationOutput, orientationTrend, i, ori.getQ0(), orientationAlpha[j],
+						orientationGamma[j]);
+				double q1 = calculateStep(orientationOutput, orientationTrend, i + 1, ori.getQ1(), orientationAlpha[j],
+						orientationGamma[j]);
+				double q2 = calculateStep(orientationOutput, orientationTrend, i + 2, ori.getQ2(), orientationAlpha[j],
+						orientationGamma[j]);
+				double q3 = calculateStep(orientationOutput, orientationTrend, i + 3, ori.getQ3(), orientationAlpha[j],
+						orientationGamma[j]);
+				joint.setAbsoluteOrientation(new Rotation(q0, q1, q2, q3, true));
+			} else if (orientationState[j] == OUTPUT) {
+				orientationTrend[i] = calculateFirstTrend(ori.getQ0(), orientationOutput[i]);
+				orientationTrend[i + 1] = calculateFirstTrend(ori.getQ1(), orientationOutput[i + 1]);
+				orientationTrend[i + 2] = calculateFirstTrend(ori.getQ2(), orientationOutput[i + 2]);
+				orientationTrend[i + 3] = calculateFirstTrend(ori.getQ3(), orientationOutput[i + 3]);
+				orientationState[j] = TREND;
 			} else {
-				orientationFilterHistory.put(joint.getJointType(), new FilterOutput(new double[] { ori.getQ0(), ori.getQ1(), ori.getQ2(),
-						ori.getQ3() }, new double[] { ori.getQ0(), ori.getQ1(), ori.getQ2(), ori.getQ3() }, 4));
+				orientationOutput[i] = ori.getQ0();
+				orientationOutput[i + 1] = ori.getQ1();
+				orientationOutput[i + 2] = ori.getQ2();
+				orientationOutput[i + 3] = ori.getQ3();
+				orientationState[j] = OUTPUT;
 			}
+			orientationInput[i] = ori.getQ0();
+			orientationInput[i + 1] = ori.getQ1();
+			orientationInput[i + 2] = ori.getQ2();
+			orientationInput[i + 3] = ori.getQ3();
 		} else {
-			orientationFilterHistory.remove(joint.getJointType());
-		}
-
-		for (SceneNode node : joint.getChildren()) {
-			if (node instanceof Joint)
-				applyFilter((Joint) node);
+			orientationState[j] = EMPTY;
+			orientationAlpha[j] = initialAlpha;
+			orientationGamma[j] = initialGamma;
 		}
+	}
 
+	/**
+	 * Filters a single value and updates its output and trend in place.
+	 * 
+	 * @param output
+	 *            filter outputs of the last iteration
+	 * @param trend
+	 *            trends of the last iteration
+	 * @param i
+	 *            index of the value
+	 * @param currentFilterInput
+	 * @param alpha
+	 * @param gamma
+	 * @return Filter output
+	 */
+	private double calculateStep(double[] output, double[] trend, int i, double currentFilterInput, float alpha, float gamma) {
+		double newOutput = calculateFilter(currentFilterInput, output[i], trend[i], alpha);
+		trend[i] = calculateTrend(newOutput, output[i], trend[i], gamma);
+		output[i] = newOutput;
+		return newOutput;
 	}
 
 	/**
@@ -152,9 +216,10 @@ public class AdaptiveDoubleExponentialFilter extends Filter {
 	 * @param currentFilterInput
 	 * @param lastFilterOutput
 	 * @param lastTrend
+	 * @param alpha
 	 * @return Filter output
 	 */
-	private double calculateFilter(double currentFilterInput, double lastFilterOutput, double lastTrend) {
+	private double calculateFilter(double currentFilterInput, double lastFilterOutput, double lastTrend, float alpha) {
 		return alpha * currentFilterInput + (1 - alpha) * (lastFilterOutput + lastTrend);
 	}
 
@@ -164,9 +229,10 @@ public class AdaptiveDoubleExponentialFilter extends Filter {
 	 * @param currentFilterOutput
 	 * @param lastFilterOutput
 	 * @param lastTrend
+	 * @param gamma
 	 * @return Trend
 	 */
-	private double calculateTrend(double currentFilterOutput, double lastFilterOutput, double lastTrend) {
+	private double calculateTrend(double currentFilterOutput, double lastFilterOutput, double lastTrend, float gamma) {
 		return gamma * (currentFilterOutput - lastFilterOutput) + (1 - gamma) * lastTrend;
 	}
 
@@ -182,57 +248,48 @@ public class AdaptiveDoubleExponentialFilter extends Filter {
 	}
 
 	/**
-	 * Adopts alpha and gamma in dependence of the velocity of the position.
+	 * Adopts alpha and gamma of the position of a joint in dependence of the
+	 * velocity of the position.
 	 * 
+	 * @param j
+	 *            ordinal of the joint type
 	 * @param velocity
 	 */
-	private void setParameterPosition(float velocity) {
+	private void setParameterPosition(int j, float velocity) {
 		if (velocity < velocityLowPosition) {
-			alpha = alphaLow;
-			gamma = gammaLow;
+			positionAlpha[j] = alphaLow;
+			positionGamma[j] = gammaLow;
 		} else if (velocity >= velocityLowPosition && velocity <= velocityHighPosition) {
-			alpha = alphaHigh + ((velocity - velocityHighPosition) / (velocityLowPosition - velocityHighPosition)) * (alphaLow - alphaHigh);
-			gamma = gammaHigh + ((velocity - velocityHighPosition) / (velocityLowPosition - velocityHighPosition)) * (gammaLow - gammaHigh);
+			positionAlpha[j] = alphaHigh + ((velocity - velocityHighPosition) / (velocityLowPosition - velocityHighPosition))
+					* (alphaLow - alphaHigh);
+			positionGamma[j] = gammaHigh + ((velocity - velocityHighPosition) / (velocityLowPosition - velocityHighPosition))
+					* (gammaLow - gammaHigh);
 		} else {
-			alpha = alphaHigh;
-			gamma = gammaHigh;
+			positionAlpha[j] = alphaHigh;
+			positionGamma[j] = gammaHigh;
 		}
 	}
 
 	/**
-	 * Adopts alpha and gamma in dependence of the velocity of the orientation.
+	 * Adopts alpha and gamma of the orientation of a joint in dependence of
+	 * the velocity of the orientation.
 	 * 
+	 * @param j
+	 *            ordinal of the joint type
 	 * @param velocity
 	 */
-	private void setParameterOrientation(float velocity) {
+	private void setParameterOrientation(int j, float velocity) {
 		if (velocity < velocityLowOrientation) {
-			alpha = alphaLow;
-			gamma = gammaLow;
+			orientationAlpha[j] = alphaLow;
+			orientationGamma[j] = gammaLow;
 		} else if (velocity >= velocityLowOrientation && velocity <= velocityHighOrientation) {
-			alpha = alphaHigh + ((velocity - velocityHighOrientation) / (velocityLowPosition - velocityHighOrientation))
+			orientationAlpha[j] = alphaHigh + ((velocity - velocityHighOrientation) / (velocityLowOrientation - velocityHighOrientation))
 					* (alphaLow - alphaHigh);
-			gamma = gammaHigh + ((velocity - velocityHighOrientation) / (velocityLowPosition - velocityHighOrientation))
+			orientationGamma[j] = gammaHigh + ((velocity - velocityHighOrientation) / (velocityLowOrientation - velocityHighOrientation))
 					* (gammaLow - gammaHigh);
 		} else {
-			alpha = alphaHigh;
-			gamma = gammaHigh;
-		}
-	}
-
-	/**
-	 * Represents the Output of the Filter of the last iteration.
-	 * 
-	 * @author Matthias Weise
-	 * 
-	 */
-	class FilterOutput {
-		public double[] Trend;
-		public double[] Output;
-		public double[] Input;
-
-		public FilterOutput(double[] output, double[] input, int historySize) {
-			this.Output = output;
-			this.Input = input;
+			orientationAlpha[j] = alphaHigh;
+			orientationGamma[j] = gammaHigh;
 		}
 	}
 
@@ -244,9 +301,9 @@ public class AdaptiveDoubleExponentialFilter extends Filter {
 			Float value = ParsingHelper.parseFloat(entry.getKey(), entry.getValue());
 			if (value != null) {
 				if (entry.getKey().equals("initialAlpha"))
-					alpha = value;
+					initialAlpha = value;
 				else if (entry.getKey().equals("initialGamma"))
-					gamma = value;
+					initialGamma = value;
 				else if (entry.getKey().equals("velocityLowPosition"))
 					velocityLowPosition = value;
 				else if (entry.getKey().equals("velocityHighPosition"))
@@ -1,6 +1,5 @@
 package com.corpus.filter;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -11,8 +10,9 @@ import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
 import com.corpus.helper.ParsingHelper;
 import com.corpus.scene.Joint;
 import com.corpus.scene.JointType;
+import com.corpus.scene.ParallelSubtreeExecutor;
+import com.corpus.scene.ParallelSubtreeExecutor.JointVisitor;
 import com.corpus.scene.Scene;
-import com.corpus.scene.SceneNode;
 
 /**
  * An Double Exponential Filter. Smoothes the data with the help of the old data
@@ -31,9 +31,27 @@ public class DoubleExponentialFilter extends Filter {
 	// gamma
 	private float gamma = 0.75f;
 
-	// history
-	private Map<JointType, FilterOutput> positionFilterHistory;
-	private Map<JointType, FilterOutput> orientationFilterHistory;
+	// states of the filter history of a joint
+	private static final byte EMPTY = 0;
+	private static final byte OUTPUT = 1;
+	private static final byte TREND = 2;
+
+	// history indexed by the ordinal of the joint type (3 values per position,
+	// 4 per orientation)
+	private final byte[] positionState = new byte[JointType.values().length];
+	private final double[] positionOutput = new double[JointType.values().length * 3];
+	private final double[] positionTrend = new double[JointType.values().length * 3];
+	private final byte[] orientationState = new byte[JointType.values().length];
+	private final double[] orientationOutput = new double[JointType.values().length * 4];
+	private final double[] orientationTrend = new double[JointType.values().length * 4];
+
+	// filters the joints of the scene
+	private final JointVisitor visitor = new JointVisitor() {
+		@Override
+		public void visit(Joint joint) {
+			applyFilter(joint);
+		}
+	};
 
 	/**
 	 * Constructor which parses the given arguments to determine alpha and
@@ -43,81 +61,91 @@ public class DoubleExponentialFilter extends Filter {
 	 */
 	public DoubleExponentialFilter(Map<String, String> arguments) {
 		super(arguments);
-		positionFilterHistory = new HashMap<JointType, FilterOutput>();
-		orientationFilterHistory = new HashMap<JointType, FilterOutput>();
 		parseArguments();
 	}
 
 	@Override
 	public void filterData(List<Scene> sceneHistory, Scene currentScene) {
-		for (Joint joint : currentScene.getRootJoints()) {
-			applyFilter(joint);
-		}
-
+		ParallelSubtreeExecutor.visit(currentScene.getRootJoints(), visitor);
 	}
 
 	/**
-	 * Applies the filter to a single {@link Joint}.
+	 * Applies the filter to a single {@link Joint}. The history is updated in
+	 * place.
 	 * 
 	 * @param joint
 	 */
 	private void applyFilter(Joint joint) {
+		JointType jointType = joint.getJointType();
+		if (jointType == null || !isInScope(jointType))
+			return;
+		int j = jointType.ordinal();
 		if (joint.getPositionTracked()) {
 			Vector3D pos = joint.getAbsolutePosition();
-			if (positionFilterHistory.containsKey(joint.getJointType())) {
-				FilterOutput output = positionFilterHistory.get(joint.getJointType());
-				if (output.Trend != null) {
-					double[] newOutput = new double[] { calculateFilter(pos.getX(), output.Output[0], output.Trend[0]),
-							calculateFilter(pos.getY(), output.Output[1], output.Trend[1]),
-							calculateFilter(pos.getZ(), output.Output[2], output.Trend[2]) };
-					output.Trend = new double[] { calculateTrend(newOutput[0], output.Output[0], output.Trend[0]),
-							calculateTrend(newOutput[1], output.Output[1], output.Trend[1]),
-							calculateTrend(newOutput[2], output.Output[2], output.Trend[2]) };
-					output.Output = newOutput;
-					joint.setAbsolutePosition(new Vector3D(newOutput[0], newOutput[1], newOutput[2]));
-				} else {
-					output.Trend = new double[] { calculateFirstTrend(pos.getX(), output.Output[0]),
-							calculateFirstTrend(pos.getY(), output.Output[1]), calculateFirstTrend(pos.getZ(), output.Output[2]) };
-				}
+			int i = j * 3;
+			if (positionState[j] == TREND) {
+				double x = calculateStep(positionOutput, positionTrend, i, pos.getX());
+				double y = calculateStep(positionOutput, positionTrend, i + 1, pos.getY());
+				double z = calculateStep(positionOutput, positionTrend, i + 2, pos.getZ());
+				joint.setAbsolutePosition(new Vector3D(x, y, z));
+			} else if (positionState[j] == OUTPUT) {
+				positionTrend[i] = calculateFirstTrend(pos.getX(), positionOutput[i]);
+				positionTrend[i + 1] = calculateFirstTrend(pos.getY(), positionOutput[i + 1]);
+				positionTrend[i + 2] = calculateFirstTrend(pos.getZ(), positionOutput[i + 2]);
+				positionState[j] = TREND;
 			} else {
-				positionFilterHistory.put(joint.getJointType(), new FilterOutput(new double[] { pos.getX(), pos.getY(), pos.getZ() }));
+				positionOutput[i] = pos.getX();
+				positionOutput[i + 1] = pos.getY();
+				positionOutput[i + 2] = pos.getZ();
+				positionState[j] = OUTPUT;
 			}
 		} else {
-			positionFilterHistory.remove(joint.getJointType());
+			positionState[j] = EMPTY;
 		}
 		if (joint.getOrientationTracked()) {
 			Rotation ori = joint.getAbsoluteOrientation();
-			if (orientationFilterHistory.containsKey(joint.getJointType())) {
-				FilterOutput output = orientationFilterHistory.get(joint.getJointType());
-				if (output.Trend != null) {
-					double[] newOutput = new double[] { calculateFilter(ori.getQ0(), output.Output[0], output.Trend[0]),
-							calculateFilter(ori.getQ1(), output.Output[1], output.Trend[1]),
-							calculateFilter(ori.getQ2(), output.Output[2], output.Trend[2]),
-							calculateFilter(ori.getQ3(), output.Output[3], output.Trend[3]) };
-					output.Trend = new double[] { calculateTrend(newOutput[0], output.Output[0], output.Trend[0]),
-							calculateTrend(newOutput[1], output.Output[1], output.Trend[1]),
-							calculateTrend(newOutput[2], output.Output[2], output.Trend[2]),
-							calculateTrend(newOutput[3], output.Output[3], output.Trend[3]) };
-					output.Output = newOutput;
-					joint.setAbsoluteOrientation(new Rotation(newOutput[0], newOutput[1], newOutput[2], newOutput[3], true));
-				} else {
-					output.Trend = new double[] { calculateFirstTrend(ori.getQ0(), output.Output[0]),
-							calculateFirstTrend(ori.getQ1(), output.Output[1]), calculateFirstTrend(ori.getQ2(), output.Output[2]),
-							calculateFirstTrend(ori.getQ3(), output.Output[3]) };
-				}
+			int i = j * 4;
+			if (orientationState[j] == TREND) {
+				double q0 = calculateStep(orientationOutput, orientationTrend, i, ori.getQ0());
+				double q1 = calculateStep(orientationOutput, orientationTrend, i + 1, ori.getQ1());
+				double q2 = calculateStep(orientationOutput, orientationTrend, i + 2, ori.getQ2());
+				double q3 = calculateStep(orientationOutput, orientationTrend, i + 3, ori.getQ3());
+				joint.setAbsoluteOrientation(new Rotation(q0, q1, q2, q3, true));
+			} else if (orientationState[j] == OUTPUT) {
+				orientationTrend[i] = calculateFirstTrend(ori.getQ0(), orientationOutput[i]);
+				orientationTrend[i + 1] = calculateFirstTrend(ori.getQ1(), orientationOutput[i + 1]);
+				orientationTrend[i + 2] = calculateFirstTrend(ori.getQ2(), orientationOutput[i + 2]);
+				orientationTrend[i + 3] = calculateFirstTrend(ori.getQ3(), orientationOutput[i + 3]);
+				orientationState[j] = TREND;
 			} else {
-				orientationFilterHistory.put(joint.getJointType(), new FilterOutput(new double[] { ori.getQ0(), ori.getQ1(), ori.getQ2(),
-						ori.getQ3() }));
+				orientationOutput[i] = ori.getQ0();
+				orientationOutput[i + 1] = ori.getQ1();
+				orientationOutput[i + 2] = ori.getQ2();
+				orientationOutput[i + 3] = ori.getQ3();
+				orientationState[j] = OUTPUT;
 			}
 		} else {
-			orientationFilterHistory.remove(joint.getJointType());
-		}
-
-		for (SceneNode node : joint.getChildren()) {
-			if (node instanceof Joint)
-				applyFilter((Joint) node);
+			orientationState[j] = EMPTY;
 		}
+	}
 
+	/**
+	 * Filters a single value and updates its output and trend in place.
+	 * 
+	 * @param output
+	 *            filter outputs of the last iteration
+	 * @param trend
+	 *            trends of the last iteration
+	 * @param i
+	 *            index of the value
+	 * @param currentFilterInput
+	 * @return Filter output
+	 */
+	private double calculateStep(double[] output, double[] trend, int i, double currentFilterInput) {
+		double newOutput = calculateFilter(currentFilterInput, output[i], trend[i]);
+		trend[i] = calculateTrend(newOutput, output[i], trend[i]);
+		output[i] = newOutput;
+		return newOutput;
 	}
 
 	/**
@@ -155,21 +183,6 @@ public class DoubleExponentialFilter extends Filter {
 		return currentFilterOutput - lastFilterOutput;
 	}
 
-	/**
-	 * Represents the Output of the Filter of the last iteration.
-	 * 
-	 * @author Matthias Weise
-	 * 
-	 */
-	class FilterOutput {
-		public double[] Trend;
-		public double[] Output;
-
-		public FilterOutput(double[] output) {
-			this.Output = output;
-		}
-	}
-
 	/**
 	 * Parses the arguments.
 	 */
@@ -3,6 +3,8 @@ package com.corpus.filter;
 import java.util.List;
 import java.util.Map;
 
+import com.corpus.history.JointHistory;
+import com.corpus.scene.JointType;
 import com.corpus.scene.Scene;
 
 /**
@@ -15,6 +17,13 @@ public abstract class Filter {
 
 	protected Map<String, String> arguments;
 
+	// primitive view of the scene history, null if no history is kept
+	protected JointHistory jointHistory;
+
+	// joints the filter is applied to indexed by the ordinal of the joint
+	// type, null to filter all joints
+	private boolean[] scope;
+
 	/**
 	 * C'tor of the Filter. It is possible to define arguments for the filter in
 	 * the configuration file. The C'tor is called with these arguments as a
@@ -26,6 +35,75 @@ public abstract class Filter {
 		this.arguments = arguments;
 	}
 
+	/**
+	 * Returns the arguments the filter was created with.
+	 * 
+	 * @return arguments
+	 */
+	public Map<String, String> getArguments() {
+		return arguments;
+	}
+
+	/**
+	 * Determines whether the filter reads the {@link JointHistory}. The
+	 * process filtering the scenes only keeps a {@link JointHistory} if the
+	 * filter uses it.
+	 * 
+	 * @return <code>true</code> if the filter needs a {@link JointHistory}
+	 */
+	public boolean usesJointHistory() {
+		return false;
+	}
+
+	/**
+	 * Returns the {@link JointHistory} containing the last fused frames before
+	 * they were filtered, the newest one is the frame given to
+	 * {@link #filterData(List, Scene)}.
+	 * 
+	 * @return {@link JointHistory} or <code>null</code> if no history is kept
+	 */
+	public JointHistory getJointHistory() {
+		return jointHistory;
+	}
+
+	/**
+	 * Sets the {@link JointHistory}. Called by the process filtering the
+	 * scenes before the first scene is filtered, if
+	 * {@link #usesJointHistory()} returns <code>true</code>.
+	 * 
+	 * @param jointHistory
+	 *            {@link JointHistory} or <code>null</code>
+	 */
+	public void setJointHistory(JointHistory jointHistory) {
+		this.jointHistory = jointHistory;
+	}
+
+	/**
+	 * Limits the filter to a scope of joints. The joints outside of the scope
+	 * are neither filtered nor is their state updated, thus an implementation
+	 * has to skip every joint for which {@link #isInScope(JointType)} returns
+	 * <code>false</code>. Called by the {@link FilterChain} before every update
+	 * of a stage.
+	 * 
+	 * @param scope
+	 *            joints of the scope indexed by the ordinal of the joint type or
+	 *            <code>null</code> to filter all joints
+	 */
+	public void setScope(boolean[] scope) {
+		this.scope = scope;
+	}
+
+	/**
+	 * Determines whether a joint belongs to the scope of the filter (see
+	 * {@link #setScope(boolean[])}).
+	 * 
+	 * @param jointType
+	 * @return <code>true</code> if the joint is filtered
+	 */
+	protected boolean isInScope(JointType jointType) {
+		return scope == null || scope[jointType.ordinal()];
+	}
+
 	/**
 	 * Filters the data. This function should directly set the position and/or
 	 * orientation in the current scene.
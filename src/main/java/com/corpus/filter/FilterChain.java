@@ -0,0 +1,257 @@
+package com.corpus.filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+import com.corpus.history.JointHistory;
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.scene.Scene;
+import com.corpus.scene.SceneNode;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * <p>
+ * Applies several {@link Filter}s one after another, e.g. an outlier
+ * rejection, a smoothing and a prediction. Every stage sees the output of the
+ * previous stage.
+ * </p>
+ * <p>
+ * A stage can be limited to a scope of joints, given by single joints and by
+ * subtrees of the body model (a joint and all its descendants, e.g. the left
+ * arm below <code>SHOULDER_LEFT</code>). The scope is passed to the filter of
+ * the stage (see {@link Filter#setScope(boolean[])}), which neither filters
+ * the joints outside of it nor updates their state. Thus a joint keeps its
+ * state in a filter which is used by several stages.
+ * </p>
+ * <p>
+ * The time every stage needs is measured every update, for a limited stage
+ * only the joints of its scope are filtered in this time.
+ * </p>
+ * 
+ * @author agent
+ * 
+ */
+public class FilterChain extends Filter {
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private final List<Stage> stages;
+
+	/**
+	 * Creates the chain.
+	 * 
+	 * @param stages
+	 *            {@link Stage}s in the order they are applied
+	 */
+	public FilterChain(List<Stage> stages) {
+		super(new HashMap<String, String>());
+		this.stages = stages;
+	}
+
+	@Override
+	public void filterData(List<Scene> sceneHistory, Scene currentScene) {
+		for (int i = 0; i < stages.size(); i++)
+			stages.get(i).filterData(sceneHistory, currentScene);
+	}
+
+	@Override
+	public boolean usesJointHistory() {
+		for (Stage stage : stages) {
+			if (stage.getFilter().usesJointHistory())
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public void setJointHistory(JointHistory jointHistory) {
+		super.setJointHistory(jointHistory);
+		for (Stage stage : stages)
+			stage.getFilter().setJointHistory(jointHistory);
+	}
+
+	/**
+	 * Returns the stages of the chain.
+	 * 
+	 * @return {@link Stage}s in the order they are applied
+	 */
+	public List<Stage> getStages() {
+		return Collections.unmodifiableList(stages);
+	}
+
+	/**
+	 * Creates a JSON representation of the time the stages need, containing
+	 * the time of the last update, the average and the maximum time
+	 * (microseconds).
+	 * 
+	 * @return JSON string
+	 */
+	public String getStatisticsJSON() {
+		List<Map<String, Object>> statistics = new ArrayList<Map<String, Object>>();
+		for (Stage stage : stages)
+			statistics.add(stage.getStatistics());
+		try {
+			return mapper.writeValueAsString(statistics);
+		} catch (JsonProcessingException e) {
+			return "ERROR: Statistics could not be serialized!";
+		}
+	}
+
+	/**
+	 * A single {@link Filter} of the chain with its scope and the measured
+	 * times.
+	 */
+	public static class Stage {
+
+		private final Filter filter;
+		private final Set<JointType> joints;
+		private final Set<JointType> subtrees;
+
+		// joints of the scope indexed by the ordinal of the joint type,
+		// determined with the first scene
+		private boolean[] inScope;
+
+		// measured times (nanoseconds)
+		private long lastTime;
+		private long totalTime;
+		private long maxTime;
+		private long updates;
+
+		/**
+		 * Creates a stage.
+		 * 
+		 * @param filter
+		 *            applied {@link Filter}
+		 * @param joints
+		 *            single joints of the scope
+		 * @param subtrees
+		 *            joints whose subtrees belong to the scope
+		 */
+		public Stage(Filter filter, Set<JointType> joints, Set<JointType> subtrees) {
+			this.filter = filter;
+			this.joints = joints;
+			this.subtrees = subtrees;
+		}
+
+		/**
+		 * Creates a stage applied to all joints.
+		 * 
+		 * @param filter
+		 *            applied {@link Filter}
+		 */
+		public Stage(Filter filter) {
+			this(filter, null, null);
+		}
+
+		/**
+		 * Returns the filter of the stage.
+		 * 
+		 * @return {@link Filter}
+		 */
+		public Filter getFilter() {
+			return filter;
+		}
+
+		/**
+		 * Determines whether the stage is limited to a scope.
+		 * 
+		 * @return <code>true</code> if only the joints of the scope are filtered
+		 */
+		public boolean isScoped() {
+			return joints != null || subtrees != null;
+		}
+
+		/**
+		 * Applies the filter of the stage and measures its time.
+		 * 
+		 * @param sceneHistory
+		 * @param currentScene
+		 */
+		private void filterData(List<Scene> sceneHistory, Scene currentScene) {
+			long start = System.nanoTime();
+			if (isScoped() && inScope == null)
+				inScope = determineScope(currentScene);
+
+			// the scope is set every update, because the filter may be used
+			// by another stage
+			filter.setScope(inScope);
+			filter.filterData(sceneHistory, currentScene);
+			record(System.nanoTime() - start);
+		}
+
+		/**
+		 * Determines the joints of the scope in the body model of the given
+		 * {@link Scene}.
+		 * 
+		 * @param scene
+		 * @return joints of the scope indexed by the ordinal of the joint type
+		 */
+		private boolean[] determineScope(Scene scene) {
+			boolean[] scope = new boolean[JointType.values().length];
+			for (Joint joint : scene.getJoints().values()) {
+				JointType jointType = joint.getJointType();
+				if (joints != null && joints.contains(jointType))
+					scope[jointType.ordinal()] = true;
+				if (subtrees != null && subtrees.contains(jointType))
+					addSubtree(joint, scope);
+			}
+			return scope;
+		}
+
+		/**
+		 * Adds a {@link Joint} and its descendants to the scope.
+		 * 
+		 * @param joint
+		 * @param scope
+		 */
+		private static void addSubtree(Joint joint, boolean[] scope) {
+			scope[joint.getJointType().ordinal()] = true;
+			for (SceneNode child : joint.getChildren()) {
+				if (child instanceof Joint)
+					addSubtree((Joint) child, scope);
+			}
+		}
+
+
+		/**
+		 * Records the time of an update.
+		 * 
+		 * @param time
+		 *            nanoseconds
+		 */
+		private synchronized void record(long time) {
+			lastTime = time;
+			totalTime += time;
+			maxTime = Math.max(maxTime, time);
+			updates++;
+		}
+
+		/**
+		 * Returns the measured times of the stage.
+		 * 
+		 * @return map containing the filter, the scope and the times
+		 *         (microseconds)
+		 */
+		public synchronized Map<String, Object> getStatistics() {
+			Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+			statistics.put("filter", filter.getClass().getName());
+			if (joints != null)
+				statistics.put("joints", joints);
+			if (subtrees != null)
+				statistics.put("subtrees", subtrees);
+			statistics.put("updates", updates);
+			statistics.put("lastTime", lastTime / 1000);
+			statistics.put("averageTime", updates > 0 ? totalTime / updates / 1000 : 0);
+			statistics.put("maxTime", maxTime / 1000);
+			return statistics;
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package com.corpus.filter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+
+import com.corpus.controller.Controller;
+import com.corpus.helper.ParsingHelper;
+import com.corpus.helper.QuaternionHelper;
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.scene.ParallelSubtreeExecutor;
+import com.corpus.scene.ParallelSubtreeExecutor.JointVisitor;
+import com.corpus.scene.Scene;
+
+/**
+ * <p>
+ * A One Euro Filter. Smoothes the data with a low-pass filter whose cutoff
+ * frequency rises with the speed of the joint: slow movements are smoothed
+ * strongly to remove the jitter, fast movements hardly at all to avoid lag.
+ * </p>
+ * <p>
+ * The position is filtered as a vector, the cutoff frequency depends on the
+ * filtered speed in centimeters per second. The orientation is filtered on the
+ * unit sphere by interpolating spherically from the last output towards the
+ * new orientation, the cutoff frequency depends on the filtered angular speed
+ * in radians per second. The state of every joint is kept in arrays indexed by
+ * the ordinal of the joint type, thus filtering allocates nothing but the
+ * results.
+ * </p>
+ * <p>
+ * Arguments: <code>minCutoff</code>, <code>beta</code> and
+ * <code>derivativeCutoff</code> for the position,
+ * <code>orientationMinCutoff</code>, <code>orientationBeta</code> and
+ * <code>orientationDerivativeCutoff</code> for the orientation (cutoff
+ * frequencies in Hertz).
+ * </p>
+ * 
+ * @see <a
+ *      href="http://cristal.univ-lille.fr/~casiez/1euro/">http://cristal.univ-lille.fr/~casiez/1euro/</a>
+ * @author agent
+ * 
+ */
+public class OneEuroFilter extends Filter {
+
+	// cutoff frequency at standstill (Hz)
+	private float minCutoff = 1f;
+	private float orientationMinCutoff = 1f;
+
+	// increase of the cutoff frequency per speed
+	private float beta = 0.01f;
+	private float orientationBeta = 0.1f;
+
+	// cutoff frequency of the speed (Hz)
+	private float derivativeCutoff = 1f;
+	private float orientationDerivativeCutoff = 1f;
+
+	// history indexed by the ordinal of the joint type: last output and
+	// filtered derivative (3 values per position, 4 values and an angular
+	// speed per orientation)
+	private final boolean[] positionValid = new boolean[JointType.values().length];
+	private final double[] positionOutput = new double[JointType.values().length * 3];
+	private final double[] positionDerivative = new double[JointType.values().length * 3];
+	private final boolean[] orientationValid = new boolean[JointType.values().length];
+	private final double[] orientationOutput = new double[JointType.values().length * 4];
+	private final double[] orientationSpeed = new double[JointType.values().length];
+
+	// filters the joints of the scene
+	private final JointVisitor visitor = new JointVisitor() {
+		@Override
+		public void visit(Joint joint) {
+			applyFilter(joint);
+		}
+	};
+
+	/**
+	 * Constructor which parses the given arguments to determine the cutoff
+	 * frequencies.
+	 * 
+	 * @param arguments
+	 */
+	public OneEuroFilter(Map<String, String> arguments) {
+		super(arguments);
+		parseArguments();
+	}
+
+	@Override
+	public void filterData(List<Scene> sceneHistory, Scene currentScene) {
+		ParallelSubtreeExecutor.visit(currentScene.getRootJoints(), visitor);
+	}
+
+	/**
+	 * Applies the filter to a single {@link Joint}. The history is updated in
+	 * place.
+	 * 
+	 * @param joint
+	 */
+	private void applyFilter(Joint joint) {
+		JointType jointType = joint.getJointType();
+		if (jointType == null || !isInScope(jointType))
+			return;
+		int j = jointType.ordinal();
+		double rate = Controller.UPDATE_FREQUENCY;
+
+		if (joint.getPositionTracked()) {
+			Vector3D pos = joint.getAbsolutePosition();
+			int i = j * 3;
+			if (positionValid[j]) {
+				// filtered speed
+				double derivativeAlpha = calculateAlpha(derivativeCutoff, rate);
+				double speed = 0;
+				speed += square(calculateDerivative(i, pos.getX(), rate, derivativeAlpha));
+				speed += square(calculateDerivative(i + 1, pos.getY(), rate, derivativeAlpha));
+				speed += square(calculateDerivative(i + 2, pos.getZ(), rate, derivativeAlpha));
+
+				// smooth the position with the adapted cutoff frequency
+				double alpha = calculateAlpha(minCutoff + beta * Math.sqrt(speed), rate);
+				positionOutput[i] += alpha * (pos.getX() - positionOutput[i]);
+				positionOutput[i + 1] += alpha * (pos.getY() - positionOutput[i + 1]);
+				positionOutput[i + 2] += alpha * (pos.getZ() - positionOutput[i + 2]);
+				joint.setAbsolutePosition(new Vector3D(positionOutput[i], positionOutput[i + 1], positionOutput[i + 2]));
+			} else {
+				positionOutput[i] = pos.getX();
+				positionOutput[i + 1] = pos.getY();
+				positionOutput[i + 2] = pos.getZ();
+				positionDerivative[i] = 0;
+				positionDerivative[i + 1] = 0;
+				positionDerivative[i + 2] = 0;
+				positionValid[j] = true;
+			}
+		} else {
+			positionValid[j] = false;
+		}
+
+		if (joint.getOrientationTracked()) {
+			Rotation ori = joint.getAbsoluteOrientation();
+			int i = j * 4;
+			if (orientationValid[j]) {
+				// filtered angular speed between the last output and the input
+				double dot = Math.abs(ori.getQ0() * orientationOutput[i] + ori.getQ1() * orientationOutput[i + 1] + ori.getQ2()
+						* orientationOutput[i + 2] + ori.getQ3() * orientationOutput[i + 3]);
+				double angularSpeed = 2 * Math.acos(Math.min(dot, 1)) * rate;
+				orientationSpeed[j] += calculateAlpha(orientationDerivativeCutoff, rate) * (angularSpeed - orientationSpeed[j]);
+
+				// smooth the orientation with the adapted cutoff frequency
+				double alpha = calculateAlpha(orientationMinCutoff + orientationBeta * orientationSpeed[j], rate);
+				QuaternionHelper.slerp(orientationOutput, i, ori.getQ0(), ori.getQ1(), ori.getQ2(), ori.getQ3(), alpha);
+				joint.setAbsoluteOrientation(new Rotation(orientationOutput[i], orientationOutput[i + 1], orientationOutput[i + 2],
+						orientationOutput[i + 3], false));
+			} else {
+				orientationOutput[i] = ori.getQ0();
+				orientationOutput[i + 1] = ori.getQ1();
+				orientationOutput[i + 2] = ori.getQ2();
+				orientationOutput[i + 3] = ori.getQ3();
+				orientationSpeed[j] = 0;
+				orientationValid[j] = true;
+			}
+		} else {
+			orientationValid[j] = false;
+		}
+	}
+
+	/**
+	 * Updates the filtered derivative of a position value.
+	 * 
+	 * @param i
+	 *            index of the value
+	 * @param input
+	 *            current value
+	 * @param rate
+	 *            update rate (Hz)
+	 * @param alpha
+	 *            smoothing factor of the derivative
+	 * @return filtered derivative
+	 */
+	private double calculateDerivative(int i, double input, double rate, double alpha) {
+		double derivative = (input - positionOutput[i]) * rate;
+		positionDerivative[i] += alpha * (derivative - positionDerivative[i]);
+		return positionDerivative[i];
+	}
+
+	/**
+	 * Calculates the smoothing factor of an exponential low-pass filter.
+	 * 
+	 * @param cutoff
+	 *            cutoff frequency (Hz)
+	 * @param rate
+	 *            update rate (Hz)
+	 * @return smoothing factor
+	 */
+	private static double calculateAlpha(double cutoff, double rate) {
+		double tau = 1 / (2 * Math.PI * cutoff);
+		return 1 / (1 + tau * rate);
+	}
+
+	private static double square(double value) {
+		return value * value;
+	}
+
+	/**
+	 * Parses the arguments.
+	 */
+	private void parseArguments() {
+		for (Entry<String, String> entry : arguments.entrySet()) {
+			Float value = ParsingHelper.parseFloat(entry.getKey(), entry.getValue());
+			if (value != null) {
+				if (entry.getKey().equals("minCutoff"))
+					minCutoff = value;
+				else if (entry.getKey().equals("beta"))
+					beta = value;
+				else if (entry.getKey().equals("derivativeCutoff"))
+					derivativeCutoff = value;
+				else if (entry.getKey().equals("orientationMinCutoff"))
+					orientationMinCutoff = value;
+				else if (entry.getKey().equals("orientationBeta"))
+					orientationBeta = value;
+				else if (entry.getKey().equals("orientationDerivativeCutoff"))
+					orientationDerivativeCutoff = value;
+				else
+					System.err.println("WARNING: Unknown argument " + entry.getKey()
+							+ " for OneEuroFilter in the config file! The argument will be ignored!");
+			}
+		}
+	}
+
+}
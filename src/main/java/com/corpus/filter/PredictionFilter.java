@@ -0,0 +1,349 @@
+package com.corpus.filter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+
+import com.corpus.helper.ParsingHelper;
+import com.corpus.helper.QuaternionHelper;
+import com.corpus.history.JointHistory;
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.scene.ParallelSubtreeExecutor;
+import com.corpus.scene.ParallelSubtreeExecutor.JointVisitor;
+import com.corpus.scene.Scene;
+
+/**
+ * <p>
+ * A filter predicting the pose of the body a given time ahead to compensate
+ * the latency between the sensor sample and the client (fusion, update
+ * interval and network). The position of every joint is extrapolated with its
+ * velocity, the orientation with its angular velocity.
+ * </p>
+ * <p>
+ * The velocities are estimated from the {@link JointHistory}, which contains
+ * the unpredicted input of the last <code>window</code> frames and their
+ * timestamps: the velocity is the slope of the least squares line through the
+ * current sample fitted to the older tracked samples, the angular velocity the
+ * same fit of the rotation vectors from the older orientations to the current
+ * one. Without a {@link JointHistory} the velocities are the difference to the
+ * input of the last update divided by the time between the two scenes. The
+ * prediction is damped by the confidence of the joint: below
+ * <code>minConfidence</code> the joint is not predicted, above it the
+ * prediction time rises linearly up to <code>predictionTime</code> at a
+ * confidence of 1. The state of every joint is kept in arrays indexed by the
+ * ordinal of the joint type.
+ * </p>
+ * <p>
+ * Arguments: <code>predictionTime</code> (milliseconds), <code>window</code>
+ * (number of frames of the history the velocities are estimated from) and
+ * <code>minConfidence</code>.
+ * </p>
+ * 
+ * @author agent
+ * 
+ */
+public class PredictionFilter extends Filter {
+
+	// time (milliseconds) the joints are predicted ahead
+	private float predictionTime = 30f;
+
+	// number of frames the velocities are estimated from
+	private int window = 5;
+
+	// confidence below which a joint is not predicted
+	private float minConfidence = 0.5f;
+
+	// timestamp (milliseconds) of the scene which is filtered
+	private long sceneTime;
+
+	// last input indexed by the ordinal of the joint type, used if no joint
+	// history is kept (3 values per position, 4 values of the quaternion per
+	// orientation and the timestamp of the input)
+	private final boolean[] positionValid = new boolean[JointType.values().length];
+	private final double[] positionInput = new double[JointType.values().length * 3];
+	private final long[] positionTime = new long[JointType.values().length];
+	private final boolean[] orientationValid = new boolean[JointType.values().length];
+	private final double[] orientationInput = new double[JointType.values().length * 4];
+	private final long[] orientationTime = new long[JointType.values().length];
+
+	// per joint working memory: velocity, angular velocity, rotation vector
+	// between two orientations and predicted quaternion
+	private final double[] velocity = new double[JointType.values().length * 3];
+	private final double[] angularVelocity = new double[JointType.values().length * 3];
+	private final double[] orientationDifference = new double[JointType.values().length * 3];
+	private final double[] orientationPrediction = new double[JointType.values().length * 4];
+
+	// predicts the joints of the scene
+	private final JointVisitor visitor = new JointVisitor() {
+		@Override
+		public void visit(Joint joint) {
+			applyFilter(joint);
+		}
+	};
+
+	/**
+	 * Constructor which parses the given arguments to determine the prediction
+	 * time, the window and the minimal confidence.
+	 * 
+	 * @param arguments
+	 */
+	public PredictionFilter(Map<String, String> arguments) {
+		super(arguments);
+		parseArguments();
+	}
+
+	@Override
+	public boolean usesJointHistory() {
+		return true;
+	}
+
+	@Override
+	public void filterData(List<Scene> sceneHistory, Scene currentScene) {
+		sceneTime = currentScene.getTimestamp() != null ? currentScene.getTimestamp().getTimeInMillis() : 0;
+		ParallelSubtreeExecutor.visit(currentScene.getRootJoints(), visitor);
+	}
+
+	/**
+	 * Predicts a single {@link Joint}. The state is updated in place.
+	 * 
+	 * @param joint
+	 */
+	private void applyFilter(Joint joint) {
+		JointType jointType = joint.getJointType();
+		if (jointType == null || !isInScope(jointType))
+			return;
+		int j = jointType.ordinal();
+		boolean historyValid = jointHistory != null && jointHistory.size() > 0 && jointHistory.getPositions(jointType) != null;
+
+		if (joint.getPositionTracked()) {
+			Vector3D pos = joint.getAbsolutePosition();
+			int i = j * 3;
+			if (historyValid)
+				estimateVelocity(jointType, i);
+			else
+				estimateVelocity(j, i, pos);
+
+			double time = getPredictionTime(joint.getPositionConfidence());
+			if (time > 0)
+				joint.setAbsolutePosition(new Vector3D(pos.getX() + velocity[i] * time, pos.getY() + velocity[i + 1] * time, pos.getZ()
+						+ velocity[i + 2] * time));
+		} else {
+			positionValid[j] = false;
+		}
+
+		if (joint.getOrientationTracked()) {
+			Rotation ori = joint.getAbsoluteOrientation();
+			int i = j * 4;
+			int v = j * 3;
+			if (historyValid)
+				estimateAngularVelocity(jointType, v);
+			else
+				estimateAngularVelocity(j, v, ori);
+
+			double time = getPredictionTime(joint.getOrientationConfidence());
+			if (time > 0) {
+				// predicted = rotation(angular velocity * time) * current
+				orientationPrediction[i] = ori.getQ0();
+				orientationPrediction[i + 1] = ori.getQ1();
+				orientationPrediction[i + 2] = ori.getQ2();
+				orientationPrediction[i + 3] = ori.getQ3();
+				QuaternionHelper.rotate(orientationPrediction, i, angularVelocity[v] * time, angularVelocity[v + 1] * time,
+						angularVelocity[v + 2] * time);
+				joint.setAbsoluteOrientation(new Rotation(orientationPrediction[i], orientationPrediction[i + 1], orientationPrediction[i + 2],
+						orientationPrediction[i + 3], false));
+			}
+		} else {
+			orientationValid[j] = false;
+		}
+	}
+
+	/**
+	 * Estimates the velocity of a joint from the {@link JointHistory}: the
+	 * slope of the least squares line through the newest sample fitted to the
+	 * older tracked samples of the window. The velocity is 0 if the newest
+	 * sample is not tracked or no older sample is.
+	 * 
+	 * @param jointType
+	 * @param i
+	 *            offset of the velocity
+	 */
+	private void estimateVelocity(JointType jointType, int i) {
+		double[] positions = jointHistory.getPositions(jointType);
+		boolean[] tracked = jointHistory.getPositionTracked(jointType);
+		long[] timestamps = jointHistory.getTimestamps();
+		velocity[i] = 0;
+		velocity[i + 1] = 0;
+		velocity[i + 2] = 0;
+		int newest = jointHistory.slot(0);
+		if (!tracked[newest])
+			return;
+		int p0 = newest * JointHistory.POSITION_SIZE;
+
+		double sumX = 0, sumY = 0, sumZ = 0, sumTime = 0;
+		int frames = Math.min(window, jointHistory.size());
+		for (int age = 1; age < frames; age++) {
+			int slot = jointHistory.slot(age);
+			int p = slot * JointHistory.POSITION_SIZE;
+			double t = (timestamps[newest] - timestamps[slot]) / 1000d;
+			if (!tracked[slot] || t <= 0 || Double.isNaN(positions[p]))
+				continue;
+			sumX += (positions[p0] - positions[p]) * t;
+			sumY += (positions[p0 + 1] - positions[p + 1]) * t;
+			sumZ += (positions[p0 + 2] - positions[p + 2]) * t;
+			sumTime += t * t;
+		}
+		if (sumTime > 0) {
+			velocity[i] = sumX / sumTime;
+			velocity[i + 1] = sumY / sumTime;
+			velocity[i + 2] = sumZ / sumTime;
+		}
+	}
+
+	/**
+	 * Estimates the velocity of a joint from the difference to the input of
+	 * the last update and the time between the two scenes. Used if no
+	 * {@link JointHistory} is kept.
+	 * 
+	 * @param j
+	 *            ordinal of the joint type
+	 * @param i
+	 *            offset of the velocity and the input
+	 * @param pos
+	 *            current position
+	 */
+	private void estimateVelocity(int j, int i, Vector3D pos) {
+		double t = (sceneTime - positionTime[j]) / 1000d;
+		if (positionValid[j] && t > 0) {
+			velocity[i] = (pos.getX() - positionInput[i]) / t;
+			velocity[i + 1] = (pos.getY() - positionInput[i + 1]) / t;
+			velocity[i + 2] = (pos.getZ() - positionInput[i + 2]) / t;
+		} else if (!positionValid[j]) {
+			velocity[i] = 0;
+			velocity[i + 1] = 0;
+			velocity[i + 2] = 0;
+			positionValid[j] = true;
+		}
+		positionInput[i] = pos.getX();
+		positionInput[i + 1] = pos.getY();
+		positionInput[i + 2] = pos.getZ();
+		positionTime[j] = sceneTime;
+	}
+
+	/**
+	 * Estimates the angular velocity of a joint from the {@link JointHistory}:
+	 * the least squares fit of the rotation vectors (axis times angle) from
+	 * the older tracked orientations of the window to the newest orientation
+	 * over the elapsed times. The angular velocity is 0 if the newest
+	 * orientation is not tracked or no older orientation is.
+	 * 
+	 * @param jointType
+	 * @param v
+	 *            offset of the angular velocity
+	 */
+	private void estimateAngularVelocity(JointType jointType, int v) {
+		double[] orientations = jointHistory.getOrientations(jointType);
+		boolean[] tracked = jointHistory.getOrientationTracked(jointType);
+		long[] timestamps = jointHistory.getTimestamps();
+		angularVelocity[v] = 0;
+		angularVelocity[v + 1] = 0;
+		angularVelocity[v + 2] = 0;
+		int newest = jointHistory.slot(0);
+		if (!tracked[newest])
+			return;
+		int o0 = newest * JointHistory.ORIENTATION_SIZE;
+
+		double sumX = 0, sumY = 0, sumZ = 0, sumTime = 0;
+		int frames = Math.min(window, jointHistory.size());
+		for (int age = 1; age < frames; age++) {
+			int slot = jointHistory.slot(age);
+			int o = slot * JointHistory.ORIENTATION_SIZE;
+			double t = (timestamps[newest] - timestamps[slot]) / 1000d;
+			if (!tracked[slot] || t <= 0 || Double.isNaN(orientations[o]))
+				continue;
+			QuaternionHelper.difference(orientations, o, orientations[o0], orientations[o0 + 1], orientations[o0 + 2],
+					orientations[o0 + 3], orientationDifference, v);
+			sumX += orientationDifference[v] * t;
+			sumY += orientationDifference[v + 1] * t;
+			sumZ += orientationDifference[v + 2] * t;
+			sumTime += t * t;
+		}
+		if (sumTime > 0) {
+			angularVelocity[v] = sumX / sumTime;
+			angularVelocity[v + 1] = sumY / sumTime;
+			angularVelocity[v + 2] = sumZ / sumTime;
+		}
+	}
+
+	/**
+	 * Estimates the angular velocity of a joint from the rotation vector
+	 * between the input of the last update and the current orientation and the
+	 * time between the two scenes. Used if no {@link JointHistory} is kept.
+	 * 
+	 * @param j
+	 *            ordinal of the joint type
+	 * @param v
+	 *            offset of the angular velocity
+	 * @param ori
+	 *            current orientation
+	 */
+	private void estimateAngularVelocity(int j, int v, Rotation ori) {
+		int i = j * 4;
+		double t = (sceneTime - orientationTime[j]) / 1000d;
+		if (orientationValid[j] && t > 0) {
+			QuaternionHelper.difference(orientationInput, i, ori.getQ0(), ori.getQ1(), ori.getQ2(), ori.getQ3(), orientationDifference, v);
+			angularVelocity[v] = orientationDifference[v] / t;
+			angularVelocity[v + 1] = orientationDifference[v + 1] / t;
+			angularVelocity[v + 2] = orientationDifference[v + 2] / t;
+		} else if (!orientationValid[j]) {
+			angularVelocity[v] = 0;
+			angularVelocity[v + 1] = 0;
+			angularVelocity[v + 2] = 0;
+			orientationValid[j] = true;
+		}
+		orientationInput[i] = ori.getQ0();
+		orientationInput[i + 1] = ori.getQ1();
+		orientationInput[i + 2] = ori.getQ2();
+		orientationInput[i + 3] = ori.getQ3();
+		orientationTime[j] = sceneTime;
+	}
+
+	/**
+	 * Determines the time a joint is predicted ahead, damped by its
+	 * confidence.
+	 * 
+	 * @param confidence
+	 *            position or orientation confidence of the joint
+	 * @return prediction time (seconds)
+	 */
+	private double getPredictionTime(float confidence) {
+		if (confidence < minConfidence)
+			return 0;
+		double damping = minConfidence < 1 ? Math.min((confidence - minConfidence) / (1 - minConfidence), 1) : 1;
+		return predictionTime / 1000d * damping;
+	}
+
+	/**
+	 * Parses the arguments.
+	 */
+	private void parseArguments() {
+		for (Entry<String, String> entry : arguments.entrySet()) {
+			Float value = ParsingHelper.parseFloat(entry.getKey(), entry.getValue());
+			if (value != null) {
+				if (entry.getKey().equals("predictionTime"))
+					predictionTime = value;
+				else if (entry.getKey().equals("window"))
+					window = Math.max(2, value.intValue());
+				else if (entry.getKey().equals("minConfidence"))
+					minConfidence = value;
+				else
+					System.err.println("WARNING: Unknown argument " + entry.getKey()
+							+ " for PredictionFilter in the config file! The argument will be ignored!");
+			}
+		}
+	}
+
+}
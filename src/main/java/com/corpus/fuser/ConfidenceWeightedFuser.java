@@ -1,19 +1,12 @@
 package com.corpus.fuser;
 
-import java.util.Calendar;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
 
 import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
 import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
 
-import com.corpus.controller.Controller;
 import com.corpus.scene.Joint;
 import com.corpus.scene.JointType;
-import com.corpus.scene.Scene;
 import com.corpus.sensor.Sensor;
 
 /**
@@ -28,105 +21,14 @@ import com.corpus.sensor.Sensor;
  * @author Scopus
  * 
  */
-public class ConfidenceWeightedFuser extends Fuser {
-
-	private final float[] variance = new float[] { 3333.33f, 1644.65f, 811.47f, 400.37f, 197.54f, 97.47f, 48.09f, 23.73f, 11.71f, 5.78f,
-			2.85f, 1.41f, 0.69f, 0.34f, 0.17f, 0.08f };
+public class ConfidenceWeightedFuser extends IncrementalFuser {
 
 	public ConfidenceWeightedFuser(Map<String, String> arguments) {
 		super(arguments);
 	}
 
 	@Override
-	public void fuseData(Scene currentScene) {
-
-		// identify the joints a sensor depends on
-		Set<JointType> sensorDependingJoints = new HashSet<JointType>();
-		for (Sensor sensor : currentScene.getSensors()) {
-			if (sensor.getParent() instanceof Joint)
-				addToSetRecursive((Joint) sensor.getParent(), sensorDependingJoints);
-		}
-
-		// get new data from the sensors
-		Map<Sensor, Map<JointType, Joint>> fusionData = new HashMap<Sensor, Map<JointType, Joint>>();
-		for (Sensor sensor : currentScene.getSensors()) {
-			fusionData.put(sensor, sensor.getCurrentData());
-		}
-
-		// update the joints a sensor depends on
-		for (Joint joint : currentScene.getRootJoints()) {
-			if (sensorDependingJoints.contains(joint.getJointType()))
-				updateSensorDependingJoints(joint, sensorDependingJoints, fusionData);
-		}
-
-		// update the remaining joints
-		for (Joint j : currentScene.getRootJoints())
-			updateRemainingJoints(j, sensorDependingJoints, fusionData);
-
-	}
-
-	/**
-	 * Adds a {@link Joint} and its parent recursively to the given set.
-	 * 
-	 * @param joint
-	 * @param set
-	 */
-	private void addToSetRecursive(Joint joint, Set<JointType> set) {
-		set.add(joint.getJointType());
-		if (joint.getParent() != null)
-			if (joint.getParent() instanceof Joint)
-				addToSetRecursive((Joint) joint.getParent(), set);
-	}
-
-	/**
-	 * Updates the joint a sensor depends on.
-	 * 
-	 * @param joint
-	 * @param sensorDependingJoints
-	 * @param fusionData
-	 */
-	private void updateSensorDependingJoints(Joint joint, Set<JointType> sensorDependingJoints,
-			Map<Sensor, Map<JointType, Joint>> fusionData) {
-		updateJoint(joint, fusionData);
-
-		for (com.corpus.scene.SceneNode child : joint.getChildren()) {
-			if (child instanceof Joint) {
-				Joint childJoint = (Joint) child;
-				if (sensorDependingJoints.contains(childJoint.getJointType()))
-					updateSensorDependingJoints((Joint) child, sensorDependingJoints, fusionData);
-			} else if (child instanceof Sensor) {
-				child.setAbsolutePosition(null);
-				child.setAbsoluteOrientation(null);
-			}
-		}
-	}
-
-	/**
-	 * Updates the joints no sensor depends on.
-	 * 
-	 * @param joint
-	 * @param sensorDependingJoints
-	 * @param fusionData
-	 */
-	private void updateRemainingJoints(Joint joint, Set<JointType> sensorDependingJoints, Map<Sensor, Map<JointType, Joint>> fusionData) {
-		if (!sensorDependingJoints.contains(joint.getJointType()))
-			updateJoint(joint, fusionData);
-
-		for (com.corpus.scene.SceneNode child : joint.getChildren()) {
-			if (child instanceof Joint)
-				updateRemainingJoints((Joint) child, sensorDependingJoints, fusionData);
-		}
-
-	}
-
-	/**
-	 * Updates a single joint.
-	 * 
-	 * @param joint
-	 * @param fusionData
-	 */
-	private void updateJoint(Joint joint, Map<Sensor, Map<JointType, Joint>> fusionData) {
-
+	protected void fuseJoint(JointType jointType) {
 		float posSumVariance = 0;
 		float oriSumVariance = 0;
 
@@ -136,14 +38,12 @@ public class ConfidenceWeightedFuser extends Fuser {
 		int oriCount = 0;
 
 		// calculate sum variance
-		for (Entry<Sensor, Map<JointType, Joint>> entry : fusionData.entrySet()) {
-			Joint tmpJoint = entry.getValue().get(joint.getJointType());
-			if (tmpJoint != null) {
-				if (tmpJoint.getAbsolutePosition() != null)
-					posSumVariance += 1 / getVariance(tmpJoint.getPositionConfidence());
-				if (tmpJoint.getAbsoluteOrientation() != null) {
-					oriSumVariance += 1 / getVariance(tmpJoint.getOrientationConfidence());
-				}
+		for (int i = 0; i < contributions.getCount(jointType); i++) {
+			Joint tmpJoint = contributions.getSample(jointType, i);
+			if (tmpJoint.getAbsolutePosition() != null)
+				posSumVariance += 1 / getVariance(tmpJoint.getPositionConfidence());
+			if (tmpJoint.getAbsoluteOrientation() != null) {
+				oriSumVariance += 1 / getVariance(tmpJoint.getOrientationConfidence());
 			}
 		}
 
@@ -152,92 +52,56 @@ public class ConfidenceWeightedFuser extends Fuser {
 		Rotation firstOrientation = null;
 		boolean fusedPosition = false;
 		boolean fusedOrientation = false;
-		for (Entry<Sensor, Map<JointType, Joint>> entry : fusionData.entrySet()) {
-			Joint tmpJoint = entry.getValue().get(joint.getJointType());
-			if (tmpJoint != null) {
-				if (tmpJoint.getAbsolutePosition() != null) {
-					Vector3D absPosition;
-					if (entry.getKey().getCollectsAbsoluteData())
-						absPosition = tmpJoint.getAbsolutePosition();
-					else
-						absPosition = getAbsolutePosition(tmpJoint, entry.getKey());
-					float sensorVariance = 1 / (getVariance(tmpJoint.getPositionConfidence()) * posSumVariance);
-					newPosition[0] += absPosition.getX() * sensorVariance;
-					newPosition[1] += absPosition.getY() * sensorVariance;
-					newPosition[2] += absPosition.getZ() * sensorVariance;
-					fusedPosition = true;
-
-					posSumConfidence += tmpJoint.getPositionConfidence();
-					posCount++;
-				}
-				if (tmpJoint.getAbsoluteOrientation() != null) {
-					Rotation absOrientation;
-					if (entry.getKey().getCollectsAbsoluteData())
-						absOrientation = tmpJoint.getAbsoluteOrientation();
-					else
-						absOrientation = getAbsoluteRotation(tmpJoint, entry.getKey());
-
-					if (firstOrientation == null)
-						firstOrientation = absOrientation;
-
-					if (!AreQuaternionsClose(absOrientation, firstOrientation))
-						absOrientation = InverseSignQuaternion(tmpJoint.getAbsoluteOrientation());
-
-					float sensorVariance = 1 / (getVariance(tmpJoint.getOrientationConfidence()) * oriSumVariance);
-
-					newOrientation[0] += absOrientation.getQ0() * sensorVariance;
-					newOrientation[1] += absOrientation.getQ1() * sensorVariance;
-					newOrientation[2] += absOrientation.getQ2() * sensorVariance;
-					newOrientation[3] += absOrientation.getQ3() * sensorVariance;
-					fusedOrientation = true;
-
-					oriSumConfidence += tmpJoint.getOrientationConfidence();
-					oriCount++;
-				}
+		for (int i = 0; i < contributions.getCount(jointType); i++) {
+			Sensor sensor = contributions.getSensor(jointType, i);
+			Joint tmpJoint = contributions.getSample(jointType, i);
+			if (tmpJoint.getAbsolutePosition() != null) {
+				Vector3D absPosition;
+				if (sensor.getCollectsAbsoluteData())
+					absPosition = tmpJoint.getAbsolutePosition();
+				else
+					absPosition = getAbsolutePosition(tmpJoint, sensor);
+				float sensorVariance = 1 / (getVariance(tmpJoint.getPositionConfidence()) * posSumVariance);
+				newPosition[0] += absPosition.getX() * sensorVariance;
+				newPosition[1] += absPosition.getY() * sensorVariance;
+				newPosition[2] += absPosition.getZ() * sensorVariance;
+				fusedPosition = true;
+
+				posSumConfidence += tmpJoint.getPositionConfidence();
+				posCount++;
 			}
-		}
+			if (tmpJoint.getAbsoluteOrientation() != null) {
+				Rotation absOrientation;
+				if (sensor.getCollectsAbsoluteData())
+					absOrientation = tmpJoint.getAbsoluteOrientation();
+				else
+					absOrientation = getAbsoluteRotation(tmpJoint, sensor);
 
-		// set new joint position if position was tracked, else absolute
-		// position has to be recalculated because the position of a parent
-		// joint may changed
-		if (fusedPosition) {
-			joint.setAbsolutePosition(new Vector3D(newPosition[0], newPosition[1], newPosition[2]));
-		} else {
-			joint.setAbsolutePosition(null);
-		}
+				if (firstOrientation == null)
+					firstOrientation = absOrientation;
 
-		// set new joint orientation if position was tracked, else absolute
-		// orientation has to be recalculated because the position of a parent
-		// joint may changed
-		if (fusedOrientation) {
-			joint.setAbsoluteOrientation(new Rotation(newOrientation[0], newOrientation[1], newOrientation[2], newOrientation[3], true));
-		} else {
-			joint.setAbsoluteOrientation(null);
-		}
+				if (!AreQuaternionsClose(absOrientation, firstOrientation))
+					absOrientation = InverseSignQuaternion(tmpJoint.getAbsoluteOrientation());
 
-		if (fusedPosition) {
-			joint.setPositionTimestamp(Calendar.getInstance());
-			joint.setPositionTracked(true);
-		} else {
-			if (Calendar.getInstance().getTimeInMillis() - joint.getPositionTimestamp().getTimeInMillis() >= Controller.RETURN_TO_DEFAULT) {
-				joint.setRelativePosition(joint.getDefaultPosition());
-			}
-			joint.setPositionTracked(false);
-		}
+				float sensorVariance = 1 / (getVariance(tmpJoint.getOrientationConfidence()) * oriSumVariance);
 
-		if (fusedOrientation) {
-			joint.setOrientationTimestamp(Calendar.getInstance());
-			joint.setOrientationTracked(true);
-		} else {
-			if (Calendar.getInstance().getTimeInMillis() - joint.getOrientationTimestamp().getTimeInMillis() >= Controller.RETURN_TO_DEFAULT) {
-				joint.setRelativeOrientation(joint.getDefaultOrientation());
+				newOrientation[0] += absOrientation.getQ0() * sensorVariance;
+				newOrientation[1] += absOrientation.getQ1() * sensorVariance;
+				newOrientation[2] += absOrientation.getQ2() * sensorVariance;
+				newOrientation[3] += absOrientation.getQ3() * sensorVariance;
+				fusedOrientation = true;
+
+				oriSumConfidence += tmpJoint.getOrientationConfidence();
+				oriCount++;
 			}
-			joint.setOrientationTracked(false);
 		}
 
-		// set average confidence values
-		joint.setPositionConfidence(posSumConfidence / posCount);
-		joint.setOrientationConfidence(oriSumConfidence / oriCount);
+		int j = jointType.ordinal();
+		fusedPositions[j] = fusedPosition ? new Vector3D(newPosition[0], newPosition[1], newPosition[2]) : null;
+		fusedOrientations[j] = fusedOrientation ? new Rotation(newOrientation[0], newOrientation[1], newOrientation[2],
+				newOrientation[3], true) : null;
+		fusedPositionConfidences[j] = posSumConfidence / posCount;
+		fusedOrientationConfidences[j] = oriSumConfidence / oriCount;
 	}
 
 	private Rotation InverseSignQuaternion(Rotation q) {
@@ -256,12 +120,4 @@ public class ConfidenceWeightedFuser extends Fuser {
 			return false;
 		return true;
 	}
-
-	private float getVariance(float confidence) {
-		if (confidence < 0)
-			return variance[0];
-		if (confidence > 1)
-			return variance[15];
-		return variance[(int) Math.floor(confidence * 15)];
-	}
 }
@@ -6,6 +6,7 @@ import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
 import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
 
 import com.corpus.scene.Joint;
+import com.corpus.scene.ParallelSubtreeExecutor;
 import com.corpus.scene.Scene;
 import com.corpus.sensor.Sensor;
 
@@ -18,6 +19,11 @@ import com.corpus.sensor.Sensor;
  */
 public abstract class Fuser {
 
+	// variances of the measurements in dependence of the confidence (16 steps
+	// from confidence 0 to confidence 1)
+	protected static final float[] VARIANCE = new float[] { 3333.33f, 1644.65f, 811.47f, 400.37f, 197.54f, 97.47f, 48.09f, 23.73f,
+			11.71f, 5.78f, 2.85f, 1.41f, 0.69f, 0.34f, 0.17f, 0.08f };
+
 	protected Map<String, String> arguments;
 
 	public Fuser(Map<String, String> arguments) {
@@ -56,4 +62,35 @@ public abstract class Fuser {
 	protected Rotation getAbsoluteRotation(Joint joint, Sensor sensor) {
 		return joint.getAbsoluteOrientation().applyTo(sensor.getAbsoluteOrientation());
 	}
+
+	/**
+	 * Resolves the absolute position and orientation of the {@link Sensor}s of
+	 * the given {@link Scene}. Has to be called before the joints are fused by
+	 * the {@link ParallelSubtreeExecutor}, because a sensor is read by the
+	 * tasks of all subtrees containing joints it delivers and its absolute
+	 * values are determined lazily without synchronization.
+	 * 
+	 * @param scene
+	 */
+	protected void resolveSensors(Scene scene) {
+		for (Sensor sensor : scene.getSensors()) {
+			sensor.getAbsolutePosition();
+			sensor.getAbsoluteOrientation();
+		}
+	}
+
+	/**
+	 * Maps a confidence value to the variance of a measurement.
+	 * 
+	 * @param confidence
+	 *            confidence between 0 and 1
+	 * @return variance
+	 */
+	protected float getVariance(float confidence) {
+		if (confidence < 0)
+			return VARIANCE[0];
+		if (confidence > 1)
+			return VARIANCE[VARIANCE.length - 1];
+		return VARIANCE[(int) Math.floor(confidence * (VARIANCE.length - 1))];
+	}
 }
@@ -0,0 +1,284 @@
+package com.corpus.fuser;
+
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+
+import com.corpus.controller.Controller;
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.scene.ParallelSubtreeExecutor;
+import com.corpus.scene.ParallelSubtreeExecutor.JointVisitor;
+import com.corpus.scene.Scene;
+import com.corpus.scene.SceneNode;
+import com.corpus.sensor.Sensor;
+
+/**
+ * <p>
+ * Base class of the fusers which fuse the samples of every joint on their own.
+ * The fused values of a joint are kept as long as its samples don't change.
+ * A joint is only updated if
+ * </p>
+ * <ul>
+ * <li>its samples changed,</li>
+ * <li>its parent was updated,</li>
+ * <li>it is not tracked and has not returned to its default pose yet or</li>
+ * <li>its values were replaced since the last update, e.g. by a filter (the
+ * scene is filtered in place, thus the fused values are set again).</li>
+ * </ul>
+ * <p>
+ * Subtrees without a joint to update are not visited at all, thus the update
+ * of a static scene only compares the joints with the values set in the last
+ * update.
+ * </p>
+ * <p>
+ * The joints a sensor is attached to are updated first. If such a joint was
+ * updated, the data of the attached sensors is marked changed, because its
+ * absolute values depend on the pose of the sensor.
+ * </p>
+ * 
+ * @author agent
+ * 
+ */
+public abstract class IncrementalFuser extends Fuser {
+
+	// data of the sensors indexed by the reported joints
+	protected final SensorContributions contributions = new SensorContributions();
+
+	// fused values of the last fusion indexed by the ordinal of the joint
+	// type, kept as long as the samples of the joint don't change
+	protected final Vector3D[] fusedPositions = new Vector3D[JointType.values().length];
+	protected final Rotation[] fusedOrientations = new Rotation[JointType.values().length];
+	protected final float[] fusedPositionConfidences = new float[JointType.values().length];
+	protected final float[] fusedOrientationConfidences = new float[JointType.values().length];
+	private final boolean[] fused = new boolean[JointType.values().length];
+
+	// values set in the last update of a joint: the absolute values if the
+	// joint is tracked, else the relative values
+	private final Vector3D[] writtenPositions = new Vector3D[JointType.values().length];
+	private final Rotation[] writtenOrientations = new Rotation[JointType.values().length];
+
+	// joints which don't change without new input, i.e. tracked or returned
+	// to the default pose
+	private final boolean[] settled = new boolean[JointType.values().length];
+
+	// joints updated in the current update and subtrees containing them
+	private final boolean[] updated = new boolean[JointType.values().length];
+	private final boolean[] changedSubtrees = new boolean[JointType.values().length];
+
+	// time of the last update
+	private Calendar lastUpdate;
+
+	public IncrementalFuser(Map<String, String> arguments) {
+		super(arguments);
+	}
+
+	@Override
+	public void fuseData(Scene currentScene) {
+
+		// identify the joints a sensor depends on
+		Set<JointType> sensorDependingJoints = new HashSet<JointType>();
+		for (Sensor sensor : currentScene.getSensors()) {
+			if (sensor.getParent() != null)
+				addToSetRecursive(sensor.getParent(), sensorDependingJoints);
+		}
+
+		// get new data from the sensors, indexed by the reported joints
+		contributions.update(currentScene.getSensors());
+		final Calendar now = Calendar.getInstance();
+
+		// update the joints a sensor depends on
+		for (Joint joint : currentScene.getRootJoints()) {
+			if (sensorDependingJoints.contains(joint.getJointType()))
+				updateSensorDependingJoints(joint, sensorDependingJoints, now);
+		}
+
+		// update the remaining joints of the changed subtrees, independent
+		// subtrees in parallel if enabled, the sensors they read are resolved
+		// before
+		for (Joint joint : currentScene.getRootJoints())
+			markChangedSubtrees(joint, false, sensorDependingJoints);
+		resolveSensors(currentScene);
+		final Set<JointType> dependingJoints = sensorDependingJoints;
+		ParallelSubtreeExecutor.visit(currentScene.getRootJoints(), new JointVisitor() {
+			@Override
+			public void visit(Joint joint) {
+				if (!dependingJoints.contains(joint.getJointType()) && updated[joint.getJointType().ordinal()])
+					updateJoint(joint, now);
+			}
+		}, changedSubtrees);
+		lastUpdate = now;
+	}
+
+	/**
+	 * Adds a {@link Joint} and its parent recursively to the given set.
+	 * 
+	 * @param joint
+	 * @param set
+	 */
+	private void addToSetRecursive(Joint joint, Set<JointType> set) {
+		set.add(joint.getJointType());
+		if (joint.getParent() != null)
+			addToSetRecursive(joint.getParent(), set);
+	}
+
+	/**
+	 * Updates the joint a sensor depends on if necessary. If the joint was
+	 * updated, the data of the sensors attached to it has to be fused again.
+	 * 
+	 * @param joint
+	 * @param sensorDependingJoints
+	 * @param now
+	 *            time of the update
+	 */
+	private void updateSensorDependingJoints(Joint joint, Set<JointType> sensorDependingJoints, Calendar now) {
+		int j = joint.getJointType().ordinal();
+		boolean parentUpdated = joint.getParent() != null && updated[joint.getParent().getJointType().ordinal()];
+		updated[j] = parentUpdated || needsUpdate(joint);
+		if (updated[j])
+			updateJoint(joint, now);
+
+		for (SceneNode child : joint.getChildren()) {
+			if (child instanceof Joint) {
+				Joint childJoint = (Joint) child;
+				if (sensorDependingJoints.contains(childJoint.getJointType()))
+					updateSensorDependingJoints(childJoint, sensorDependingJoints, now);
+			} else if (child instanceof Sensor && updated[j]) {
+				child.setAbsolutePosition(null);
+				child.setAbsoluteOrientation(null);
+				contributions.markChanged((Sensor) child);
+			}
+		}
+	}
+
+	/**
+	 * Determines the joints to update which don't depend on a sensor and the
+	 * subtrees containing a joint to update.
+	 * 
+	 * @param joint
+	 * @param parentUpdated
+	 *            the parent of the joint is updated
+	 * @param sensorDependingJoints
+	 *            joints which are already updated
+	 * @return <code>true</code> if the subtree of the joint contains a joint
+	 *         to update
+	 */
+	private boolean markChangedSubtrees(Joint joint, boolean parentUpdated, Set<JointType> sensorDependingJoints) {
+		int j = joint.getJointType().ordinal();
+		if (!sensorDependingJoints.contains(joint.getJointType()))
+			updated[j] = parentUpdated || needsUpdate(joint);
+		boolean changed = updated[j];
+		for (SceneNode child : joint.getChildren()) {
+			if (child instanceof Joint && markChangedSubtrees((Joint) child, updated[j], sensorDependingJoints))
+				changed = true;
+		}
+		changedSubtrees[j] = changed;
+		return changed;
+	}
+
+	/**
+	 * Determines whether a joint has to be updated regardless of its parent.
+	 * 
+	 * @param joint
+	 * @return <code>true</code> if the samples of the joint changed, it is not
+	 *         settled or its values were replaced since its last update
+	 */
+	private boolean needsUpdate(Joint joint) {
+		JointType jointType = joint.getJointType();
+		int j = jointType.ordinal();
+		if (!fused[j] || !settled[j] || contributions.isChanged(jointType))
+			return true;
+		Vector3D position = joint.getPositionTracked() ? joint.getAbsolutePosition() : joint.getRelativePosition();
+		Rotation orientation = joint.getOrientationTracked() ? joint.getAbsoluteOrientation() : joint.getRelativeOrientation();
+		return position != writtenPositions[j] || orientation != writtenOrientations[j];
+	}
+
+	/**
+	 * Updates a single joint. The samples are only fused if they changed since
+	 * the last fusion, else the values fused before are set again.
+	 * 
+	 * @param joint
+	 * @param now
+	 *            time of the update
+	 */
+	private void updateJoint(Joint joint, Calendar now) {
+		JointType jointType = joint.getJointType();
+		int j = jointType.ordinal();
+		if (!fused[j] || contributions.isChanged(jointType)) {
+			fuseJoint(jointType);
+			fused[j] = true;
+		}
+
+		Vector3D newPosition = fusedPositions[j];
+		Rotation newOrientation = fusedOrientations[j];
+
+		// set new joint position if position was tracked, else absolute
+		// position has to be recalculated because the position of a parent
+		// joint may changed
+		if (newPosition != null) {
+			joint.setAbsolutePosition(newPosition);
+		} else {
+			joint.setAbsolutePosition(null);
+		}
+
+		// set new joint orientation if position was tracked, else absolute
+		// orientation has to be recalculated because the position of a parent
+		// joint may changed
+		if (newOrientation != null) {
+			joint.setAbsoluteOrientation(newOrientation);
+		} else {
+			joint.setAbsoluteOrientation(null);
+		}
+
+		// a joint losing its tracking was tracked until the last update, even
+		// if it was not updated then
+		boolean positionReturned = false;
+		if (newPosition != null) {
+			joint.setPositionTimestamp(now);
+			joint.setPositionTracked(true);
+		} else {
+			if (joint.getPositionTracked() && lastUpdate != null)
+				joint.setPositionTimestamp(lastUpdate);
+			if (now.getTimeInMillis() - joint.getPositionTimestamp().getTimeInMillis() >= Controller.RETURN_TO_DEFAULT) {
+				joint.setRelativePosition(joint.getDefaultPosition());
+				positionReturned = true;
+			}
+			joint.setPositionTracked(false);
+		}
+
+		boolean orientationReturned = false;
+		if (newOrientation != null) {
+			joint.setOrientationTimestamp(now);
+			joint.setOrientationTracked(true);
+		} else {
+			if (joint.getOrientationTracked() && lastUpdate != null)
+				joint.setOrientationTimestamp(lastUpdate);
+			if (now.getTimeInMillis() - joint.getOrientationTimestamp().getTimeInMillis() >= Controller.RETURN_TO_DEFAULT) {
+				joint.setRelativeOrientation(joint.getDefaultOrientation());
+				orientationReturned = true;
+			}
+			joint.setOrientationTracked(false);
+		}
+
+		joint.setPositionConfidence(fusedPositionConfidences[j]);
+		joint.setOrientationConfidence(fusedOrientationConfidences[j]);
+
+		writtenPositions[j] = newPosition != null ? newPosition : joint.getRelativePosition();
+		writtenOrientations[j] = newOrientation != null ? newOrientation : joint.getRelativeOrientation();
+		settled[j] = (newPosition != null || positionReturned) && (newOrientation != null || orientationReturned);
+	}
+
+	/**
+	 * Fuses the samples of a single joint given by {@link #contributions} and
+	 * stores the result in {@link #fusedPositions},
+	 * {@link #fusedOrientations}, {@link #fusedPositionConfidences} and
+	 * {@link #fusedOrientationConfidences}.
+	 * 
+	 * @param jointType
+	 */
+	protected abstract void fuseJoint(JointType jointType);
+}
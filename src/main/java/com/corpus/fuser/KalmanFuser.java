@@ -0,0 +1,486 @@
+package com.corpus.fuser;
+
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+
+import com.corpus.controller.Controller;
+import com.corpus.helper.ParsingHelper;
+import com.corpus.helper.QuaternionHelper;
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.scene.ParallelSubtreeExecutor;
+import com.corpus.scene.ParallelSubtreeExecutor.JointVisitor;
+import com.corpus.scene.Scene;
+import com.corpus.scene.SceneNode;
+import com.corpus.sensor.Sensor;
+
+/**
+ * <p>
+ * {@link Fuser} that fuses and smoothes the data in a single pass by a
+ * constant velocity Kalman filter per joint. Every update the state of a joint
+ * is predicted with its velocity over the time since the last update (taken
+ * from the timestamps of the scene, thus an offline fusion steps by the
+ * recorded time), afterwards it is corrected sequentially by every new
+ * measurement of the sensors tracking the joint. A sample which a sensor
+ * already delivered in a previous update is not used again, unless the sensor
+ * collects relative data and the joint it is attached to was updated, which
+ * moves the sample. The variance of a
+ * measurement is derived from its confidence, thus a confident sensor
+ * dominates the others and a single noisy sensor is smoothed. No additional
+ * {@link com.corpus.filter.Filter Filter} is needed.
+ * </p>
+ * <p>
+ * The position is filtered per axis (position and velocity). The orientation
+ * is filtered as a quaternion with an angular velocity: the prediction rotates
+ * the quaternion by the angular velocity, a measurement is compared to the
+ * quaternion as rotation vector, which is filtered like a position. All axes
+ * of a joint share the same covariance (three values of the symmetric 2x2
+ * matrix), because they are measured with the same variance. The states are
+ * kept in arrays indexed by the ordinal of the joint type, thus the filter
+ * allocates nothing but the results.
+ * </p>
+ * <p>
+ * Arguments: <code>processNoise</code> (variance of the acceleration in
+ * (cm/s^2)^2), <code>measurementNoise</code> (factor of the variance derived
+ * from the confidence in cm^2), <code>orientationProcessNoise</code>
+ * (variance of the angular acceleration in (rad/s^2)^2) and
+ * <code>orientationMeasurementNoise</code> (factor of the variance derived from
+ * the confidence in rad^2).
+ * </p>
+ * 
+ * @author agent
+ * 
+ */
+public class KalmanFuser extends Fuser {
+
+	// variance of the velocity of a new track ((cm/s)^2 and (rad/s)^2)
+	private static final double INITIAL_VELOCITY_VARIANCE = 10000;
+	private static final double INITIAL_ANGULAR_VELOCITY_VARIANCE = 10;
+
+	// noise of the model and of the measurements
+	private float processNoise = 100000f;
+	private float measurementNoise = 1f;
+	private float orientationProcessNoise = 1000f;
+	private float orientationMeasurementNoise = 0.001f;
+
+	// position state indexed by the ordinal of the joint type: position and
+	// velocity (3 values each), covariance (variance of the position,
+	// covariance, variance of the velocity)
+	private final boolean[] positionValid = new boolean[JointType.values().length];
+	private final double[] position = new double[JointType.values().length * 3];
+	private final double[] velocity = new double[JointType.values().length * 3];
+	private final double[] positionCovariance = new double[JointType.values().length * 3];
+
+	// orientation state: quaternion (4 values), angular velocity (3 values),
+	// covariance and innovation of the current measurement (3 values)
+	private final boolean[] orientationValid = new boolean[JointType.values().length];
+	private final double[] orientation = new double[JointType.values().length * 4];
+	private final double[] angularVelocity = new double[JointType.values().length * 3];
+	private final double[] orientationCovariance = new double[JointType.values().length * 3];
+	private final double[] innovation = new double[JointType.values().length * 3];
+
+	// data of the sensors indexed by the reported joints
+	private final SensorContributions contributions = new SensorContributions();
+
+	// joints a sensor depends on which were updated in the current update
+	private final boolean[] moved = new boolean[JointType.values().length];
+
+	// time of the last update in milliseconds, -1 before the first update
+	private long lastUpdate = -1;
+
+	/**
+	 * Constructor which parses the given arguments to determine the noise.
+	 * 
+	 * @param arguments
+	 */
+	public KalmanFuser(Map<String, String> arguments) {
+		super(arguments);
+		parseArguments();
+	}
+
+	@Override
+	public void fuseData(Scene currentScene) {
+
+		// identify the joints a sensor depends on
+		Set<JointType> sensorDependingJoints = new HashSet<JointType>();
+		for (Sensor sensor : currentScene.getSensors()) {
+			if (sensor.getParent() instanceof Joint)
+				addToSetRecursive(sensor.getParent(), sensorDependingJoints);
+		}
+
+		// get new data from the sensors, indexed by the reported joints
+		contributions.update(currentScene.getSensors());
+		final Calendar now = currentScene.getTimestamp() != null ? currentScene.getTimestamp() : Calendar.getInstance();
+
+		// time step of the prediction, the nominal update interval if the
+		// time is unknown or went backwards (e.g. a restarted capture)
+		long time = now.getTimeInMillis();
+		final double dt = lastUpdate >= 0 && time >= lastUpdate ? (time - lastUpdate) / 1000d : 1d / Controller.UPDATE_FREQUENCY;
+		lastUpdate = time;
+
+		// update the joints a sensor depends on
+		for (Joint joint : currentScene.getRootJoints()) {
+			if (sensorDependingJoints.contains(joint.getJointType()))
+				updateSensorDependingJoints(joint, sensorDependingJoints, now, dt);
+		}
+
+		// update the remaining joints, independent subtrees in parallel if
+		// enabled, the sensors they read are resolved before
+		resolveSensors(currentScene);
+		final Set<JointType> dependingJoints = sensorDependingJoints;
+		ParallelSubtreeExecutor.visit(currentScene.getRootJoints(), new JointVisitor() {
+			@Override
+			public void visit(Joint joint) {
+				if (!dependingJoints.contains(joint.getJointType()))
+					updateJoint(joint, now, dt);
+			}
+		});
+	}
+
+	/**
+	 * Adds a {@link Joint} and its parent recursively to the given set.
+	 * 
+	 * @param joint
+	 * @param set
+	 */
+	private void addToSetRecursive(Joint joint, Set<JointType> set) {
+		set.add(joint.getJointType());
+		if (joint.getParent() != null)
+			if (joint.getParent() instanceof Joint)
+				addToSetRecursive(joint.getParent(), set);
+	}
+
+	/**
+	 * Updates the joint a sensor depends on. If the joint was updated, the
+	 * samples of the sensors attached to it are relative to a new position,
+	 * thus they are measurements of the joints again.
+	 * 
+	 * @param joint
+	 * @param sensorDependingJoints
+	 * @param now
+	 *            time of the update
+	 * @param dt
+	 *            time since the last update (seconds)
+	 */
+	private void updateSensorDependingJoints(Joint joint, Set<JointType> sensorDependingJoints, Calendar now, double dt) {
+		boolean parentMoved = joint.getParent() != null && moved[joint.getParent().getJointType().ordinal()];
+		boolean updated = updateJoint(joint, now, dt);
+		moved[joint.getJointType().ordinal()] = updated || parentMoved;
+
+		for (SceneNode child : joint.getChildren()) {
+			if (child instanceof Joint) {
+				Joint childJoint = (Joint) child;
+				if (sensorDependingJoints.contains(childJoint.getJointType()))
+					updateSensorDependingJoints(childJoint, sensorDependingJoints, now, dt);
+			} else if (child instanceof Sensor) {
+				child.setAbsolutePosition(null);
+				child.setAbsoluteOrientation(null);
+				if (moved[joint.getJointType().ordinal()])
+					contributions.markChanged((Sensor) child);
+			}
+		}
+	}
+
+	/**
+	 * Predicts the state of a single joint and corrects it by the new samples.
+	 * A sample of a sensor which collects relative data is also used again if
+	 * the joint the sensor is attached to was updated, because its absolute
+	 * value changed.
+	 * 
+	 * @param joint
+	 * @param now
+	 *            time of the update
+	 * @param dt
+	 *            time since the last update (seconds)
+	 * @return <code>true</code> if the state of the joint was updated (the
+	 *         joint is tracked)
+	 */
+	private boolean updateJoint(Joint joint, Calendar now, double dt) {
+		JointType jointType = joint.getJointType();
+		int j = jointType.ordinal();
+
+		// predict the state of the tracked joint
+		if (positionValid[j])
+			predict(position, velocity, positionCovariance, j, dt, processNoise);
+		if (orientationValid[j]) {
+			int v = j * 3;
+			QuaternionHelper.rotate(orientation, j * 4, angularVelocity[v] * dt, angularVelocity[v + 1] * dt, angularVelocity[v + 2]
+					* dt);
+			predictCovariance(orientationCovariance, j * 3, dt, orientationProcessNoise);
+		}
+
+		// correct it sequentially by the new measurements of the sensors, a
+		// sample which was already used only keeps the joint tracked (unless
+		// the track has to be started)
+		float posSumConfidence = 0;
+		float oriSumConfidence = 0;
+		int posCount = 0;
+		int oriCount = 0;
+		for (int k = 0; k < contributions.getCount(jointType); k++) {
+			Sensor sensor = contributions.getSensor(jointType, k);
+			Joint tmpJoint = contributions.getSample(jointType, k);
+			boolean newSample = contributions.isNewSample(jointType, k)
+					|| (contributions.isChanged(jointType) && !sensor.getCollectsAbsoluteData() && isAttachedToMovedJoint(sensor));
+			if (tmpJoint.getAbsolutePosition() != null) {
+				if (newSample || !positionValid[j]) {
+					Vector3D absPosition;
+					if (sensor.getCollectsAbsoluteData())
+						absPosition = tmpJoint.getAbsolutePosition();
+					else
+						absPosition = getAbsolutePosition(tmpJoint, sensor);
+					correctPosition(j, absPosition, getVariance(tmpJoint.getPositionConfidence()) * measurementNoise);
+				}
+				posSumConfidence += tmpJoint.getPositionConfidence();
+				posCount++;
+			}
+			if (tmpJoint.getAbsoluteOrientation() != null) {
+				if (newSample || !orientationValid[j]) {
+					Rotation absOrientation;
+					if (sensor.getCollectsAbsoluteData())
+						absOrientation = tmpJoint.getAbsoluteOrientation();
+					else
+						absOrientation = getAbsoluteRotation(tmpJoint, sensor);
+					correctOrientation(j, absOrientation, getVariance(tmpJoint.getOrientationConfidence())
+							* orientationMeasurementNoise);
+				}
+				oriSumConfidence += tmpJoint.getOrientationConfidence();
+				oriCount++;
+			}
+		}
+
+		// set the estimated position if the position was tracked, else the
+		// track is lost and the absolute position has to be recalculated
+		// because the position of a parent joint may changed
+		if (posCount > 0) {
+			int i = j * 3;
+			joint.setAbsolutePosition(new Vector3D(position[i], position[i + 1], position[i + 2]));
+			joint.setPositionTimestamp(now);
+			joint.setPositionTracked(true);
+		} else {
+			positionValid[j] = false;
+			joint.setAbsolutePosition(null);
+			if (now.getTimeInMillis() - joint.getPositionTimestamp().getTimeInMillis() >= Controller.RETURN_TO_DEFAULT) {
+				joint.setRelativePosition(joint.getDefaultPosition());
+			}
+			joint.setPositionTracked(false);
+		}
+
+		if (oriCount > 0) {
+			int i = j * 4;
+			joint.setAbsoluteOrientation(new Rotation(orientation[i], orientation[i + 1], orientation[i + 2], orientation[i + 3], false));
+			joint.setOrientationTimestamp(now);
+			joint.setOrientationTracked(true);
+		} else {
+			orientationValid[j] = false;
+			joint.setAbsoluteOrientation(null);
+			if (now.getTimeInMillis() - joint.getOrientationTimestamp().getTimeInMillis() >= Controller.RETURN_TO_DEFAULT) {
+				joint.setRelativeOrientation(joint.getDefaultOrientation());
+			}
+			joint.setOrientationTracked(false);
+		}
+
+		// set average confidence values
+		joint.setPositionConfidence(posCount > 0 ? posSumConfidence / posCount : 0);
+		joint.setOrientationConfidence(oriCount > 0 ? oriSumConfidence / oriCount : 0);
+		return posCount > 0 || oriCount > 0;
+	}
+
+	/**
+	 * Determines whether the joint a sensor is attached to was updated in the
+	 * current update.
+	 * 
+	 * @param sensor
+	 * @return <code>true</code> if the joint was updated
+	 */
+	private boolean isAttachedToMovedJoint(Sensor sensor) {
+		Joint parent = sensor.getParent();
+		return parent != null && moved[parent.getJointType().ordinal()];
+	}
+
+	/**
+	 * Predicts the position of a joint with its velocity.
+	 * 
+	 * @param value
+	 *            positions
+	 * @param rate
+	 *            velocities
+	 * @param covariance
+	 *            covariances
+	 * @param j
+	 *            ordinal of the joint type
+	 * @param dt
+	 *            time step (seconds)
+	 * @param noise
+	 *            variance of the acceleration
+	 */
+	private static void predict(double[] value, double[] rate, double[] covariance, int j, double dt, double noise) {
+		int i = j * 3;
+		value[i] += rate[i] * dt;
+		value[i + 1] += rate[i + 1] * dt;
+		value[i + 2] += rate[i + 2] * dt;
+		predictCovariance(covariance, i, dt, noise);
+	}
+
+	/**
+	 * Predicts the covariance: P = F * P * F^T + Q with the constant velocity
+	 * model F = [1 dt; 0 1] and the noise Q of a random acceleration.
+	 * 
+	 * @param covariance
+	 *            covariances
+	 * @param c
+	 *            index of the covariance of the joint
+	 * @param dt
+	 *            time step (seconds)
+	 * @param noise
+	 *            variance of the acceleration
+	 */
+	private static void predictCovariance(double[] covariance, int c, double dt, double noise) {
+		double p00 = covariance[c];
+		double p01 = covariance[c + 1];
+		double p11 = covariance[c + 2];
+		double dt2 = dt * dt;
+		covariance[c] = p00 + 2 * dt * p01 + dt2 * p11 + noise * dt2 * dt2 / 4;
+		covariance[c + 1] = p01 + dt * p11 + noise * dt2 * dt / 2;
+		covariance[c + 2] = p11 + noise * dt2;
+	}
+
+	/**
+	 * Corrects the position of a joint by a measurement.
+	 * 
+	 * @param j
+	 *            ordinal of the joint type
+	 * @param measurement
+	 *            measured position
+	 * @param variance
+	 *            variance of the measurement
+	 */
+	private void correctPosition(int j, Vector3D measurement, double variance) {
+		int i = j * 3;
+		if (!positionValid[j]) {
+			position[i] = measurement.getX();
+			position[i + 1] = measurement.getY();
+			position[i + 2] = measurement.getZ();
+			velocity[i] = 0;
+			velocity[i + 1] = 0;
+			velocity[i + 2] = 0;
+			initializeCovariance(positionCovariance, i, variance, INITIAL_VELOCITY_VARIANCE);
+			positionValid[j] = true;
+			return;
+		}
+		double gain0 = positionCovariance[i] / (positionCovariance[i] + variance);
+		double gain1 = positionCovariance[i + 1] / (positionCovariance[i] + variance);
+		double residualX = measurement.getX() - position[i];
+		double residualY = measurement.getY() - position[i + 1];
+		double residualZ = measurement.getZ() - position[i + 2];
+		position[i] += gain0 * residualX;
+		position[i + 1] += gain0 * residualY;
+		position[i + 2] += gain0 * residualZ;
+		velocity[i] += gain1 * residualX;
+		velocity[i + 1] += gain1 * residualY;
+		velocity[i + 2] += gain1 * residualZ;
+		correctCovariance(positionCovariance, i, gain0, gain1);
+	}
+
+	/**
+	 * Corrects the orientation of a joint by a measurement.
+	 * 
+	 * @param j
+	 *            ordinal of the joint type
+	 * @param measurement
+	 *            measured orientation
+	 * @param variance
+	 *            variance of the measurement
+	 */
+	private void correctOrientation(int j, Rotation measurement, double variance) {
+		int i = j * 4;
+		int v = j * 3;
+		if (!orientationValid[j]) {
+			orientation[i] = measurement.getQ0();
+			orientation[i + 1] = measurement.getQ1();
+			orientation[i + 2] = measurement.getQ2();
+			orientation[i + 3] = measurement.getQ3();
+			angularVelocity[v] = 0;
+			angularVelocity[v + 1] = 0;
+			angularVelocity[v + 2] = 0;
+			initializeCovariance(orientationCovariance, v, variance, INITIAL_ANGULAR_VELOCITY_VARIANCE);
+			orientationValid[j] = true;
+			return;
+		}
+		QuaternionHelper.difference(orientation, i, measurement.getQ0(), measurement.getQ1(), measurement.getQ2(), measurement.getQ3(),
+				innovation, v);
+		double gain0 = orientationCovariance[v] / (orientationCovariance[v] + variance);
+		double gain1 = orientationCovariance[v + 1] / (orientationCovariance[v] + variance);
+		QuaternionHelper.rotate(orientation, i, gain0 * innovation[v], gain0 * innovation[v + 1], gain0 * innovation[v + 2]);
+		angularVelocity[v] += gain1 * innovation[v];
+		angularVelocity[v + 1] += gain1 * innovation[v + 1];
+		angularVelocity[v + 2] += gain1 * innovation[v + 2];
+		correctCovariance(orientationCovariance, v, gain0, gain1);
+	}
+
+	/**
+	 * Initializes the covariance of a new track.
+	 * 
+	 * @param covariance
+	 *            covariances
+	 * @param c
+	 *            index of the covariance of the joint
+	 * @param variance
+	 *            variance of the first measurement
+	 * @param rateVariance
+	 *            variance of the unknown velocity
+	 */
+	private static void initializeCovariance(double[] covariance, int c, double variance, double rateVariance) {
+		covariance[c] = variance;
+		covariance[c + 1] = 0;
+		covariance[c + 2] = rateVariance;
+	}
+
+	/**
+	 * Corrects the covariance: P = (I - K * H) * P with the measurement model H
+	 * = [1 0] and the gain K.
+	 * 
+	 * @param covariance
+	 *            covariances
+	 * @param c
+	 *            index of the covariance of the joint
+	 * @param gain0
+	 *            gain of the value
+	 * @param gain1
+	 *            gain of the rate
+	 */
+	private static void correctCovariance(double[] covariance, int c, double gain0, double gain1) {
+		double p00 = covariance[c];
+		double p01 = covariance[c + 1];
+		covariance[c] = (1 - gain0) * p00;
+		covariance[c + 1] = (1 - gain0) * p01;
+		covariance[c + 2] -= gain1 * p01;
+	}
+
+	/**
+	 * Parses the arguments.
+	 */
+	private void parseArguments() {
+		for (Entry<String, String> entry : arguments.entrySet()) {
+			Float value = ParsingHelper.parseFloat(entry.getKey(), entry.getValue());
+			if (value != null) {
+				if (entry.getKey().equals("processNoise"))
+					processNoise = value;
+				else if (entry.getKey().equals("measurementNoise"))
+					measurementNoise = value;
+				else if (entry.getKey().equals("orientationProcessNoise"))
+					orientationProcessNoise = value;
+				else if (entry.getKey().equals("orientationMeasurementNoise"))
+					orientationMeasurementNoise = value;
+				else
+					System.err.println("WARNING: Unknown argument " + entry.getKey()
+							+ " for KalmanFuser in the config file! The argument will be ignored!");
+			}
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package com.corpus.fuser;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.sensor.Sensor;
+
+/**
+ * <p>
+ * Index of the data the {@link Sensor}s delivered in the current update,
+ * transposed to a list of contributions (sensor and sample) per joint. It is
+ * built once per update, afterwards a {@link Fuser} only visits the sensors
+ * which actually reported a joint instead of looking the joint up in the data
+ * of every sensor. The arrays are reused by the following updates.
+ * </p>
+ * <p>
+ * Additionally the index determines which joints have new input: a joint is
+ * changed if a sensor delivering it (now or in the last update) has a new
+ * sample, detected by the sample sequence number of the sensor. A fuser can
+ * keep the result of an unchanged joint. For every contribution the index
+ * records whether its sample is new, thus a filtering fuser does not use the
+ * same sample twice.
+ * </p>
+ * 
+ * @author agent
+ * 
+ */
+public class SensorContributions {
+
+	// contributions indexed by the ordinal of the joint type
+	private final Sensor[][] sensors = new Sensor[JointType.values().length][];
+	private final Joint[][] samples = new Joint[JointType.values().length][];
+	private final boolean[][] newSamples = new boolean[JointType.values().length][];
+	private final int[] counts = new int[JointType.values().length];
+
+	// joints with new input indexed by the ordinal of the joint type
+	private final boolean[] changed = new boolean[JointType.values().length];
+
+	// sequence numbers and data of the sensors in the last update
+	private final Map<Sensor, SensorState> states = new IdentityHashMap<Sensor, SensorState>();
+
+	/**
+	 * Creates an empty index.
+	 */
+	public SensorContributions() {
+		for (int j = 0; j < counts.length; j++) {
+			sensors[j] = new Sensor[2];
+			samples[j] = new Joint[2];
+			newSamples[j] = new boolean[2];
+		}
+	}
+
+	/**
+	 * Replaces the contributions by the current data of the given
+	 * {@link Sensor}s and determines the changed joints.
+	 * 
+	 * @param sensorList
+	 *            {@link Sensor}s of the scene
+	 */
+	public void update(List<Sensor> sensorList) {
+		for (int j = 0; j < counts.length; j++) {
+			Arrays.fill(sensors[j], 0, counts[j], null);
+			Arrays.fill(samples[j], 0, counts[j], null);
+			counts[j] = 0;
+		}
+		Arrays.fill(changed, false);
+		for (int i = 0; i < sensorList.size(); i++) {
+			Sensor sensor = sensorList.get(i);
+
+			// the sequence number is read first, a sample arriving in between
+			// is detected again in the next update
+			long sequenceNumber = sensor.getSampleSequenceNumber();
+			Map<JointType, Joint> data = sensor.getCurrentData();
+			SensorState state = states.get(sensor);
+			boolean newSample = true;
+			if (state == null) {
+				state = new SensorState();
+				states.put(sensor, state);
+				markChanged(data);
+			} else if (state.sequenceNumber != sequenceNumber || state.data != data) {
+				markChanged(state.data);
+				markChanged(data);
+			} else
+				newSample = false;
+			state.sequenceNumber = sequenceNumber;
+			state.data = data;
+			state.updated = true;
+
+			if (data == null)
+				continue;
+			for (Entry<JointType, Joint> entry : data.entrySet()) {
+				if (entry.getValue() != null)
+					add(entry.getKey().ordinal(), sensor, entry.getValue(), newSample);
+			}
+		}
+
+		// forget removed sensors, their joints lost an input
+		for (Iterator<SensorState> iterator = states.values().iterator(); iterator.hasNext();) {
+			SensorState state = iterator.next();
+			if (!state.updated) {
+				markChanged(state.data);
+				iterator.remove();
+			} else
+				state.updated = false;
+		}
+	}
+
+	/**
+	 * Marks all joints delivered by the given {@link Sensor} in the current
+	 * update as changed, e.g. because the sensor is attached to a joint which
+	 * moved and therefore the absolute values of its data changed.
+	 * 
+	 * @param sensor
+	 */
+	public void markChanged(Sensor sensor) {
+		SensorState state = states.get(sensor);
+		if (state != null)
+			markChanged(state.data);
+	}
+
+	/**
+	 * Marks the joints of the given data as changed.
+	 * 
+	 * @param data
+	 */
+	private void markChanged(Map<JointType, Joint> data) {
+		if (data == null)
+			return;
+		for (JointType jointType : data.keySet())
+			changed[jointType.ordinal()] = true;
+	}
+
+	/**
+	 * Adds a contribution, the arrays of the joint are grown if necessary.
+	 * 
+	 * @param j
+	 *            ordinal of the joint type
+	 * @param sensor
+	 * @param sample
+	 * @param newSample
+	 *            the sensor delivered the sample for the first time
+	 */
+	private void add(int j, Sensor sensor, Joint sample, boolean newSample) {
+		int count = counts[j];
+		if (count == sensors[j].length) {
+			sensors[j] = Arrays.copyOf(sensors[j], count * 2);
+			samples[j] = Arrays.copyOf(samples[j], count * 2);
+			newSamples[j] = Arrays.copyOf(newSamples[j], count * 2);
+		}
+		sensors[j][count] = sensor;
+		samples[j][count] = sample;
+		newSamples[j][count] = newSample;
+		counts[j] = count + 1;
+	}
+
+	/**
+	 * Returns the number of sensors which reported a joint.
+	 * 
+	 * @param jointType
+	 * @return number of contributions
+	 */
+	public int getCount(JointType jointType) {
+		return counts[jointType.ordinal()];
+	}
+
+	/**
+	 * Returns the sensor of a contribution.
+	 * 
+	 * @param jointType
+	 * @param index
+	 *            index of the contribution (less than
+	 *            {@link #getCount(JointType)})
+	 * @return {@link Sensor}
+	 */
+	public Sensor getSensor(JointType jointType, int index) {
+		return sensors[jointType.ordinal()][index];
+	}
+
+	/**
+	 * Returns the sample of a contribution.
+	 * 
+	 * @param jointType
+	 * @param index
+	 *            index of the contribution (less than
+	 *            {@link #getCount(JointType)})
+	 * @return {@link Joint} delivered by the sensor
+	 */
+	public Joint getSample(JointType jointType, int index) {
+		return samples[jointType.ordinal()][index];
+	}
+
+	/**
+	 * Determines whether the sample of a contribution is new, i.e. the sensor
+	 * delivered it for the first time in the current update.
+	 * 
+	 * @param jointType
+	 * @param index
+	 *            index of the contribution (less than
+	 *            {@link #getCount(JointType)})
+	 * @return <code>true</code> if the sample is new
+	 */
+	public boolean isNewSample(JointType jointType, int index) {
+		return newSamples[jointType.ordinal()][index];
+	}
+
+	/**
+	 * Determines whether a joint has new input since the last update.
+	 * 
+	 * @param jointType
+	 * @return <code>true</code> if a sensor delivering the joint has a new
+	 *         sample
+	 */
+	public boolean isChanged(JointType jointType) {
+		return changed[jointType.ordinal()];
+	}
+
+	/**
+	 * Sequence number and data of a sensor in the last update.
+	 */
+	private static class SensorState {
+		private long sequenceNumber;
+		private Map<JointType, Joint> data;
+		private boolean updated;
+	}
+}
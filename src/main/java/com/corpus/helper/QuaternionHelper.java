@@ -0,0 +1,184 @@
+package com.corpus.helper;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+
+/**
+ * Provides functions to interpolate and combine {@link Rotation}s.
+ * 
+ * @author agent
+ * 
+ */
+public class QuaternionHelper {
+
+	// above this cosine of the angle between two quaternions a normalized
+	// linear interpolation is used to avoid the division by sin(angle)
+	private static final double LINEAR_THRESHOLD = 0.9995;
+
+	/**
+	 * Interpolates spherically between two {@link Rotation}s along the shorter
+	 * arc. A value of <code>t</code> greater than 1 extrapolates beyond the
+	 * second {@link Rotation}.
+	 * 
+	 * @param a
+	 *            {@link Rotation} at <code>t = 0</code>
+	 * @param b
+	 *            {@link Rotation} at <code>t = 1</code>
+	 * @param t
+	 *            interpolation parameter
+	 * @return interpolated {@link Rotation}
+	 */
+	public static Rotation slerp(Rotation a, Rotation b, double t) {
+		double dot = a.getQ0() * b.getQ0() + a.getQ1() * b.getQ1() + a.getQ2() * b.getQ2() + a.getQ3() * b.getQ3();
+
+		// q and -q describe the same rotation, the shorter arc is used
+		double sign = 1;
+		if (dot < 0) {
+			dot = -dot;
+			sign = -1;
+		}
+
+		double weightA;
+		double weightB;
+		if (dot > LINEAR_THRESHOLD) {
+			weightA = 1 - t;
+			weightB = t * sign;
+		} else {
+			double angle = Math.acos(dot);
+			double sin = Math.sin(angle);
+			weightA = Math.sin((1 - t) * angle) / sin;
+			weightB = Math.sin(t * angle) / sin * sign;
+		}
+		return new Rotation(weightA * a.getQ0() + weightB * b.getQ0(), weightA * a.getQ1() + weightB * b.getQ1(), weightA
+				* a.getQ2() + weightB * b.getQ2(), weightA * a.getQ3() + weightB * b.getQ3(), true);
+	}
+
+	/**
+	 * Interpolates spherically from the quaternion stored in an array to the
+	 * given quaternion along the shorter arc. The result is normalized and
+	 * stored in place of the first quaternion, thus nothing is allocated.
+	 * 
+	 * @param q
+	 *            array containing the quaternion at <code>t = 0</code> (q0,
+	 *            q1, q2, q3)
+	 * @param offset
+	 *            index of q0 in the array
+	 * @param b0
+	 * @param b1
+	 * @param b2
+	 * @param b3
+	 *            quaternion at <code>t = 1</code>
+	 * @param t
+	 *            interpolation parameter
+	 */
+	public static void slerp(double[] q, int offset, double b0, double b1, double b2, double b3, double t) {
+		double dot = q[offset] * b0 + q[offset + 1] * b1 + q[offset + 2] * b2 + q[offset + 3] * b3;
+
+		// q and -q describe the same rotation, the shorter arc is used
+		double sign = 1;
+		if (dot < 0) {
+			dot = -dot;
+			sign = -1;
+		}
+
+		double weightA;
+		double weightB;
+		if (dot > LINEAR_THRESHOLD) {
+			weightA = 1 - t;
+			weightB = t * sign;
+		} else {
+			double angle = Math.acos(dot);
+			double sin = Math.sin(angle);
+			weightA = Math.sin((1 - t) * angle) / sin;
+			weightB = Math.sin(t * angle) / sin * sign;
+		}
+		double q0 = weightA * q[offset] + weightB * b0;
+		double q1 = weightA * q[offset + 1] + weightB * b1;
+		double q2 = weightA * q[offset + 2] + weightB * b2;
+		double q3 = weightA * q[offset + 3] + weightB * b3;
+		double norm = Math.sqrt(q0 * q0 + q1 * q1 + q2 * q2 + q3 * q3);
+		q[offset] = q0 / norm;
+		q[offset + 1] = q1 / norm;
+		q[offset + 2] = q2 / norm;
+		q[offset + 3] = q3 / norm;
+	}
+
+	/**
+	 * Calculates the rotation from the quaternion stored in an array to the
+	 * given quaternion along the shorter arc, i.e. the rotation d with b = d *
+	 * q. The rotation is stored as rotation vector (axis times angle in
+	 * radians), thus nothing is allocated.
+	 * 
+	 * @param q
+	 *            array containing the quaternion q (q0, q1, q2, q3)
+	 * @param offset
+	 *            index of q0 in the array
+	 * @param b0
+	 * @param b1
+	 * @param b2
+	 * @param b3
+	 *            quaternion b
+	 * @param v
+	 *            array the rotation vector (x, y, z) is stored in
+	 * @param vOffset
+	 *            index of x in the array
+	 */
+	public static void difference(double[] q, int offset, double b0, double b1, double b2, double b3, double[] v, int vOffset) {
+		// d = b * conjugate(q)
+		double q0 = q[offset];
+		double q1 = -q[offset + 1];
+		double q2 = -q[offset + 2];
+		double q3 = -q[offset + 3];
+		double d0 = b0 * q0 - b1 * q1 - b2 * q2 - b3 * q3;
+		double d1 = b0 * q1 + b1 * q0 + b2 * q3 - b3 * q2;
+		double d2 = b0 * q2 - b1 * q3 + b2 * q0 + b3 * q1;
+		double d3 = b0 * q3 + b1 * q2 - b2 * q1 + b3 * q0;
+
+		// q and -q describe the same rotation, the shorter arc is used
+		if (d0 < 0) {
+			d0 = -d0;
+			d1 = -d1;
+			d2 = -d2;
+			d3 = -d3;
+		}
+
+		double sin = Math.sqrt(d1 * d1 + d2 * d2 + d3 * d3);
+		double scale = sin > 1e-9 ? 2 * Math.atan2(sin, d0) / sin : 2;
+		v[vOffset] = d1 * scale;
+		v[vOffset + 1] = d2 * scale;
+		v[vOffset + 2] = d3 * scale;
+	}
+
+	/**
+	 * Rotates the quaternion stored in an array by a rotation vector, i.e. q
+	 * is replaced by r * q with the rotation r described by the vector. The
+	 * result is normalized and stored in place.
+	 * 
+	 * @param q
+	 *            array containing the quaternion (q0, q1, q2, q3)
+	 * @param offset
+	 *            index of q0 in the array
+	 * @param x
+	 * @param y
+	 * @param z
+	 *            rotation vector (axis times angle in radians)
+	 */
+	public static void rotate(double[] q, int offset, double x, double y, double z) {
+		double angle = Math.sqrt(x * x + y * y + z * z);
+		if (angle < 1e-12)
+			return;
+		double r0 = Math.cos(angle / 2);
+		double scale = Math.sin(angle / 2) / angle;
+		double r1 = x * scale;
+		double r2 = y * scale;
+		double r3 = z * scale;
+		double q0 = r0 * q[offset] - r1 * q[offset + 1] - r2 * q[offset + 2] - r3 * q[offset + 3];
+		double q1 = r0 * q[offset + 1] + r1 * q[offset] + r2 * q[offset + 3] - r3 * q[offset + 2];
+		double q2 = r0 * q[offset + 2] - r1 * q[offset + 3] + r2 * q[offset] + r3 * q[offset + 1];
+		double q3 = r0 * q[offset + 3] + r1 * q[offset + 2] - r2 * q[offset + 1] + r3 * q[offset];
+		double norm = Math.sqrt(q0 * q0 + q1 * q1 + q2 * q2 + q3 * q3);
+		q[offset] = q0 / norm;
+		q[offset + 1] = q1 / norm;
+		q[offset + 2] = q2 / norm;
+		q[offset + 3] = q3 / norm;
+	}
+}
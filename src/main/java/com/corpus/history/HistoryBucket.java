@@ -0,0 +1,138 @@
+package com.corpus.history;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.corpus.scene.JointType;
+
+/**
+ * A bucket of the {@link TieredHistory} aggregating the frames of a time span.
+ * For every joint the mean, minimum and maximum of the absolute position and
+ * the mean absolute orientation are contained. Values of joints which were not
+ * present in the bucket are <code>NaN</code>.
+ * 
+ * @author agent
+ * 
+ */
+public class HistoryBucket {
+
+	private final long start;
+	private final long duration;
+	private final int count;
+	private final JointType[] jointTypes;
+	private final float[] positions;
+	private final float[] orientations;
+
+	/**
+	 * Creates a bucket.
+	 * 
+	 * @param start
+	 *            start of the bucket in milliseconds
+	 * @param duration
+	 *            duration of the bucket in milliseconds
+	 * @param count
+	 *            number of aggregated frames
+	 * @param jointTypes
+	 *            contained joints
+	 * @param positions
+	 *            mean, minimum and maximum position (x, y, z each) of every
+	 *            joint
+	 * @param orientations
+	 *            mean orientation (w, x, y, z) of every joint
+	 */
+	HistoryBucket(long start, long duration, int count, JointType[] jointTypes, float[] positions, float[] orientations) {
+		this.start = start;
+		this.duration = duration;
+		this.count = count;
+		this.jointTypes = jointTypes;
+		this.positions = positions;
+		this.orientations = orientations;
+	}
+
+	/**
+	 * Merges adjacent buckets until at most the given number of buckets is
+	 * left.
+	 * 
+	 * @param buckets
+	 *            buckets in chronological order containing the same joints
+	 * @param points
+	 *            maximum number of buckets
+	 * @return merged buckets
+	 */
+	public static List<HistoryBucket> merge(List<HistoryBucket> buckets, int points) {
+		if (points <= 0 || buckets.size() <= points)
+			return buckets;
+		List<HistoryBucket> merged = new ArrayList<HistoryBucket>(points);
+		for (int i = 0; i < points; i++) {
+			int from = (int) ((long) i * buckets.size() / points);
+			int to = (int) ((long) (i + 1) * buckets.size() / points);
+			HistoryTier tier = new HistoryTier(Long.MAX_VALUE, 1, buckets.get(from).jointTypes.length);
+			HistoryBucket last = buckets.get(to - 1);
+			int count = 0;
+			for (int j = from; j < to; j++) {
+				HistoryBucket bucket = buckets.get(j);
+				tier.add(0, bucket.count, bucket.positions, 0, bucket.orientations, 0);
+				count += bucket.count;
+			}
+			HistoryBucket result = tier.getOpenBucket(last.jointTypes);
+			merged.add(new HistoryBucket(buckets.get(from).start, last.start + last.duration - buckets.get(from).start, count,
+					last.jointTypes, result.positions, result.orientations));
+		}
+		return merged;
+	}
+
+	/**
+	 * Returns the start of the bucket.
+	 * 
+	 * @return time in milliseconds
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * Returns the duration of the bucket.
+	 * 
+	 * @return duration in milliseconds
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * Returns the number of aggregated frames.
+	 * 
+	 * @return count
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the contained joints.
+	 * 
+	 * @return joint types
+	 */
+	public JointType[] getJointTypes() {
+		return jointTypes;
+	}
+
+	/**
+	 * Returns the positions of the joints: for every joint the mean, minimum
+	 * and maximum (x, y, z each).
+	 * 
+	 * @return positions
+	 */
+	public float[] getPositions() {
+		return positions;
+	}
+
+	/**
+	 * Returns the mean orientations (w, x, y, z) of the joints.
+	 * 
+	 * @return orientations
+	 */
+	public float[] getOrientations() {
+		return orientations;
+	}
+}
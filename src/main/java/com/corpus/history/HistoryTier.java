@@ -0,0 +1,304 @@
+package com.corpus.history;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.corpus.scene.JointType;
+
+/**
+ * <p>
+ * A tier of the {@link TieredHistory}. The tier aggregates the samples it
+ * receives into buckets of a fixed duration (the resolution) and keeps a
+ * bounded number of completed buckets in a ring buffer. Every completed bucket
+ * is passed on to the next, coarser tier.
+ * </p>
+ * <p>
+ * The buckets are stored in primitive arrays: for every bucket and joint the
+ * mean, minimum and maximum of the absolute position (9 floats) and the mean
+ * absolute orientation (4 floats). Values of joints which were not present in
+ * a bucket are <code>NaN</code>.
+ * </p>
+ * 
+ * @author agent
+ * 
+ */
+class HistoryTier {
+
+	// floats per joint and bucket
+	static final int POSITION_SIZE = 9;
+	static final int ORIENTATION_SIZE = 4;
+
+	private final long resolution;
+	private final int capacity;
+	private final int jointCount;
+	private HistoryTier next;
+
+	// ring buffer of the completed buckets
+	private final long[] starts;
+	private final int[] counts;
+	private final float[] positions;
+	private final float[] orientations;
+	private int head;
+	private int size;
+
+	// bucket which is currently aggregated
+	private long openStart;
+	private int openCount;
+	private final double[] positionSums;
+	private final int[] positionWeights;
+	private final float[] openMinima;
+	private final float[] openMaxima;
+	private final double[] orientationSums;
+	private final int[] orientationWeights;
+
+	/**
+	 * Creates a tier.
+	 * 
+	 * @param resolution
+	 *            duration of a bucket in milliseconds
+	 * @param capacity
+	 *            number of stored buckets
+	 * @param jointCount
+	 *            number of joints
+	 */
+	HistoryTier(long resolution, int capacity, int jointCount) {
+		this.resolution = resolution;
+		this.capacity = capacity;
+		this.jointCount = jointCount;
+		starts = new long[capacity];
+		counts = new int[capacity];
+		positions = new float[capacity * jointCount * POSITION_SIZE];
+		orientations = new float[capacity * jointCount * ORIENTATION_SIZE];
+		positionSums = new double[jointCount * 3];
+		positionWeights = new int[jointCount];
+		openMinima = new float[jointCount * 3];
+		openMaxima = new float[jointCount * 3];
+		orientationSums = new double[jointCount * ORIENTATION_SIZE];
+		orientationWeights = new int[jointCount];
+		resetOpenBucket();
+	}
+
+	/**
+	 * Returns the number of bytes used by a tier.
+	 * 
+	 * @param capacity
+	 *            number of stored buckets
+	 * @param jointCount
+	 *            number of joints
+	 * @return bytes
+	 */
+	static long getMemoryUsage(long capacity, int jointCount) {
+		return capacity * (8 + 4 + jointCount * (POSITION_SIZE + ORIENTATION_SIZE) * 4);
+	}
+
+	/**
+	 * Sets the tier receiving the completed buckets.
+	 * 
+	 * @param next
+	 */
+	void setNext(HistoryTier next) {
+		this.next = next;
+	}
+
+	/**
+	 * Adds a sample to the bucket containing the given time. The bucket which
+	 * is currently aggregated is completed if the sample belongs to a later
+	 * bucket.
+	 * 
+	 * @param timestamp
+	 *            time of the sample in milliseconds
+	 * @param weight
+	 *            number of frames aggregated by the sample
+	 * @param samplePositions
+	 *            mean, minimum and maximum position of every joint
+	 * @param positionOffset
+	 *            offset of the sample in <code>samplePositions</code>
+	 * @param sampleOrientations
+	 *            mean orientation of every joint
+	 * @param orientationOffset
+	 *            offset of the sample in <code>sampleOrientations</code>
+	 */
+	void add(long timestamp, int weight, float[] samplePositions, int positionOffset, float[] sampleOrientations,
+			int orientationOffset) {
+		long start = timestamp - timestamp % resolution;
+		if (openCount > 0 && start != openStart)
+			complete();
+		openStart = start;
+		openCount += weight;
+
+		for (int j = 0; j < jointCount; j++) {
+			int p = positionOffset + j * POSITION_SIZE;
+			if (!Float.isNaN(samplePositions[p])) {
+				for (int c = 0; c < 3; c++) {
+					positionSums[j * 3 + c] += (double) samplePositions[p + c] * weight;
+					openMinima[j * 3 + c] = Math.min(openMinima[j * 3 + c], samplePositions[p + 3 + c]);
+					openMaxima[j * 3 + c] = Math.max(openMaxima[j * 3 + c], samplePositions[p + 6 + c]);
+				}
+				positionWeights[j] += weight;
+			}
+
+			int o = orientationOffset + j * ORIENTATION_SIZE;
+			if (!Float.isNaN(sampleOrientations[o])) {
+				// q and -q describe the same orientation, the quaternions are
+				// aligned to the sum before they are added
+				double dot = 0;
+				for (int c = 0; c < ORIENTATION_SIZE; c++)
+					dot += orientationSums[j * ORIENTATION_SIZE + c] * sampleOrientations[o + c];
+				double factor = dot < 0 ? -weight : weight;
+				for (int c = 0; c < ORIENTATION_SIZE; c++)
+					orientationSums[j * ORIENTATION_SIZE + c] += sampleOrientations[o + c] * factor;
+				orientationWeights[j] += weight;
+			}
+		}
+	}
+
+	/**
+	 * Stores the bucket which is currently aggregated and passes it on to the
+	 * next tier.
+	 */
+	private void complete() {
+		int slot;
+		if (size < capacity) {
+			slot = (head + size) % capacity;
+			size++;
+		} else {
+			slot = head;
+			head = (head + 1) % capacity;
+		}
+		starts[slot] = openStart;
+		counts[slot] = openCount;
+		int positionOffset = slot * jointCount * POSITION_SIZE;
+		int orientationOffset = slot * jointCount * ORIENTATION_SIZE;
+		aggregate(positions, positionOffset, orientations, orientationOffset);
+
+		long start = openStart;
+		int count = openCount;
+		resetOpenBucket();
+		if (next != null)
+			next.add(start, count, positions, positionOffset, orientations, orientationOffset);
+	}
+
+	/**
+	 * Writes the mean, minimum and maximum values of the open bucket to the
+	 * given arrays.
+	 * 
+	 * @param targetPositions
+	 * @param positionOffset
+	 * @param targetOrientations
+	 * @param orientationOffset
+	 */
+	private void aggregate(float[] targetPositions, int positionOffset, float[] targetOrientations, int orientationOffset) {
+		for (int j = 0; j < jointCount; j++) {
+			int p = positionOffset + j * POSITION_SIZE;
+			if (positionWeights[j] > 0) {
+				for (int c = 0; c < 3; c++) {
+					targetPositions[p + c] = (float) (positionSums[j * 3 + c] / positionWeights[j]);
+					targetPositions[p + 3 + c] = openMinima[j * 3 + c];
+					targetPositions[p + 6 + c] = openMaxima[j * 3 + c];
+				}
+			} else
+				Arrays.fill(targetPositions, p, p + POSITION_SIZE, Float.NaN);
+
+			int o = orientationOffset + j * ORIENTATION_SIZE;
+			double norm = 0;
+			for (int c = 0; c < ORIENTATION_SIZE; c++)
+				norm += orientationSums[j * ORIENTATION_SIZE + c] * orientationSums[j * ORIENTATION_SIZE + c];
+			norm = Math.sqrt(norm);
+			if (orientationWeights[j] > 0 && norm > 0) {
+				for (int c = 0; c < ORIENTATION_SIZE; c++)
+					targetOrientations[o + c] = (float) (orientationSums[j * ORIENTATION_SIZE + c] / norm);
+			} else
+				Arrays.fill(targetOrientations, o, o + ORIENTATION_SIZE, Float.NaN);
+		}
+	}
+
+	/**
+	 * Returns the bucket which is currently aggregated without completing it.
+	 * 
+	 * @param jointTypes
+	 *            joint types of all joints of the tier
+	 * @return bucket
+	 */
+	HistoryBucket getOpenBucket(JointType[] jointTypes) {
+		float[] bucketPositions = new float[jointCount * POSITION_SIZE];
+		float[] bucketOrientations = new float[jointCount * ORIENTATION_SIZE];
+		aggregate(bucketPositions, 0, bucketOrientations, 0);
+		return new HistoryBucket(openStart, resolution, openCount, jointTypes, bucketPositions, bucketOrientations);
+	}
+
+	/**
+	 * Resets the accumulators of the open bucket.
+	 */
+	private void resetOpenBucket() {
+		openCount = 0;
+		Arrays.fill(positionSums, 0);
+		Arrays.fill(positionWeights, 0);
+		Arrays.fill(openMinima, Float.POSITIVE_INFINITY);
+		Arrays.fill(openMaxima, Float.NEGATIVE_INFINITY);
+		Arrays.fill(orientationSums, 0);
+		Arrays.fill(orientationWeights, 0);
+	}
+
+	/**
+	 * Returns the resolution of the tier.
+	 * 
+	 * @return duration of a bucket in milliseconds
+	 */
+	long getResolution() {
+		return resolution;
+	}
+
+	/**
+	 * Returns the start of the oldest stored bucket.
+	 * 
+	 * @return time in milliseconds or <code>Long.MAX_VALUE</code> if the tier
+	 *         is empty
+	 */
+	long getOldestStart() {
+		return size > 0 ? starts[head] : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Copies the buckets overlapping the given range.
+	 * 
+	 * @param from
+	 *            start of the range in milliseconds
+	 * @param to
+	 *            end of the range in milliseconds (inclusive)
+	 * @param jointTypes
+	 *            joint types of the copied joints
+	 * @param jointIndices
+	 *            indices of the copied joints
+	 * @return buckets in chronological order
+	 */
+	List<HistoryBucket> getBuckets(long from, long to, JointType[] jointTypes, int[] jointIndices) {
+		// first bucket ending after the start of the range
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (starts[(head + middle) % capacity] + resolution <= from)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+
+		List<HistoryBucket> buckets = new ArrayList<HistoryBucket>();
+		for (int i = low; i < size; i++) {
+			int slot = (head + i) % capacity;
+			if (starts[slot] > to)
+				break;
+			float[] bucketPositions = new float[jointIndices.length * POSITION_SIZE];
+			float[] bucketOrientations = new float[jointIndices.length * ORIENTATION_SIZE];
+			for (int j = 0; j < jointIndices.length; j++) {
+				System.arraycopy(positions, (slot * jointCount + jointIndices[j]) * POSITION_SIZE, bucketPositions, j
+						* POSITION_SIZE, POSITION_SIZE);
+				System.arraycopy(orientations, (slot * jointCount + jointIndices[j]) * ORIENTATION_SIZE, bucketOrientations, j
+						* ORIENTATION_SIZE, ORIENTATION_SIZE);
+			}
+			buckets.add(new HistoryBucket(starts[slot], resolution, counts[slot], jointTypes, bucketPositions, bucketOrientations));
+		}
+		return buckets;
+	}
+}
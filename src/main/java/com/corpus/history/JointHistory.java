@@ -0,0 +1,271 @@
+package com.corpus.history;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.scene.Scene;
+
+/**
+ * <p>
+ * Keeps the last fused frames as time series of primitive values, one ring
+ * buffer per joint. A frame is added after the fusion, before it is filtered,
+ * thus a filter reads its own input series including the current frame
+ * (age 0), not its output. Filters read the arrays directly instead of walking
+ * the joints of the {@link Scene}s of the history, e.g. the last ten positions
+ * of a joint are
+ * </p>
+ * 
+ * <pre>
+ * double[] positions = history.getPositions(JointType.HEAD);
+ * for (int age = 0; age &lt; Math.min(10, history.size()); age++) {
+ * 	int p = history.slot(age) * JointHistory.POSITION_SIZE;
+ * 	double x = positions[p], y = positions[p + 1], z = positions[p + 2];
+ * }
+ * </pre>
+ * <p>
+ * The arrays of a joint are indexed by the slot of a frame: positions
+ * (x, y, z) at <code>slot * POSITION_SIZE</code>, orientations (q0, q1, q2,
+ * q3) at <code>slot * ORIENTATION_SIZE</code>, tracking states, confidences and
+ * timestamps at <code>slot</code>. Missing values are NaN. The arrays are
+ * overwritten when further frames are added, thus they must only be read by
+ * the thread adding the frames, i.e. by the filters during an update. The
+ * history is only kept if the filter uses it (see
+ * {@link com.corpus.filter.Filter#usesJointHistory()}).
+ * </p>
+ * 
+ * @author agent
+ * 
+ */
+public class JointHistory {
+
+	// number of values per frame of a joint
+	public static final int POSITION_SIZE = 3;
+	public static final int ORIENTATION_SIZE = 4;
+
+	private final JointType[] jointTypes;
+	private final int capacity;
+
+	// ring buffers indexed by the ordinal of the joint type, null if the joint
+	// is not part of the body model
+	private final double[][] positions;
+	private final double[][] orientations;
+	private final boolean[][] positionTracked;
+	private final boolean[][] orientationTracked;
+	private final float[][] positionConfidences;
+	private final float[][] orientationConfidences;
+
+	// timestamps (milliseconds) of the frames
+	private final long[] timestamps;
+
+	// slot of the newest frame and number of frames
+	private int newest = -1;
+	private int size;
+
+	/**
+	 * Creates an empty history.
+	 * 
+	 * @param jointTypes
+	 *            joints of the body model
+	 * @param capacity
+	 *            maximum number of frames
+	 */
+	public JointHistory(Collection<JointType> jointTypes, int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("The capacity of the history should be greater than 0.");
+		this.jointTypes = jointTypes.toArray(new JointType[jointTypes.size()]);
+		this.capacity = capacity;
+		int count = JointType.values().length;
+		positions = new double[count][];
+		orientations = new double[count][];
+		positionTracked = new boolean[count][];
+		orientationTracked = new boolean[count][];
+		positionConfidences = new float[count][];
+		orientationConfidences = new float[count][];
+		for (JointType jointType : this.jointTypes) {
+			int j = jointType.ordinal();
+			positions[j] = new double[capacity * POSITION_SIZE];
+			orientations[j] = new double[capacity * ORIENTATION_SIZE];
+			positionTracked[j] = new boolean[capacity];
+			orientationTracked[j] = new boolean[capacity];
+			positionConfidences[j] = new float[capacity];
+			orientationConfidences[j] = new float[capacity];
+		}
+		timestamps = new long[capacity];
+	}
+
+	/**
+	 * Adds a frame to the history. If the history is full, the oldest frame is
+	 * overwritten.
+	 * 
+	 * @param scene
+	 *            {@link Scene} of the frame
+	 */
+	public void add(Scene scene) {
+		int slot = newest + 1 == capacity ? 0 : newest + 1;
+		timestamps[slot] = scene.getTimestamp() != null ? scene.getTimestamp().getTimeInMillis() : 0;
+		for (JointType jointType : jointTypes) {
+			int j = jointType.ordinal();
+			Joint joint = scene.getJoints().get(jointType);
+			Vector3D position = joint != null ? joint.getAbsolutePosition() : null;
+			Rotation orientation = joint != null ? joint.getAbsoluteOrientation() : null;
+
+			int p = slot * POSITION_SIZE;
+			if (position != null) {
+				positions[j][p] = position.getX();
+				positions[j][p + 1] = position.getY();
+				positions[j][p + 2] = position.getZ();
+			} else
+				Arrays.fill(positions[j], p, p + POSITION_SIZE, Double.NaN);
+
+			int o = slot * ORIENTATION_SIZE;
+			if (orientation != null) {
+				orientations[j][o] = orientation.getQ0();
+				orientations[j][o + 1] = orientation.getQ1();
+				orientations[j][o + 2] = orientation.getQ2();
+				orientations[j][o + 3] = orientation.getQ3();
+			} else
+				Arrays.fill(orientations[j], o, o + ORIENTATION_SIZE, Double.NaN);
+
+			positionTracked[j][slot] = joint != null && joint.getPositionTracked();
+			orientationTracked[j][slot] = joint != null && joint.getOrientationTracked();
+			positionConfidences[j][slot] = joint != null ? joint.getPositionConfidence() : Float.NaN;
+			orientationConfidences[j][slot] = joint != null ? joint.getOrientationConfidence() : Float.NaN;
+		}
+		newest = slot;
+		if (size < capacity)
+			size++;
+	}
+
+	/**
+	 * Removes all frames.
+	 */
+	public void clear() {
+		newest = -1;
+		size = 0;
+	}
+
+	/**
+	 * Returns the number of frames in the history.
+	 * 
+	 * @return number of frames
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the maximum number of frames.
+	 * 
+	 * @return capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the slot of a frame in the arrays.
+	 * 
+	 * @param age
+	 *            age of the frame (0 for the newest frame, {@link #size()} - 1
+	 *            for the oldest frame)
+	 * @return slot of the frame
+	 */
+	public int slot(int age) {
+		if (age < 0 || age >= size)
+			throw new IndexOutOfBoundsException("Age: " + age + ", Size: " + size);
+		int slot = newest - age;
+		return slot < 0 ? slot + capacity : slot;
+	}
+
+	/**
+	 * Returns the timestamp of a frame.
+	 * 
+	 * @param age
+	 *            age of the frame (0 for the newest frame)
+	 * @return timestamp in milliseconds
+	 */
+	public long getTimestamp(int age) {
+		return timestamps[slot(age)];
+	}
+
+	/**
+	 * Returns the timestamps of the frames indexed by the slot.
+	 * 
+	 * @return timestamps in milliseconds
+	 */
+	public long[] getTimestamps() {
+		return timestamps;
+	}
+
+	/**
+	 * Returns the absolute positions of a joint.
+	 * 
+	 * @param jointType
+	 * @return positions (x, y, z) indexed by <code>slot * POSITION_SIZE</code>
+	 *         or <code>null</code> if the joint is not part of the body model
+	 */
+	public double[] getPositions(JointType jointType) {
+		return positions[jointType.ordinal()];
+	}
+
+	/**
+	 * Returns the absolute orientations of a joint.
+	 * 
+	 * @param jointType
+	 * @return orientations (q0, q1, q2, q3) indexed by
+	 *         <code>slot * ORIENTATION_SIZE</code> or <code>null</code> if the
+	 *         joint is not part of the body model
+	 */
+	public double[] getOrientations(JointType jointType) {
+		return orientations[jointType.ordinal()];
+	}
+
+	/**
+	 * Returns the position tracking states of a joint.
+	 * 
+	 * @param jointType
+	 * @return tracking states indexed by the slot or <code>null</code> if the
+	 *         joint is not part of the body model
+	 */
+	public boolean[] getPositionTracked(JointType jointType) {
+		return positionTracked[jointType.ordinal()];
+	}
+
+	/**
+	 * Returns the orientation tracking states of a joint.
+	 * 
+	 * @param jointType
+	 * @return tracking states indexed by the slot or <code>null</code> if the
+	 *         joint is not part of the body model
+	 */
+	public boolean[] getOrientationTracked(JointType jointType) {
+		return orientationTracked[jointType.ordinal()];
+	}
+
+	/**
+	 * Returns the position confidences of a joint.
+	 * 
+	 * @param jointType
+	 * @return confidences indexed by the slot or <code>null</code> if the joint
+	 *         is not part of the body model
+	 */
+	public float[] getPositionConfidences(JointType jointType) {
+		return positionConfidences[jointType.ordinal()];
+	}
+
+	/**
+	 * Returns the orientation confidences of a joint.
+	 * 
+	 * @param jointType
+	 * @return confidences indexed by the slot or <code>null</code> if the joint
+	 *         is not part of the body model
+	 */
+	public float[] getOrientationConfidences(JointType jointType) {
+		return orientationConfidences[jointType.ordinal()];
+	}
+}
@@ -0,0 +1,222 @@
+package com.corpus.history;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.scene.Scene;
+
+/**
+ * <p>
+ * Keeps a long history of the model in memory by aggregating the frames into
+ * tiers of decreasing resolution, e.g. buckets of 100 milliseconds for the
+ * last minute and buckets of one second for the last hour. Every bucket
+ * contains the mean, minimum and maximum of the absolute position and the mean
+ * absolute orientation of every joint. The tiers are maintained incrementally:
+ * every frame is added to the first tier, every completed bucket of a tier is
+ * added to the next tier.
+ * </p>
+ * <p>
+ * The memory used by the tiers is bounded by {@link #BUDGET}, which also
+ * covers the estimated size of the full rate history of the
+ * {@link com.corpus.controller.SceneController SceneController}. If the
+ * configured tiers do not fit into the budget, their durations are shortened
+ * proportionally.
+ * </p>
+ * 
+ * @author agent
+ * 
+ */
+public class TieredHistory {
+
+	// resolutions (milliseconds) and durations (milliseconds) of the tiers
+	public static long[] RESOLUTIONS = new long[0];
+	public static long[] DURATIONS = new long[0];
+
+	// memory budget in bytes
+	public static long BUDGET = 32L * 1024 * 1024;
+
+	// estimated size of a joint of the full rate history in bytes
+	public static final int FULL_RATE_BYTES_PER_JOINT = 400;
+
+	private final JointType[] jointTypes;
+	private final int[] jointIndices;
+	private final HistoryTier[] tiers;
+	private final long memoryUsage;
+
+	// positions and orientations of the current frame
+	private final float[] framePositions;
+	private final float[] frameOrientations;
+
+	/**
+	 * Creates the tiers configured by {@link #RESOLUTIONS} and
+	 * {@link #DURATIONS}.
+	 * 
+	 * @param jointTypes
+	 *            joints of the body model
+	 * @param fullRateFrames
+	 *            size of the full rate history
+	 */
+	public TieredHistory(Collection<JointType> jointTypes, int fullRateFrames) {
+		this.jointTypes = jointTypes.toArray(new JointType[jointTypes.size()]);
+		Arrays.sort(this.jointTypes);
+		jointIndices = new int[JointType.values().length];
+		Arrays.fill(jointIndices, -1);
+		for (int i = 0; i < this.jointTypes.length; i++)
+			jointIndices[this.jointTypes[i].ordinal()] = i;
+		framePositions = new float[this.jointTypes.length * HistoryTier.POSITION_SIZE];
+		frameOrientations = new float[this.jointTypes.length * HistoryTier.ORIENTATION_SIZE];
+
+		// fit the tiers into the budget
+		long[] capacities = new long[RESOLUTIONS.length];
+		long required = 0;
+		for (int i = 0; i < capacities.length; i++) {
+			capacities[i] = Math.max(DURATIONS[i] / RESOLUTIONS[i], 1);
+			required += HistoryTier.getMemoryUsage(capacities[i], this.jointTypes.length);
+		}
+		long available = BUDGET - (long) fullRateFrames * this.jointTypes.length * FULL_RATE_BYTES_PER_JOINT;
+		if (required > available) {
+			System.err.println("WARNING: The history tiers exceed the memory budget and are shortened.");
+			double factor = Math.max(available, 0) / (double) required;
+			for (int i = 0; i < capacities.length; i++)
+				capacities[i] = Math.max((long) (capacities[i] * factor), 1);
+		}
+
+		tiers = new HistoryTier[RESOLUTIONS.length];
+		long usage = 0;
+		for (int i = 0; i < tiers.length; i++) {
+			tiers[i] = new HistoryTier(RESOLUTIONS[i], (int) Math.min(capacities[i], Integer.MAX_VALUE), this.jointTypes.length);
+			usage += HistoryTier.getMemoryUsage(capacities[i], this.jointTypes.length);
+			if (i > 0)
+				tiers[i - 1].setNext(tiers[i]);
+		}
+		memoryUsage = usage;
+	}
+
+	/**
+	 * Adds a frame to the history.
+	 * 
+	 * @param scene
+	 *            {@link Scene} of the frame
+	 */
+	public synchronized void add(Scene scene) {
+		if (tiers.length == 0 || scene.getTimestamp() == null)
+			return;
+		for (int j = 0; j < jointTypes.length; j++) {
+			Joint joint = scene.getJoints().get(jointTypes[j]);
+			Vector3D position = joint != null ? joint.getAbsolutePosition() : null;
+			Rotation orientation = joint != null ? joint.getAbsoluteOrientation() : null;
+
+			int p = j * HistoryTier.POSITION_SIZE;
+			if (position != null) {
+				for (int k = 0; k < 3; k++) {
+					framePositions[p + k * 3] = (float) position.getX();
+					framePositions[p + k * 3 + 1] = (float) position.getY();
+					framePositions[p + k * 3 + 2] = (float) position.getZ();
+				}
+			} else
+				Arrays.fill(framePositions, p, p + HistoryTier.POSITION_SIZE, Float.NaN);
+
+			int o = j * HistoryTier.ORIENTATION_SIZE;
+			if (orientation != null) {
+				frameOrientations[o] = (float) orientation.getQ0();
+				frameOrientations[o + 1] = (float) orientation.getQ1();
+				frameOrientations[o + 2] = (float) orientation.getQ2();
+				frameOrientations[o + 3] = (float) orientation.getQ3();
+			} else
+				Arrays.fill(frameOrientations, o, o + HistoryTier.ORIENTATION_SIZE, Float.NaN);
+		}
+		tiers[0].add(scene.getTimestamp().getTimeInMillis(), 1, framePositions, 0, frameOrientations, 0);
+	}
+
+	/**
+	 * Returns the number of tiers.
+	 * 
+	 * @return number of tiers
+	 */
+	public int getTierCount() {
+		return tiers.length;
+	}
+
+	/**
+	 * Returns the tier with the given resolution.
+	 * 
+	 * @param resolution
+	 *            duration of a bucket in milliseconds
+	 * @return index of the tier or <code>-1</code> if there is no such tier
+	 */
+	public int getTier(long resolution) {
+		for (int i = 0; i < tiers.length; i++) {
+			if (tiers[i].getResolution() == resolution)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the finest tier reaching back to the given time. If no tier
+	 * reaches back far enough, the coarsest tier is returned.
+	 * 
+	 * @param from
+	 *            time in milliseconds
+	 * @return index of the tier or <code>-1</code> if there are no tiers
+	 */
+	public synchronized int selectTier(long from) {
+		for (int i = 0; i < tiers.length; i++) {
+			if (tiers[i].getOldestStart() <= from)
+				return i;
+		}
+		return tiers.length - 1;
+	}
+
+	/**
+	 * Returns the resolution of a tier.
+	 * 
+	 * @param tier
+	 *            index of the tier
+	 * @return duration of a bucket in milliseconds
+	 */
+	public long getResolution(int tier) {
+		return tiers[tier].getResolution();
+	}
+
+	/**
+	 * Returns the completed buckets of a tier overlapping the given range.
+	 * 
+	 * @param tier
+	 *            index of the tier
+	 * @param from
+	 *            start of the range in milliseconds
+	 * @param to
+	 *            end of the range in milliseconds (inclusive)
+	 * @param selectedJoints
+	 *            joints contained in the buckets
+	 * @return buckets in chronological order
+	 */
+	public synchronized List<HistoryBucket> getBuckets(int tier, long from, long to, List<JointType> selectedJoints) {
+		List<JointType> contained = new ArrayList<JointType>();
+		for (JointType jointType : selectedJoints) {
+			if (jointIndices[jointType.ordinal()] >= 0)
+				contained.add(jointType);
+		}
+		int[] indices = new int[contained.size()];
+		for (int i = 0; i < indices.length; i++)
+			indices[i] = jointIndices[contained.get(i).ordinal()];
+		return tiers[tier].getBuckets(from, to, contained.toArray(new JointType[contained.size()]), indices);
+	}
+
+	/**
+	 * Returns the memory used by the tiers.
+	 * 
+	 * @return bytes
+	 */
+	public long getMemoryUsage() {
+		return memoryUsage;
+	}
+}
@@ -0,0 +1,211 @@
+package com.corpus.recording;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+
+import com.corpus.scene.Joint;
+import com.corpus.scene.ModelInitializer;
+import com.corpus.scene.Scene;
+import com.corpus.scene.SceneNode;
+
+/**
+ * <p>
+ * Exports the frames as Biovision Hierarchy (BVH). The hierarchy is the body
+ * model created by the {@link ModelInitializer}: every root {@link Joint} is
+ * written as <code>ROOT</code> with position and rotation channels, every
+ * other {@link Joint} as <code>JOINT</code> with rotation channels and its
+ * default position relative to its parent as offset. Joints without children
+ * end with an <code>End Site</code> at the joint itself.
+ * </p>
+ * <p>
+ * The rotations are the orientations relative to the parent as Euler angles in
+ * degrees in the order <code>Zrotation Xrotation Yrotation</code>. As BVH
+ * bones have a fixed length, the positions of the non-root joints follow from
+ * the rotations and the bone lengths of the body model, not from the fused
+ * positions. The units are centimeters.
+ * </p>
+ * 
+ * @author agent
+ * 
+ */
+public class BvhExporter extends FrameExporter {
+
+	// Euler angles closer to +-90 degrees are treated as gimbal lock
+	private static final double GIMBAL_LOCK_THRESHOLD = 0.999999;
+
+	// joints of the hierarchy in the order of the channels
+	private final List<Joint> joints = new ArrayList<Joint>();
+
+	/**
+	 * Creates the exporter.
+	 * 
+	 * @param model
+	 *            {@link Scene} containing the body model
+	 * @param out
+	 */
+	public BvhExporter(Scene model, Writer out) {
+		super(model, out);
+	}
+
+	@Override
+	protected void begin(long frames, double frameTime) throws IOException {
+		List<Joint> roots = new ArrayList<Joint>(model.getRootJoints());
+		Collections.sort(roots, new Comparator<Joint>() {
+			@Override
+			public int compare(Joint a, Joint b) {
+				return a.getJointType().compareTo(b.getJointType());
+			}
+		});
+
+		line.append("HIERARCHY");
+		writeLine();
+		for (Joint root : roots)
+			writeJoint(root, 0);
+		line.append("MOTION");
+		writeLine();
+		line.append("Frames: ").append(frames);
+		writeLine();
+		line.append("Frame Time: ");
+		appendNumber(frameTime / 1000);
+		writeLine();
+	}
+
+	/**
+	 * Writes the definition of a {@link Joint} and its children.
+	 * 
+	 * @param joint
+	 * @param depth
+	 *            depth in the hierarchy
+	 * @throws IOException
+	 */
+	private void writeJoint(Joint joint, int depth) throws IOException {
+		joints.add(joint);
+		boolean root = joint.getParent() == null;
+		indent(depth);
+		line.append(root ? "ROOT " : "JOINT ").append(joint.getJointType().name());
+		writeLine();
+		indent(depth);
+		line.append('{');
+		writeLine();
+		indent(depth + 1);
+		line.append("OFFSET ");
+		appendVector(root ? Vector3D.ZERO : joint.getDefaultPosition());
+		writeLine();
+		indent(depth + 1);
+		line.append(root ? "CHANNELS 6 Xposition Yposition Zposition Zrotation Xrotation Yrotation"
+				: "CHANNELS 3 Zrotation Xrotation Yrotation");
+		writeLine();
+
+		boolean leaf = true;
+		for (SceneNode child : joint.getChildren()) {
+			if (child instanceof Joint) {
+				writeJoint((Joint) child, depth + 1);
+				leaf = false;
+			}
+		}
+		if (leaf) {
+			indent(depth + 1);
+			line.append("End Site");
+			writeLine();
+			indent(depth + 1);
+			line.append('{');
+			writeLine();
+			indent(depth + 2);
+			line.append("OFFSET 0 0 0");
+			writeLine();
+			indent(depth + 1);
+			line.append('}');
+			writeLine();
+		}
+
+		indent(depth);
+		line.append('}');
+		writeLine();
+	}
+
+	@Override
+	protected void writeFrame(Scene frame) throws IOException {
+		for (int i = 0; i < joints.size(); i++) {
+			Joint joint = joints.get(i);
+			if (i > 0)
+				line.append(' ');
+			Rotation orientation;
+			if (joint.getParent() == null) {
+				Vector3D position = joint.getAbsolutePosition();
+				appendVector(position != null ? position : joint.getDefaultPosition());
+				line.append(' ');
+				orientation = joint.getAbsoluteOrientation();
+			} else
+				orientation = joint.getRelativeOrientation();
+			appendEulerAngles(orientation);
+		}
+		writeLine();
+	}
+
+	/**
+	 * Appends the Euler angles (degrees) of a rotation in the order Z, X, Y.
+	 * The angles describe the rotation of the joint's coordinate frame, i.e.
+	 * the matrix <code>Rz * Rx * Ry</code> equals the matrix mapping vectors of
+	 * the joint to the parent (see {@link Rotation#applyInverseTo(Vector3D)}).
+	 * 
+	 * @param orientation
+	 *            rotation or <code>null</code> for no rotation
+	 */
+	private void appendEulerAngles(Rotation orientation) {
+		if (orientation == null) {
+			line.append("0 0 0");
+			return;
+		}
+		double w = orientation.getQ0();
+		double x = orientation.getQ1();
+		double y = orientation.getQ2();
+		double z = orientation.getQ3();
+
+		// elements of the rotation matrix used by the decomposition
+		double m00 = 1 - 2 * (y * y + z * z);
+		double m01 = 2 * (x * y - w * z);
+		double m10 = 2 * (x * y + w * z);
+		double m11 = 1 - 2 * (x * x + z * z);
+		double m20 = 2 * (x * z - w * y);
+		double m21 = 2 * (y * z + w * x);
+		double m22 = 1 - 2 * (x * x + y * y);
+
+		double angleX;
+		double angleY;
+		double angleZ;
+		if (Math.abs(m21) < GIMBAL_LOCK_THRESHOLD) {
+			angleX = Math.asin(m21);
+			angleY = Math.atan2(-m20, m22);
+			angleZ = Math.atan2(-m01, m11);
+		} else {
+			angleX = Math.copySign(Math.PI / 2, m21);
+			angleY = 0;
+			angleZ = Math.atan2(m10, m00);
+		}
+		appendNumber(Math.toDegrees(angleZ));
+		line.append(' ');
+		appendNumber(Math.toDegrees(angleX));
+		line.append(' ');
+		appendNumber(Math.toDegrees(angleY));
+	}
+
+	private void appendVector(Vector3D vector) {
+		appendNumber(vector.getX());
+		line.append(' ');
+		appendNumber(vector.getY());
+		line.append(' ');
+		appendNumber(vector.getZ());
+	}
+
+	private void indent(int depth) {
+		for (int i = 0; i < depth; i++)
+			line.append('\t');
+	}
+}
@@ -0,0 +1,94 @@
+package com.corpus.recording;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.scene.Scene;
+
+/**
+ * Exports the frames as comma-separated values with one line per frame and
+ * {@link Joint}:
+ * 
+ * <pre>
+ * sequenceNumber,timestamp,jointType,positionX,positionY,positionZ,orientationW,orientationX,orientationY,orientationZ,
+ * positionTracked,orientationTracked,positionConfidence,orientationConfidence
+ * </pre>
+ * <p>
+ * Positions and orientations are absolute, the orientation is written as the
+ * quaternion of the JSON model. Missing values are left empty.
+ * </p>
+ * 
+ * @author agent
+ * 
+ */
+public class CsvExporter extends FrameExporter {
+
+	private static final String HEADER = "sequenceNumber,timestamp,jointType,positionX,positionY,positionZ,"
+			+ "orientationW,orientationX,orientationY,orientationZ,positionTracked,orientationTracked,positionConfidence,orientationConfidence";
+
+	private final List<JointType> jointTypes;
+
+	/**
+	 * Creates the exporter.
+	 * 
+	 * @param model
+	 *            {@link Scene} containing the body model
+	 * @param jointTypes
+	 *            exported {@link Joint}s in the order of the lines
+	 * @param out
+	 */
+	public CsvExporter(Scene model, List<JointType> jointTypes, Writer out) {
+		super(model, out);
+		this.jointTypes = jointTypes;
+	}
+
+	@Override
+	protected void begin(long frames, double frameTime) throws IOException {
+		line.append(HEADER);
+		writeLine();
+	}
+
+	@Override
+	protected void writeFrame(Scene frame) throws IOException {
+		long timestamp = frame.getTimestamp().getTimeInMillis();
+		for (JointType jointType : jointTypes) {
+			Joint joint = frame.getJoints().get(jointType);
+			if (joint == null)
+				continue;
+			line.append(frame.getSequenceNumber()).append(',').append(timestamp).append(',').append(jointType.name()).append(',');
+			Vector3D position = joint.getAbsolutePosition();
+			if (position != null) {
+				appendNumber(position.getX());
+				line.append(',');
+				appendNumber(position.getY());
+				line.append(',');
+				appendNumber(position.getZ());
+				line.append(',');
+			} else
+				line.append(",,,");
+			Rotation orientation = joint.getAbsoluteOrientation();
+			if (orientation != null) {
+				appendNumber(orientation.getQ0());
+				line.append(',');
+				appendNumber(orientation.getQ1());
+				line.append(',');
+				appendNumber(orientation.getQ2());
+				line.append(',');
+				appendNumber(orientation.getQ3());
+				line.append(',');
+			} else
+				line.append(",,,,");
+			line.append(joint.getPositionTracked()).append(',').append(joint.getOrientationTracked()).append(',');
+			appendNumber(joint.getPositionConfidence());
+			line.append(',');
+			appendNumber(joint.getOrientationConfidence());
+			writeLine();
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.corpus.recording;
+
+import java.io.Writer;
+import java.util.List;
+
+import com.corpus.scene.JointType;
+import com.corpus.scene.Scene;
+
+/**
+ * Formats a {@link FrameJournal} can be exported to.
+ * 
+ * <ul>
+ * <li><code>CSV</code>: comma-separated values with one line per frame and
+ * joint (see {@link CsvExporter})</li>
+ * <li><code>BVH</code>: Biovision Hierarchy of the body model (see
+ * {@link BvhExporter})</li>
+ * </ul>
+ * 
+ * @author agent
+ * 
+ */
+public enum ExportFormat {
+	CSV("text/csv", "csv"), BVH("text/plain", "bvh");
+
+	private final String mediaType;
+	private final String extension;
+
+	private ExportFormat(String mediaType, String extension) {
+		this.mediaType = mediaType;
+		this.extension = extension;
+	}
+
+	/**
+	 * Returns the media type of the exported file.
+	 * 
+	 * @return media type
+	 */
+	public String getMediaType() {
+		return mediaType;
+	}
+
+	/**
+	 * Returns the file extension of the exported file.
+	 * 
+	 * @return extension without dot
+	 */
+	public String getExtension() {
+		return extension;
+	}
+
+	/**
+	 * Creates an exporter of this format.
+	 * 
+	 * @param model
+	 *            {@link Scene} containing the body model
+	 * @param jointTypes
+	 *            exported joints (only used by the CSV export, the BVH export
+	 *            contains the whole hierarchy)
+	 * @param out
+	 * @return {@link FrameExporter}
+	 */
+	public FrameExporter createExporter(Scene model, List<JointType> jointTypes, Writer out) {
+		if (this == BVH)
+			return new BvhExporter(model, out);
+		return new CsvExporter(model, jointTypes, out);
+	}
+}
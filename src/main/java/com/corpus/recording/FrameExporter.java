@@ -0,0 +1,151 @@
+package com.corpus.recording;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import com.corpus.controller.Controller;
+import com.corpus.scene.Scene;
+
+/**
+ * <p>
+ * Base class of the exporters converting a {@link FrameJournal} into a file
+ * format of other tools (see {@link ExportFormat}). The frames are read one
+ * after another into a single {@link Scene} and written immediately, thus the
+ * memory needed does not depend on the length of the recording.
+ * </p>
+ * <p>
+ * A range of the journal is exported in two passes: the first pass skips over
+ * the records to count the frames and to determine the frame time, the second
+ * pass decodes and writes them.
+ * </p>
+ * 
+ * @author agent
+ * 
+ */
+public abstract class FrameExporter {
+
+	protected final Scene model;
+	protected final Writer out;
+
+	// buffer of the current line
+	protected final StringBuilder line = new StringBuilder();
+
+	/**
+	 * Creates the exporter.
+	 * 
+	 * @param model
+	 *            {@link Scene} containing the body model, the frames are read
+	 *            into this {@link Scene}
+	 * @param out
+	 *            {@link Writer} the export is written to
+	 */
+	protected FrameExporter(Scene model, Writer out) {
+		this.model = model;
+		this.out = out;
+	}
+
+	/**
+	 * Writes the frames of the given journal recorded between the given
+	 * timestamps. The {@link Writer} is flushed, but not closed.
+	 * 
+	 * @param reader
+	 *            opened journal
+	 * @param from
+	 *            timestamp of the first frame (milliseconds, inclusive)
+	 * @param to
+	 *            timestamp of the last frame (milliseconds, inclusive)
+	 * @return number of written frames
+	 * @throws IOException
+	 */
+	public long export(FrameJournalReader reader, long from, long to) throws IOException {
+		// count the frames
+		long frames = 0;
+		long first = -1;
+		long last = -1;
+		if (reader.seekTimestamp(from)) {
+			long timestamp;
+			while ((timestamp = reader.peekTimestamp()) >= 0 && timestamp <= to) {
+				reader.skip();
+				if (first < 0)
+					first = timestamp;
+				last = timestamp;
+				frames++;
+			}
+		}
+		double frameTime = frames > 1 ? (last - first) / (double) (frames - 1) : 1000.0 / Controller.UPDATE_FREQUENCY;
+
+		// write the frames
+		begin(frames, frameTime);
+		if (frames > 0) {
+			reader.seekTimestamp(from);
+			for (long i = 0; i < frames && reader.next(model); i++)
+				writeFrame(model);
+		}
+		end();
+		out.flush();
+		return frames;
+	}
+
+	/**
+	 * Writes the header of the export.
+	 * 
+	 * @param frames
+	 *            number of exported frames
+	 * @param frameTime
+	 *            mean time between two frames in milliseconds
+	 * @throws IOException
+	 */
+	protected abstract void begin(long frames, double frameTime) throws IOException;
+
+	/**
+	 * Writes a frame.
+	 * 
+	 * @param frame
+	 *            {@link Scene} containing the frame, which is overwritten by
+	 *            the next frame
+	 * @throws IOException
+	 */
+	protected abstract void writeFrame(Scene frame) throws IOException;
+
+	/**
+	 * Writes the end of the export. Does nothing by default.
+	 * 
+	 * @throws IOException
+	 */
+	protected void end() throws IOException {
+	}
+
+	/**
+	 * Writes the current line followed by a line break and clears it.
+	 * 
+	 * @throws IOException
+	 */
+	protected void writeLine() throws IOException {
+		line.append('\n');
+		out.append(line);
+		line.setLength(0);
+	}
+
+	/**
+	 * Appends a number with at most four decimal places to the current line.
+	 * The number is never written in scientific notation.
+	 * 
+	 * @param value
+	 */
+	protected void appendNumber(double value) {
+		long scaled = Math.round(value * 10000);
+		if (scaled < 0) {
+			line.append('-');
+			scaled = -scaled;
+		}
+		line.append(scaled / 10000);
+		int decimals = (int) (scaled % 10000);
+		if (decimals == 0)
+			return;
+		line.append('.');
+		for (int divisor = 1000; divisor > 0 && decimals > 0; divisor /= 10) {
+			line.append((char) ('0' + decimals / divisor));
+			decimals %= divisor;
+		}
+	}
+}
@@ -0,0 +1,257 @@
+package com.corpus.recording;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.scene.Scene;
+
+/**
+ * <p>
+ * Describes the layout of a journal of fused frames. A journal is a directory
+ * containing numbered segments (<code>00000000.seg</code>, ...). Every segment
+ * is a preallocated file which is written through a memory mapping. It
+ * contains a sequence of records:
+ * </p>
+ * 
+ * <pre>
+ * int    length of the payload (0 marks the end of the segment)
+ * int    CRC32 of the payload
+ * long   sequence number
+ * long   timestamp (milliseconds)
+ * short  number of joints
+ * joints: byte joint type, byte flags, 3 floats position, 4 floats orientation,
+ *         float position confidence, float orientation confidence
+ * </pre>
+ * <p>
+ * Position and orientation are only contained if the corresponding flag is
+ * set. Every segment has a sparse index (<code>00000000.idx</code>) containing
+ * the sequence number, timestamp and offset of every
+ * {@link #INDEX_INTERVAL}-th record, thus a frame can be found by a binary
+ * search and a short scan.
+ * </p>
+ * 
+ * @author agent
+ * 
+ */
+public class FrameJournal {
+
+	// size of a segment in bytes
+	public static int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	// number of records between two index entries
+	public static int INDEX_INTERVAL = 64;
+
+	// size of the record header and an index entry in bytes
+	public static final int RECORD_HEADER_SIZE = 8;
+	public static final int INDEX_ENTRY_SIZE = 20;
+
+	// joint flags
+	public static final byte HAS_POSITION = 1;
+	public static final byte HAS_ORIENTATION = 2;
+	public static final byte POSITION_TRACKED = 4;
+	public static final byte ORIENTATION_TRACKED = 8;
+
+	private static final JointType[] JOINT_TYPES = JointType.values();
+	private static final int FRAME_HEADER_SIZE = 18;
+	private static final int JOINT_SIZE = 2 + 9 * 4;
+
+	/**
+	 * Encodes the given {@link Scene} as a record.
+	 * 
+	 * @param scene
+	 * @return record including the header
+	 */
+	public static byte[] encode(Scene scene) {
+		return encode(scene, 0);
+	}
+
+	/**
+	 * Encodes the given {@link Scene} as a record.
+	 * 
+	 * @param scene
+	 * @param sequenceOffset
+	 *            offset added to the sequence number of the {@link Scene}
+	 * @return record including the header
+	 */
+	public static byte[] encode(Scene scene, long sequenceOffset) {
+		byte[] record = new byte[RECORD_HEADER_SIZE + FRAME_HEADER_SIZE + scene.getJoints().size() * JOINT_SIZE];
+		ByteBuffer buffer = ByteBuffer.wrap(record);
+		buffer.position(RECORD_HEADER_SIZE);
+		buffer.putLong(scene.getSequenceNumber() + sequenceOffset);
+		buffer.putLong(scene.getTimestamp() != null ? scene.getTimestamp().getTimeInMillis() : 0);
+		buffer.putShort((short) scene.getJoints().size());
+		for (Entry<JointType, Joint> entry : scene.getJoints().entrySet()) {
+			Joint joint = entry.getValue();
+			Vector3D position = joint.getAbsolutePosition();
+			Rotation orientation = joint.getAbsoluteOrientation();
+			int flags = (position != null ? HAS_POSITION : 0) | (orientation != null ? HAS_ORIENTATION : 0)
+					| (joint.getPositionTracked() ? POSITION_TRACKED : 0) | (joint.getOrientationTracked() ? ORIENTATION_TRACKED : 0);
+			buffer.put((byte) entry.getKey().ordinal());
+			buffer.put((byte) flags);
+			if (position != null) {
+				buffer.putFloat((float) position.getX());
+				buffer.putFloat((float) position.getY());
+				buffer.putFloat((float) position.getZ());
+			} else
+				buffer.position(buffer.position() + 12);
+			if (orientation != null) {
+				buffer.putFloat((float) orientation.getQ0());
+				buffer.putFloat((float) orientation.getQ1());
+				buffer.putFloat((float) orientation.getQ2());
+				buffer.putFloat((float) orientation.getQ3());
+			} else
+				buffer.position(buffer.position() + 16);
+			buffer.putFloat(joint.getPositionConfidence());
+			buffer.putFloat(joint.getOrientationConfidence());
+		}
+
+		int length = record.length - RECORD_HEADER_SIZE;
+		CRC32 crc = new CRC32();
+		crc.update(record, RECORD_HEADER_SIZE, length);
+		buffer.putInt(0, length);
+		buffer.putInt(4, (int) crc.getValue());
+		return record;
+	}
+
+	/**
+	 * Decodes the payload of a record into the given {@link Scene}. Only the
+	 * {@link Joint}s contained in the {@link Scene} are set.
+	 * 
+	 * @param payload
+	 *            buffer positioned at the start of the payload
+	 * @param scene
+	 *            {@link Scene} containing the body model
+	 */
+	public static void decode(ByteBuffer payload, Scene scene) {
+		long sequenceNumber = payload.getLong();
+		Calendar timestamp = Calendar.getInstance();
+		timestamp.setTimeInMillis(payload.getLong());
+		scene.setSequenceNumber(sequenceNumber);
+		scene.setTimestamp(timestamp);
+
+		int count = payload.getShort();
+		for (int i = 0; i < count; i++) {
+			Joint joint = scene.getJoints().get(JOINT_TYPES[payload.get() & 0xFF]);
+			int flags = payload.get();
+			if (joint == null) {
+				payload.position(payload.position() + JOINT_SIZE - 2);
+				continue;
+			}
+			float x = payload.getFloat();
+			float y = payload.getFloat();
+			float z = payload.getFloat();
+			if ((flags & HAS_POSITION) != 0)
+				joint.setAbsolutePosition(new Vector3D(x, y, z));
+			float q0 = payload.getFloat();
+			float q1 = payload.getFloat();
+			float q2 = payload.getFloat();
+			float q3 = payload.getFloat();
+			if ((flags & HAS_ORIENTATION) != 0)
+				joint.setAbsoluteOrientation(new Rotation(q0, q1, q2, q3, true));
+			joint.setPositionConfidence(payload.getFloat());
+			joint.setOrientationConfidence(payload.getFloat());
+			joint.setPositionTracked((flags & POSITION_TRACKED) != 0);
+			joint.setOrientationTracked((flags & ORIENTATION_TRACKED) != 0);
+			if (joint.getPositionTracked())
+				joint.setPositionTimestamp(timestamp);
+			if (joint.getOrientationTracked())
+				joint.setOrientationTimestamp(timestamp);
+		}
+	}
+
+	/**
+	 * Checks the record at the current position of the buffer.
+	 * 
+	 * @param buffer
+	 *            buffer positioned at the start of a record
+	 * @return length of the payload or -1 if there is no valid record
+	 */
+	public static int checkRecord(ByteBuffer buffer) {
+		int start = buffer.position();
+		if (buffer.limit() - start < RECORD_HEADER_SIZE + FRAME_HEADER_SIZE)
+			return -1;
+		int length = buffer.getInt(start);
+		if (length < FRAME_HEADER_SIZE || length > buffer.limit() - start - RECORD_HEADER_SIZE)
+			return -1;
+		CRC32 crc = new CRC32();
+		for (int i = start + RECORD_HEADER_SIZE; i < start + RECORD_HEADER_SIZE + length; i++)
+			crc.update(buffer.get(i));
+		if ((int) crc.getValue() != buffer.getInt(start + 4))
+			return -1;
+		return length;
+	}
+
+	/**
+	 * Releases the memory mapping of the given buffer. Otherwise the mapping
+	 * is only released when the buffer is garbage collected and until then
+	 * the file can neither be truncated nor renamed on some systems (e.g.
+	 * Windows). The buffer must not be used afterwards.
+	 * 
+	 * @param buffer
+	 */
+	public static void unmap(MappedByteBuffer buffer) {
+		try {
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null)
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+		} catch (Exception e) {
+			// not supported by the JVM, the mapping is released by the garbage
+			// collector
+		}
+	}
+
+	/**
+	 * Returns the segment files of the journal in the given directory.
+	 * 
+	 * @param directory
+	 * @return segment files in the order they were written
+	 */
+	public static File[] getSegments(File directory) {
+		File[] segments = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".seg");
+			}
+		});
+		if (segments == null)
+			return new File[0];
+		Arrays.sort(segments);
+		return segments;
+	}
+
+	/**
+	 * Returns the segment file with the given number.
+	 * 
+	 * @param directory
+	 * @param number
+	 * @return segment file
+	 */
+	public static File getSegment(File directory, int number) {
+		return new File(directory, String.format("%08d.seg", number));
+	}
+
+	/**
+	 * Returns the index file of the given segment.
+	 * 
+	 * @param segment
+	 * @return index file
+	 */
+	public static File getIndex(File segment) {
+		String name = segment.getName();
+		return new File(segment.getParentFile(), name.substring(0, name.length() - 4) + ".idx");
+	}
+}
@@ -0,0 +1,340 @@
+package com.corpus.recording;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.corpus.scene.Scene;
+
+/**
+ * <p>
+ * Reads a {@link FrameJournal} written by the {@link FrameJournalWriter}. The
+ * reader works like a cursor: {@link #next(Scene) next} reads the next frame
+ * into a {@link Scene}. The cursor can be positioned with
+ * {@link #seekSequenceNumber(long) seekSequenceNumber} and
+ * {@link #seekTimestamp(long) seekTimestamp}, which use a binary search over
+ * the sparse indices of the segments.
+ * </p>
+ * <p>
+ * A segment ends at its end marker or at the first incomplete or corrupt
+ * record, thus the journal of a crashed process can be read without recovery.
+ * </p>
+ * 
+ * @author agent
+ * 
+ */
+public class FrameJournalReader implements Closeable {
+
+	private final File[] segments;
+
+	// merged index of all segments
+	private final List<Integer> indexSegments = new ArrayList<Integer>();
+	private final List<Long> indexSequenceNumbers = new ArrayList<Long>();
+	private final List<Long> indexTimestamps = new ArrayList<Long>();
+	private final List<Integer> indexOffsets = new ArrayList<Integer>();
+
+	// cursor
+	private int segmentNumber = -1;
+	private RandomAccessFile segmentFile;
+	private MappedByteBuffer segment;
+
+	// current frame
+	private long sequenceNumber;
+	private long timestamp;
+
+	// timestamp of the last frame of the journal
+	private long lastTimestamp = -1;
+
+	/**
+	 * Opens the journal in the given directory.
+	 * 
+	 * @param directory
+	 * @throws IOException
+	 *             if the directory contains no journal
+	 */
+	public FrameJournalReader(File directory) throws IOException {
+		segments = FrameJournal.getSegments(directory);
+		if (segments.length == 0)
+			throw new IOException(directory + " contains no frame journal.");
+		for (int i = 0; i < segments.length; i++)
+			readIndex(i);
+
+		// scan the frames after the last index entry to find the end
+		if (!indexOffsets.isEmpty()) {
+			int last = indexOffsets.size() - 1;
+			openSegment(indexSegments.get(last), indexOffsets.get(last));
+			while (skip())
+				lastTimestamp = timestamp;
+		}
+		openSegment(0);
+	}
+
+	/**
+	 * Reads the index of a segment.
+	 * 
+	 * @param number
+	 *            position of the segment
+	 * @throws IOException
+	 */
+	private void readIndex(int number) throws IOException {
+		File file = FrameJournal.getIndex(segments[number]);
+		if (!file.exists())
+			return;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			long length = file.length() / FrameJournal.INDEX_ENTRY_SIZE;
+			for (long i = 0; i < length; i++) {
+				indexSegments.add(number);
+				indexSequenceNumbers.add(in.readLong());
+				indexTimestamps.add(in.readLong());
+				indexOffsets.add(in.readInt());
+			}
+		} catch (EOFException e) {
+			// incomplete index entry
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Opens a segment and positions the cursor at the given offset.
+	 * 
+	 * @param number
+	 *            position of the segment
+	 * @param offset
+	 * @throws IOException
+	 */
+	private void openSegment(int number, int offset) throws IOException {
+		if (number != segmentNumber) {
+			closeSegment();
+			segmentFile = new RandomAccessFile(segments[number], "r");
+			segment = segmentFile.getChannel().map(MapMode.READ_ONLY, 0, segmentFile.length());
+			segmentNumber = number;
+		}
+		segment.position(Math.min(offset, segment.limit()));
+	}
+
+	private void openSegment(int number) throws IOException {
+		openSegment(number, 0);
+	}
+
+	/**
+	 * Closes the current segment.
+	 * 
+	 * @throws IOException
+	 */
+	private void closeSegment() throws IOException {
+		if (segment != null)
+			FrameJournal.unmap(segment);
+		if (segmentFile != null)
+			segmentFile.close();
+		segmentFile = null;
+		segment = null;
+		segmentNumber = -1;
+	}
+
+	/**
+	 * Reads the next frame into the given {@link Scene}. Only the
+	 * {@link com.corpus.scene.Joint Joint}s contained in the {@link Scene} are
+	 * set.
+	 * 
+	 * @param scene
+	 *            {@link Scene} containing the body model
+	 * @return <code>false</code> at the end of the journal
+	 * @throws IOException
+	 */
+	public boolean next(Scene scene) throws IOException {
+		if (!advance())
+			return false;
+		int length = segment.getInt(segment.position());
+		segment.position(segment.position() + FrameJournal.RECORD_HEADER_SIZE);
+		int end = segment.position() + length;
+		FrameJournal.decode(segment, scene);
+		segment.position(end);
+		sequenceNumber = scene.getSequenceNumber();
+		timestamp = scene.getTimestamp().getTimeInMillis();
+		return true;
+	}
+
+	/**
+	 * Skips the next frame without decoding it.
+	 * 
+	 * @return <code>false</code> at the end of the journal
+	 * @throws IOException
+	 */
+	public boolean skip() throws IOException {
+		if (!advance())
+			return false;
+		int start = segment.position();
+		sequenceNumber = segment.getLong(start + FrameJournal.RECORD_HEADER_SIZE);
+		timestamp = segment.getLong(start + FrameJournal.RECORD_HEADER_SIZE + 8);
+		segment.position(start + FrameJournal.RECORD_HEADER_SIZE + segment.getInt(start));
+		return true;
+	}
+
+	/**
+	 * Moves the cursor to the next valid record, switching to the next segment
+	 * at the end of the current one.
+	 * 
+	 * @return <code>false</code> at the end of the journal
+	 * @throws IOException
+	 */
+	private boolean advance() throws IOException {
+		if (segment == null)
+			return false;
+		while (FrameJournal.checkRecord(segment) < 0) {
+			if (segmentNumber + 1 >= segments.length)
+				return false;
+			openSegment(segmentNumber + 1);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the timestamp of the next frame without moving the cursor.
+	 * 
+	 * @return timestamp in milliseconds or <code>-1</code> at the end of the
+	 *         journal
+	 * @throws IOException
+	 */
+	public long peekTimestamp() throws IOException {
+		long key = peek(true);
+		return key != Long.MAX_VALUE ? key : -1;
+	}
+
+	/**
+	 * Returns the sequence number or timestamp of the next record without
+	 * moving the cursor.
+	 * 
+	 * @param timestamps
+	 *            return the timestamp instead of the sequence number
+	 * @return key or <code>Long.MAX_VALUE</code> at the end of the journal
+	 * @throws IOException
+	 */
+	private long peek(boolean timestamps) throws IOException {
+		if (!advance())
+			return Long.MAX_VALUE;
+		return segment.getLong(segment.position() + FrameJournal.RECORD_HEADER_SIZE + (timestamps ? 8 : 0));
+	}
+
+	/**
+	 * Positions the cursor at the first frame with a key greater than or equal
+	 * to the given one.
+	 * 
+	 * @param keys
+	 *            index keys
+	 * @param key
+	 * @param timestamps
+	 *            the key is a timestamp
+	 * @return <code>false</code> if there is no such frame
+	 * @throws IOException
+	 */
+	private boolean seek(List<Long> keys, long key, boolean timestamps) throws IOException {
+		// last index entry with a key less than or equal to the given key
+		int low = 0;
+		int high = keys.size() - 1;
+		int found = -1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (keys.get(middle) <= key) {
+				found = middle;
+				low = middle + 1;
+			} else
+				high = middle - 1;
+		}
+		if (found >= 0)
+			openSegment(indexSegments.get(found), indexOffsets.get(found));
+		else
+			openSegment(0);
+
+		while (peek(timestamps) < key)
+			skip();
+		return peek(timestamps) != Long.MAX_VALUE;
+	}
+
+	/**
+	 * Positions the cursor at the first frame with a sequence number greater
+	 * than or equal to the given one.
+	 * 
+	 * @param sequenceNumber
+	 * @return <code>false</code> if there is no such frame
+	 * @throws IOException
+	 */
+	public boolean seekSequenceNumber(long sequenceNumber) throws IOException {
+		return seek(indexSequenceNumbers, sequenceNumber, false);
+	}
+
+	/**
+	 * Positions the cursor at the first frame recorded at or after the given
+	 * time.
+	 * 
+	 * @param timestamp
+	 *            time in milliseconds
+	 * @return <code>false</code> if there is no such frame
+	 * @throws IOException
+	 */
+	public boolean seekTimestamp(long timestamp) throws IOException {
+		return seek(indexTimestamps, timestamp, true);
+	}
+
+	/**
+	 * Positions the cursor at the first frame of the journal.
+	 * 
+	 * @throws IOException
+	 */
+	public void rewind() throws IOException {
+		openSegment(0);
+	}
+
+	/**
+	 * Returns the timestamp of the first frame of the journal.
+	 * 
+	 * @return timestamp in milliseconds or <code>-1</code> if the journal is
+	 *         empty
+	 */
+	public long getFirstTimestamp() {
+		return indexTimestamps.isEmpty() ? -1 : indexTimestamps.get(0);
+	}
+
+	/**
+	 * Returns the timestamp of the last frame of the journal.
+	 * 
+	 * @return timestamp in milliseconds or <code>-1</code> if the journal is
+	 *         empty
+	 */
+	public long getLastTimestamp() {
+		return lastTimestamp;
+	}
+
+	/**
+	 * Returns the sequence number of the current frame.
+	 * 
+	 * @return sequence number
+	 */
+	public long getSequenceNumber() {
+		return sequenceNumber;
+	}
+
+	/**
+	 * Returns the timestamp of the current frame.
+	 * 
+	 * @return timestamp in milliseconds
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public void close() throws IOException {
+		closeSegment();
+	}
+}
@@ -0,0 +1,404 @@
+package com.corpus.recording;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.corpus.controller.SceneController;
+import com.corpus.controller.SceneListener;
+import com.corpus.scene.Scene;
+
+/**
+ * <p>
+ * Writes every published {@link Scene} to an append-only {@link FrameJournal}.
+ * The frame is encoded when it is published and handed over to a background
+ * thread, which copies it into the memory mapped segment. If the thread can
+ * not keep up, frames are dropped instead of delaying the update of the model.
+ * </p>
+ * <p>
+ * When a journal is reopened, the tail of its last segment is recovered: the
+ * records are validated up to the first incomplete or corrupt record, the
+ * index of the segment is rebuilt and writing continues in a new segment. The
+ * sequence numbers of the appended frames are offset by the last sequence
+ * number of the journal, thus they keep increasing although the sequence
+ * numbers of the {@link SceneController} restart with every run.
+ * </p>
+ * <p>
+ * A segment is truncated to the length of its records when it is closed.
+ * </p>
+ * <p>
+ * Only one journal can be written at a time. The active journal is accessible
+ * through the {@link #getInstance() getInstance} method.
+ * </p>
+ * 
+ * @author agent
+ * 
+ */
+public class FrameJournalWriter implements SceneListener, Runnable {
+
+	// maximum number of frames waiting to be written
+	public static int QUEUE_CAPACITY = 256;
+
+	// active journal
+	private static volatile FrameJournalWriter instance;
+
+	private final File directory;
+	private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(QUEUE_CAPACITY);
+	private final Thread thread;
+	private volatile boolean running = true;
+	private volatile long written;
+	private volatile long dropped;
+
+	// added to the sequence numbers of the appended frames
+	private final long sequenceOffset;
+
+	// current segment
+	private int segmentNumber;
+	private RandomAccessFile segmentFile;
+	private MappedByteBuffer segment;
+	private DataOutputStream index;
+	private int recordsInSegment;
+
+	/**
+	 * Opens the journal in the given directory.
+	 * 
+	 * @param directory
+	 * @throws IOException
+	 */
+	private FrameJournalWriter(File directory) throws IOException {
+		this.directory = directory;
+		directory.mkdirs();
+		if (!directory.isDirectory())
+			throw new IOException(directory + " is no directory.");
+
+		File[] segments = FrameJournal.getSegments(directory);
+		long lastSequenceNumber = 0;
+		if (segments.length > 0) {
+			File last = segments[segments.length - 1];
+			segmentNumber = Integer.parseInt(last.getName().substring(0, last.getName().length() - 4));
+			lastSequenceNumber = recover(last);
+			if (lastSequenceNumber < 0) {
+				// reuse the number of the empty segment
+				last.delete();
+				FrameJournal.getIndex(last).delete();
+				for (int i = segments.length - 2; i >= 0 && lastSequenceNumber < 0; i--)
+					lastSequenceNumber = getLastSequenceNumber(segments[i]);
+			} else
+				segmentNumber++;
+		}
+		sequenceOffset = Math.max(0, lastSequenceNumber);
+		openSegment();
+
+		thread = new Thread(this, "FrameJournalWriter");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Starts writing the published {@link Scene}s to the journal in the given
+	 * directory. An active journal is stopped.
+	 * 
+	 * @param directory
+	 *            journal directory
+	 * @throws IOException
+	 */
+	public static synchronized void start(File directory) throws IOException {
+		stop();
+		instance = new FrameJournalWriter(directory);
+		SceneController.getInstance().addSceneListener(instance);
+	}
+
+	/**
+	 * Stops the active journal. The frames waiting to be written are written
+	 * before the journal is closed.
+	 */
+	public static synchronized void stop() {
+		if (instance != null) {
+			SceneController.getInstance().removeSceneListener(instance);
+			instance.close();
+			instance = null;
+		}
+	}
+
+	/**
+	 * Opens a journal which is not connected to the
+	 * {@link SceneController}, e.g. to write the frames of an offline fusion.
+	 * The frames are passed by {@link #append(Scene) append} and the journal
+	 * has to be closed by {@link #close() close}.
+	 * 
+	 * @param directory
+	 *            journal directory
+	 * @return {@link FrameJournalWriter}
+	 * @throws IOException
+	 */
+	public static FrameJournalWriter open(File directory) throws IOException {
+		return new FrameJournalWriter(directory);
+	}
+
+	/**
+	 * Returns the active journal.
+	 * 
+	 * @return {@link FrameJournalWriter} or <code>null</code> if no journal is
+	 *         written
+	 */
+	public static FrameJournalWriter getInstance() {
+		return instance;
+	}
+
+	@Override
+	public void sceneUpdated(Scene scene) {
+		if (!running)
+			return;
+		if (!queue.offer(FrameJournal.encode(scene, sequenceOffset)))
+			dropped++;
+	}
+
+	/**
+	 * Appends a frame to the journal. In contrast to the published frames no
+	 * frame is dropped: if the writer thread can not keep up, the caller waits.
+	 * 
+	 * @param scene
+	 * @throws IOException
+	 *             if the journal is closed or the writer thread stopped due to
+	 *             an error
+	 * @throws InterruptedException
+	 */
+	public void append(Scene scene) throws IOException, InterruptedException {
+		byte[] record = FrameJournal.encode(scene, sequenceOffset);
+		while (running) {
+			if (queue.offer(record, 100, TimeUnit.MILLISECONDS))
+				return;
+		}
+		throw new IOException("The frame journal is closed.");
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running || !queue.isEmpty()) {
+				byte[] record = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (record != null)
+					write(record);
+			}
+		} catch (InterruptedException e) {
+			// stop writing
+		} catch (IOException e) {
+			System.err.println("ERROR: Frame journal stopped due to: " + e.getMessage());
+			running = false;
+		} finally {
+			closeSegment();
+		}
+	}
+
+	/**
+	 * Writes a record to the current segment. A new segment is started if the
+	 * record does not fit into the current one.
+	 * 
+	 * @param record
+	 * @throws IOException
+	 */
+	private void write(byte[] record) throws IOException {
+		// keep space for the end marker
+		if (segment.remaining() < record.length + 4) {
+			if (recordsInSegment == 0)
+				throw new IOException("Frame of " + record.length + " bytes exceeds the segment size.");
+			closeSegment();
+			segmentNumber++;
+			openSegment();
+		}
+
+		int offset = segment.position();
+		if (recordsInSegment % FrameJournal.INDEX_INTERVAL == 0)
+			writeIndexEntry(index, ByteBuffer.wrap(record), offset);
+
+		// the length is written last, thus an incomplete record is never
+		// mistaken for a complete one
+		segment.position(offset + 4);
+		segment.put(record, 4, record.length - 4);
+		segment.putInt(offset, record.length - FrameJournal.RECORD_HEADER_SIZE);
+		recordsInSegment++;
+		written++;
+		if (recordsInSegment % FrameJournal.INDEX_INTERVAL == 0)
+			segment.force();
+	}
+
+	/**
+	 * Opens the current segment and its index.
+	 * 
+	 * @throws IOException
+	 */
+	private void openSegment() throws IOException {
+		File file = FrameJournal.getSegment(directory, segmentNumber);
+		segmentFile = new RandomAccessFile(file, "rw");
+		segmentFile.setLength(FrameJournal.SEGMENT_SIZE);
+		segment = segmentFile.getChannel().map(MapMode.READ_WRITE, 0, FrameJournal.SEGMENT_SIZE);
+		index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FrameJournal.getIndex(file))));
+		recordsInSegment = 0;
+	}
+
+	/**
+	 * Flushes and closes the current segment and its index. The segment is
+	 * truncated to the length of its records, an empty segment is deleted.
+	 */
+	private void closeSegment() {
+		try {
+			if (segment != null) {
+				int length = segment.position();
+				segment.force();
+				FrameJournal.unmap(segment);
+				segment = null;
+				segmentFile.setLength(length);
+			}
+		} catch (IOException e) {
+			System.err.println("Frame journal segment could not be truncated: " + e.getMessage());
+		}
+		try {
+			if (index != null)
+				index.close();
+			if (segmentFile != null)
+				segmentFile.close();
+		} catch (IOException e) {
+			System.err.println("Frame journal segment could not be closed: " + e.getMessage());
+		}
+		if (segmentFile != null && recordsInSegment == 0) {
+			File file = FrameJournal.getSegment(directory, segmentNumber);
+			file.delete();
+			FrameJournal.getIndex(file).delete();
+		}
+		segment = null;
+		index = null;
+		segmentFile = null;
+	}
+
+	/**
+	 * Recovers the given segment after an unclean shutdown. The records are
+	 * validated until the first invalid record, the segment is truncated
+	 * before it. The index of the segment is rebuilt from the valid records.
+	 * 
+	 * @param file
+	 *            segment file
+	 * @return sequence number of the last valid record or <code>-1</code> if
+	 *         the segment contains no valid record
+	 * @throws IOException
+	 */
+	private static long recover(File file) throws IOException {
+		RandomAccessFile segmentFile = new RandomAccessFile(file, "rw");
+		DataOutputStream index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FrameJournal.getIndex(file))));
+		try {
+			MappedByteBuffer buffer = segmentFile.getChannel().map(MapMode.READ_ONLY, 0, segmentFile.length());
+			long sequenceNumber = -1;
+			int records = 0;
+			int length;
+			while ((length = FrameJournal.checkRecord(buffer)) >= 0) {
+				if (records % FrameJournal.INDEX_INTERVAL == 0)
+					writeIndexEntry(index, buffer, buffer.position());
+				sequenceNumber = buffer.getLong(buffer.position() + FrameJournal.RECORD_HEADER_SIZE);
+				buffer.position(buffer.position() + FrameJournal.RECORD_HEADER_SIZE + length);
+				records++;
+			}
+			int end = buffer.position();
+			FrameJournal.unmap(buffer);
+			segmentFile.setLength(end);
+			return sequenceNumber;
+		} finally {
+			index.close();
+			segmentFile.close();
+		}
+	}
+
+	/**
+	 * Returns the sequence number of the last valid record of the given
+	 * segment.
+	 * 
+	 * @param file
+	 *            segment file
+	 * @return sequence number or <code>-1</code> if the segment contains no
+	 *         valid record
+	 * @throws IOException
+	 */
+	private static long getLastSequenceNumber(File file) throws IOException {
+		RandomAccessFile segmentFile = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer buffer = segmentFile.getChannel().map(MapMode.READ_ONLY, 0, segmentFile.length());
+			long sequenceNumber = -1;
+			int length;
+			while ((length = FrameJournal.checkRecord(buffer)) >= 0) {
+				sequenceNumber = buffer.getLong(buffer.position() + FrameJournal.RECORD_HEADER_SIZE);
+				buffer.position(buffer.position() + FrameJournal.RECORD_HEADER_SIZE + length);
+			}
+			FrameJournal.unmap(buffer);
+			return sequenceNumber;
+		} finally {
+			segmentFile.close();
+		}
+	}
+
+	/**
+	 * Writes the index entry of a record.
+	 * 
+	 * @param index
+	 *            index stream
+	 * @param buffer
+	 *            buffer containing the record
+	 * @param offset
+	 *            offset of the record in the segment
+	 * @throws IOException
+	 */
+	private static void writeIndexEntry(DataOutputStream index, ByteBuffer buffer, int offset) throws IOException {
+		int start = buffer.position();
+		index.writeLong(buffer.getLong(start + FrameJournal.RECORD_HEADER_SIZE));
+		index.writeLong(buffer.getLong(start + FrameJournal.RECORD_HEADER_SIZE + 8));
+		index.writeInt(offset);
+		index.flush();
+	}
+
+	/**
+	 * Stops the writer thread and closes the journal. The frames waiting to be
+	 * written are written before.
+	 */
+	public void close() {
+		running = false;
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			thread.interrupt();
+		}
+	}
+
+	/**
+	 * Returns the directory of the journal.
+	 * 
+	 * @return directory
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Returns the number of frames written to the journal.
+	 * 
+	 * @return written frames
+	 */
+	public long getWrittenFrames() {
+		return written;
+	}
+
+	/**
+	 * Returns the number of frames dropped because the writer could not keep
+	 * up.
+	 * 
+	 * @return dropped frames
+	 */
+	public long getDroppedFrames() {
+		return dropped;
+	}
+}
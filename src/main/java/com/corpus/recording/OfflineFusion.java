@@ -0,0 +1,206 @@
+package com.corpus.recording;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import com.corpus.controller.SceneController;
+import com.corpus.filter.Filter;
+import com.corpus.fuser.Fuser;
+import com.corpus.history.JointHistory;
+import com.corpus.scene.Scene;
+import com.corpus.sensor.Sensor;
+import com.corpus.sensor.SensorInitializationException;
+import com.corpus.sensor.replay.ReplaySensor;
+
+/**
+ * <p>
+ * Runs the fusion and filter process over a capture file written by the
+ * {@link SensorCaptureWriter} as fast as possible. The sensors of the
+ * {@link Scene} are expected to be {@link ReplaySensor}s replaying the capture
+ * frame by frame, the {@link Fuser} and the {@link Filter} are used exactly as
+ * by the {@link SceneController}. Every frame gets the sequence number and the
+ * timestamp of the corresponding frame marker of the capture.
+ * </p>
+ * <p>
+ * The {@link Fuser}s return joints to their default position after
+ * {@link com.corpus.controller.Controller#RETURN_TO_DEFAULT RETURN_TO_DEFAULT}
+ * milliseconds of real time. As the capture is processed faster than real
+ * time, untracked joints keep their last position longer than in the live
+ * process.
+ * </p>
+ * 
+ * @author agent
+ * 
+ */
+public class OfflineFusion implements Closeable {
+
+	private final Scene scene;
+	private final Fuser fuser;
+	private Filter filter;
+	private final List<Scene> sceneHistory = new ArrayList<Scene>();
+	private JointHistory jointHistory;
+	private final SensorCaptureReader frames;
+
+	/**
+	 * Initializes the sensors of the given {@link Scene} and opens the
+	 * capture.
+	 * 
+	 * @param startScene
+	 *            initial {@link Scene} containing the body model and the
+	 *            replaying {@link Sensor}s
+	 * @param fuser
+	 *            {@link Fuser} used to fuse the data of the {@link Sensor}s
+	 * @param filter
+	 *            {@link Filter} used to filter the data or <code>null</code>
+	 * @param capture
+	 *            capture file
+	 * @throws IOException
+	 *             if the capture can not be opened or a sensor can not be
+	 *             initialized
+	 */
+	public OfflineFusion(Scene startScene, Fuser fuser, Filter filter, File capture) throws IOException {
+		this.scene = startScene;
+		this.fuser = fuser;
+		setFilter(filter);
+		frames = new SensorCaptureReader(capture);
+		for (Sensor sensor : startScene.getSensors()) {
+			try {
+				sensor.init();
+			} catch (SensorInitializationException e) {
+				close();
+				throw new IOException("Sensor " + sensor.getId() + " could not be initialized due to: " + e.getMessage());
+			}
+			sensor.setInitialized(true);
+		}
+		startScene.resetRootNodes();
+	}
+
+	/**
+	 * Counts the frames of a capture file.
+	 * 
+	 * @param capture
+	 * @return number of frame markers
+	 * @throws IOException
+	 */
+	public static long countFrames(File capture) throws IOException {
+		SensorCaptureReader reader = new SensorCaptureReader(capture);
+		try {
+			long count = 0;
+			byte type;
+			while ((type = reader.next()) != SensorCaptureReader.END) {
+				if (type == SensorCaptureWriter.FRAME)
+					count++;
+			}
+			return count;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Fuses and filters the next frame of the capture.
+	 * 
+	 * @return <code>false</code> if the end of the capture is reached
+	 * @throws IOException
+	 */
+	public boolean nextFrame() throws IOException {
+		if (!nextFrameMarker())
+			return false;
+
+		Scene previousScene = scene.clone();
+
+		// the timestamp of the captured frame is set before the fusion, thus
+		// the fuser steps by the recorded time instead of the processing time
+		Calendar timestamp = Calendar.getInstance();
+		timestamp.setTimeInMillis(frames.getTimestamp());
+		scene.setTimestamp(timestamp);
+		fuser.fuseData(scene);
+		if (jointHistory != null)
+			jointHistory.add(scene);
+		if (filter != null)
+			filter.filterData(sceneHistory, scene);
+		scene.setSequenceNumber(frames.getSequenceNumber());
+
+		if (SceneController.FRAME_HISTORY > 0) {
+			if (sceneHistory.size() >= SceneController.FRAME_HISTORY)
+				sceneHistory.remove(0);
+			sceneHistory.add(previousScene);
+		}
+		return true;
+	}
+
+	/**
+	 * Skips the next frame of the capture. The data of the sensors is read,
+	 * but not fused.
+	 * 
+	 * @return <code>false</code> if the end of the capture is reached
+	 * @throws IOException
+	 */
+	public boolean skipFrame() throws IOException {
+		if (!nextFrameMarker())
+			return false;
+		for (Sensor sensor : scene.getSensors())
+			sensor.getCurrentData();
+		return true;
+	}
+
+	/**
+	 * Moves the reader of the frame markers to the next frame.
+	 * 
+	 * @return <code>false</code> if the end of the capture is reached
+	 * @throws IOException
+	 */
+	private boolean nextFrameMarker() throws IOException {
+		byte type;
+		while ((type = frames.next()) != SensorCaptureReader.END) {
+			if (type == SensorCaptureWriter.FRAME)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the {@link Filter}.
+	 * 
+	 * @return {@link Filter} or <code>null</code>
+	 */
+	public Filter getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Replaces the {@link Filter} used for the following frames. The
+	 * {@link JointHistory} is kept from the first {@link Filter} using it on.
+	 * 
+	 * @param filter
+	 *            {@link Filter} or <code>null</code> to fuse without filtering
+	 */
+	public void setFilter(Filter filter) {
+		this.filter = filter;
+		if (jointHistory == null && filter != null && filter.usesJointHistory() && SceneController.FRAME_HISTORY > 0)
+			jointHistory = new JointHistory(scene.getJoints().keySet(), SceneController.FRAME_HISTORY);
+		if (filter != null)
+			filter.setJointHistory(jointHistory);
+	}
+
+	/**
+	 * Returns the {@link Scene} of the current frame. The {@link Scene} is
+	 * reused by the next frame.
+	 * 
+	 * @return current {@link Scene}
+	 */
+	public Scene getScene() {
+		return scene;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (Sensor sensor : scene.getSensors())
+			sensor.terminate();
+		frames.close();
+	}
+}
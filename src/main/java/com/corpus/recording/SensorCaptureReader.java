@@ -0,0 +1,213 @@
+package com.corpus.recording;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+
+/**
+ * Reads a capture file written by the {@link SensorCaptureWriter}. The reader
+ * works like a cursor: {@link #next()} reads the next record and returns its
+ * type, the content of the record is accessible through the getters until the
+ * next record is read. A truncated or unknown record at the end of the file
+ * (e.g. after a crash) is treated as the end of the file.
+ * 
+ * @author agent
+ * 
+ */
+public class SensorCaptureReader implements Closeable {
+
+	// returned by next at the end of the file
+	public static final byte END = 0;
+
+	private static final JointType[] JOINT_TYPES = JointType.values();
+
+	private final DataInputStream in;
+
+	// declared sensors
+	private final Map<Short, String> sensorIds = new HashMap<Short, String>();
+	private final Map<Short, String> sensorClasses = new HashMap<Short, String>();
+	private final Map<Short, Boolean> sensorCollectsAbsoluteData = new HashMap<Short, Boolean>();
+
+	// content of the current record
+	private byte type;
+	private short sensorIndex;
+	private long timestamp;
+	private long sequenceNumber;
+	private Map<JointType, Joint> data;
+
+	// set when the end of the valid records is reached
+	private boolean ended;
+
+	/**
+	 * Opens the given capture file.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 *             if the file can not be read or is no capture file
+	 */
+	public SensorCaptureReader(File file) throws IOException {
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			if (in.readInt() != SensorCaptureWriter.MAGIC)
+				throw new IOException(file + " is no capture file.");
+			short version = in.readShort();
+			if (version != SensorCaptureWriter.VERSION)
+				throw new IOException("Unsupported capture version: " + version);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the next record.
+	 * 
+	 * @return type of the record ({@link SensorCaptureWriter#SENSOR SENSOR},
+	 *         {@link SensorCaptureWriter#SAMPLE SAMPLE},
+	 *         {@link SensorCaptureWriter#FRAME FRAME}) or {@link #END}
+	 * @throws IOException
+	 */
+	public byte next() throws IOException {
+		data = null;
+		if (ended)
+			return END;
+		try {
+			type = in.readByte();
+			switch (type) {
+			case SensorCaptureWriter.SENSOR:
+				sensorIndex = in.readShort();
+				sensorIds.put(sensorIndex, in.readUTF());
+				sensorClasses.put(sensorIndex, in.readUTF());
+				sensorCollectsAbsoluteData.put(sensorIndex, in.readBoolean());
+				break;
+			case SensorCaptureWriter.SAMPLE:
+				sensorIndex = in.readShort();
+				timestamp = in.readLong();
+				data = readJoints();
+				break;
+			case SensorCaptureWriter.FRAME:
+				sequenceNumber = in.readLong();
+				timestamp = in.readLong();
+				break;
+			default:
+				// e.g. a block of a crashed capture which was never written
+				System.err.println("WARNING: Unknown record type " + type + " in the capture file, the rest of the file is ignored.");
+				type = END;
+			}
+		} catch (EOFException e) {
+			type = END;
+		}
+		ended = type == END;
+		return type;
+	}
+
+	/**
+	 * Reads the {@link Joint}s of a sample.
+	 * 
+	 * @return {@link Joint}s
+	 * @throws IOException
+	 */
+	private Map<JointType, Joint> readJoints() throws IOException {
+		int count = in.readUnsignedByte();
+		Map<JointType, Joint> joints = new HashMap<JointType, Joint>();
+		for (int i = 0; i < count; i++) {
+			JointType jointType = JOINT_TYPES[in.readUnsignedByte()];
+			byte flags = in.readByte();
+			Vector3D position = null;
+			Rotation orientation = null;
+			if ((flags & SensorCaptureWriter.HAS_POSITION) != 0)
+				position = new Vector3D(in.readDouble(), in.readDouble(), in.readDouble());
+			if ((flags & SensorCaptureWriter.HAS_ORIENTATION) != 0)
+				orientation = new Rotation(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), false);
+			Joint joint = new Joint(jointType, position, orientation);
+			joint.setPositionConfidence(in.readFloat());
+			joint.setOrientationConfidence(in.readFloat());
+			joints.put(jointType, joint);
+		}
+		return joints;
+	}
+
+	/**
+	 * Returns the type of the current record.
+	 * 
+	 * @return type
+	 */
+	public byte getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the id of the sensor of the current sample or declaration.
+	 * 
+	 * @return id of the sensor
+	 */
+	public String getSensorId() {
+		return sensorIds.get(sensorIndex);
+	}
+
+	/**
+	 * Returns the class name of the sensor of the current sample or
+	 * declaration.
+	 * 
+	 * @return class name
+	 */
+	public String getSensorClass() {
+		return sensorClasses.get(sensorIndex);
+	}
+
+	/**
+	 * Tells whether the sensor of the current sample or declaration collects
+	 * absolute data.
+	 * 
+	 * @return collectsAbsoluteData
+	 */
+	public boolean getCollectsAbsoluteData() {
+		Boolean collectsAbsoluteData = sensorCollectsAbsoluteData.get(sensorIndex);
+		return collectsAbsoluteData != null && collectsAbsoluteData;
+	}
+
+	/**
+	 * Returns the timestamp of the current sample or frame.
+	 * 
+	 * @return timestamp in milliseconds
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Returns the sequence number of the current frame.
+	 * 
+	 * @return sequence number
+	 */
+	public long getSequenceNumber() {
+		return sequenceNumber;
+	}
+
+	/**
+	 * Returns the {@link Joint}s of the current sample.
+	 * 
+	 * @return {@link Joint}s or <code>null</code> if the current record is no
+	 *         sample
+	 */
+	public Map<JointType, Joint> getData() {
+		return data;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
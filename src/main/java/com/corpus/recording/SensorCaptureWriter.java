@@ -0,0 +1,323 @@
+package com.corpus.recording;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.sensor.Sensor;
+
+/**
+ * <p>
+ * Writes the raw data of the {@link Sensor}s to an append-only binary capture
+ * file. The data is captured when it is requested by the fuser (see
+ * {@link Sensor#getCurrentData() getCurrentData}), thus the capture contains
+ * exactly the data the fusion process received. After every update the
+ * {@link com.corpus.controller.SceneController SceneController} writes a frame
+ * marker, which allows to replay the capture frame by frame. The records are
+ * encoded by the calling thread and handed over to a background thread, which
+ * writes them to the file. If the thread can not keep up, records are dropped
+ * instead of delaying the update of the model.
+ * </p>
+ * <p>
+ * Every capture is written to a new file. If the given file already exists, a
+ * number is appended to its name (<code>session-1.cap</code>, ...), thus the
+ * sequence numbers and timestamps of a file always belong to a single session.
+ * </p>
+ * <p>
+ * The file starts with the magic number {@link #MAGIC} and the
+ * {@link #VERSION}, followed by records starting with their type:
+ * </p>
+ * <ul>
+ * <li>{@link #SENSOR}: index, id, class name and whether the {@link Sensor}
+ * collects absolute data. Written before the first sample of a {@link Sensor}.
+ * </li>
+ * <li>{@link #SAMPLE}: index of the {@link Sensor}, timestamp and the tracked
+ * {@link Joint}s (joint type, flags, position, orientation and confidence
+ * values)</li>
+ * <li>{@link #FRAME}: sequence number and timestamp of a frame</li>
+ * </ul>
+ * <p>
+ * Only one capture can be active at a time. The active capture is accessible
+ * through the {@link #getInstance() getInstance} method.
+ * </p>
+ * 
+ * @author agent
+ * 
+ */
+public class SensorCaptureWriter implements Runnable {
+
+	// maximum number of records waiting to be written
+	public static int QUEUE_CAPACITY = 4096;
+
+	// file format
+	public static final int MAGIC = 0x43505343;
+	public static final short VERSION = 1;
+
+	// record types
+	public static final byte SENSOR = 1;
+	public static final byte SAMPLE = 2;
+	public static final byte FRAME = 3;
+
+	// joint flags
+	public static final byte HAS_POSITION = 1;
+	public static final byte HAS_ORIENTATION = 2;
+
+	// active capture
+	private static volatile SensorCaptureWriter instance;
+
+	private final File file;
+	private final DataOutputStream out;
+	private final Map<String, Short> sensorIndices = new HashMap<String, Short>();
+	private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(QUEUE_CAPACITY);
+	private final Thread thread;
+	private volatile boolean running = true;
+	private volatile long dropped;
+
+	/**
+	 * Creates the given file and starts the writer thread.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	private SensorCaptureWriter(File file) throws IOException {
+		this.file = file;
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+
+		thread = new Thread(this, "SensorCaptureWriter");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Starts capturing the data of the {@link Sensor}s to the given file. An
+	 * active capture is stopped. If the file already exists, a new file is
+	 * created next to it.
+	 * 
+	 * @param file
+	 *            capture file
+	 * @throws IOException
+	 */
+	public static synchronized void start(File file) throws IOException {
+		stop();
+		if (file.getParentFile() != null)
+			file.getParentFile().mkdirs();
+		File captureFile = getUnusedFile(file);
+		if (!captureFile.equals(file))
+			System.out.println("Capture file " + file + " already exists, capturing to " + captureFile);
+		instance = new SensorCaptureWriter(captureFile);
+	}
+
+	/**
+	 * Returns the given file if it does not exist, else the first file with
+	 * the same name and an appended number which does not exist.
+	 * 
+	 * @param file
+	 * @return unused file
+	 */
+	static File getUnusedFile(File file) {
+		if (!file.exists())
+			return file;
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		String base = dot > 0 ? name.substring(0, dot) : name;
+		String extension = dot > 0 ? name.substring(dot) : "";
+		for (int i = 1;; i++) {
+			File candidate = new File(file.getParentFile(), base + "-" + i + extension);
+			if (!candidate.exists())
+				return candidate;
+		}
+	}
+
+	/**
+	 * Stops the active capture and closes the file.
+	 */
+	public static synchronized void stop() {
+		if (instance != null) {
+			instance.close();
+			if (instance.dropped > 0)
+				System.err.println("WARNING: " + instance.dropped + " records of the capture " + instance.file + " were dropped.");
+			instance = null;
+		}
+	}
+
+	/**
+	 * Returns the active capture.
+	 * 
+	 * @return {@link SensorCaptureWriter} or <code>null</code> if no capture
+	 *         is active
+	 */
+	public static SensorCaptureWriter getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Writes the data of a {@link Sensor}. The first sample of a
+	 * {@link Sensor} is preceded by its declaration.
+	 * 
+	 * @param sensor
+	 *            {@link Sensor} which tracked the data
+	 * @param data
+	 *            tracked {@link Joint}s
+	 */
+	public synchronized void writeSample(Sensor sensor, Map<JointType, Joint> data) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + data.size() * 70);
+		DataOutputStream record = new DataOutputStream(bytes);
+		Short index = sensorIndices.get(sensor.getId());
+		boolean declare = index == null;
+		if (declare)
+			index = (short) sensorIndices.size();
+		try {
+			if (declare) {
+				record.writeByte(SENSOR);
+				record.writeShort(index);
+				record.writeUTF(sensor.getId());
+				record.writeUTF(sensor.getClass().getName());
+				record.writeBoolean(sensor.getCollectsAbsoluteData());
+			}
+
+			record.writeByte(SAMPLE);
+			record.writeShort(index);
+			record.writeLong(System.currentTimeMillis());
+			record.writeByte(data.size());
+			for (Entry<JointType, Joint> entry : data.entrySet()) {
+				Joint joint = entry.getValue();
+				Vector3D position = joint.getAbsolutePosition();
+				Rotation orientation = joint.getAbsoluteOrientation();
+				record.writeByte(entry.getKey().ordinal());
+				record.writeByte((position != null ? HAS_POSITION : 0) | (orientation != null ? HAS_ORIENTATION : 0));
+				if (position != null) {
+					record.writeDouble(position.getX());
+					record.writeDouble(position.getY());
+					record.writeDouble(position.getZ());
+				}
+				if (orientation != null) {
+					record.writeDouble(orientation.getQ0());
+					record.writeDouble(orientation.getQ1());
+					record.writeDouble(orientation.getQ2());
+					record.writeDouble(orientation.getQ3());
+				}
+				record.writeFloat(joint.getPositionConfidence());
+				record.writeFloat(joint.getOrientationConfidence());
+			}
+		} catch (IOException e) {
+			// ByteArrayOutputStream does not throw IOExceptions
+		}
+
+		// the sensor is only declared if the declaration is written, else it
+		// is declared again with its next sample
+		if (offer(bytes.toByteArray()) && declare)
+			sensorIndices.put(sensor.getId(), index);
+	}
+
+	/**
+	 * Writes a frame marker. The marker separates the samples used by
+	 * successive updates of the model.
+	 * 
+	 * @param sequenceNumber
+	 *            sequence number of the frame
+	 * @param timestamp
+	 *            timestamp of the frame
+	 */
+	public synchronized void writeFrame(long sequenceNumber, long timestamp) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(17);
+		DataOutputStream record = new DataOutputStream(bytes);
+		try {
+			record.writeByte(FRAME);
+			record.writeLong(sequenceNumber);
+			record.writeLong(timestamp);
+		} catch (IOException e) {
+			// ByteArrayOutputStream does not throw IOExceptions
+		}
+		offer(bytes.toByteArray());
+	}
+
+	/**
+	 * Hands a record over to the writer thread.
+	 * 
+	 * @param record
+	 * @return <code>true</code> if the record is written, <code>false</code>
+	 *         if it was dropped
+	 */
+	private boolean offer(byte[] record) {
+		if (running && queue.offer(record))
+			return true;
+		dropped++;
+		return false;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running || !queue.isEmpty()) {
+				byte[] record = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (record != null) {
+					out.write(record);
+					// the data is flushed as soon as the writer caught up
+					if (queue.isEmpty())
+						out.flush();
+				}
+			}
+		} catch (InterruptedException e) {
+			// stop writing
+		} catch (IOException e) {
+			System.err.println("ERROR: Sensor capture stopped due to: " + e.getMessage());
+			running = false;
+			if (instance == this)
+				instance = null;
+		} finally {
+			try {
+				out.close();
+			} catch (IOException e) {
+				System.err.println("Capture file could not be closed: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Stops the writer thread and closes the file. The records waiting to be
+	 * written are written before.
+	 */
+	public void close() {
+		running = false;
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			thread.interrupt();
+		}
+	}
+
+	/**
+	 * Returns the capture file.
+	 * 
+	 * @return file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the number of records dropped because the writer could not keep
+	 * up.
+	 * 
+	 * @return dropped records
+	 */
+	public long getDroppedRecords() {
+		return dropped;
+	}
+}
@@ -0,0 +1,273 @@
+package com.corpus.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.corpus.scene.Scene;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * <p>
+ * Plays a recorded {@link FrameJournal} back. In playback mode the
+ * {@link com.corpus.controller.SceneController SceneController} takes the
+ * frames from the player instead of fusing and filtering the data of the
+ * sensors, thus the recorded session is served to the clients as if it were
+ * live.
+ * </p>
+ * <p>
+ * The player follows the recorded timestamps: every update applies the latest
+ * frame recorded before the current playback position. The playback can be
+ * paused, resumed, sped up and moved to any position of the recording. At the
+ * end of the recording the playback is restarted if {@link #LOOP} is set,
+ * otherwise it is paused.
+ * </p>
+ * 
+ * @author agent
+ * 
+ */
+public class SessionPlayer {
+
+	// restart the playback at the end of the recording
+	public static boolean LOOP = true;
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private final File directory;
+	private final FrameJournalReader reader;
+
+	private boolean paused;
+	private double speed = 1;
+
+	// playback position (recorded time) at the wall clock time of the anchor
+	private long anchorPosition;
+	private long anchorTime;
+
+	// a frame has to be applied regardless of the playback state (e.g. after
+	// seeking)
+	private boolean frameRequested = true;
+
+	// recorded sequence number and timestamp of the current frame
+	private long sequenceNumber = -1;
+	private long timestamp = -1;
+
+	/**
+	 * Opens the journal in the given directory.
+	 * 
+	 * @param directory
+	 * @throws IOException
+	 *             if the journal can not be read or contains no frames
+	 */
+	public SessionPlayer(File directory) throws IOException {
+		this.directory = directory;
+		reader = new FrameJournalReader(directory);
+		if (reader.getFirstTimestamp() < 0) {
+			reader.close();
+			throw new IOException("The journal contains no frames.");
+		}
+		anchor(reader.getFirstTimestamp());
+	}
+
+	/**
+	 * Tells whether a new frame has to be applied in the current update.
+	 * 
+	 * @return <code>true</code> if {@link #readFrame(Scene) readFrame} changes
+	 *         the {@link Scene}
+	 * @throws IOException
+	 */
+	public synchronized boolean isFrameDue() throws IOException {
+		if (frameRequested)
+			return true;
+		if (paused)
+			return false;
+		long next = reader.peekTimestamp();
+		return next < 0 || next <= getPosition();
+	}
+
+	/**
+	 * Applies the latest frame recorded before the current playback position
+	 * to the given {@link Scene}.
+	 * 
+	 * @param scene
+	 *            {@link Scene} containing the body model
+	 * @return <code>false</code> if no frame was applied
+	 * @throws IOException
+	 */
+	public synchronized boolean readFrame(Scene scene) throws IOException {
+		if (frameRequested) {
+			frameRequested = false;
+			if (reader.peekTimestamp() < 0)
+				rewind();
+			return apply(scene);
+		}
+		if (paused)
+			return false;
+
+		boolean applied = false;
+		long position = getPosition();
+		while (true) {
+			long next = reader.peekTimestamp();
+			if (next < 0) {
+				// end of the recording
+				if (!LOOP) {
+					pause();
+					break;
+				}
+				rewind();
+				position = getPosition();
+				if (applied)
+					break;
+				next = reader.peekTimestamp();
+			}
+			if (next > position)
+				break;
+			applied = apply(scene) || applied;
+		}
+		return applied;
+	}
+
+	/**
+	 * Reads the next frame of the journal into the given {@link Scene}.
+	 * 
+	 * @param scene
+	 * @return <code>false</code> at the end of the journal
+	 * @throws IOException
+	 */
+	private boolean apply(Scene scene) throws IOException {
+		if (!reader.next(scene))
+			return false;
+		sequenceNumber = reader.getSequenceNumber();
+		timestamp = reader.getTimestamp();
+		return true;
+	}
+
+	/**
+	 * Restarts the playback at the beginning of the recording.
+	 * 
+	 * @throws IOException
+	 */
+	private void rewind() throws IOException {
+		reader.rewind();
+		anchor(reader.getFirstTimestamp());
+	}
+
+	/**
+	 * Sets the playback position at the current wall clock time.
+	 * 
+	 * @param position
+	 *            recorded time in milliseconds
+	 */
+	private void anchor(long position) {
+		anchorPosition = position;
+		anchorTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Returns the current playback position.
+	 * 
+	 * @return recorded time in milliseconds
+	 */
+	private long getPosition() {
+		if (paused)
+			return anchorPosition;
+		return anchorPosition + (long) ((System.currentTimeMillis() - anchorTime) * speed);
+	}
+
+	/**
+	 * Resumes the playback.
+	 */
+	public synchronized void play() {
+		if (!paused)
+			return;
+		if (timestamp >= reader.getLastTimestamp())
+			frameRequested = true;
+		paused = false;
+		anchor(anchorPosition);
+	}
+
+	/**
+	 * Pauses the playback at the current position.
+	 */
+	public synchronized void pause() {
+		if (paused)
+			return;
+		anchor(getPosition());
+		paused = true;
+	}
+
+	/**
+	 * Moves the playback to the given position. The frame at the position is
+	 * applied in the next update, even if the playback is paused.
+	 * 
+	 * @param offset
+	 *            time since the start of the recording in milliseconds
+	 * @throws IOException
+	 */
+	public synchronized void seek(long offset) throws IOException {
+		long position = reader.getFirstTimestamp() + Math.max(offset, 0);
+		if (!reader.seekTimestamp(position)) {
+			// behind the end: show the last frame
+			position = reader.getLastTimestamp();
+			reader.seekTimestamp(position);
+		}
+		anchor(position);
+		frameRequested = true;
+	}
+
+	/**
+	 * Sets the playback speed.
+	 * 
+	 * @param speed
+	 *            1 plays the recording in real time, 2 twice as fast and so on
+	 */
+	public synchronized void setSpeed(double speed) {
+		if (speed <= 0)
+			throw new IllegalArgumentException("The speed should be greater than 0.");
+		anchor(getPosition());
+		this.speed = speed;
+	}
+
+	/**
+	 * Returns the directory of the played journal.
+	 * 
+	 * @return directory
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Closes the journal.
+	 */
+	public synchronized void close() {
+		try {
+			reader.close();
+		} catch (IOException e) {
+			System.err.println("Frame journal could not be closed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Creates a JSON representation of the playback state.
+	 * 
+	 * @return JSON string
+	 */
+	public synchronized String getStatusJSON() {
+		Map<String, Object> status = new LinkedHashMap<String, Object>();
+		status.put("journal", directory.getPath());
+		status.put("state", paused ? "paused" : "playing");
+		status.put("speed", speed);
+		status.put("loop", LOOP);
+		status.put("position", timestamp >= 0 ? timestamp - reader.getFirstTimestamp() : 0);
+		status.put("duration", reader.getLastTimestamp() - reader.getFirstTimestamp());
+		status.put("recordedSequenceNumber", sequenceNumber);
+		status.put("recordedTimestamp", timestamp);
+		try {
+			return mapper.writeValueAsString(status);
+		} catch (JsonProcessingException e) {
+			return "ERROR: Playback state could not be serialized!";
+		}
+	}
+}
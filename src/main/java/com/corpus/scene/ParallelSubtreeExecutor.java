@@ -0,0 +1,276 @@
+package com.corpus.scene;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>
+ * Visits the {@link Joint}s of a body model top-down, i.e. every
+ * {@link Joint} is visited after its parent. Fusers and filters use it to
+ * process the joints of a {@link Scene}.
+ * </p>
+ * <p>
+ * If {@link #PARALLELISM} is greater than 1, independent subtrees are visited
+ * in parallel by a fork/join pool: as soon as a {@link Joint} has at least two
+ * children with {@link #MIN_SUBTREE_SIZE} or more joints (e.g. the shoulders
+ * with the arms and hands of a complex model), these subtrees are visited by
+ * separate tasks. The absolute values of a {@link SceneNode} are determined
+ * lazily and cached without synchronization, therefore the absolute position
+ * and orientation of the {@link Joint} and all its ancestors are resolved by
+ * the forking thread before the subtrees are forked, thus the tasks only read
+ * the joints above them. A {@link JointVisitor} used in parallel mode must
+ * only change the visited {@link Joint} and the state belonging to it. Other
+ * nodes read by several tasks (e.g. the {@link com.corpus.sensor.Sensor
+ * Sensor}s read by a fuser) have to be resolved by the caller before.
+ * </p>
+ * <p>
+ * Otherwise the joints are visited sequentially by the calling thread.
+ * </p>
+ * <p>
+ * Optionally the visit is limited to flagged subtrees: a {@link Joint} whose
+ * flag is not set is neither visited nor descended, e.g. a fuser skips the
+ * subtrees without changed input.
+ * </p>
+ * 
+ * @author agent
+ * 
+ */
+public class ParallelSubtreeExecutor {
+
+	// number of threads visiting the joints (0 or 1 to visit them
+	// sequentially)
+	public static int PARALLELISM = 0;
+
+	// minimum number of joints of a subtree visited by a separate task
+	public static final int MIN_SUBTREE_SIZE = 8;
+
+	private static ForkJoinPool pool;
+
+	/**
+	 * Operation applied to every {@link Joint}.
+	 */
+	public interface JointVisitor {
+
+		/**
+		 * Processes a single {@link Joint}. The parent of the {@link Joint} is
+		 * already processed.
+		 * 
+		 * @param joint
+		 */
+		void visit(Joint joint);
+	}
+
+	/**
+	 * Private Constructor, the class only contains static methods.
+	 */
+	private ParallelSubtreeExecutor() {
+	}
+
+	/**
+	 * Visits the given root {@link Joint}s and all their descendants.
+	 * 
+	 * @param roots
+	 *            root {@link Joint}s of the body model
+	 * @param visitor
+	 *            {@link JointVisitor} applied to every {@link Joint}
+	 */
+	public static void visit(List<Joint> roots, JointVisitor visitor) {
+		visit(roots, visitor, null);
+	}
+
+	/**
+	 * Visits the given root {@link Joint}s and their descendants, skipping the
+	 * subtrees which are not flagged.
+	 * 
+	 * @param roots
+	 *            root {@link Joint}s of the body model
+	 * @param visitor
+	 *            {@link JointVisitor} applied to every visited {@link Joint}
+	 * @param subtrees
+	 *            flags indexed by the ordinal of the joint type, a
+	 *            {@link Joint} and its descendants are skipped if its flag is
+	 *            <code>false</code>; <code>null</code> to visit all joints
+	 */
+	public static void visit(final List<Joint> roots, final JointVisitor visitor, final boolean[] subtrees) {
+		ForkJoinPool pool = getPool();
+		if (pool == null) {
+			for (int i = 0; i < roots.size(); i++)
+				visitSequentially(roots.get(i), visitor, subtrees);
+			return;
+		}
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				visitChildren(null, roots, visitor, subtrees);
+			}
+		});
+	}
+
+	/**
+	 * Returns the pool of the parallel mode.
+	 * 
+	 * @return pool or <code>null</code> in sequential mode
+	 */
+	private static synchronized ForkJoinPool getPool() {
+		if (PARALLELISM <= 1)
+			return null;
+		if (pool == null || pool.getParallelism() != PARALLELISM) {
+			if (pool != null)
+				pool.shutdown();
+			pool = new ForkJoinPool(PARALLELISM);
+		}
+		return pool;
+	}
+
+	/**
+	 * Visits a {@link Joint} and its descendants in the calling thread.
+	 * 
+	 * @param joint
+	 * @param visitor
+	 * @param subtrees
+	 *            flags of the visited subtrees or <code>null</code>
+	 */
+	private static void visitSequentially(Joint joint, JointVisitor visitor, boolean[] subtrees) {
+		if (isSkipped(joint, subtrees))
+			return;
+		visitor.visit(joint);
+		List<SceneNode> children = joint.getChildren();
+		for (int i = 0; i < children.size(); i++) {
+			SceneNode child = children.get(i);
+			if (child instanceof Joint)
+				visitSequentially((Joint) child, visitor, subtrees);
+		}
+	}
+
+	/**
+	 * Determines whether the subtree of a {@link Joint} is skipped.
+	 * 
+	 * @param joint
+	 * @param subtrees
+	 *            flags of the visited subtrees or <code>null</code>
+	 * @return <code>true</code> if the flag of the joint is not set
+	 */
+	private static boolean isSkipped(Joint joint, boolean[] subtrees) {
+		return subtrees != null && joint.getJointType() != null && !subtrees[joint.getJointType().ordinal()];
+	}
+
+	/**
+	 * Visits the subtrees of the given nodes, forking the large subtrees if
+	 * there are at least two of them. Runs inside the pool.
+	 * 
+	 * @param parent
+	 *            common parent of the nodes or <code>null</code> for the root
+	 *            joints
+	 * @param nodes
+	 * @param visitor
+	 * @param subtrees
+	 *            flags of the visited subtrees or <code>null</code>
+	 */
+	private static void visitChildren(Joint parent, List<? extends SceneNode> nodes, JointVisitor visitor, boolean[] subtrees) {
+		int largeSubtrees = 0;
+		for (int i = 0; i < nodes.size(); i++) {
+			SceneNode node = nodes.get(i);
+			if (node instanceof Joint && !isSkipped((Joint) node, subtrees) && isLarge((Joint) node))
+				largeSubtrees++;
+		}
+
+		// a single large subtree is descended until it branches
+		if (largeSubtrees < 2) {
+			for (int i = 0; i < nodes.size(); i++) {
+				SceneNode node = nodes.get(i);
+				if (!(node instanceof Joint))
+					continue;
+				Joint joint = (Joint) node;
+				if (isSkipped(joint, subtrees))
+					continue;
+				if (isLarge(joint)) {
+					visitor.visit(joint);
+					visitChildren(joint, joint.getChildren(), visitor, subtrees);
+				} else
+					visitSequentially(joint, visitor, subtrees);
+			}
+			return;
+		}
+
+		// resolve the ancestors before the children are processed
+		// concurrently, the tasks must not fill their caches
+		for (Joint ancestor = parent; ancestor != null; ancestor = ancestor.getParent()) {
+			ancestor.getAbsolutePosition();
+			ancestor.getAbsoluteOrientation();
+		}
+
+		List<SubtreeTask> tasks = new ArrayList<SubtreeTask>(largeSubtrees);
+		for (int i = 0; i < nodes.size(); i++) {
+			SceneNode node = nodes.get(i);
+			if (node instanceof Joint && !isSkipped((Joint) node, subtrees) && isLarge((Joint) node)) {
+				SubtreeTask task = new SubtreeTask((Joint) node, visitor, subtrees);
+				task.fork();
+				tasks.add(task);
+			}
+		}
+		for (int i = 0; i < nodes.size(); i++) {
+			SceneNode node = nodes.get(i);
+			if (node instanceof Joint && !isLarge((Joint) node))
+				visitSequentially((Joint) node, visitor, subtrees);
+		}
+		for (SubtreeTask task : tasks)
+			task.join();
+	}
+
+	/**
+	 * Determines whether the subtree of a {@link Joint} contains at least
+	 * {@link #MIN_SUBTREE_SIZE} joints.
+	 * 
+	 * @param joint
+	 * @return <code>true</code> if the subtree is visited by a separate task
+	 */
+	private static boolean isLarge(Joint joint) {
+		return countJoints(joint, MIN_SUBTREE_SIZE) >= MIN_SUBTREE_SIZE;
+	}
+
+	/**
+	 * Counts the joints of a subtree, stopping at the given limit.
+	 * 
+	 * @param joint
+	 * @param limit
+	 * @return number of joints, at most about the limit
+	 */
+	private static int countJoints(Joint joint, int limit) {
+		int count = 1;
+		List<SceneNode> children = joint.getChildren();
+		for (int i = 0; i < children.size() && count < limit; i++) {
+			SceneNode child = children.get(i);
+			if (child instanceof Joint)
+				count += countJoints((Joint) child, limit - count);
+		}
+		return count;
+	}
+
+	/**
+	 * Visits a subtree in the pool.
+	 */
+	private static class SubtreeTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Joint joint;
+		private final JointVisitor visitor;
+		private final boolean[] subtrees;
+
+		SubtreeTask(Joint joint, JointVisitor visitor, boolean[] subtrees) {
+			this.joint = joint;
+			this.visitor = visitor;
+			this.subtrees = subtrees;
+		}
+
+		@Override
+		protected void compute() {
+			visitor.visit(joint);
+			visitChildren(joint, joint.getChildren(), visitor, subtrees);
+		}
+	}
+}
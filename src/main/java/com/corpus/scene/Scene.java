@@ -22,6 +22,8 @@ public class Scene implements Cloneable {
 	private Map<JointType, Joint> joints;
 	private List<SceneNode> rootNodes;
 	private Calendar timestamp;
+	private long sequenceNumber;
+	private boolean predicted;
 
 	/**
 	 * Creates a empty scene.
@@ -126,10 +128,50 @@ public class Scene implements Cloneable {
 		this.timestamp = timestamp;
 	}
 
+	/**
+	 * Returns the sequence number of the scene. The number is incremented with
+	 * every update of the model and therefore identifies a frame.
+	 * 
+	 * @return sequence number
+	 */
+	public long getSequenceNumber() {
+		return sequenceNumber;
+	}
+
+	/**
+	 * Sets the sequence number.
+	 * 
+	 * @param sequenceNumber
+	 */
+	public void setSequenceNumber(long sequenceNumber) {
+		this.sequenceNumber = sequenceNumber;
+	}
+
+	/**
+	 * Returns whether the scene was computed for a point in time between or
+	 * after the fused frames instead of being fused itself.
+	 * 
+	 * @return <code>true</code> if the scene is interpolated or extrapolated
+	 */
+	public boolean isPredicted() {
+		return predicted;
+	}
+
+	/**
+	 * Marks the scene as interpolated or extrapolated.
+	 * 
+	 * @param predicted
+	 */
+	public void setPredicted(boolean predicted) {
+		this.predicted = predicted;
+	}
+
 	@Override
 	public Scene clone() {
 		Scene sceneCopy = new Scene();
 		sceneCopy.timestamp = this.timestamp;
+		sceneCopy.sequenceNumber = this.sequenceNumber;
+		sceneCopy.predicted = this.predicted;
 		for (SceneNode joint : getRootNodes()) {
 			cloneRecursively(null, joint, sceneCopy);
 		}
@@ -0,0 +1,93 @@
+package com.corpus.scene;
+
+import java.util.Calendar;
+import java.util.Map;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+
+import com.corpus.helper.QuaternionHelper;
+
+/**
+ * Computes the {@link Scene} at an arbitrary point in time from two recorded
+ * frames. The absolute positions of the joints are interpolated linearly, the
+ * absolute orientations spherically. Points in time after the newer frame are
+ * extrapolated, but at most {@link #MAX_EXTRAPOLATION} milliseconds.
+ * 
+ * @author agent
+ * 
+ */
+public class SceneInterpolator {
+
+	// maximum time (milliseconds) a scene is extrapolated past the newest frame
+	public static long MAX_EXTRAPOLATION = 50;
+
+	/**
+	 * Computes the {@link Scene} at the given time. The joints of the result
+	 * are copies of the joints of the newer frame. Joints which are missing in
+	 * the older frame are not interpolated. The result keeps the sequence
+	 * number of the newer frame, callers publishing it as a frame of its own
+	 * (e.g. the {@link com.corpus.controller.OutputController
+	 * OutputController}) have to number it themselves.
+	 * 
+	 * @param older
+	 *            older frame
+	 * @param newer
+	 *            newer frame
+	 * @param timestamp
+	 *            time in milliseconds, times after the newer frame are limited
+	 *            to {@link #MAX_EXTRAPOLATION}
+	 * @return interpolated {@link Scene} with the given timestamp, marked as
+	 *         predicted unless the timestamp is the one of the newer frame
+	 */
+	public static Scene interpolate(Scene older, Scene newer, long timestamp) {
+		Scene result = newer.clone();
+		long olderTime = older.getTimestamp().getTimeInMillis();
+		long newerTime = newer.getTimestamp().getTimeInMillis();
+		timestamp = Math.min(timestamp, newerTime + MAX_EXTRAPOLATION);
+
+		double t = newerTime > olderTime ? (double) (timestamp - olderTime) / (newerTime - olderTime) : 1;
+		if (t != 1) {
+			// resolve the absolute values of all joints before any joint is
+			// changed, otherwise children would be derived from changed parents
+			for (Joint joint : result.getJoints().values()) {
+				joint.getAbsolutePosition();
+				joint.getAbsoluteOrientation();
+			}
+			Map<JointType, Joint> olderJoints = older.getJoints();
+			for (Map.Entry<JointType, Joint> entry : result.getJoints().entrySet()) {
+				Joint olderJoint = olderJoints.get(entry.getKey());
+				if (olderJoint == null)
+					continue;
+				interpolate(olderJoint, entry.getValue(), t);
+			}
+		}
+
+		Calendar time = Calendar.getInstance();
+		time.setTimeInMillis(timestamp);
+		result.setTimestamp(time);
+		result.setPredicted(timestamp != newerTime);
+		return result;
+	}
+
+	/**
+	 * Interpolates the absolute position and orientation of a joint.
+	 * 
+	 * @param older
+	 *            joint of the older frame
+	 * @param joint
+	 *            joint of the newer frame which is changed
+	 * @param t
+	 *            interpolation parameter (0: older frame, 1: newer frame)
+	 */
+	private static void interpolate(Joint older, Joint joint, double t) {
+		Vector3D olderPosition = older.getAbsolutePosition();
+		Vector3D position = joint.getAbsolutePosition();
+		Rotation olderOrientation = older.getAbsoluteOrientation();
+		Rotation orientation = joint.getAbsoluteOrientation();
+		if (olderPosition != null && position != null)
+			joint.setAbsolutePosition(olderPosition.add(position.subtract(olderPosition).scalarMultiply(t)));
+		if (olderOrientation != null && orientation != null)
+			joint.setAbsoluteOrientation(QuaternionHelper.slerp(olderOrientation, orientation, t));
+	}
+}
@@ -9,6 +9,7 @@ import java.util.UUID;
 import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
 import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
 
+import com.corpus.recording.SensorCaptureWriter;
 import com.corpus.scene.Joint;
 import com.corpus.scene.JointType;
 import com.corpus.scene.Scene;
@@ -85,12 +86,21 @@ public abstract class Sensor extends SceneNode implements Runnable {
 	// by the sensor tracked data
 	private volatile Map<JointType, Joint> currentData;
 
+	// incremented whenever new data is set
+	private volatile long sampleSequenceNumber;
+
+	// device frame of the current data, see setCurrentData(Map, long)
+	private long currentFrame = Long.MIN_VALUE;
+
 	// id of the sensor
 	private String id;
 
 	// determines whether the object is a copy
 	private boolean isCopy = false;
 
+	// data written to the active capture the last time
+	private Map<JointType, Joint> capturedData;
+
 	/**
 	 * Creates a sensor and places it in a scene.
 	 * 
@@ -136,24 +146,125 @@ public abstract class Sensor extends SceneNode implements Runnable {
 	 * with a thread anymore and therefore there is no possibility to get new
 	 * data.
 	 * 
+	 * If a capture is active (see {@link SensorCaptureWriter}), new data is
+	 * written to the capture file.
+	 * 
 	 * @return currentData
 	 */
 	public final Map<JointType, Joint> getCurrentData() {
-		if (!isCopy)
-			updateCurrentData();
-		return currentData;
+		if (isCopy)
+			return currentData;
+		updateCurrentData();
+		Map<JointType, Joint> data = currentData;
+		SensorCaptureWriter captureWriter = SensorCaptureWriter.getInstance();
+		if (captureWriter != null && data != capturedData) {
+			captureWriter.writeSample(this, data);
+			capturedData = data;
+		}
+		return data;
 	}
 
 	/**
 	 * Sets the current data.
 	 * 
 	 * Note: This method should be used to set the current data in the
-	 * {@link #updateCurrentData} method.
+	 * {@link #updateCurrentData} method. Every new map is a new sample for the
+	 * fusers, thus a wrapper polling its device should keep the current data
+	 * as long as the device has no new frame (see
+	 * {@link #setCurrentData(Map, long)} and {@link #isCurrentData(Map)}).
 	 * 
 	 * @param currentData
 	 */
 	protected final void setCurrentData(Map<JointType, Joint> currentData) {
-		this.currentData = currentData;
+		if (currentData != this.currentData) {
+			this.currentData = currentData;
+			sampleSequenceNumber++;
+		}
+	}
+
+	/**
+	 * Sets the current data of a device frame. The data is only replaced if
+	 * the frame differs from the frame of the current data, thus polling the
+	 * device faster than it delivers frames does not produce new samples.
+	 * 
+	 * @param currentData
+	 * @param frame
+	 *            id or timestamp of the device frame the data is taken from
+	 */
+	protected final void setCurrentData(Map<JointType, Joint> currentData, long frame) {
+		if (frame == currentFrame)
+			return;
+		currentFrame = frame;
+		setCurrentData(currentData);
+	}
+
+	/**
+	 * Determines whether the current data is taken from the given device
+	 * frame (see {@link #setCurrentData(Map, long)}). A wrapper can use it to
+	 * skip the conversion of a frame it already delivered.
+	 * 
+	 * @param frame
+	 *            id or timestamp of the device frame
+	 * @return <code>true</code> if the current data is taken from the frame
+	 */
+	protected final boolean isCurrentFrame(long frame) {
+		return frame == currentFrame;
+	}
+
+	/**
+	 * Determines whether the given data equals the current data, i.e. it
+	 * contains the same joints with the same absolute positions, absolute
+	 * orientations and confidences. A wrapper whose device does not identify
+	 * its frames can use it to keep the current data if a polled frame is not
+	 * new.
+	 * 
+	 * @param data
+	 * @return <code>true</code> if the data equals the current data
+	 */
+	protected final boolean isCurrentData(Map<JointType, Joint> data) {
+		Map<JointType, Joint> current = currentData;
+		if (current == null || data == null)
+			return current == data;
+		if (current.size() != data.size())
+			return false;
+		for (Map.Entry<JointType, Joint> entry : data.entrySet()) {
+			Joint joint = entry.getValue();
+			Joint currentJoint = current.get(entry.getKey());
+			if (joint == null || currentJoint == null) {
+				if (joint != currentJoint || !current.containsKey(entry.getKey()))
+					return false;
+				continue;
+			}
+			Vector3D position = joint.getAbsolutePosition();
+			Vector3D currentPosition = currentJoint.getAbsolutePosition();
+			if (position == null ? currentPosition != null : !position.equals(currentPosition))
+				return false;
+			Rotation orientation = joint.getAbsoluteOrientation();
+			Rotation currentOrientation = currentJoint.getAbsoluteOrientation();
+			if (orientation == null || currentOrientation == null) {
+				if (orientation != currentOrientation)
+					return false;
+			} else if (orientation.getQ0() != currentOrientation.getQ0() || orientation.getQ1() != currentOrientation.getQ1()
+					|| orientation.getQ2() != currentOrientation.getQ2() || orientation.getQ3() != currentOrientation.getQ3())
+				return false;
+			if (joint.getPositionConfidence() != currentJoint.getPositionConfidence()
+					|| joint.getOrientationConfidence() != currentJoint.getOrientationConfidence())
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the sequence number of the current data. The number is
+	 * incremented every time new data is set, thus a fuser can determine
+	 * whether the data changed since the last update without comparing the
+	 * joints. Note: The number may also be incremented by the
+	 * {@link #getCurrentData()} call, hence it should be read before the data.
+	 * 
+	 * @return sequence number
+	 */
+	public long getSampleSequenceNumber() {
+		return sampleSequenceNumber;
 	}
 
 	/**
@@ -207,6 +318,8 @@ public abstract class Sensor extends SceneNode implements Runnable {
 			sensorCopy.absoluteOrientation = this.absoluteOrientation;
 			sensorCopy.orientationTimestamp = this.orientationTimestamp;
 			sensorCopy.currentData = this.currentData;
+			sensorCopy.sampleSequenceNumber = this.sampleSequenceNumber;
+			sensorCopy.collectsAbsoluteData = this.collectsAbsoluteData;
 			sensorCopy.id = this.id;
 			sensorCopy.isCopy = true;
 		} catch (InstantiationException | IllegalAccessException | NoSuchMethodException | SecurityException | IllegalArgumentException
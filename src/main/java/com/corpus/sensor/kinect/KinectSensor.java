@@ -143,6 +143,11 @@ public class KinectSensor extends Sensor implements KinectObserver {
 			currentData.put(JointType.WRIST_RIGHT, createJoint(skeleton, orientations, Skeleton.POSITION_WRIST_RIGHT));
 
 		}
+
+		// a skeleton event always delivers a new frame, but the polled
+		// skeleton is not identified: it is only a new sample if it changed
+		if (!eventBased && isCurrentData(currentData))
+			return;
 		setCurrentData(currentData);
 	}
 
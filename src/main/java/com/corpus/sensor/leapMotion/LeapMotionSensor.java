@@ -14,6 +14,7 @@ import com.corpus.sensor.SensorInitializationException;
 import com.leapmotion.leap.Bone;
 import com.leapmotion.leap.Controller;
 import com.leapmotion.leap.Finger;
+import com.leapmotion.leap.Frame;
 import com.leapmotion.leap.Hand;
 import com.leapmotion.leap.Matrix;
 import com.leapmotion.leap.Vector;
@@ -77,8 +78,13 @@ public class LeapMotionSensor extends Sensor {
 
 	@Override
 	protected void updateCurrentData() {
+		// the current data is kept until the Leap Motion delivers a new frame
+		Frame frame = leapController.frame();
+		if (isCurrentFrame(frame.id()))
+			return;
+
 		HashMap<JointType, Joint> newData = new HashMap<JointType, Joint>();
-		for (Hand hand : leapController.frame().hands()) {
+		for (Hand hand : frame.hands()) {
 			if (hand.isLeft()) {
 				Vector pos = hand.arm().wristPosition();
 				Rotation rot = getRotationLeftHand(hand.arm().basis());
@@ -315,7 +321,7 @@ public class LeapMotionSensor extends Sensor {
 				}
 			}
 		}
-		setCurrentData(newData);
+		setCurrentData(newData, frame.id());
 	}
 
 	/**
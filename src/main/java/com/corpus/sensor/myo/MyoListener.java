@@ -32,6 +32,10 @@ public class MyoListener extends AbstractDeviceListener {
 	// differing confidence set by the user
 	float orientationConfidence;
 
+	// rotation mapped by the last call of getCurrentData and the resulting data
+	private Rotation mappedRotation;
+	private Map<JointType, Joint> mappedData;
+
 	/**
 	 * C'tor determining the <code>parentType</code>,
 	 * <code>usbOrientationToEllbow</code> and
@@ -60,13 +64,17 @@ public class MyoListener extends AbstractDeviceListener {
 	/**
 	 * Maps the rotation to a corresponding {@link Joint}. Applies a additional
 	 * rotation in dependence of the parent joint and the orientation of the usb
-	 * connector to match the orientation used in the framework.
+	 * connector to match the orientation used in the framework. The same
+	 * {@link Map} is returned as long as no new rotation was received.
 	 * 
 	 * @return {@link Map} containing the {@link Joint}.
 	 */
 	public Map<JointType, Joint> getCurrentData() {
-		Map<JointType, Joint> currentData = new HashMap<JointType, Joint>();
 		Rotation rot = currentRotation;
+		if (mappedData != null && rot == mappedRotation)
+			return mappedData;
+		mappedRotation = rot;
+		Map<JointType, Joint> currentData = new HashMap<JointType, Joint>();
 		if (rot != null) {
 			Rotation myoRotation = new Rotation(0.5f, 0.5f, -0.5f, 0.5f, false);
 			if (parentType == JointType.WRIST_RIGHT) {
@@ -86,6 +94,7 @@ public class MyoListener extends AbstractDeviceListener {
 				newJoint.setOrientationConfidence(0.75f);
 			currentData.put(parentType, newJoint);
 		}
+		mappedData = currentData;
 		return currentData;
 	}
 }
@@ -120,7 +120,9 @@ public class OCRSensor extends Sensor {
 		}
 
 		currentData.put(JointType.HEAD, joint);
-		setCurrentData(currentData);
+
+		// the data is only new if the Rift delivered a new sensor sample
+		setCurrentData(currentData, Double.doubleToLongBits(state.RawSensorData.TimeInSeconds));
 	}
 
 }
@@ -0,0 +1,208 @@
+package com.corpus.sensor.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import com.corpus.recording.SensorCaptureReader;
+import com.corpus.recording.SensorCaptureWriter;
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.sensor.Sensor;
+import com.corpus.sensor.SensorInitializationException;
+
+/**
+ * <p>
+ * Replays the data of a {@link Sensor} captured by the
+ * {@link SensorCaptureWriter}. The sensor can be configured like any other
+ * sensor, thus the fusion and filter process can be run without any device.
+ * </p>
+ * <p>
+ * The following arguments are supported:
+ * </p>
+ * <ul>
+ * <li><code>file</code>: path of the capture file (required)</li>
+ * <li><code>sensorId</code>: id of the captured sensor which is replayed. If
+ * not set, the id of this sensor is used.</li>
+ * <li><code>speed</code>: replay speed. 1 replays the capture in real time, 2
+ * twice as fast and so on. If the speed is 0 the capture is replayed as fast
+ * as possible: every update of the model uses the data of the next captured
+ * frame.</li>
+ * <li><code>loop</code>: determines whether the capture is restarted at the
+ * end</li>
+ * </ul>
+ * 
+ * @author agent
+ * 
+ */
+public class ReplaySensor extends Sensor {
+
+	private final String path;
+	private final String sourceId;
+	private final double speed;
+	private final boolean loop;
+
+	private SensorCaptureReader reader;
+
+	// time of the first record of the capture and start time of the replay
+	private long captureStart;
+	private long replayStart;
+
+	// read ahead sample of the replayed sensor
+	private Map<JointType, Joint> pendingData;
+	private long pendingTimestamp;
+	private boolean finished;
+
+	public ReplaySensor(Map<String, String> arguments) {
+		super(arguments);
+		path = arguments.get("file");
+		sourceId = arguments.get("sensorId");
+		speed = arguments.get("speed") != null ? Double.parseDouble(arguments.get("speed")) : 1;
+		loop = arguments.get("loop") != null && Boolean.parseBoolean(arguments.get("loop"));
+	}
+
+	@Override
+	public void run() {
+		// the data is read during the update process
+	}
+
+	@Override
+	public void init() throws SensorInitializationException {
+		if (path == null)
+			throw new SensorInitializationException("No capture file given.");
+		try {
+			open();
+		} catch (IOException e) {
+			throw new SensorInitializationException("Capture file could not be opened: " + e.getMessage());
+		}
+	}
+
+	@Override
+	public void terminate() {
+		try {
+			if (reader != null)
+				reader.close();
+		} catch (IOException e) {
+			System.err.println("Capture file could not be closed: " + e.getMessage());
+		}
+	}
+
+	@Override
+	protected void updateCurrentData() {
+		try {
+			if (speed <= 0)
+				replayNextFrame();
+			else
+				replayInTime();
+		} catch (IOException e) {
+			System.err.println("Error while replaying " + path + ": " + e.getMessage());
+			finished = true;
+		}
+	}
+
+	/**
+	 * Opens the capture file.
+	 * 
+	 * @throws IOException
+	 */
+	private void open() throws IOException {
+		reader = new SensorCaptureReader(new File(path));
+		pendingData = null;
+		finished = false;
+		captureStart = -1;
+		replayStart = -1;
+	}
+
+	/**
+	 * Restarts the capture if it is finished and should be looped.
+	 * 
+	 * @throws IOException
+	 */
+	private void restartIfFinished() throws IOException {
+		if (finished && loop) {
+			reader.close();
+			open();
+		}
+	}
+
+	/**
+	 * Applies the samples until the next frame marker.
+	 * 
+	 * @throws IOException
+	 */
+	private void replayNextFrame() throws IOException {
+		while (readNextSample(true)) {
+			setCurrentData(pendingData);
+			pendingData = null;
+		}
+		restartIfFinished();
+	}
+
+	/**
+	 * Applies all samples captured before the current replay time.
+	 * 
+	 * @throws IOException
+	 */
+	private void replayInTime() throws IOException {
+		long now = System.currentTimeMillis();
+		if (replayStart < 0)
+			replayStart = now;
+		while (true) {
+			if (pendingData == null && !readNextSample(false)) {
+				restartIfFinished();
+				return;
+			}
+			if (pendingTimestamp > captureStart + (long) ((now - replayStart) * speed))
+				return;
+			setCurrentData(pendingData);
+			pendingData = null;
+		}
+	}
+
+	/**
+	 * Reads the next sample of the replayed sensor into
+	 * <code>pendingData</code>. The start of the capture is the timestamp of
+	 * the first sample or frame of any sensor, thus multiple replayed sensors
+	 * stay synchronized.
+	 * 
+	 * @param stopAtFrame
+	 *            stop at the next frame marker
+	 * @return <code>false</code> if a frame marker or the end of the file is
+	 *         reached
+	 * @throws IOException
+	 */
+	private boolean readNextSample(boolean stopAtFrame) throws IOException {
+		while (!finished) {
+			byte type = reader.next();
+			if (type == SensorCaptureReader.END) {
+				finished = true;
+				return false;
+			}
+			if (type == SensorCaptureWriter.SENSOR) {
+				if (isReplayed())
+					collectsAbsoluteData = reader.getCollectsAbsoluteData();
+				continue;
+			}
+			if (captureStart < 0)
+				captureStart = reader.getTimestamp();
+			if (type == SensorCaptureWriter.FRAME) {
+				if (stopAtFrame)
+					return false;
+			} else if (isReplayed()) {
+				pendingData = reader.getData();
+				pendingTimestamp = reader.getTimestamp();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Tells whether the current record belongs to the replayed sensor.
+	 * 
+	 * @return <code>true</code> if the record belongs to the replayed sensor
+	 */
+	private boolean isReplayed() {
+		return (sourceId != null ? sourceId : getId()).equals(reader.getSensorId());
+	}
+}
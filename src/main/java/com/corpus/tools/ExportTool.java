@@ -0,0 +1,102 @@
+package com.corpus.tools;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.corpus.configuration.ConfigurationParser;
+import com.corpus.recording.ExportFormat;
+import com.corpus.recording.FrameJournal;
+import com.corpus.recording.FrameJournalReader;
+import com.corpus.scene.JointType;
+import com.corpus.scene.Scene;
+
+/**
+ * <p>
+ * Converts a {@link FrameJournal} to CSV or BVH (see {@link ExportFormat}).
+ * The body model is taken from the configuration file. The frames are
+ * converted one after another, thus recordings of any length can be exported.
+ * </p>
+ * 
+ * <pre>
+ * ExportTool &lt;config file&gt; &lt;journal directory&gt; &lt;output file&gt; [--format csv|bvh] [--from timestamp] [--to timestamp]
+ *            [--joint type]...
+ * </pre>
+ * <p>
+ * By default the format is determined by the extension of the output file and
+ * the whole journal is exported. <code>--joint</code> restricts the CSV export
+ * to the given joints.
+ * </p>
+ * 
+ * @author agent
+ * 
+ */
+public class ExportTool {
+
+	/**
+	 * Main method.
+	 * 
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		ExportFormat format = null;
+		long from = 0;
+		long to = Long.MAX_VALUE;
+		List<JointType> jointTypes = new ArrayList<JointType>();
+		List<String> paths = new ArrayList<String>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("--format") && i + 1 < args.length)
+					format = ExportFormat.valueOf(args[++i].toUpperCase());
+				else if (args[i].equals("--from") && i + 1 < args.length)
+					from = Long.parseLong(args[++i]);
+				else if (args[i].equals("--to") && i + 1 < args.length)
+					to = Long.parseLong(args[++i]);
+				else if (args[i].equals("--joint") && i + 1 < args.length)
+					jointTypes.add(JointType.valueOf(args[++i]));
+				else
+					paths.add(args[i]);
+			}
+		} catch (IllegalArgumentException e) {
+			paths.clear();
+		}
+		if (paths.size() == 3 && format == null) {
+			String output = paths.get(2).toLowerCase();
+			for (ExportFormat candidate : ExportFormat.values()) {
+				if (output.endsWith("." + candidate.getExtension()))
+					format = candidate;
+			}
+		}
+		if (paths.size() != 3 || format == null) {
+			System.err.println("Usage: ExportTool <config file> <journal directory> <output file> [--format csv|bvh] [--from timestamp] "
+					+ "[--to timestamp] [--joint type]...");
+			System.exit(1);
+		}
+		if (jointTypes.isEmpty())
+			jointTypes.addAll(Arrays.asList(JointType.values()));
+
+		Scene model = ConfigurationParser.readModel(paths.get(0));
+		File output = new File(paths.get(2));
+		long start = System.currentTimeMillis();
+		long frames;
+		FrameJournalReader reader = new FrameJournalReader(new File(paths.get(1)));
+		try {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), "UTF-8"));
+			try {
+				frames = format.createExporter(model, jointTypes, writer).export(reader, from, to);
+			} finally {
+				writer.close();
+			}
+		} finally {
+			reader.close();
+		}
+		System.out.println(String.format("Exported %d frames to %s in %.1f seconds.", frames, output,
+				(System.currentTimeMillis() - start) / 1000.0));
+	}
+}
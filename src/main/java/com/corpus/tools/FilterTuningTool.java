@@ -0,0 +1,331 @@
+package com.corpus.tools;
+
+import java.io.File;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.corpus.configuration.ConfigurationParser;
+import com.corpus.filter.AdaptiveDoubleExponentialFilter;
+import com.corpus.filter.DoubleExponentialFilter;
+import com.corpus.filter.Filter;
+import com.corpus.filter.FilterChain;
+import com.corpus.filter.OneEuroFilter;
+import com.corpus.recording.OfflineFusion;
+
+/**
+ * <p>
+ * Searches the arguments of a {@link Filter} which smooth a recorded session
+ * best. The capture is fused once without filter (see {@link ReferenceTrack}),
+ * afterwards every candidate is evaluated on the unfiltered track in parallel.
+ * A candidate is scored by <code>jitter + lagWeight * lag</code>, the best
+ * candidates are printed together with the <code>arguments</code> block of the
+ * best one for the configuration file.
+ * </p>
+ * 
+ * <pre>
+ * FilterTuningTool &lt;config file&gt; &lt;capture file&gt; [--filter class] [--param name=min:max:steps]... [--random n] [--seed n]
+ *                  [--lagWeight w] [--minConfidence c] [--maxFrames n] [--threads n]
+ * </pre>
+ * <p>
+ * The filter and its fixed arguments are taken from the configuration file
+ * unless <code>--filter</code> is given. Every <code>--param</code> defines a
+ * searched argument: by default the grid of all combinations is evaluated,
+ * with <code>--random</code> the given number of uniformly drawn candidates.
+ * Without <code>--param</code> the alpha and gamma bounds of the
+ * {@link AdaptiveDoubleExponentialFilter}, alpha and gamma of the
+ * {@link DoubleExponentialFilter} or the minimum cutoff and beta of the
+ * {@link OneEuroFilter} are searched.
+ * </p>
+ * 
+ * @author agent
+ * 
+ */
+public class FilterTuningTool {
+
+	// number of printed candidates
+	private static final int PRINTED_CANDIDATES = 5;
+
+	/**
+	 * Main method.
+	 * 
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String filterClass = null;
+		Map<String, double[]> ranges = new LinkedHashMap<String, double[]>();
+		int random = 0;
+		long seed = 0;
+		double lagWeight = 1;
+		float minConfidence = 0.5f;
+		int maxFrames = 0;
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<String> paths = new ArrayList<String>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("--filter") && i + 1 < args.length)
+					filterClass = args[++i];
+				else if (args[i].equals("--param") && i + 1 < args.length)
+					parseRange(args[++i], ranges);
+				else if (args[i].equals("--random") && i + 1 < args.length)
+					random = Integer.parseInt(args[++i]);
+				else if (args[i].equals("--seed") && i + 1 < args.length)
+					seed = Long.parseLong(args[++i]);
+				else if (args[i].equals("--lagWeight") && i + 1 < args.length)
+					lagWeight = Double.parseDouble(args[++i]);
+				else if (args[i].equals("--minConfidence") && i + 1 < args.length)
+					minConfidence = Float.parseFloat(args[++i]);
+				else if (args[i].equals("--maxFrames") && i + 1 < args.length)
+					maxFrames = Integer.parseInt(args[++i]);
+				else if (args[i].equals("--threads") && i + 1 < args.length)
+					threads = Integer.parseInt(args[++i]);
+				else
+					paths.add(args[i]);
+			}
+		} catch (IllegalArgumentException e) {
+			paths.clear();
+		}
+		if (paths.size() != 2 || threads <= 0) {
+			System.err.println("Usage: FilterTuningTool <config file> <capture file> [--filter class] [--param name=min:max:steps]... "
+					+ "[--random n] [--seed n] [--lagWeight w] [--minConfidence c] [--maxFrames n] [--threads n]");
+			System.exit(1);
+		}
+
+		// fuse the capture without filter
+		OfflineFusion fusion = ConfigurationParser.readConfigForOfflineFusion(paths.get(0), new File(paths.get(1)));
+		Filter configuredFilter = fusion.getFilter();
+		ReferenceTrack track;
+		try {
+			track = new ReferenceTrack(fusion, maxFrames, minConfidence);
+		} finally {
+			fusion.close();
+		}
+
+		// determine the filter class and the fixed arguments
+		Class<? extends Filter> clazz;
+		Map<String, String> fixedArguments = new LinkedHashMap<String, String>();
+		if (filterClass != null)
+			clazz = Class.forName(filterClass).asSubclass(Filter.class);
+		else if (configuredFilter instanceof FilterChain) {
+			System.err.println("ERROR: A chain of filters is defined in the configuration file, use --filter.");
+			System.exit(1);
+			return;
+		} else if (configuredFilter != null) {
+			clazz = configuredFilter.getClass();
+			if (configuredFilter.getArguments() != null)
+				fixedArguments.putAll(configuredFilter.getArguments());
+		} else {
+			System.err.println("ERROR: No filter is defined in the configuration file, use --filter.");
+			System.exit(1);
+			return;
+		}
+		if (ranges.isEmpty())
+			addDefaultRanges(clazz, ranges);
+		if (ranges.isEmpty()) {
+			System.err.println("ERROR: No searched argument is defined, use --param.");
+			System.exit(1);
+		}
+
+		List<Map<String, String>> candidates = random > 0 ? createRandomCandidates(ranges, random, seed) : createGrid(ranges);
+		double[] unfiltered = track.evaluate();
+		System.out.println(String.format("Evaluating %d candidates of %s on %d frames (unfiltered jitter %.4f cm).",
+				candidates.size(), clazz.getSimpleName(), track.getFrameCount(), unfiltered[0]));
+
+		// evaluate the candidates in parallel
+		long start = System.currentTimeMillis();
+		Constructor<? extends Filter> constructor = clazz.getConstructor(Map.class);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Result>> futures = new ArrayList<Future<Result>>();
+		for (Map<String, String> candidate : candidates) {
+			Map<String, String> arguments = new LinkedHashMap<String, String>(fixedArguments);
+			arguments.putAll(candidate);
+			futures.add(executor.submit(new Evaluation(track, constructor, arguments, lagWeight)));
+		}
+		List<Result> results = new ArrayList<Result>();
+		try {
+			for (Future<Result> future : futures)
+				results.add(future.get());
+		} finally {
+			executor.shutdown();
+		}
+		long duration = Math.max(System.currentTimeMillis() - start, 1);
+
+		Collections.sort(results, new Comparator<Result>() {
+			@Override
+			public int compare(Result a, Result b) {
+				return Double.compare(a.score, b.score);
+			}
+		});
+		System.out.println(String.format("Evaluated %d candidates in %.1f seconds.", results.size(), duration / 1000.0));
+		for (int i = 0; i < Math.min(PRINTED_CANDIDATES, results.size()); i++) {
+			Result result = results.get(i);
+			System.out.println(String.format("score %.4f  jitter %.4f cm  lag %.4f cm  %s", result.score, result.jitter, result.lag,
+					result.arguments));
+		}
+		if (!results.isEmpty())
+			System.out.println(toArgumentsBlock(results.get(0).arguments));
+	}
+
+	/**
+	 * Parses a searched argument of the form <code>name=min:max:steps</code>.
+	 * 
+	 * @param value
+	 * @param ranges
+	 *            searched arguments by name (minimum, maximum, steps)
+	 */
+	private static void parseRange(String value, Map<String, double[]> ranges) {
+		int separator = value.indexOf('=');
+		if (separator <= 0)
+			throw new IllegalArgumentException("Invalid parameter " + value);
+		String[] bounds = value.substring(separator + 1).split(":");
+		if (bounds.length != 3)
+			throw new IllegalArgumentException("Invalid parameter " + value);
+		ranges.put(value.substring(0, separator),
+				new double[] { Double.parseDouble(bounds[0]), Double.parseDouble(bounds[1]), Integer.parseInt(bounds[2]) });
+	}
+
+	/**
+	 * Adds the searched arguments of the known filters.
+	 * 
+	 * @param clazz
+	 *            filter class
+	 * @param ranges
+	 */
+	private static void addDefaultRanges(Class<? extends Filter> clazz, Map<String, double[]> ranges) {
+		if (clazz == AdaptiveDoubleExponentialFilter.class) {
+			ranges.put("alphaLow", new double[] { 0.1, 0.9, 5 });
+			ranges.put("alphaHigh", new double[] { 0.1, 0.9, 5 });
+			ranges.put("gammaLow", new double[] { 0.1, 0.9, 5 });
+			ranges.put("gammaHigh", new double[] { 0.1, 0.9, 5 });
+		} else if (clazz == DoubleExponentialFilter.class) {
+			ranges.put("alpha", new double[] { 0.05, 0.95, 10 });
+			ranges.put("gamma", new double[] { 0.05, 0.95, 10 });
+		} else if (clazz == OneEuroFilter.class) {
+			ranges.put("minCutoff", new double[] { 0.25, 5, 20 });
+			ranges.put("beta", new double[] { 0, 0.1, 21 });
+		}
+	}
+
+	/**
+	 * Creates all combinations of the steps of the searched arguments.
+	 * 
+	 * @param ranges
+	 * @return candidates
+	 */
+	private static List<Map<String, String>> createGrid(Map<String, double[]> ranges) {
+		List<Map<String, String>> candidates = new ArrayList<Map<String, String>>();
+		candidates.add(new HashMap<String, String>());
+		for (Map.Entry<String, double[]> range : ranges.entrySet()) {
+			double[] bounds = range.getValue();
+			int steps = Math.max((int) bounds[2], 1);
+			List<Map<String, String>> extended = new ArrayList<Map<String, String>>(candidates.size() * steps);
+			for (Map<String, String> candidate : candidates) {
+				for (int s = 0; s < steps; s++) {
+					double value = steps == 1 ? bounds[0] : bounds[0] + (bounds[1] - bounds[0]) * s / (steps - 1);
+					Map<String, String> next = new LinkedHashMap<String, String>(candidate);
+					next.put(range.getKey(), format(value));
+					extended.add(next);
+				}
+			}
+			candidates = extended;
+		}
+		return candidates;
+	}
+
+	/**
+	 * Draws candidates uniformly from the ranges of the searched arguments.
+	 * 
+	 * @param ranges
+	 * @param count
+	 *            number of candidates
+	 * @param seed
+	 *            seed of the random numbers
+	 * @return candidates
+	 */
+	private static List<Map<String, String>> createRandomCandidates(Map<String, double[]> ranges, int count, long seed) {
+		Random random = new Random(seed);
+		List<Map<String, String>> candidates = new ArrayList<Map<String, String>>(count);
+		for (int i = 0; i < count; i++) {
+			Map<String, String> candidate = new LinkedHashMap<String, String>();
+			for (Map.Entry<String, double[]> range : ranges.entrySet()) {
+				double[] bounds = range.getValue();
+				candidate.put(range.getKey(), format(bounds[0] + (bounds[1] - bounds[0]) * random.nextDouble()));
+			}
+			candidates.add(candidate);
+		}
+		return candidates;
+	}
+
+	private static String format(double value) {
+		return String.format(Locale.ENGLISH, "%.4f", value).replaceAll("0+$", "").replaceAll("\\.$", ".0");
+	}
+
+	/**
+	 * Creates the <code>arguments</code> block of the configuration file.
+	 * 
+	 * @param arguments
+	 * @return XML
+	 */
+	private static String toArgumentsBlock(Map<String, String> arguments) {
+		StringBuilder builder = new StringBuilder("<arguments>\n");
+		for (Map.Entry<String, String> argument : arguments.entrySet()) {
+			builder.append("  <argument>\n");
+			builder.append("    <name>").append(argument.getKey()).append("</name>\n");
+			builder.append("    <value>").append(argument.getValue()).append("</value>\n");
+			builder.append("  </argument>\n");
+		}
+		return builder.append("</arguments>").toString();
+	}
+
+	/**
+	 * Score of a candidate.
+	 */
+	private static class Result {
+		private final Map<String, String> arguments;
+		private final double jitter;
+		private final double lag;
+		private final double score;
+
+		Result(Map<String, String> arguments, double jitter, double lag, double score) {
+			this.arguments = arguments;
+			this.jitter = jitter;
+			this.lag = lag;
+			this.score = score;
+		}
+	}
+
+	/**
+	 * Evaluates a candidate on the {@link ReferenceTrack}.
+	 */
+	private static class Evaluation implements Callable<Result> {
+		private final ReferenceTrack track;
+		private final Constructor<? extends Filter> constructor;
+		private final Map<String, String> arguments;
+		private final double lagWeight;
+
+		Evaluation(ReferenceTrack track, Constructor<? extends Filter> constructor, Map<String, String> arguments, double lagWeight) {
+			this.track = track;
+			this.constructor = constructor;
+			this.arguments = arguments;
+			this.lagWeight = lagWeight;
+		}
+
+		@Override
+		public Result call() throws Exception {
+			double[] measures = track.evaluate(constructor.newInstance(arguments));
+			return new Result(arguments, measures[0], measures[1], measures[0] + lagWeight * measures[1]);
+		}
+	}
+}
@@ -0,0 +1,258 @@
+package com.corpus.tools;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+
+import com.corpus.controller.SceneController;
+import com.corpus.filter.Filter;
+import com.corpus.history.JointHistory;
+import com.corpus.recording.OfflineFusion;
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.scene.Scene;
+
+/**
+ * <p>
+ * The unfiltered fused frames of a capture, kept in primitive arrays. The
+ * track is replayed into a {@link Scene} frame by frame to evaluate a
+ * {@link Filter}: the filtered positions are compared with the unfiltered
+ * positions of the frames in which a joint is tracked with at least the
+ * minimum confidence. The timestamps, tracking states and confidences of the
+ * frames are replayed as well, and the unfiltered frames are kept in a
+ * {@link JointHistory}, thus the {@link Filter} sees the same input as in the
+ * {@link OfflineFusion}.
+ * </p>
+ * <p>
+ * A {@link Filter} is scored by two measures in centimeters:
+ * </p>
+ * <ul>
+ * <li>jitter: mean length of the second difference of the filtered position
+ * between consecutive frames, i.e. how much the position shakes</li>
+ * <li>lag: mean distance between the filtered and the unfiltered position,
+ * i.e. how far the filter trails the movement</li>
+ * </ul>
+ * 
+ * @author agent
+ * 
+ */
+class ReferenceTrack {
+
+	private final Scene startScene;
+	private final JointType[] jointTypes;
+	private final int frameCount;
+
+	// timestamp of every frame in milliseconds
+	private final long[] timestamps;
+
+	// values of every frame and joint, NaN if the value is missing
+	private final float[] positions;
+	private final float[] orientations;
+	private final boolean[] positionTracked;
+	private final boolean[] orientationTracked;
+	private final float[] positionConfidences;
+	private final float[] orientationConfidences;
+
+	// frames and joints the filter is evaluated on
+	private final boolean[] reference;
+
+	/**
+	 * Fuses the frames of a capture without filter.
+	 * 
+	 * @param fusion
+	 *            {@link OfflineFusion} positioned at the start of the capture
+	 * @param maxFrames
+	 *            maximum number of frames read (0 for all frames)
+	 * @param minConfidence
+	 *            minimum position confidence of a reference value
+	 * @throws IOException
+	 */
+	ReferenceTrack(OfflineFusion fusion, int maxFrames, float minConfidence) throws IOException {
+		fusion.setFilter(null);
+		startScene = fusion.getScene().clone();
+		List<JointType> types = new ArrayList<JointType>(startScene.getJoints().keySet());
+		Collections.sort(types);
+		jointTypes = types.toArray(new JointType[types.size()]);
+
+		int capacity = 1024;
+		long[] timestamps = new long[capacity];
+		float[] positions = new float[capacity * jointTypes.length * 3];
+		float[] orientations = new float[capacity * jointTypes.length * 4];
+		boolean[] positionTracked = new boolean[capacity * jointTypes.length];
+		boolean[] orientationTracked = new boolean[capacity * jointTypes.length];
+		float[] positionConfidences = new float[capacity * jointTypes.length];
+		float[] orientationConfidences = new float[capacity * jointTypes.length];
+		boolean[] reference = new boolean[capacity * jointTypes.length];
+		int frame = 0;
+		while ((maxFrames <= 0 || frame < maxFrames) && fusion.nextFrame()) {
+			if (frame == capacity) {
+				capacity *= 2;
+				timestamps = Arrays.copyOf(timestamps, capacity);
+				positions = Arrays.copyOf(positions, capacity * jointTypes.length * 3);
+				orientations = Arrays.copyOf(orientations, capacity * jointTypes.length * 4);
+				positionTracked = Arrays.copyOf(positionTracked, capacity * jointTypes.length);
+				orientationTracked = Arrays.copyOf(orientationTracked, capacity * jointTypes.length);
+				positionConfidences = Arrays.copyOf(positionConfidences, capacity * jointTypes.length);
+				orientationConfidences = Arrays.copyOf(orientationConfidences, capacity * jointTypes.length);
+				reference = Arrays.copyOf(reference, capacity * jointTypes.length);
+			}
+			Scene scene = fusion.getScene();
+			timestamps[frame] = scene.getTimestamp().getTimeInMillis();
+			for (int j = 0; j < jointTypes.length; j++) {
+				int i = frame * jointTypes.length + j;
+				Joint joint = scene.getJoints().get(jointTypes[j]);
+				Vector3D position = joint.getAbsolutePosition();
+				Rotation orientation = joint.getAbsoluteOrientation();
+				if (position != null) {
+					positions[i * 3] = (float) position.getX();
+					positions[i * 3 + 1] = (float) position.getY();
+					positions[i * 3 + 2] = (float) position.getZ();
+				} else
+					Arrays.fill(positions, i * 3, i * 3 + 3, Float.NaN);
+				if (orientation != null) {
+					orientations[i * 4] = (float) orientation.getQ0();
+					orientations[i * 4 + 1] = (float) orientation.getQ1();
+					orientations[i * 4 + 2] = (float) orientation.getQ2();
+					orientations[i * 4 + 3] = (float) orientation.getQ3();
+				} else
+					Arrays.fill(orientations, i * 4, i * 4 + 4, Float.NaN);
+				positionTracked[i] = joint.getPositionTracked() && position != null;
+				orientationTracked[i] = joint.getOrientationTracked() && orientation != null;
+				positionConfidences[i] = joint.getPositionConfidence();
+				orientationConfidences[i] = joint.getOrientationConfidence();
+				reference[i] = positionTracked[i] && joint.getPositionConfidence() >= minConfidence;
+			}
+			frame++;
+		}
+		frameCount = frame;
+		this.timestamps = timestamps;
+		this.positions = positions;
+		this.orientations = orientations;
+		this.positionTracked = positionTracked;
+		this.orientationTracked = orientationTracked;
+		this.positionConfidences = positionConfidences;
+		this.orientationConfidences = orientationConfidences;
+		this.reference = reference;
+	}
+
+	/**
+	 * Returns the number of frames.
+	 * 
+	 * @return number of frames
+	 */
+	int getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * Measures the jitter of the unfiltered track.
+	 * 
+	 * @return jitter and lag (always 0) in centimeters
+	 */
+	double[] evaluate() {
+		return evaluate(null);
+	}
+
+	/**
+	 * Replays the track through the given {@link Filter} and measures the
+	 * jitter and the lag of the filtered positions. The {@link Filter} gets the
+	 * unfiltered frames as {@link JointHistory} (if it uses one and
+	 * {@link SceneController#FRAME_HISTORY} is greater than 0), but an empty
+	 * scene history, because copying every frame would dominate the
+	 * evaluation.
+	 * 
+	 * @param filter
+	 *            new {@link Filter} or <code>null</code> to measure the
+	 *            unfiltered track
+	 * @return jitter and lag in centimeters
+	 */
+	double[] evaluate(Filter filter) {
+		Scene scene = startScene.clone();
+		Joint[] joints = new Joint[jointTypes.length];
+		for (int j = 0; j < joints.length; j++)
+			joints[j] = scene.getJoints().get(jointTypes[j]);
+		List<Scene> sceneHistory = Collections.emptyList();
+		JointHistory jointHistory = null;
+		if (filter != null && filter.usesJointHistory() && SceneController.FRAME_HISTORY > 0) {
+			jointHistory = new JointHistory(Arrays.asList(jointTypes), SceneController.FRAME_HISTORY);
+			filter.setJointHistory(jointHistory);
+		}
+
+		// filtered positions of the last two frames
+		double[] last = new double[jointTypes.length * 3];
+		double[] secondLast = new double[jointTypes.length * 3];
+		int[] consecutive = new int[jointTypes.length];
+
+		double jitter = 0;
+		double lag = 0;
+		long jitterCount = 0;
+		long lagCount = 0;
+		for (int frame = 0; frame < frameCount; frame++) {
+			Calendar timestamp = Calendar.getInstance();
+			timestamp.setTimeInMillis(timestamps[frame]);
+			scene.setTimestamp(timestamp);
+			for (int j = 0; j < joints.length; j++)
+				apply(joints[j], frame * jointTypes.length + j);
+			if (jointHistory != null)
+				jointHistory.add(scene);
+			if (filter != null)
+				filter.filterData(sceneHistory, scene);
+
+			for (int j = 0; j < joints.length; j++) {
+				int i = frame * jointTypes.length + j;
+				if (!reference[i]) {
+					consecutive[j] = 0;
+					continue;
+				}
+				Vector3D position = joints[j].getAbsolutePosition();
+				double x = position.getX();
+				double y = position.getY();
+				double z = position.getZ();
+				lag += Math.sqrt(square(x - positions[i * 3]) + square(y - positions[i * 3 + 1]) + square(z - positions[i * 3 + 2]));
+				lagCount++;
+				int p = j * 3;
+				if (consecutive[j] >= 2) {
+					jitter += Math.sqrt(square(x - 2 * last[p] + secondLast[p]) + square(y - 2 * last[p + 1] + secondLast[p + 1])
+							+ square(z - 2 * last[p + 2] + secondLast[p + 2]));
+					jitterCount++;
+				}
+				System.arraycopy(last, p, secondLast, p, 3);
+				last[p] = x;
+				last[p + 1] = y;
+				last[p + 2] = z;
+				consecutive[j]++;
+			}
+		}
+		return new double[] { jitterCount > 0 ? jitter / jitterCount : 0, lagCount > 0 ? lag / lagCount : 0 };
+	}
+
+	/**
+	 * Sets the unfiltered values, tracking states and confidences of a frame to
+	 * a {@link Joint}.
+	 * 
+	 * @param joint
+	 * @param i
+	 *            index of the frame and joint
+	 */
+	private void apply(Joint joint, int i) {
+		if (!Float.isNaN(positions[i * 3]))
+			joint.setAbsolutePosition(new Vector3D(positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2]));
+		if (!Float.isNaN(orientations[i * 4]))
+			joint.setAbsoluteOrientation(new Rotation(orientations[i * 4], orientations[i * 4 + 1], orientations[i * 4 + 2],
+					orientations[i * 4 + 3], true));
+		joint.setPositionTracked(positionTracked[i]);
+		joint.setOrientationTracked(orientationTracked[i]);
+		joint.setPositionConfidence(positionConfidences[i]);
+		joint.setOrientationConfidence(orientationConfidences[i]);
+	}
+
+	private static double square(double value) {
+		return value * value;
+	}
+}
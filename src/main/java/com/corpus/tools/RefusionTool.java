@@ -0,0 +1,252 @@
+package com.corpus.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.corpus.configuration.ConfigurationParser;
+import com.corpus.recording.FrameJournal;
+import com.corpus.recording.FrameJournalWriter;
+import com.corpus.recording.OfflineFusion;
+
+/**
+ * <p>
+ * Fuses and filters recorded sensor captures again with the fuser and filter
+ * defined in a configuration file and writes the result as
+ * {@link FrameJournal}s. The captures are processed as fast as possible and in
+ * parallel:
+ * </p>
+ * <ul>
+ * <li>every capture is an independent job writing to its own journal
+ * <code>&lt;output&gt;/&lt;capture name&gt;</code></li>
+ * <li>a capture can be divided into chunks of consecutive frames. Every chunk
+ * starts with a number of warm-up frames before the chunk, which are fused and
+ * filtered but not written, thus the filter reaches its steady state. The
+ * journals of the chunks are joined afterwards.</li>
+ * </ul>
+ * 
+ * <pre>
+ * RefusionTool &lt;config file&gt; &lt;output directory&gt; &lt;capture file&gt;... [--threads n] [--chunks n] [--warmup frames]
+ * </pre>
+ * <p>
+ * By default all cores are used and a capture is divided into as many chunks
+ * as there are threads per capture. The default warm-up is
+ * {@link #DEFAULT_WARMUP} frames.
+ * </p>
+ * 
+ * @author agent
+ * 
+ */
+public class RefusionTool {
+
+	// frames fused before a chunk to warm up the filter
+	public static final int DEFAULT_WARMUP = 120;
+
+	/**
+	 * Main method.
+	 * 
+	 * @param args
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		int chunks = 0;
+		int warmup = DEFAULT_WARMUP;
+		List<String> paths = new ArrayList<String>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("--threads") && i + 1 < args.length)
+					threads = Integer.parseInt(args[++i]);
+				else if (args[i].equals("--chunks") && i + 1 < args.length)
+					chunks = Integer.parseInt(args[++i]);
+				else if (args[i].equals("--warmup") && i + 1 < args.length)
+					warmup = Integer.parseInt(args[++i]);
+				else
+					paths.add(args[i]);
+			}
+		} catch (NumberFormatException e) {
+			paths.clear();
+		}
+		if (paths.size() < 3 || threads <= 0 || chunks < 0 || warmup < 0) {
+			System.err.println("Usage: RefusionTool <config file> <output directory> <capture file>... [--threads n] [--chunks n] [--warmup frames]");
+			System.exit(1);
+		}
+
+		String configFile = paths.get(0);
+		File output = new File(paths.get(1));
+		List<File> captures = new ArrayList<File>();
+		for (String path : paths.subList(2, paths.size()))
+			captures.add(new File(path));
+		if (chunks == 0)
+			chunks = Math.max(1, threads / captures.size());
+
+		long start = System.currentTimeMillis();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		boolean failed = false;
+		long total = 0;
+		try {
+			for (File capture : captures) {
+				try {
+					total += refuse(configFile, capture, output, chunks, warmup, executor);
+				} catch (Exception e) {
+					System.err.println("ERROR: " + capture + " could not be fused: " + e.getMessage());
+					failed = true;
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		long duration = Math.max(System.currentTimeMillis() - start, 1);
+		System.out.println(String.format("Fused %d frames in %.1f seconds (%.0f frames per second).", total, duration / 1000.0,
+				total * 1000.0 / duration));
+		System.exit(failed ? 1 : 0);
+	}
+
+	/**
+	 * Fuses a capture and writes the result to a journal in the output
+	 * directory. The chunks of the capture are fused by the given executor.
+	 * 
+	 * @param configFile
+	 *            The path to the configuration file
+	 * @param capture
+	 *            capture file
+	 * @param output
+	 *            output directory
+	 * @param chunks
+	 *            number of chunks
+	 * @param warmup
+	 *            number of warm-up frames of a chunk
+	 * @param executor
+	 * @return number of written frames
+	 * @throws Exception
+	 */
+	private static long refuse(String configFile, File capture, File output, int chunks, int warmup, ExecutorService executor)
+			throws Exception {
+		String name = capture.getName();
+		if (name.lastIndexOf('.') > 0)
+			name = name.substring(0, name.lastIndexOf('.'));
+		File journal = new File(output, name);
+		if (FrameJournal.getSegments(journal).length > 0)
+			throw new IOException("The journal " + journal + " already exists.");
+
+		long frames = OfflineFusion.countFrames(capture);
+		chunks = (int) Math.max(1, Math.min(chunks, frames));
+
+		// the fusions are created sequentially, the parser is not thread safe
+		List<Future<Long>> results = new ArrayList<Future<Long>>();
+		List<File> chunkJournals = new ArrayList<File>();
+		for (int i = 0; i < chunks; i++) {
+			long from = frames * i / chunks;
+			long to = frames * (i + 1) / chunks;
+			File chunkJournal = chunks == 1 ? journal : new File(output, name + ".chunk" + i);
+			OfflineFusion fusion = ConfigurationParser.readConfigForOfflineFusion(configFile, capture);
+			results.add(executor.submit(new Chunk(fusion, chunkJournal, Math.max(0, from - warmup), from, to)));
+			chunkJournals.add(chunkJournal);
+		}
+
+		long written = 0;
+		try {
+			for (Future<Long> result : results)
+				written += result.get();
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		} finally {
+			for (Future<Long> result : results)
+				result.cancel(true);
+		}
+
+		if (chunks > 1)
+			join(chunkJournals, journal);
+		System.out.println(String.format("%s: %d frames written to %s", capture, written, journal));
+		return written;
+	}
+
+	/**
+	 * Moves the segments of the given journals in their order into the target
+	 * journal and deletes the emptied directories.
+	 * 
+	 * @param journals
+	 *            directories of the journals
+	 * @param target
+	 *            directory of the joined journal
+	 * @throws IOException
+	 */
+	private static void join(List<File> journals, File target) throws IOException {
+		target.mkdirs();
+		int segmentNumber = 0;
+		for (File journal : journals) {
+			for (File segment : FrameJournal.getSegments(journal)) {
+				File targetSegment = FrameJournal.getSegment(target, segmentNumber++);
+				if (!segment.renameTo(targetSegment) || !FrameJournal.getIndex(segment).renameTo(FrameJournal.getIndex(targetSegment)))
+					throw new IOException("Segment " + segment + " could not be moved to " + target + ".");
+			}
+			journal.delete();
+		}
+	}
+
+	/**
+	 * Fuses a range of frames of a capture and writes them to a journal.
+	 */
+	private static class Chunk implements Callable<Long> {
+
+		private final OfflineFusion fusion;
+		private final File journal;
+		private final long warmupStart;
+		private final long from;
+		private final long to;
+
+		/**
+		 * Creates the chunk.
+		 * 
+		 * @param fusion
+		 *            {@link OfflineFusion} positioned at the start of the
+		 *            capture
+		 * @param journal
+		 *            journal directory
+		 * @param warmupStart
+		 *            first fused frame
+		 * @param from
+		 *            first written frame
+		 * @param to
+		 *            end of the chunk (exclusive)
+		 */
+		Chunk(OfflineFusion fusion, File journal, long warmupStart, long from, long to) {
+			this.fusion = fusion;
+			this.journal = journal;
+			this.warmupStart = warmupStart;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public Long call() throws Exception {
+			FrameJournalWriter writer = null;
+			try {
+				long frame = 0;
+				for (; frame < warmupStart; frame++) {
+					if (!fusion.skipFrame())
+						return 0l;
+				}
+				for (; frame < from; frame++) {
+					if (!fusion.nextFrame())
+						return 0l;
+				}
+				writer = FrameJournalWriter.open(journal);
+				for (; frame < to && fusion.nextFrame(); frame++)
+					writer.append(fusion.getScene());
+				return frame - from;
+			} finally {
+				if (writer != null)
+					writer.close();
+				fusion.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,419 @@
+package com.corpus.web.json;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.scene.Scene;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * <p>
+ * Encodes a stream of {@link Scene}s as keyframes and deltas. A keyframe
+ * contains all {@link Joint}s of the model. A delta only contains the
+ * {@link Joint}s whose position or orientation changed more than the given
+ * epsilon or whose confidence or tracking state changed since they were sent
+ * the last time.
+ * </p>
+ * <p>
+ * The encoder keeps the state the clients currently know about (the
+ * <i>reference state</i>). Deltas are computed against this state, thus small
+ * changes do not accumulate to an error on the client side. Every message
+ * carries a sequence number which is incremented by one per message. A client
+ * can therefore detect a missing message and request a resync, which is
+ * answered with a keyframe of the reference state.
+ * </p>
+ * 
+ * @author agent
+ * 
+ */
+public class DeltaEncoder {
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+	private static final JointType[] JOINT_TYPES = JointType.values();
+
+	// number of frames between two keyframes
+	private final int keyframeInterval;
+
+	// minimal change of a position (centimeter) and an orientation (radians)
+	private final double positionEpsilon;
+	private final double orientationEpsilon;
+
+	// encoded joints and fields
+	private final Set<JointType> jointTypes;
+	private final boolean includeParent;
+	private final boolean includePosition;
+	private final boolean includeOrientation;
+	private final boolean includePositionConfidence;
+	private final boolean includeOrientationConfidence;
+	private final boolean includePositionTracked;
+	private final boolean includeOrientationTracked;
+
+	// reference state indexed by the ordinal of the joint type
+	private final boolean[] present = new boolean[JOINT_TYPES.length];
+	private final JointType[] parents = new JointType[JOINT_TYPES.length];
+	private final double[] positions = new double[JOINT_TYPES.length * 3];
+	private final double[] orientations = new double[JOINT_TYPES.length * 4];
+	private final float[] positionConfidences = new float[JOINT_TYPES.length];
+	private final float[] orientationConfidences = new float[JOINT_TYPES.length];
+	private final boolean[] positionTracked = new boolean[JOINT_TYPES.length];
+	private final boolean[] orientationTracked = new boolean[JOINT_TYPES.length];
+	private int jointCount;
+
+	// state of the stream
+	private boolean hasReference;
+	private long sequenceNumber;
+	private long frame;
+	private long timestamp;
+	private boolean predicted;
+	private int framesSinceKeyframe;
+
+	/**
+	 * Creates a new encoder for all {@link Joint}s and fields.
+	 * 
+	 * @param keyframeInterval
+	 *            number of frames between two keyframes
+	 * @param positionEpsilon
+	 *            minimal change of a position (centimeter) to send the joint
+	 * @param orientationEpsilon
+	 *            minimal change of an orientation (radians) to send the joint
+	 */
+	public DeltaEncoder(int keyframeInterval, double positionEpsilon, double orientationEpsilon) {
+		this(keyframeInterval, positionEpsilon, orientationEpsilon, null, null);
+	}
+
+	/**
+	 * Creates a new encoder for the given {@link JointType}s and fields.
+	 * 
+	 * @param keyframeInterval
+	 *            number of frames between two keyframes
+	 * @param positionEpsilon
+	 *            minimal change of a position (centimeter) to send the joint
+	 * @param orientationEpsilon
+	 *            minimal change of an orientation (radians) to send the joint
+	 * @param jointTypes
+	 *            {@link JointType}s of the encoded {@link Joint}s or
+	 *            <code>null</code> for all {@link Joint}s
+	 * @param fields
+	 *            encoded fields of the {@link Joint}-class or
+	 *            <code>null</code> for all fields
+	 */
+	public DeltaEncoder(int keyframeInterval, double positionEpsilon, double orientationEpsilon, Collection<JointType> jointTypes,
+			Collection<String> fields) {
+		this.keyframeInterval = keyframeInterval;
+		this.positionEpsilon = positionEpsilon;
+		this.orientationEpsilon = orientationEpsilon;
+		this.jointTypes = jointTypes != null ? EnumSet.copyOf(jointTypes) : null;
+		this.includeParent = fields == null || fields.contains("parent");
+		this.includePosition = fields == null || fields.contains("absolutePosition");
+		this.includeOrientation = fields == null || fields.contains("absoluteOrientation");
+		this.includePositionConfidence = fields == null || fields.contains("positionConfidence");
+		this.includeOrientationConfidence = fields == null || fields.contains("orientationConfidence");
+		this.includePositionTracked = fields == null || fields.contains("positionTracked");
+		this.includeOrientationTracked = fields == null || fields.contains("orientationTracked");
+	}
+
+	/**
+	 * Encodes the given {@link Scene}. Returns a keyframe if there is no
+	 * reference state yet, the joints of the model changed or the keyframe
+	 * interval is reached. Else a delta is returned.
+	 * 
+	 * @param scene
+	 *            {@link Scene} which has to be encoded
+	 * @return JSON string or <code>null</code> if no joint changed
+	 */
+	public synchronized String encode(Scene scene) {
+		frame = scene.getSequenceNumber();
+		timestamp = scene.getTimestamp() != null ? scene.getTimestamp().getTimeInMillis() : 0;
+		predicted = scene.isPredicted();
+
+		if (!hasReference || ++framesSinceKeyframe >= keyframeInterval)
+			return nextKeyframe(scene);
+
+		boolean[] changedPosition = new boolean[JOINT_TYPES.length];
+		boolean[] changedOrientation = new boolean[JOINT_TYPES.length];
+		boolean[] changedState = new boolean[JOINT_TYPES.length];
+		boolean changed = false;
+		int count = 0;
+		for (Joint joint : scene.getJoints().values()) {
+			if (!isEncoded(joint))
+				continue;
+			int i = joint.getJointType().ordinal();
+			if (!present[i]) {
+				// the model changed
+				return nextKeyframe(scene);
+			}
+			changedPosition[i] = includePosition && updatePosition(i, joint.getAbsolutePosition());
+			changedOrientation[i] = includeOrientation && updateOrientation(i, joint.getAbsoluteOrientation());
+			changedState[i] = updateState(i, joint);
+			changed |= changedPosition[i] || changedOrientation[i] || changedState[i];
+			count++;
+		}
+		if (count != jointCount)
+			return nextKeyframe(scene);
+
+		if (!changed)
+			return null;
+		sequenceNumber++;
+		return writeDelta(changedPosition, changedOrientation, changedState);
+	}
+
+	/**
+	 * Creates a keyframe of the reference state without changing the state of
+	 * the stream. Used to (re)synchronize a client.
+	 * 
+	 * @return JSON string or <code>null</code> if nothing was encoded yet
+	 */
+	public synchronized String getKeyframe() {
+		if (!hasReference)
+			return null;
+		return writeKeyframe();
+	}
+
+	/**
+	 * Discards the reference state. The next encoded {@link Scene} will be a
+	 * keyframe.
+	 */
+	public synchronized void reset() {
+		hasReference = false;
+	}
+
+	/**
+	 * Replaces the reference state by the given {@link Scene} and starts a new
+	 * keyframe interval.
+	 * 
+	 * @param scene
+	 * @return JSON string of the keyframe
+	 */
+	private String nextKeyframe(Scene scene) {
+		updateReference(scene);
+		sequenceNumber++;
+		framesSinceKeyframe = 0;
+		return writeKeyframe();
+	}
+
+	/**
+	 * Replaces the reference state by the given {@link Scene}.
+	 * 
+	 * @param scene
+	 */
+	private void updateReference(Scene scene) {
+		for (int i = 0; i < present.length; i++)
+			present[i] = false;
+		jointCount = 0;
+		for (Joint joint : scene.getJoints().values()) {
+			if (!isEncoded(joint))
+				continue;
+			int i = joint.getJointType().ordinal();
+			present[i] = true;
+			jointCount++;
+			parents[i] = joint.getParent() != null ? joint.getParent().getJointType() : null;
+			setPosition(i, joint.getAbsolutePosition());
+			setOrientation(i, joint.getAbsoluteOrientation());
+			updateState(i, joint);
+		}
+		hasReference = true;
+	}
+
+	/**
+	 * Determines whether the given {@link Joint} is encoded.
+	 * 
+	 * @param joint
+	 * @return <code>true</code> if the {@link Joint} is encoded
+	 */
+	private boolean isEncoded(Joint joint) {
+		return jointTypes == null || jointTypes.contains(joint.getJointType());
+	}
+
+	/**
+	 * Updates the reference position if it differs more than the epsilon.
+	 * 
+	 * @param i
+	 *            ordinal of the joint type
+	 * @param position
+	 * @return <code>true</code> if the reference position was updated
+	 */
+	private boolean updatePosition(int i, Vector3D position) {
+		if (position == null)
+			return false;
+		double dx = position.getX() - positions[i * 3];
+		double dy = position.getY() - positions[i * 3 + 1];
+		double dz = position.getZ() - positions[i * 3 + 2];
+		if (dx * dx + dy * dy + dz * dz <= positionEpsilon * positionEpsilon)
+			return false;
+		setPosition(i, position);
+		return true;
+	}
+
+	/**
+	 * Updates the reference orientation if the angle between the orientations
+	 * is greater than the epsilon.
+	 * 
+	 * @param i
+	 *            ordinal of the joint type
+	 * @param orientation
+	 * @return <code>true</code> if the reference orientation was updated
+	 */
+	private boolean updateOrientation(int i, Rotation orientation) {
+		if (orientation == null)
+			return false;
+		double dot = Math.abs(orientation.getQ0() * orientations[i * 4] + orientation.getQ1() * orientations[i * 4 + 1]
+				+ orientation.getQ2() * orientations[i * 4 + 2] + orientation.getQ3() * orientations[i * 4 + 3]);
+		if (2 * Math.acos(Math.min(1, dot)) <= orientationEpsilon)
+			return false;
+		setOrientation(i, orientation);
+		return true;
+	}
+
+	/**
+	 * Updates the reference confidence values and tracking states.
+	 * 
+	 * @param i
+	 *            ordinal of the joint type
+	 * @param joint
+	 * @return <code>true</code> if one of the values changed
+	 */
+	private boolean updateState(int i, Joint joint) {
+		boolean changed = includePositionConfidence && positionConfidences[i] != joint.getPositionConfidence()
+				|| includeOrientationConfidence && orientationConfidences[i] != joint.getOrientationConfidence()
+				|| includePositionTracked && positionTracked[i] != joint.getPositionTracked()
+				|| includeOrientationTracked && orientationTracked[i] != joint.getOrientationTracked();
+		positionConfidences[i] = joint.getPositionConfidence();
+		orientationConfidences[i] = joint.getOrientationConfidence();
+		positionTracked[i] = joint.getPositionTracked();
+		orientationTracked[i] = joint.getOrientationTracked();
+		return changed;
+	}
+
+	private void setPosition(int i, Vector3D position) {
+		if (position == null)
+			return;
+		positions[i * 3] = position.getX();
+		positions[i * 3 + 1] = position.getY();
+		positions[i * 3 + 2] = position.getZ();
+	}
+
+	private void setOrientation(int i, Rotation orientation) {
+		if (orientation == null)
+			return;
+		orientations[i * 4] = orientation.getQ0();
+		orientations[i * 4 + 1] = orientation.getQ1();
+		orientations[i * 4 + 2] = orientation.getQ2();
+		orientations[i * 4 + 3] = orientation.getQ3();
+	}
+
+	/**
+	 * Writes a keyframe containing the whole reference state.
+	 * 
+	 * @return JSON string
+	 */
+	private String writeKeyframe() {
+		StringWriter writer = new StringWriter();
+		try {
+			JsonGenerator jgen = JSON_FACTORY.createGenerator(writer);
+			writeHeader(jgen, "keyframe");
+			for (int i = 0; i < present.length; i++) {
+				if (!present[i])
+					continue;
+				jgen.writeStartObject();
+				jgen.writeStringField("jointType", JOINT_TYPES[i].name());
+				if (includeParent && parents[i] != null)
+					jgen.writeStringField("parent", parents[i].name());
+				if (includePosition)
+					writePosition(jgen, i);
+				if (includeOrientation)
+					writeOrientation(jgen, i);
+				writeState(jgen, i);
+				jgen.writeEndObject();
+			}
+			jgen.writeEndArray();
+			jgen.writeEndObject();
+			jgen.close();
+		} catch (IOException e) {
+			// StringWriter does not throw IOExceptions
+		}
+		return writer.toString();
+	}
+
+	/**
+	 * Writes a delta containing the changed values.
+	 * 
+	 * @param changedPosition
+	 * @param changedOrientation
+	 * @param changedState
+	 * @return JSON string
+	 */
+	private String writeDelta(boolean[] changedPosition, boolean[] changedOrientation, boolean[] changedState) {
+		StringWriter writer = new StringWriter();
+		try {
+			JsonGenerator jgen = JSON_FACTORY.createGenerator(writer);
+			writeHeader(jgen, "delta");
+			for (int i = 0; i < present.length; i++) {
+				if (!changedPosition[i] && !changedOrientation[i] && !changedState[i])
+					continue;
+				jgen.writeStartObject();
+				jgen.writeStringField("jointType", JOINT_TYPES[i].name());
+				if (changedPosition[i])
+					writePosition(jgen, i);
+				if (changedOrientation[i])
+					writeOrientation(jgen, i);
+				if (changedState[i])
+					writeState(jgen, i);
+				jgen.writeEndObject();
+			}
+			jgen.writeEndArray();
+			jgen.writeEndObject();
+			jgen.close();
+		} catch (IOException e) {
+			// StringWriter does not throw IOExceptions
+		}
+		return writer.toString();
+	}
+
+	private void writeHeader(JsonGenerator jgen, String type) throws IOException {
+		jgen.writeStartObject();
+		jgen.writeStringField("type", type);
+		jgen.writeNumberField("seq", sequenceNumber);
+		jgen.writeNumberField("frame", frame);
+		jgen.writeNumberField("timestamp", timestamp);
+		if (predicted)
+			jgen.writeBooleanField("predicted", true);
+		jgen.writeArrayFieldStart("joints");
+	}
+
+	private void writePosition(JsonGenerator jgen, int i) throws IOException {
+		jgen.writeObjectFieldStart("absolutePosition");
+		jgen.writeNumberField("x", JsonStatics.roundDown4(positions[i * 3]));
+		jgen.writeNumberField("y", JsonStatics.roundDown4(positions[i * 3 + 1]));
+		jgen.writeNumberField("z", JsonStatics.roundDown4(positions[i * 3 + 2]));
+		jgen.writeEndObject();
+	}
+
+	private void writeOrientation(JsonGenerator jgen, int i) throws IOException {
+		jgen.writeObjectFieldStart("absoluteOrientation");
+		jgen.writeNumberField("w", JsonStatics.roundDown4(orientations[i * 4]));
+		jgen.writeNumberField("x", JsonStatics.roundDown4(orientations[i * 4 + 1]));
+		jgen.writeNumberField("y", JsonStatics.roundDown4(orientations[i * 4 + 2]));
+		jgen.writeNumberField("z", JsonStatics.roundDown4(orientations[i * 4 + 3]));
+		jgen.writeEndObject();
+	}
+
+	private void writeState(JsonGenerator jgen, int i) throws IOException {
+		if (includePositionConfidence)
+			jgen.writeNumberField("positionConfidence", positionConfidences[i]);
+		if (includeOrientationConfidence)
+			jgen.writeNumberField("orientationConfidence", orientationConfidences[i]);
+		if (includePositionTracked)
+			jgen.writeBooleanField("positionTracked", positionTracked[i]);
+		if (includeOrientationTracked)
+			jgen.writeBooleanField("orientationTracked", orientationTracked[i]);
+	}
+}
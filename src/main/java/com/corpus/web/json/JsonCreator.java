@@ -1,6 +1,10 @@
 package com.corpus.web.json;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
@@ -10,8 +14,10 @@ import com.corpus.scene.Joint;
 import com.corpus.scene.JointType;
 import com.corpus.scene.Scene;
 import com.corpus.sensor.Sensor;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.databind.ser.FilterProvider;
 import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
@@ -39,6 +45,11 @@ public class JsonCreator {
 	private static FilterProvider elapsedSceneFilterProvider = new SimpleFilterProvider().addFilter("filter",
 			SimpleBeanPropertyFilter.serializeAllExcept("children", "currentData", "defaultPosition", "defaultOrientation"));
 
+	// fields serialized in the list model
+	public static final List<String> LIST_FIELDS = Collections.unmodifiableList(Arrays.asList("jointType", "parent",
+			"relativePosition", "relativeOrientation", "absolutePosition", "absoluteOrientation", "positionTimestamp",
+			"orientationTimestamp", "positionConfidence", "orientationConfidence", "positionTracked", "orientationTracked"));
+
 	// error messages
 	private static String JSON_ERROR = "ERROR: Something went wrong during the json conversion process!";
 	private static String INVALID_JOINT_TYPE = "ERROR: Invalid joint type!";
@@ -116,6 +127,30 @@ public class JsonCreator {
 		}
 	}
 
+	/**
+	 * Creates a JSON representation of the body model in dependence of the
+	 * given <code>type</code> and <code>fields</code>. In contrast to
+	 * {@link #getCustomModelJSON(Scene, String, List) getCustomModelJSON} all
+	 * fields are serialized if no field is given.
+	 * 
+	 * @param scene
+	 *            {@link Scene} containing the body model.
+	 * @param type
+	 *            Determines the type (<code>hierarchical</code> or
+	 *            <code>list</code>).
+	 * @param fields
+	 *            Determines which fields of the {@link Joint}-class are
+	 *            serialized or <code>null</code> for all fields.
+	 * @return JSON String
+	 */
+	public static String getModelJSON(Scene scene, String type, List<String> fields) {
+		if (fields != null && !fields.isEmpty())
+			return getCustomModelJSON(scene, type, fields);
+		if (type.equals("hierarchical"))
+			return getFullHierarchicalModelJSON(scene);
+		return getFullListModelJSON(scene);
+	}
+
 	/**
 	 * Creates a JSON representation of a the specified {@link Joint}s.
 	 * 
@@ -152,6 +187,35 @@ public class JsonCreator {
 		}
 	}
 
+	/**
+	 * Returns a writer serializing single {@link Joint}s with the given
+	 * fields. Used to stream many {@link Joint}s without building the whole
+	 * JSON in memory.
+	 * 
+	 * @param fields
+	 *            Determines which fields of the {@link Joint}-class are
+	 *            serialized. All fields of the list model are serialized if no
+	 *            field is given.
+	 * @return writer
+	 */
+	public static ObjectWriter getJointWriter(List<String> fields) {
+		if (fields == null || fields.isEmpty())
+			return defaultMapper.writer(listFilterProvider);
+		return defaultMapper.writer(new SimpleFilterProvider().addFilter("filter",
+				SimpleBeanPropertyFilter.filterOutAllExcept(fields.toArray(new String[fields.size()]))));
+	}
+
+	/**
+	 * Creates a generator writing JSON to the given stream.
+	 * 
+	 * @param output
+	 * @return generator
+	 * @throws IOException
+	 */
+	public static JsonGenerator createGenerator(OutputStream output) throws IOException {
+		return defaultMapper.getFactory().createGenerator(output);
+	}
+
 	/**
 	 * Creates a JSON representation of the list of {@link Sensor}s.
 	 * 
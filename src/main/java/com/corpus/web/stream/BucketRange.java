@@ -0,0 +1,103 @@
+package com.corpus.web.stream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import com.corpus.history.HistoryBucket;
+import com.corpus.scene.JointType;
+import com.corpus.web.json.JsonCreator;
+import com.corpus.web.json.JsonStatics;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Streams buckets of the {@link com.corpus.history.TieredHistory
+ * TieredHistory} as JSON. Joints which were not present in a bucket are
+ * omitted:
+ * 
+ * <pre>
+ * [ { "timestamp" : 1424083651000, "duration" : 1000, "count" : 30,
+ *     "joints" : { "HAND_RIGHT" : { "mean" : { "x" : ..., "y" : ..., "z" : ... },
+ *                                   "min" : { ... }, "max" : { ... },
+ *                                   "orientation" : { "w" : ..., ... } }, ... } }, ... ]
+ * </pre>
+ * 
+ * @author agent
+ * 
+ */
+public class BucketRange implements StreamingOutput {
+
+	private final List<HistoryBucket> buckets;
+
+	/**
+	 * Creates the range.
+	 * 
+	 * @param buckets
+	 *            buckets in chronological order
+	 */
+	public BucketRange(List<HistoryBucket> buckets) {
+		this.buckets = buckets;
+	}
+
+	@Override
+	public void write(OutputStream output) throws IOException {
+		JsonGenerator jgen = JsonCreator.createGenerator(output);
+		jgen.writeStartArray();
+		for (HistoryBucket bucket : buckets) {
+			jgen.writeStartObject();
+			jgen.writeNumberField("timestamp", bucket.getStart());
+			jgen.writeNumberField("duration", bucket.getDuration());
+			jgen.writeNumberField("count", bucket.getCount());
+			jgen.writeObjectFieldStart("joints");
+			JointType[] jointTypes = bucket.getJointTypes();
+			float[] positions = bucket.getPositions();
+			float[] orientations = bucket.getOrientations();
+			for (int j = 0; j < jointTypes.length; j++) {
+				int p = j * 9;
+				int o = j * 4;
+				if (Float.isNaN(positions[p]) && Float.isNaN(orientations[o]))
+					continue;
+				jgen.writeObjectFieldStart(jointTypes[j].name());
+				if (!Float.isNaN(positions[p])) {
+					writeVector(jgen, "mean", positions, p);
+					writeVector(jgen, "min", positions, p + 3);
+					writeVector(jgen, "max", positions, p + 6);
+				}
+				if (!Float.isNaN(orientations[o])) {
+					jgen.writeObjectFieldStart("orientation");
+					jgen.writeNumberField("w", JsonStatics.roundDown4(orientations[o]));
+					jgen.writeNumberField("x", JsonStatics.roundDown4(orientations[o + 1]));
+					jgen.writeNumberField("y", JsonStatics.roundDown4(orientations[o + 2]));
+					jgen.writeNumberField("z", JsonStatics.roundDown4(orientations[o + 3]));
+					jgen.writeEndObject();
+				}
+				jgen.writeEndObject();
+			}
+			jgen.writeEndObject();
+			jgen.writeEndObject();
+		}
+		jgen.writeEndArray();
+		jgen.close();
+	}
+
+	/**
+	 * Writes a position.
+	 * 
+	 * @param jgen
+	 * @param name
+	 *            name of the field
+	 * @param values
+	 * @param offset
+	 *            offset of the x coordinate
+	 * @throws IOException
+	 */
+	private static void writeVector(JsonGenerator jgen, String name, float[] values, int offset) throws IOException {
+		jgen.writeObjectFieldStart(name);
+		jgen.writeNumberField("x", JsonStatics.roundDown4(values[offset]));
+		jgen.writeNumberField("y", JsonStatics.roundDown4(values[offset + 1]));
+		jgen.writeNumberField("z", JsonStatics.roundDown4(values[offset + 2]));
+		jgen.writeEndObject();
+	}
+}
@@ -0,0 +1,122 @@
+package com.corpus.web.stream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.scene.Scene;
+
+/**
+ * Determines how a range of the frame history is reduced to a target number
+ * of frames.
+ * 
+ * <ul>
+ * <li><code>DECIMATE</code>: evenly spaced frames are selected, the first and
+ * the last frame of the range are always contained</li>
+ * <li><code>MINMAX</code>: the range is divided into buckets of equal length.
+ * Of every bucket the first and the last frame and the frames containing the
+ * minimum and maximum of every coordinate of the absolute positions of the
+ * selected joints are sent, thus peaks are preserved. The number of buckets
+ * is chosen so that the selected frames do not exceed the target, unless the
+ * target is less than the frames of a single bucket.</li>
+ * </ul>
+ * 
+ * @author agent
+ * 
+ */
+public enum Downsampling {
+	DECIMATE, MINMAX;
+
+	/**
+	 * Selects the frames which are sent.
+	 * 
+	 * @param frames
+	 *            frames of the range in chronological order
+	 * @param jointTypes
+	 *            selected joints
+	 * @param points
+	 *            target number of frames
+	 * @return selected frames in chronological order
+	 */
+	public List<Scene> select(List<Scene> frames, List<JointType> jointTypes, int points) {
+		if (points <= 0 || frames.size() <= points)
+			return frames;
+		if (this == DECIMATE)
+			return decimate(frames, points);
+		return minMax(frames, jointTypes, points);
+	}
+
+	/**
+	 * Selects evenly spaced frames.
+	 * 
+	 * @param frames
+	 * @param points
+	 * @return selected frames
+	 */
+	private static List<Scene> decimate(List<Scene> frames, int points) {
+		List<Scene> selected = new ArrayList<Scene>(points);
+		if (points == 1) {
+			selected.add(frames.get(frames.size() - 1));
+			return selected;
+		}
+		for (int i = 0; i < points; i++)
+			selected.add(frames.get((int) ((long) i * (frames.size() - 1) / (points - 1))));
+		return selected;
+	}
+
+	/**
+	 * Selects the extreme frames of every bucket.
+	 * 
+	 * @param frames
+	 * @param jointTypes
+	 * @param points
+	 * @return selected frames
+	 */
+	private static List<Scene> minMax(List<Scene> frames, List<JointType> jointTypes, int points) {
+		// first, last, minimum and maximum of every coordinate of every bucket
+		int buckets = Math.max(points / (2 + 6 * jointTypes.size()), 1);
+		TreeSet<Integer> indices = new TreeSet<Integer>();
+		for (int bucket = 0; bucket < buckets; bucket++) {
+			int start = (int) ((long) bucket * frames.size() / buckets);
+			int end = (int) ((long) (bucket + 1) * frames.size() / buckets);
+			indices.add(start);
+			indices.add(end - 1);
+			for (JointType jointType : jointTypes) {
+				for (int coordinate = 0; coordinate < 3; coordinate++) {
+					int min = -1;
+					int max = -1;
+					double minValue = Double.POSITIVE_INFINITY;
+					double maxValue = Double.NEGATIVE_INFINITY;
+					for (int i = start; i < end; i++) {
+						Joint joint = frames.get(i).getJoints().get(jointType);
+						Vector3D position = joint != null ? joint.getAbsolutePosition() : null;
+						if (position == null)
+							continue;
+						double value = coordinate == 0 ? position.getX() : coordinate == 1 ? position.getY() : position.getZ();
+						if (value < minValue) {
+							minValue = value;
+							min = i;
+						}
+						if (value > maxValue) {
+							maxValue = value;
+							max = i;
+						}
+					}
+					if (min >= 0) {
+						indices.add(min);
+						indices.add(max);
+					}
+				}
+			}
+		}
+
+		List<Scene> selected = new ArrayList<Scene>(indices.size());
+		for (int index : indices)
+			selected.add(frames.get(index));
+		return selected;
+	}
+}
@@ -0,0 +1,71 @@
+package com.corpus.web.stream;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response.ResponseBuilder;
+
+import com.corpus.scene.Scene;
+
+/**
+ * Contains operations to tag responses with the sequence number of the
+ * {@link Scene} they are created from. The sequence number is sent as
+ * <code>ETag</code> and as <code>X-Frame-Sequence</code> header, thus a client
+ * can use conditional requests to avoid receiving an unchanged model twice.
+ * 
+ * @author agent
+ * 
+ */
+public class FrameHeaders {
+
+	// header containing the sequence number of the frame
+	public static final String SEQUENCE_HEADER = "X-Frame-Sequence";
+
+	// header marking an interpolated or extrapolated frame
+	public static final String PREDICTED_HEADER = "X-Frame-Predicted";
+
+	/**
+	 * Creates the entity tag of the given {@link Scene}. The tag of a
+	 * predicted {@link Scene} additionally contains its timestamp, because it
+	 * shares the sequence number with the frame it is computed from.
+	 * 
+	 * @param scene
+	 * @return entity tag
+	 */
+	public static EntityTag getEntityTag(Scene scene) {
+		if (scene.isPredicted() && scene.getTimestamp() != null)
+			return new EntityTag(scene.getSequenceNumber() + "-" + scene.getTimestamp().getTimeInMillis());
+		return new EntityTag(Long.toString(scene.getSequenceNumber()));
+	}
+
+	/**
+	 * Evaluates the <code>If-None-Match</code> header of the request.
+	 * 
+	 * @param request
+	 * @param scene
+	 *            {@link Scene} which would be sent
+	 * @return tagged builder of a <code>304 Not Modified</code> response or
+	 *         <code>null</code> if the client does not know the {@link Scene}
+	 */
+	public static ResponseBuilder evaluate(Request request, Scene scene) {
+		ResponseBuilder builder = request.evaluatePreconditions(getEntityTag(scene));
+		if (builder == null)
+			return null;
+		return tag(builder, scene);
+	}
+
+	/**
+	 * Adds the sequence number of the given {@link Scene} to the response. A
+	 * predicted {@link Scene} is additionally marked by the
+	 * {@link #PREDICTED_HEADER}.
+	 * 
+	 * @param builder
+	 * @param scene
+	 * @return builder
+	 */
+	public static ResponseBuilder tag(ResponseBuilder builder, Scene scene) {
+		builder.tag(getEntityTag(scene)).header(SEQUENCE_HEADER, scene.getSequenceNumber());
+		if (scene.isPredicted())
+			builder.header(PREDICTED_HEADER, true);
+		return builder;
+	}
+}
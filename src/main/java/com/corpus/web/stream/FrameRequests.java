@@ -0,0 +1,156 @@
+package com.corpus.web.stream;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.Response;
+
+import com.corpus.controller.OutputController;
+import com.corpus.controller.SceneController;
+import com.corpus.controller.SceneListener;
+import com.corpus.scene.Joint;
+import com.corpus.scene.Scene;
+import com.corpus.web.json.JsonCreator;
+
+/**
+ * Manages the suspended long-poll requests waiting for the next frame. A
+ * request is resumed as soon as a {@link Scene} with a sequence number greater
+ * than the one known by the client is published. If no such {@link Scene} is
+ * published in time, the request is answered with
+ * <code>304 Not Modified</code>. The class is designed as a singleton, the
+ * instance is registered as {@link SceneListener} when it is created. If the
+ * output stage is enabled, the requests are answered with the output frames of
+ * the {@link OutputController} instead of the fused frames.
+ * 
+ * @author agent
+ * 
+ */
+public class FrameRequests implements SceneListener {
+
+	// instance of this class
+	private static FrameRequests instance;
+
+	// suspended requests
+	private final List<FrameRequest> requests = new ArrayList<FrameRequest>();
+
+	/**
+	 * Private Constructor to realize singleton pattern.
+	 */
+	private FrameRequests() {
+	}
+
+	/**
+	 * Returns the instance of the class.
+	 * 
+	 * @return {@link FrameRequests} instance
+	 */
+	public static synchronized FrameRequests getInstance() {
+		if (instance == null) {
+			instance = new FrameRequests();
+			if (OutputController.isEnabled())
+				OutputController.getInstance().addSceneListener(instance);
+			else
+				SceneController.getInstance().addSceneListener(instance);
+		}
+		return instance;
+	}
+
+	/**
+	 * Answers the request with the first {@link Scene} whose sequence number is
+	 * greater than <code>since</code>. If the current {@link Scene} is already
+	 * newer, the request is resumed immediately.
+	 * 
+	 * @param response
+	 *            suspended response
+	 * @param since
+	 *            sequence number of the last frame known by the client
+	 * @param type
+	 *            Determines the type (<code>hierarchical</code> or
+	 *            <code>list</code>).
+	 * @param fields
+	 *            Determines which fields of the {@link Joint}-class are
+	 *            serialized.
+	 * @param timeout
+	 *            maximal waiting time in milliseconds
+	 */
+	public void await(AsyncResponse response, long since, String type, List<String> fields, long timeout) {
+		FrameRequest request = new FrameRequest(response, since, type, fields);
+		Scene scene;
+		synchronized (requests) {
+			// the listeners are notified after the current scene is set, thus
+			// no frame can be missed between the check and the registration
+			scene = OutputController.getCurrentFrame();
+			if (scene == null || scene.getSequenceNumber() <= since) {
+				requests.add(request);
+				response.setTimeoutHandler(request);
+				response.setTimeout(timeout, TimeUnit.MILLISECONDS);
+				return;
+			}
+		}
+		request.resume(scene, JsonCreator.getModelJSON(scene, type, fields));
+	}
+
+	@Override
+	public void sceneUpdated(Scene scene) {
+		List<FrameRequest> ready = new ArrayList<FrameRequest>();
+		synchronized (requests) {
+			if (requests.isEmpty())
+				return;
+			for (int i = requests.size() - 1; i >= 0; i--) {
+				FrameRequest request = requests.get(i);
+				if (request.response.isDone() || request.response.isCancelled())
+					requests.remove(i);
+				else if (scene.getSequenceNumber() > request.since) {
+					requests.remove(i);
+					ready.add(request);
+				}
+			}
+		}
+		// requests with equal projections share the JSON representation
+		Map<String, String> jsons = new HashMap<String, String>();
+		for (FrameRequest request : ready) {
+			String key = request.type + request.fields;
+			String json = jsons.get(key);
+			if (json == null) {
+				json = JsonCreator.getModelJSON(scene, request.type, request.fields);
+				jsons.put(key, json);
+			}
+			request.resume(scene, json);
+		}
+	}
+
+	/**
+	 * Suspended request waiting for the next frame.
+	 */
+	private class FrameRequest implements TimeoutHandler {
+
+		private final AsyncResponse response;
+		private final long since;
+		private final String type;
+		private final List<String> fields;
+
+		FrameRequest(AsyncResponse response, long since, String type, List<String> fields) {
+			this.response = response;
+			this.since = since;
+			this.type = type;
+			this.fields = fields;
+		}
+
+		void resume(Scene scene, String json) {
+			response.resume(FrameHeaders.tag(Response.ok(json), scene).build());
+		}
+
+		@Override
+		public void handleTimeout(AsyncResponse asyncResponse) {
+			synchronized (requests) {
+				requests.remove(this);
+			}
+			asyncResponse.resume(Response.notModified().header(FrameHeaders.SEQUENCE_HEADER, since).build());
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package com.corpus.web.stream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.scene.Scene;
+import com.corpus.web.json.JsonCreator;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Streams a range of the frame history as JSON. The frames are written one
+ * after another, thus the response is not built in memory:
+ * 
+ * <pre>
+ * [ { "sequenceNumber" : 120, "timestamp" : 1424083651000,
+ *     "joints" : { "HAND_RIGHT" : { ... }, ... } }, ... ]
+ * </pre>
+ * 
+ * @author agent
+ * 
+ */
+public class HistoryRange implements StreamingOutput {
+
+	private final List<Scene> frames;
+	private final List<JointType> jointTypes;
+	private final ObjectWriter jointWriter;
+
+	/**
+	 * Creates the range.
+	 * 
+	 * @param frames
+	 *            frames in chronological order
+	 * @param jointTypes
+	 *            serialized {@link Joint}s
+	 * @param fields
+	 *            serialized fields of the {@link Joint}s (all fields if empty)
+	 */
+	public HistoryRange(List<Scene> frames, List<JointType> jointTypes, List<String> fields) {
+		this.frames = frames;
+		this.jointTypes = jointTypes;
+		this.jointWriter = JsonCreator.getJointWriter(fields);
+	}
+
+	@Override
+	public void write(OutputStream output) throws IOException {
+		JsonGenerator jgen = JsonCreator.createGenerator(output);
+		jgen.writeStartArray();
+		for (Scene frame : frames) {
+			jgen.writeStartObject();
+			jgen.writeNumberField("sequenceNumber", frame.getSequenceNumber());
+			if (frame.getTimestamp() != null)
+				jgen.writeNumberField("timestamp", frame.getTimestamp().getTimeInMillis());
+			jgen.writeObjectFieldStart("joints");
+			for (JointType jointType : jointTypes) {
+				Joint joint = frame.getJoints().get(jointType);
+				if (joint == null)
+					continue;
+				jgen.writeFieldName(jointType.name());
+				jointWriter.writeValue(jgen, joint);
+			}
+			jgen.writeEndObject();
+			jgen.writeEndObject();
+		}
+		jgen.writeEndArray();
+		jgen.close();
+	}
+}
@@ -0,0 +1,153 @@
+package com.corpus.web.stream;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.glassfish.jersey.server.ChunkedOutput;
+
+import com.corpus.controller.OutputController;
+import com.corpus.controller.SceneController;
+import com.corpus.controller.SceneListener;
+import com.corpus.scene.Joint;
+import com.corpus.scene.Scene;
+import com.corpus.web.json.JsonCreator;
+
+/**
+ * <p>
+ * Streams the body model to a HTTP client over a single chunked response.
+ * Every update of the model is pushed to the client as Server-Sent Event or as
+ * a line of newline-delimited JSON (see {@link ModelStreamFormat}). If the
+ * output stage is enabled, the stream is registered at the
+ * {@link OutputController} and pushes the output frames instead of the fused
+ * frames.
+ * </p>
+ * <p>
+ * The model is serialized by the update thread, but written by a writer
+ * thread. If the client is not able to receive the model in time, only the
+ * latest model is kept, thus a slow client does not delay the update process.
+ * The stream is closed as soon as a write fails.
+ * </p>
+ * 
+ * @author agent
+ * 
+ */
+public class ModelStream implements SceneListener, Runnable {
+
+	// threads writing the models to the clients
+	private static final ExecutorService writer = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "ModelStreamWriter");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final ChunkedOutput<String> output = new ChunkedOutput<String>(String.class);
+	private final ModelStreamFormat format;
+	private final String type;
+	private final List<String> fields;
+
+	// latest model which was not yet written
+	private String pending;
+	private boolean scheduled;
+	private boolean closed;
+
+	/**
+	 * Creates a stream with the given projection. The arguments correspond to
+	 * the arguments of the <code>customModel</code> request.
+	 * 
+	 * @param format
+	 *            {@link ModelStreamFormat} of the response
+	 * @param type
+	 *            Determines the type (<code>hierarchical</code> or
+	 *            <code>list</code>).
+	 * @param fields
+	 *            Determines which fields of the {@link Joint}-class are
+	 *            serialized. All fields are serialized if the list is empty.
+	 */
+	public ModelStream(ModelStreamFormat format, String type, List<String> fields) {
+		this.format = format;
+		this.type = type;
+		this.fields = fields;
+	}
+
+	@Override
+	public void sceneUpdated(Scene scene) {
+		String json = JsonCreator.getModelJSON(scene, type, fields);
+
+		synchronized (this) {
+			if (closed)
+				return;
+			pending = format.frame(json, scene.getSequenceNumber());
+			if (scheduled)
+				return;
+			scheduled = true;
+		}
+		writer.execute(this);
+	}
+
+	/**
+	 * Writes the pending model to the client.
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			String chunk;
+			synchronized (this) {
+				chunk = pending;
+				pending = null;
+				if (chunk == null || closed) {
+					scheduled = false;
+					return;
+				}
+			}
+			try {
+				output.write(chunk);
+			} catch (IOException e) {
+				// the client closed the connection
+				close();
+			}
+		}
+	}
+
+	/**
+	 * Closes the stream and stops listening to the updates of the model.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			pending = null;
+		}
+		SceneController.getInstance().removeSceneListener(this);
+		OutputController.getInstance().removeSceneListener(this);
+		try {
+			output.close();
+		} catch (IOException e) {
+			// connection is already closed
+		}
+	}
+
+	/**
+	 * Returns the output which has to be returned as entity of the response.
+	 * 
+	 * @return chunked output
+	 */
+	public ChunkedOutput<String> getOutput() {
+		return output;
+	}
+
+	/**
+	 * Returns the format of the stream.
+	 * 
+	 * @return format
+	 */
+	public ModelStreamFormat getFormat() {
+		return format;
+	}
+}
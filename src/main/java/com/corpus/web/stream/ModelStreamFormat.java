@@ -0,0 +1,48 @@
+package com.corpus.web.stream;
+
+/**
+ * Determines how the body model is framed in a streaming HTTP response.
+ * 
+ * <ul>
+ * <li><code>SSE</code>: Server-Sent Events (<code>text/event-stream</code>),
+ * every model is sent as an event whose id is the frame number</li>
+ * <li><code>NDJSON</code>: newline-delimited JSON (
+ * <code>application/x-ndjson</code>), every model is sent in a single line</li>
+ * </ul>
+ * 
+ * @author agent
+ * 
+ */
+public enum ModelStreamFormat {
+	SSE("text/event-stream"), NDJSON("application/x-ndjson");
+
+	private final String mediaType;
+
+	private ModelStreamFormat(String mediaType) {
+		this.mediaType = mediaType;
+	}
+
+	/**
+	 * Returns the media type of the response.
+	 * 
+	 * @return media type
+	 */
+	public String getMediaType() {
+		return mediaType;
+	}
+
+	/**
+	 * Frames a JSON representation of the model.
+	 * 
+	 * @param json
+	 *            JSON string without line breaks
+	 * @param frame
+	 *            sequence number of the model
+	 * @return chunk which is written to the response
+	 */
+	public String frame(String json, long frame) {
+		if (this == SSE)
+			return "id: " + frame + "\ndata: " + json + "\n\n";
+		return json + "\n";
+	}
+}
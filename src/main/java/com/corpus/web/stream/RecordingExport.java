@@ -0,0 +1,73 @@
+package com.corpus.web.stream;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import com.corpus.recording.ExportFormat;
+import com.corpus.recording.FrameJournal;
+import com.corpus.recording.FrameJournalReader;
+import com.corpus.scene.JointType;
+import com.corpus.scene.Scene;
+
+/**
+ * Streams a range of a {@link FrameJournal} converted to an
+ * {@link ExportFormat}. The journal is opened when the response is written and
+ * the frames are converted while they are sent, thus the response is neither
+ * built in memory nor on disk.
+ * 
+ * @author agent
+ * 
+ */
+public class RecordingExport implements StreamingOutput {
+
+	private final File journal;
+	private final Scene model;
+	private final ExportFormat format;
+	private final List<JointType> jointTypes;
+	private final long from;
+	private final long to;
+
+	/**
+	 * Creates the export.
+	 * 
+	 * @param journal
+	 *            directory of the journal
+	 * @param model
+	 *            {@link Scene} containing the body model, which is
+	 *            overwritten by the exported frames
+	 * @param format
+	 *            {@link ExportFormat}
+	 * @param jointTypes
+	 *            exported joints
+	 * @param from
+	 *            timestamp of the first frame (milliseconds)
+	 * @param to
+	 *            timestamp of the last frame (milliseconds)
+	 */
+	public RecordingExport(File journal, Scene model, ExportFormat format, List<JointType> jointTypes, long from, long to) {
+		this.journal = journal;
+		this.model = model;
+		this.format = format;
+		this.jointTypes = jointTypes;
+		this.from = from;
+		this.to = to;
+	}
+
+	@Override
+	public void write(OutputStream output) throws IOException {
+		FrameJournalReader reader = new FrameJournalReader(journal);
+		try {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(output, "UTF-8"));
+			format.createExporter(model, jointTypes, writer).export(reader, from, to);
+		} finally {
+			reader.close();
+		}
+	}
+}
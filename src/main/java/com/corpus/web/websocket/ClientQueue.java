@@ -0,0 +1,258 @@
+package com.corpus.web.websocket;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.glassfish.grizzly.websockets.WebSocket;
+
+/**
+ * Bounded outbound queue of a single WebSocket client. Messages are added by
+ * the update thread and sent by a sender thread, thus a slow client does not
+ * delay the update process or the other clients. At most one sender thread
+ * drains the queue at a time, so the order of the messages is preserved. A
+ * message which is not written within {@link WebSocketHandler#SEND_TIMEOUT}
+ * counts as a stall: the client is behind from then on and is evicted unless
+ * it recovers in time.
+ * 
+ * @author agent
+ * 
+ */
+class ClientQueue implements Runnable {
+
+	private final long id;
+	private final WebSocket socket;
+	private final ArrayDeque<String> messages;
+	private final int capacity;
+	private final QueuePolicy policy;
+
+	// stream the client is subscribed to or null
+	private SubscriptionStream stream;
+
+	// true if a sender thread is draining the queue
+	private boolean scheduled;
+
+	// statistics
+	private long sent;
+	private long dropped;
+	private long resyncs;
+	private long stalls;
+	private int maxDepth;
+
+	// time since the client is not able to keep up or -1
+	private long behindSince = -1;
+
+	/**
+	 * Creates a queue for the given client.
+	 * 
+	 * @param id
+	 *            id of the client used in the statistics
+	 * @param socket
+	 * @param capacity
+	 *            maximum number of pending messages
+	 * @param policy
+	 *            {@link QueuePolicy} used if the client falls behind
+	 */
+	ClientQueue(long id, WebSocket socket, int capacity, QueuePolicy policy) {
+		this.id = id;
+		this.socket = socket;
+		this.capacity = capacity;
+		this.policy = policy;
+		this.messages = new ArrayDeque<String>(capacity);
+	}
+
+	/**
+	 * Adds a message of the subscribed stream to the queue. If the client
+	 * fell behind, messages are dropped according to the {@link QueuePolicy}.
+	 * A client of a delta stream receives a keyframe instead of the dropped
+	 * messages.
+	 * 
+	 * @param message
+	 * @return <code>true</code> if the queue has to be scheduled
+	 */
+	synchronized boolean offer(String message) {
+		boolean delta = stream != null && stream.getSubscription().getFormat() == StreamFormat.DELTA;
+		boolean drop = policy == QueuePolicy.CONFLATE ? !messages.isEmpty() : messages.size() >= capacity;
+		if (drop) {
+			if (behindSince < 0)
+				behindSince = System.currentTimeMillis();
+			if (delta) {
+				// the keyframe already contains the given message
+				dropped += messages.size() + 1;
+				resyncs++;
+				messages.clear();
+				message = stream.getKeyframe();
+			} else if (policy == QueuePolicy.CONFLATE) {
+				dropped += messages.size();
+				messages.clear();
+			} else {
+				dropped++;
+				messages.poll();
+			}
+		}
+		return add(message);
+	}
+
+	/**
+	 * Replaces the pending messages by the given message. Used to send a
+	 * keyframe after the subscription changed or the client requested a
+	 * resync.
+	 * 
+	 * @param message
+	 * @return <code>true</code> if the queue has to be scheduled
+	 */
+	synchronized boolean replace(String message) {
+		dropped += messages.size();
+		messages.clear();
+		return add(message);
+	}
+
+	/**
+	 * Adds a message without dropping stream messages. Used for replies to
+	 * commands of the client.
+	 * 
+	 * @param message
+	 * @return <code>true</code> if the queue has to be scheduled
+	 */
+	synchronized boolean reply(String message) {
+		return add(message);
+	}
+
+	private boolean add(String message) {
+		if (message == null)
+			return false;
+		messages.add(message);
+		maxDepth = Math.max(maxDepth, messages.size());
+		if (scheduled)
+			return false;
+		scheduled = true;
+		return true;
+	}
+
+	/**
+	 * Sends the pending messages to the client.
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			String message;
+			synchronized (this) {
+				message = messages.poll();
+				if (message == null) {
+					scheduled = false;
+					behindSince = -1;
+					return;
+				}
+			}
+			try {
+				// wait until the message is written, thus a slow client
+				// fills its own queue instead of the buffer of the connection
+				if (!await(socket.send(message)))
+					return;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (Exception e) {
+				System.err.println("Error during websocket connection: " + e.getMessage());
+			}
+			synchronized (this) {
+				sent++;
+			}
+		}
+	}
+
+	/**
+	 * Waits until a message is written. If this takes longer than
+	 * {@link WebSocketHandler#SEND_TIMEOUT}, the stall is counted and the
+	 * client is behind. The sender keeps waiting as long as the client is
+	 * connected, the connection is closed if the client is evicted.
+	 * 
+	 * @param future
+	 *            result of the write
+	 * @return <code>false</code> if the client was disconnected before the
+	 *         message was written
+	 * @throws Exception
+	 *             if the write failed or the thread was interrupted
+	 */
+	private boolean await(Future<?> future) throws Exception {
+		boolean stalled = false;
+		while (true) {
+			try {
+				future.get(WebSocketHandler.SEND_TIMEOUT, TimeUnit.MILLISECONDS);
+				return true;
+			} catch (TimeoutException e) {
+				if (!stalled) {
+					stalled = true;
+					synchronized (this) {
+						stalls++;
+						if (behindSince < 0)
+							behindSince = System.currentTimeMillis();
+					}
+				}
+				if (!socket.isConnected()) {
+					synchronized (this) {
+						scheduled = false;
+					}
+					return false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the client was behind for longer than the given time.
+	 * 
+	 * @param timeout
+	 *            time in milliseconds
+	 * @return <code>true</code> if the client should be evicted
+	 */
+	synchronized boolean isBehind(long timeout) {
+		return behindSince >= 0 && System.currentTimeMillis() - behindSince > timeout;
+	}
+
+	/**
+	 * Discards all pending messages.
+	 */
+	synchronized void clear() {
+		messages.clear();
+	}
+
+	/**
+	 * Creates the statistics of the client.
+	 * 
+	 * @return map containing the statistics
+	 */
+	synchronized Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("id", id);
+		statistics.put("format", stream != null ? stream.getSubscription().getFormat().name().toLowerCase() : null);
+		statistics.put("queueDepth", messages.size());
+		statistics.put("maxQueueDepth", maxDepth);
+		statistics.put("capacity", capacity);
+		statistics.put("sent", sent);
+		statistics.put("dropped", dropped);
+		statistics.put("resyncs", resyncs);
+		statistics.put("stalls", stalls);
+		statistics.put("behind", behindSince >= 0 ? System.currentTimeMillis() - behindSince : 0);
+		return statistics;
+	}
+
+	long getId() {
+		return id;
+	}
+
+	WebSocket getSocket() {
+		return socket;
+	}
+
+	synchronized SubscriptionStream getStream() {
+		return stream;
+	}
+
+	synchronized void setStream(SubscriptionStream stream) {
+		this.stream = stream;
+	}
+}
@@ -0,0 +1,24 @@
+package com.corpus.web.websocket;
+
+/**
+ * Determines how the outbound queue of a WebSocket client handles messages
+ * the client could not receive in time.
+ * 
+ * <ul>
+ * <li><code>DROP_OLDEST</code>: the oldest message is dropped if the queue is
+ * full</li>
+ * <li><code>CONFLATE</code>: pending messages are replaced by the latest
+ * message, thus the client always receives the most recent model</li>
+ * </ul>
+ * <p>
+ * Deltas can not be dropped without breaking the state of the client. If a
+ * delta stream loses a message, the pending messages are therefore replaced by
+ * a keyframe.
+ * </p>
+ * 
+ * @author agent
+ * 
+ */
+public enum QueuePolicy {
+	DROP_OLDEST, CONFLATE
+}
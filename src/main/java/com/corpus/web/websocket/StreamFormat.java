@@ -0,0 +1,18 @@
+package com.corpus.web.websocket;
+
+/**
+ * Determines how the body model is streamed to the WebSocket clients.
+ * 
+ * <ul>
+ * <li><code>LIST</code>: the model in form of a list every frame</li>
+ * <li><code>HIERARCHICAL</code>: the model in hierarchical form every frame</li>
+ * <li><code>DELTA</code>: periodic keyframes containing the full model and
+ * only the changed joints in between</li>
+ * </ul>
+ * 
+ * @author agent
+ * 
+ */
+public enum StreamFormat {
+	LIST, HIERARCHICAL, DELTA
+}
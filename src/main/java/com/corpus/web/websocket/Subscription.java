@@ -0,0 +1,115 @@
+package com.corpus.web.websocket;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+
+/**
+ * Describes which part of the model a WebSocket client wants to receive. A
+ * subscription consists of a subset of {@link JointType}s, a projection of the
+ * fields of the {@link Joint}-class (like the <code>field</code> argument of
+ * the REST requests), a {@link StreamFormat} and a maximum rate. Clients with
+ * equal subscriptions share a single stream.
+ * 
+ * @author agent
+ * 
+ */
+public class Subscription {
+
+	private final Set<JointType> jointTypes;
+	private final List<String> fields;
+	private final StreamFormat format;
+	private final int maxRate;
+
+	/**
+	 * Creates a subscription.
+	 * 
+	 * @param jointTypes
+	 *            {@link JointType}s of the {@link Joint}s that will be sent or
+	 *            <code>null</code> for all {@link Joint}s
+	 * @param fields
+	 *            fields of the {@link Joint}-class that will be serialized or
+	 *            <code>null</code> for all fields
+	 * @param format
+	 *            {@link StreamFormat} of the stream
+	 * @param maxRate
+	 *            maximum number of messages per second or 0 to send every
+	 *            frame
+	 */
+	public Subscription(Collection<JointType> jointTypes, Collection<String> fields, StreamFormat format, int maxRate) {
+		this.jointTypes = jointTypes == null || jointTypes.isEmpty() ? null : Collections.unmodifiableSet(EnumSet.copyOf(jointTypes));
+		this.fields = fields == null || fields.isEmpty() ? null : Collections.unmodifiableList(new ArrayList<String>(new TreeSet<String>(
+				fields)));
+		this.format = format;
+		this.maxRate = Math.max(0, maxRate);
+	}
+
+	/**
+	 * Returns the subscribed {@link JointType}s.
+	 * 
+	 * @return {@link JointType}s or <code>null</code> if all {@link Joint}s are
+	 *         subscribed
+	 */
+	public Set<JointType> getJointTypes() {
+		return jointTypes;
+	}
+
+	/**
+	 * Returns the serialized fields.
+	 * 
+	 * @return fields or <code>null</code> if all fields are serialized
+	 */
+	public List<String> getFields() {
+		return fields;
+	}
+
+	/**
+	 * Returns the format of the stream.
+	 * 
+	 * @return format
+	 */
+	public StreamFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * Returns the maximum number of messages per second.
+	 * 
+	 * @return maximum rate or 0 if every frame is sent
+	 */
+	public int getMaxRate() {
+		return maxRate;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = format.hashCode();
+		result = 31 * result + (jointTypes == null ? 0 : jointTypes.hashCode());
+		result = 31 * result + (fields == null ? 0 : fields.hashCode());
+		return 31 * result + maxRate;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof Subscription))
+			return false;
+		Subscription other = (Subscription) obj;
+		return format == other.format && maxRate == other.maxRate
+				&& (jointTypes == null ? other.jointTypes == null : jointTypes.equals(other.jointTypes))
+				&& (fields == null ? other.fields == null : fields.equals(other.fields));
+	}
+
+	@Override
+	public String toString() {
+		return "Subscription [format=" + format + ", jointTypes=" + jointTypes + ", fields=" + fields + ", maxRate=" + maxRate + "]";
+	}
+}
@@ -0,0 +1,109 @@
+package com.corpus.web.websocket;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.corpus.controller.Controller;
+import com.corpus.scene.JointType;
+import com.corpus.scene.Scene;
+import com.corpus.web.json.DeltaEncoder;
+import com.corpus.web.json.JsonCreator;
+
+/**
+ * A stream of the model shared by all WebSocket clients with an equal
+ * {@link Subscription}. The model is encoded only once per frame for all
+ * clients of the stream.
+ * 
+ * @author agent
+ * 
+ */
+class SubscriptionStream {
+
+	// part of a frame period a message may be early to compensate the jitter
+	// of the timer
+	private static final double JITTER_TOLERANCE = 0.5;
+
+	private final Subscription subscription;
+	private final Set<ClientQueue> clients = new LinkedHashSet<ClientQueue>();
+	private final DeltaEncoder deltaEncoder;
+	private final List<String> jointTypeNames;
+
+	// minimal time between two messages and tolerated jitter in milliseconds
+	private final double interval;
+	private final double tolerance;
+	private long lastSent;
+
+	/**
+	 * Creates a stream for the given {@link Subscription}.
+	 * 
+	 * @param subscription
+	 */
+	SubscriptionStream(Subscription subscription) {
+		this.subscription = subscription;
+		if (subscription.getFormat() == StreamFormat.DELTA)
+			deltaEncoder = new DeltaEncoder(WebSocketHandler.KEYFRAME_INTERVAL, WebSocketHandler.POSITION_EPSILON,
+					WebSocketHandler.ORIENTATION_EPSILON, subscription.getJointTypes(), subscription.getFields());
+		else
+			deltaEncoder = null;
+		if (subscription.getJointTypes() != null) {
+			jointTypeNames = new ArrayList<String>();
+			for (JointType jointType : subscription.getJointTypes())
+				jointTypeNames.add(jointType.name());
+		} else
+			jointTypeNames = null;
+		interval = subscription.getMaxRate() > 0 ? 1000d / subscription.getMaxRate() : 0;
+		int frameRate = Math.max(Controller.UPDATE_FREQUENCY, Controller.OUTPUT_FREQUENCY);
+		tolerance = frameRate > 0 ? JITTER_TOLERANCE * 1000d / frameRate : 0;
+	}
+
+	/**
+	 * Encodes the given {@link Scene} according to the {@link Subscription}.
+	 * 
+	 * @param scene
+	 * @return JSON string or <code>null</code> if nothing has to be sent
+	 */
+	String encode(Scene scene) {
+		if (interval > 0 && scene.getTimestamp() != null) {
+			long now = scene.getTimestamp().getTimeInMillis();
+			if (now - lastSent < interval - tolerance)
+				return null;
+			lastSent = now;
+		}
+
+		List<String> fields = subscription.getFields();
+		switch (subscription.getFormat()) {
+		case DELTA:
+			return deltaEncoder.encode(scene);
+		case HIERARCHICAL:
+			if (fields == null)
+				return JsonCreator.getFullHierarchicalModelJSON(scene);
+			return JsonCreator.getCustomModelJSON(scene, "hierarchical", fields);
+		default:
+			if (jointTypeNames != null)
+				return JsonCreator.getJointsJSON(scene, jointTypeNames, fields != null ? fields : JsonCreator.LIST_FIELDS);
+			if (fields == null)
+				return JsonCreator.getFullListModelJSON(scene);
+			return JsonCreator.getCustomModelJSON(scene, "list", fields);
+		}
+	}
+
+	/**
+	 * Returns a keyframe to synchronize a new client if the stream uses the
+	 * {@link StreamFormat#DELTA DELTA} format.
+	 * 
+	 * @return JSON string or <code>null</code>
+	 */
+	String getKeyframe() {
+		return deltaEncoder != null ? deltaEncoder.getKeyframe() : null;
+	}
+
+	Subscription getSubscription() {
+		return subscription;
+	}
+
+	Set<ClientQueue> getClients() {
+		return clients;
+	}
+}
@@ -1,26 +1,166 @@
 package com.corpus.web.websocket;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.glassfish.grizzly.websockets.DataFrame;
 import org.glassfish.grizzly.websockets.WebSocket;
 import org.glassfish.grizzly.websockets.WebSocketApplication;
 
 import com.corpus.controller.SceneController;
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.scene.Scene;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
+ * <p>
  * Handles the WebSocket connections.
+ * </p>
+ * <p>
+ * Every client has a {@link Subscription} determining which {@link Joint}s
+ * and fields it receives, in which {@link StreamFormat} and at which maximum
+ * rate. A new client is subscribed to the whole model in the
+ * {@link StreamFormat} defined in the configuration file. The client can
+ * change its subscription by sending a command:
+ * </p>
+ * 
+ * <pre>
+ * {"command":"subscribe", "joints":["HEAD","WRIST_LEFT"], "fields":["absolutePosition"], "format":"list", "maxRate":10}
+ * {"command":"unsubscribe"}
+ * {"command":"resync"}
+ * </pre>
+ * <p>
+ * All arguments of the <code>subscribe</code> command are optional. Clients
+ * with equal subscriptions are grouped, thus each distinct stream is encoded
+ * only once per frame. If the {@link StreamFormat#DELTA DELTA} format is used,
+ * a client receives a keyframe first. The <code>resync</code> command requests
+ * a new keyframe, for example if the client detected a gap in the sequence
+ * numbers.
+ * </p>
+ * <p>
+ * The messages are not sent by the update thread. Every client has a bounded
+ * {@link ClientQueue} which is drained by a sender thread. If a client can not
+ * keep up, messages are dropped according to the {@link QueuePolicy}. A client
+ * which is behind for longer than the eviction timeout is disconnected.
+ * </p>
  * 
  * @author Matthias Weise
  * 
  */
 public class WebSocketHandler extends WebSocketApplication {
 
+	// default format of the stream
+	public static StreamFormat STREAM_FORMAT = StreamFormat.LIST;
+
+	// number of frames between two keyframes of the delta stream
+	public static int KEYFRAME_INTERVAL = 60;
+
+	// minimal change of a position (centimeter) or orientation (radians) to be
+	// contained in a delta
+	public static double POSITION_EPSILON = 0.1;
+	public static double ORIENTATION_EPSILON = 0.005;
+
+	// maximum number of pending messages per client
+	public static int QUEUE_CAPACITY = 30;
+
+	// handling of messages a client could not receive in time
+	public static QueuePolicy QUEUE_POLICY = QueuePolicy.DROP_OLDEST;
+
+	// time (milliseconds) a client may be behind before it is disconnected
+	public static int EVICTION_TIMEOUT = 5000;
+
+	// time (milliseconds) a message may take to be written before the client
+	// is behind
+	public static int SEND_TIMEOUT = 1000;
+
+	private static final ObjectMapper commandMapper = new ObjectMapper();
+
+	// streams of the distinct subscriptions and the queue of each client
+	private final Map<Subscription, SubscriptionStream> streams = new LinkedHashMap<Subscription, SubscriptionStream>();
+	private final Map<WebSocket, ClientQueue> clients = new HashMap<WebSocket, ClientQueue>();
+	private long clientCount;
+
+	// threads sending the queued messages
+	private final ExecutorService sender = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "WebSocketSender");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
 	@Override
 	public void onMessage(WebSocket socket, String text) {
+		JsonNode node;
+		try {
+			node = commandMapper.readTree(text);
+		} catch (IOException e) {
+			sendError(socket, "Invalid command: " + text);
+			return;
+		}
+		if (node == null || !node.has("command")) {
+			sendError(socket, "Invalid command: " + text);
+			return;
+		}
+
+		String command = node.get("command").asText();
+		if (command.equals("subscribe")) {
+			Subscription subscription;
+			try {
+				subscription = parseSubscription(node);
+			} catch (IllegalArgumentException e) {
+				sendError(socket, e.getMessage());
+				return;
+			}
+			subscribe(socket, subscription);
+		} else if (command.equals("unsubscribe")) {
+			synchronized (streams) {
+				ClientQueue client = clients.get(socket);
+				if (client != null)
+					unsubscribe(client);
+			}
+		} else if (command.equals("resync")) {
+			synchronized (streams) {
+				ClientQueue client = clients.get(socket);
+				if (client != null && client.getStream() != null && client.replace(client.getStream().getKeyframe()))
+					sender.execute(client);
+			}
+		} else
+			sendError(socket, "Unknown command: " + command);
 	}
 
 	@Override
 	public void onConnect(WebSocket socket) {
 		SceneController.getInstance().webSocketHandler = this;
 		add(socket);
+		synchronized (streams) {
+			clients.put(socket, new ClientQueue(++clientCount, socket, QUEUE_CAPACITY, QUEUE_POLICY));
+		}
+		subscribe(socket, new Subscription(null, null, STREAM_FORMAT, 0));
+	}
+
+	@Override
+	public void onClose(WebSocket socket, DataFrame frame) {
+		super.onClose(socket, frame);
+		synchronized (streams) {
+			ClientQueue client = clients.remove(socket);
+			if (client != null) {
+				unsubscribe(client);
+				client.clear();
+			}
+		}
 	}
 
 	@Override
@@ -29,6 +169,42 @@ public class WebSocketHandler extends WebSocketApplication {
 		return true;
 	}
 
+	/**
+	 * Sends the given {@link Scene} to the clients. The {@link Scene} is
+	 * encoded once for every distinct {@link Subscription} and added to the
+	 * queues of the clients. Clients which are behind for longer than
+	 * {@link #EVICTION_TIMEOUT} are disconnected.
+	 * 
+	 * @param scene
+	 *            {@link Scene} which has to be send.
+	 */
+	public void send(Scene scene) {
+		List<ClientQueue> evicted = new ArrayList<ClientQueue>();
+		synchronized (streams) {
+			for (SubscriptionStream stream : streams.values()) {
+				String data = stream.encode(scene);
+				if (data == null)
+					continue;
+				for (ClientQueue client : stream.getClients()) {
+					if (client.offer(data))
+						sender.execute(client);
+					if (client.isBehind(EVICTION_TIMEOUT))
+						evicted.add(client);
+				}
+			}
+			for (ClientQueue client : evicted) {
+				clients.remove(client.getSocket());
+				unsubscribe(client);
+				client.clear();
+			}
+		}
+		for (ClientQueue client : evicted) {
+			System.err.println("WARNING: WebSocket client " + client.getId() + " is too slow and will be disconnected!");
+			remove(client.getSocket());
+			client.getSocket().close();
+		}
+	}
+
 	/**
 	 * Sends the given <code>data</code> the clients.
 	 * 
@@ -36,8 +212,140 @@ public class WebSocketHandler extends WebSocketApplication {
 	 *            String which has to be send.
 	 */
 	public void send(String data) {
-		for (WebSocket webSocket : getWebSockets()) {
-			webSocket.send(data);
+		synchronized (streams) {
+			for (ClientQueue client : clients.values()) {
+				if (client.offer(data))
+					sender.execute(client);
+			}
+		}
+	}
+
+	/**
+	 * Creates a JSON representation of the statistics of the connected
+	 * clients, containing the depth of the queue and the number of sent and
+	 * dropped messages.
+	 * 
+	 * @return JSON string
+	 */
+	public String getClientStatisticsJSON() {
+		List<Map<String, Object>> statistics = new ArrayList<Map<String, Object>>();
+		synchronized (streams) {
+			for (ClientQueue client : clients.values())
+				statistics.add(client.getStatistics());
+		}
+		try {
+			return commandMapper.writeValueAsString(statistics);
+		} catch (JsonProcessingException e) {
+			return "ERROR: Statistics could not be serialized!";
+		}
+	}
+
+	/**
+	 * Subscribes a client. The client is removed from its current stream and
+	 * added to the stream of the given {@link Subscription}. If the stream
+	 * uses the {@link StreamFormat#DELTA DELTA} format, the client receives a
+	 * keyframe before the next delta.
+	 * 
+	 * @param socket
+	 * @param subscription
+	 */
+	private void subscribe(WebSocket socket, Subscription subscription) {
+		synchronized (streams) {
+			ClientQueue client = clients.get(socket);
+			if (client == null)
+				return;
+			unsubscribe(client);
+			SubscriptionStream stream = streams.get(subscription);
+			if (stream == null) {
+				stream = new SubscriptionStream(subscription);
+				streams.put(subscription, stream);
+			}
+			stream.getClients().add(client);
+			client.setStream(stream);
+			if (client.replace(stream.getKeyframe()))
+				sender.execute(client);
+		}
+	}
+
+	/**
+	 * Removes a client from its stream. Streams without clients are discarded.
+	 * Has to be called while holding the lock of the streams.
+	 * 
+	 * @param client
+	 */
+	private void unsubscribe(ClientQueue client) {
+		SubscriptionStream stream = client.getStream();
+		if (stream != null) {
+			client.setStream(null);
+			stream.getClients().remove(client);
+			if (stream.getClients().isEmpty())
+				streams.remove(stream.getSubscription());
+		}
+	}
+
+	/**
+	 * Creates a {@link Subscription} from a <code>subscribe</code> command.
+	 * 
+	 * @param node
+	 *            command
+	 * @return {@link Subscription}
+	 * @throws IllegalArgumentException
+	 *             if an argument is invalid
+	 */
+	private Subscription parseSubscription(JsonNode node) {
+		List<JointType> jointTypes = null;
+		if (node.has("joints")) {
+			jointTypes = new ArrayList<JointType>();
+			for (Iterator<JsonNode> it = node.get("joints").iterator(); it.hasNext();) {
+				String jointType = it.next().asText();
+				try {
+					jointTypes.add(JointType.valueOf(jointType));
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException("Invalid joint type: " + jointType);
+				}
+			}
+		}
+
+		List<String> fields = null;
+		if (node.has("fields")) {
+			fields = new ArrayList<String>();
+			for (Iterator<JsonNode> it = node.get("fields").iterator(); it.hasNext();)
+				fields.add(it.next().asText());
+		}
+
+		StreamFormat format = STREAM_FORMAT;
+		if (node.has("format")) {
+			try {
+				format = StreamFormat.valueOf(node.get("format").asText().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Invalid format: " + node.get("format").asText());
+			}
+		}
+		if (format == StreamFormat.HIERARCHICAL && jointTypes != null && !jointTypes.isEmpty())
+			throw new IllegalArgumentException("A subset of joints cannot be streamed in hierarchical form.");
+
+		int maxRate = node.has("maxRate") ? node.get("maxRate").asInt(0) : 0;
+		return new Subscription(jointTypes, fields, format, maxRate);
+	}
+
+	/**
+	 * Sends an error message to a client.
+	 * 
+	 * @param socket
+	 * @param message
+	 */
+	private void sendError(WebSocket socket, String message) {
+		Map<String, String> error = new LinkedHashMap<String, String>();
+		error.put("type", "error");
+		error.put("message", message);
+		try {
+			synchronized (streams) {
+				ClientQueue client = clients.get(socket);
+				if (client != null && client.reply(commandMapper.writeValueAsString(error)))
+					sender.execute(client);
+			}
+		} catch (JsonProcessingException e) {
+			System.err.println("Error during websocket connection: " + message);
 		}
 	}
 }
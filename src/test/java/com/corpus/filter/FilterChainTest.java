@@ -0,0 +1,94 @@
+package com.corpus.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.Test;
+
+import com.corpus.filter.FilterChain.Stage;
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.scene.Scene;
+
+/**
+ * Tests the scopes of the {@link FilterChain} stages.
+ * 
+ * @author agent
+ * 
+ */
+public class FilterChainTest {
+
+	@Test
+	public void jointsOutsideOfScopeAreNotFiltered() {
+		FilterChain chain = new FilterChain(Arrays.asList(new Stage(new OneEuroFilter(new HashMap<String, String>()), EnumSet
+				.of(JointType.HEAD), null)));
+		chain.filterData(new ArrayList<Scene>(), createScene(0, 0));
+		Scene scene = createScene(10, 10);
+		chain.filterData(new ArrayList<Scene>(), scene);
+		assertTrue(getX(scene, JointType.HEAD) < 10);
+		assertEquals(10, getX(scene, JointType.NECK), 0);
+	}
+
+	@Test
+	public void subtreeBelongsToScope() {
+		FilterChain chain = new FilterChain(Arrays.asList(new Stage(new OneEuroFilter(new HashMap<String, String>()), null, EnumSet
+				.of(JointType.HEAD))));
+		chain.filterData(new ArrayList<Scene>(), createScene(0, 0));
+		Scene scene = createScene(10, 10);
+		chain.filterData(new ArrayList<Scene>(), scene);
+		assertTrue(getX(scene, JointType.HEAD) < 10);
+		assertTrue(getX(scene, JointType.NECK) < 10);
+	}
+
+	@Test
+	public void stateOutsideOfScopeIsNotUpdated() {
+		// the same filter is used by a limited and by an unlimited stage
+		OneEuroFilter filter = new OneEuroFilter(new HashMap<String, String>());
+		FilterChain scoped = new FilterChain(Arrays.asList(new Stage(filter, EnumSet.of(JointType.HEAD), null)));
+		FilterChain unscoped = new FilterChain(Collections.singletonList(new Stage(filter)));
+		scoped.filterData(new ArrayList<Scene>(), createScene(0, 0));
+		scoped.filterData(new ArrayList<Scene>(), createScene(10, 10));
+
+		// the first frame of the neck passes through the filter
+		Scene scene = createScene(20, 20);
+		unscoped.filterData(new ArrayList<Scene>(), scene);
+		assertTrue(getX(scene, JointType.HEAD) < 20);
+		assertEquals(20, getX(scene, JointType.NECK), 0);
+	}
+
+	private static double getX(Scene scene, JointType jointType) {
+		return scene.getJoints().get(jointType).getAbsolutePosition().getX();
+	}
+
+	/**
+	 * Creates a scene containing the tracked head and the neck as its child.
+	 * 
+	 * @param headX
+	 *            position of the head along the x axis
+	 * @param neckX
+	 *            position of the neck along the x axis
+	 * @return scene
+	 */
+	private static Scene createScene(double headX, double neckX) {
+		Joint head = new Joint(JointType.HEAD, new Vector3D(headX, 0, 0), Rotation.IDENTITY);
+		Joint neck = new Joint(JointType.NECK, new Vector3D(0, -10, 0), Rotation.IDENTITY, head);
+		neck.setAbsolutePosition(new Vector3D(neckX, -10, 0));
+		neck.setAbsoluteOrientation(Rotation.IDENTITY);
+		head.setPositionTracked(true);
+		neck.setPositionTracked(true);
+		HashMap<JointType, Joint> joints = new HashMap<JointType, Joint>();
+		joints.put(JointType.HEAD, head);
+		joints.put(JointType.NECK, neck);
+		Scene scene = new Scene();
+		scene.setJoints(joints);
+		return scene;
+	}
+}
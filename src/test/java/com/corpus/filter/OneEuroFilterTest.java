@@ -0,0 +1,135 @@
+package com.corpus.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.Test;
+
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.scene.Scene;
+
+/**
+ * Tests the smoothing of the {@link OneEuroFilter}.
+ * 
+ * @author agent
+ * 
+ */
+public class OneEuroFilterTest {
+
+	@Test
+	public void firstFramePassesThrough() {
+		OneEuroFilter filter = new OneEuroFilter(new HashMap<String, String>());
+		Scene scene = createScene(new Vector3D(1, 2, 3), Rotation.IDENTITY, true);
+		filter.filterData(new ArrayList<Scene>(), scene);
+		assertEquals(0, new Vector3D(1, 2, 3).distance(getHead(scene).getAbsolutePosition()), 1e-9);
+	}
+
+	@Test
+	public void constantInputStaysConstant() {
+		OneEuroFilter filter = new OneEuroFilter(new HashMap<String, String>());
+		Vector3D position = new Vector3D(5, -1, 2);
+		for (int i = 0; i < 10; i++) {
+			Scene scene = createScene(position, Rotation.IDENTITY, true);
+			filter.filterData(new ArrayList<Scene>(), scene);
+			assertEquals(0, position.distance(getHead(scene).getAbsolutePosition()), 1e-9);
+		}
+	}
+
+	@Test
+	public void stepIsSmoothed() {
+		OneEuroFilter filter = new OneEuroFilter(new HashMap<String, String>());
+		filter.filterData(new ArrayList<Scene>(), createScene(Vector3D.ZERO, Rotation.IDENTITY, true));
+
+		double last = 0;
+		for (int i = 0; i < 60; i++) {
+			Scene scene = createScene(new Vector3D(10, 0, 0), Rotation.IDENTITY, true);
+			filter.filterData(new ArrayList<Scene>(), scene);
+			double x = getHead(scene).getAbsolutePosition().getX();
+			assertTrue(x > last && x < 10);
+			last = x;
+		}
+		assertTrue(last > 9);
+	}
+
+	@Test
+	public void betaReducesLag() {
+		Map<String, String> slowArguments = new HashMap<String, String>();
+		slowArguments.put("beta", "0");
+		Map<String, String> fastArguments = new HashMap<String, String>();
+		fastArguments.put("beta", "1");
+		OneEuroFilter slow = new OneEuroFilter(slowArguments);
+		OneEuroFilter fast = new OneEuroFilter(fastArguments);
+
+		double slowX = 0;
+		double fastX = 0;
+		for (int i = 0; i < 10; i++) {
+			Vector3D position = new Vector3D(i * 10, 0, 0);
+			Scene slowScene = createScene(position, Rotation.IDENTITY, true);
+			Scene fastScene = createScene(position, Rotation.IDENTITY, true);
+			slow.filterData(new ArrayList<Scene>(), slowScene);
+			fast.filterData(new ArrayList<Scene>(), fastScene);
+			slowX = getHead(slowScene).getAbsolutePosition().getX();
+			fastX = getHead(fastScene).getAbsolutePosition().getX();
+		}
+		assertTrue(fastX > slowX);
+		assertTrue(fastX <= 90);
+	}
+
+	@Test
+	public void lostTrackingResetsState() {
+		OneEuroFilter filter = new OneEuroFilter(new HashMap<String, String>());
+		filter.filterData(new ArrayList<Scene>(), createScene(Vector3D.ZERO, Rotation.IDENTITY, true));
+		filter.filterData(new ArrayList<Scene>(), createScene(Vector3D.ZERO, Rotation.IDENTITY, false));
+
+		// the first frame after the loss passes through again
+		Scene scene = createScene(new Vector3D(10, 0, 0), Rotation.IDENTITY, true);
+		filter.filterData(new ArrayList<Scene>(), scene);
+		assertEquals(10, getHead(scene).getAbsolutePosition().getX(), 1e-9);
+	}
+
+	@Test
+	public void orientationIsSmoothed() {
+		OneEuroFilter filter = new OneEuroFilter(new HashMap<String, String>());
+		filter.filterData(new ArrayList<Scene>(), createScene(Vector3D.ZERO, Rotation.IDENTITY, true));
+
+		Rotation target = new Rotation(Vector3D.PLUS_K, 1);
+		Scene scene = createScene(Vector3D.ZERO, target, true);
+		filter.filterData(new ArrayList<Scene>(), scene);
+		Rotation orientation = getHead(scene).getAbsoluteOrientation();
+		double angle = Rotation.distance(Rotation.IDENTITY, orientation);
+		assertTrue(angle > 0 && angle < 1);
+		// the result lies on the arc between the input orientations
+		assertEquals(1, Rotation.distance(orientation, target) + angle, 1e-9);
+	}
+
+	private static Joint getHead(Scene scene) {
+		return scene.getJoints().get(JointType.HEAD);
+	}
+
+	/**
+	 * Creates a scene containing the head.
+	 * 
+	 * @param position
+	 * @param orientation
+	 * @param tracked
+	 *            tracking state of the position and the orientation
+	 * @return scene
+	 */
+	private static Scene createScene(Vector3D position, Rotation orientation, boolean tracked) {
+		Joint head = new Joint(JointType.HEAD, position, orientation);
+		head.setPositionTracked(tracked);
+		head.setOrientationTracked(tracked);
+		HashMap<JointType, Joint> joints = new HashMap<JointType, Joint>();
+		joints.put(JointType.HEAD, head);
+		Scene scene = new Scene();
+		scene.setJoints(joints);
+		return scene;
+	}
+}
@@ -0,0 +1,134 @@
+package com.corpus.filter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.Test;
+
+import com.corpus.history.JointHistory;
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.scene.Scene;
+
+/**
+ * Tests the velocity estimation of the {@link PredictionFilter}.
+ * 
+ * @author agent
+ * 
+ */
+public class PredictionFilterTest {
+
+	private static final double EPSILON = 1e-6;
+
+	// irregular update intervals (milliseconds)
+	private static final long[] TIMESTAMPS = { 1000, 1010, 1030, 1035, 1050, 1080 };
+
+	@Test
+	public void velocityIsEstimatedFromHistoryTimestamps() {
+		PredictionFilter filter = new PredictionFilter(new HashMap<String, String>());
+		assertEquals(true, filter.usesJointHistory());
+		JointHistory history = new JointHistory(Arrays.asList(JointType.HEAD), 10);
+		filter.setJointHistory(history);
+
+		// 100 units per second along the x axis, 1 radian per second around z
+		Scene scene = null;
+		for (long timestamp : TIMESTAMPS) {
+			scene = createScene(timestamp, 1);
+			history.add(scene);
+			filter.filterData(new ArrayList<Scene>(), scene);
+		}
+		Joint head = scene.getJoints().get(JointType.HEAD);
+		assertEquals(0.1 * 1080 + 100 * 0.03, head.getAbsolutePosition().getX(), EPSILON);
+		assertEquals(0, head.getAbsolutePosition().getY(), EPSILON);
+		assertEquals(1.08 + 0.03, getAngle(head), EPSILON);
+	}
+
+	@Test
+	public void velocityIsEstimatedFromSceneTimestampsWithoutHistory() {
+		PredictionFilter filter = new PredictionFilter(new HashMap<String, String>());
+		Scene scene = null;
+		for (long timestamp : TIMESTAMPS) {
+			scene = createScene(timestamp, 1);
+			filter.filterData(new ArrayList<Scene>(), scene);
+		}
+		Joint head = scene.getJoints().get(JointType.HEAD);
+		assertEquals(0.1 * 1080 + 100 * 0.03, head.getAbsolutePosition().getX(), EPSILON);
+		assertEquals(1.08 + 0.03, getAngle(head), EPSILON);
+	}
+
+	@Test
+	public void untrackedSamplesAreSkipped() {
+		PredictionFilter filter = new PredictionFilter(new HashMap<String, String>());
+		JointHistory history = new JointHistory(Arrays.asList(JointType.HEAD), 10);
+		filter.setJointHistory(history);
+		Scene scene = null;
+		for (long timestamp : TIMESTAMPS) {
+			scene = createScene(timestamp, 1);
+			if (timestamp == 1050) {
+				// an outlier of a lost joint
+				Joint head = scene.getJoints().get(JointType.HEAD);
+				head.setAbsolutePosition(Vector3D.ZERO);
+				head.setPositionTracked(false);
+			}
+			history.add(scene);
+			filter.filterData(new ArrayList<Scene>(), scene);
+		}
+		assertEquals(0.1 * 1080 + 100 * 0.03, scene.getJoints().get(JointType.HEAD).getAbsolutePosition().getX(), EPSILON);
+	}
+
+	@Test
+	public void jointsBelowMinConfidenceAreNotPredicted() {
+		Map<String, String> arguments = new HashMap<String, String>();
+		arguments.put("minConfidence", "0.5");
+		PredictionFilter filter = new PredictionFilter(arguments);
+		JointHistory history = new JointHistory(Arrays.asList(JointType.HEAD), 10);
+		filter.setJointHistory(history);
+		Scene scene = null;
+		for (long timestamp : TIMESTAMPS) {
+			scene = createScene(timestamp, 0.4f);
+			history.add(scene);
+			filter.filterData(new ArrayList<Scene>(), scene);
+		}
+		assertEquals(0.1 * 1080, scene.getJoints().get(JointType.HEAD).getAbsolutePosition().getX(), EPSILON);
+	}
+
+	private static double getAngle(Joint joint) {
+		Rotation orientation = joint.getAbsoluteOrientation();
+		double angle = orientation.getAngle();
+		return Vector3D.dotProduct(orientation.getAxis(), Vector3D.PLUS_K) > 0 ? angle : -angle;
+	}
+
+	/**
+	 * Creates a scene containing the head moving with a constant velocity and
+	 * angular velocity.
+	 * 
+	 * @param timestamp
+	 *            milliseconds
+	 * @param confidence
+	 *            position and orientation confidence of the head
+	 * @return scene
+	 */
+	private static Scene createScene(long timestamp, float confidence) {
+		Joint head = new Joint(JointType.HEAD, new Vector3D(0.1 * timestamp, 0, 0), new Rotation(Vector3D.PLUS_K,
+				timestamp / 1000d));
+		head.setPositionTracked(true);
+		head.setOrientationTracked(true);
+		head.setPositionConfidence(confidence);
+		head.setOrientationConfidence(confidence);
+		HashMap<JointType, Joint> joints = new HashMap<JointType, Joint>();
+		joints.put(JointType.HEAD, head);
+		Scene scene = new Scene();
+		scene.setJoints(joints);
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(timestamp);
+		scene.setTimestamp(calendar);
+		return scene;
+	}
+}
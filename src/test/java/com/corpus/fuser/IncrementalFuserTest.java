@@ -0,0 +1,181 @@
+package com.corpus.fuser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.Test;
+
+import com.corpus.controller.Controller;
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.scene.Scene;
+import com.corpus.sensor.Sensor;
+
+/**
+ * Tests the skipping of unchanged joints by the {@link IncrementalFuser}.
+ * 
+ * @author agent
+ * 
+ */
+public class IncrementalFuserTest {
+
+	private static final Vector3D HEAD = new Vector3D(1, 2, 3);
+
+	@Test
+	public void staticSceneIsNotUpdated() {
+		TestSensor sensor = new TestSensor();
+		sensor.set(createData(HEAD));
+		Scene scene = createScene(sensor);
+		Joint head = scene.getJoints().get(JointType.HEAD);
+		Joint neck = scene.getJoints().get(JointType.NECK);
+		ConfidenceWeightedFuser fuser = new ConfidenceWeightedFuser(new HashMap<String, String>());
+		fuser.fuseData(scene);
+		assertEquals(0, HEAD.distance(head.getAbsolutePosition()), 1e-9);
+		assertEquals(0.5f, head.getPositionConfidence(), 0);
+
+		// the neck is settled once it returned to its default pose
+		int returnToDefault = Controller.RETURN_TO_DEFAULT;
+		Controller.RETURN_TO_DEFAULT = 0;
+		try {
+			fuser.fuseData(scene);
+			head.setPositionConfidence(0.1f);
+			neck.setPositionConfidence(0.1f);
+			fuser.fuseData(scene);
+		} finally {
+			Controller.RETURN_TO_DEFAULT = returnToDefault;
+		}
+		assertEquals(0.1f, head.getPositionConfidence(), 0);
+		assertEquals(0.1f, neck.getPositionConfidence(), 0);
+	}
+
+	@Test
+	public void replacedValuesAreSetAgain() {
+		TestSensor sensor = new TestSensor();
+		sensor.set(createData(HEAD));
+		Scene scene = createScene(sensor);
+		Joint head = scene.getJoints().get(JointType.HEAD);
+		Joint neck = scene.getJoints().get(JointType.NECK);
+		ConfidenceDominanceFuser fuser = new ConfidenceDominanceFuser(new HashMap<String, String>());
+		fuser.fuseData(scene);
+		Vector3D neckPosition = neck.getAbsolutePosition();
+
+		// a filter moves the head in place
+		head.setAbsolutePosition(Vector3D.ZERO);
+		assertEquals(0, neck.getAbsolutePosition().distance(neckPosition), 1e-9);
+		fuser.fuseData(scene);
+		assertEquals(0, HEAD.distance(head.getAbsolutePosition()), 1e-9);
+		assertEquals(0, neck.getAbsolutePosition().distance(neckPosition), 1e-9);
+	}
+
+	@Test
+	public void newSampleIsFused() {
+		TestSensor sensor = new TestSensor();
+		sensor.set(createData(HEAD));
+		Scene scene = createScene(sensor);
+		Joint head = scene.getJoints().get(JointType.HEAD);
+		Joint neck = scene.getJoints().get(JointType.NECK);
+		ConfidenceWeightedFuser fuser = new ConfidenceWeightedFuser(new HashMap<String, String>());
+		fuser.fuseData(scene);
+		fuser.fuseData(scene);
+
+		// the untracked neck follows the head
+		sensor.set(createData(HEAD.add(Vector3D.PLUS_I)));
+		fuser.fuseData(scene);
+		assertEquals(2, head.getAbsolutePosition().getX(), 1e-9);
+		assertEquals(2, neck.getAbsolutePosition().getX(), 1e-9);
+	}
+
+	@Test
+	public void lostJointWasTrackedUntilLastUpdate() throws InterruptedException {
+		TestSensor sensor = new TestSensor();
+		sensor.set(createData(HEAD));
+		Scene scene = createScene(sensor);
+		Joint head = scene.getJoints().get(JointType.HEAD);
+		ConfidenceWeightedFuser fuser = new ConfidenceWeightedFuser(new HashMap<String, String>());
+		int returnToDefault = Controller.RETURN_TO_DEFAULT;
+		Controller.RETURN_TO_DEFAULT = 200;
+		try {
+			fuser.fuseData(scene);
+
+			// the head is skipped while it is tracked
+			Thread.sleep(300);
+			fuser.fuseData(scene);
+			sensor.set(new HashMap<JointType, Joint>());
+			fuser.fuseData(scene);
+		} finally {
+			Controller.RETURN_TO_DEFAULT = returnToDefault;
+		}
+		assertFalse(head.getPositionTracked());
+		assertEquals(0, HEAD.distance(head.getAbsolutePosition()), 1e-9);
+		assertTrue(head.getPositionTimestamp().getTimeInMillis() > System.currentTimeMillis() - 200);
+	}
+
+	/**
+	 * Creates a scene containing the head tracked by the given sensor and the
+	 * untracked neck as its child.
+	 * 
+	 * @param sensor
+	 * @return scene
+	 */
+	private static Scene createScene(Sensor sensor) {
+		Joint head = new Joint(JointType.HEAD, Vector3D.ZERO, Rotation.IDENTITY, null);
+		Joint neck = new Joint(JointType.NECK, new Vector3D(0, -10, 0), Rotation.IDENTITY, head);
+		HashMap<JointType, Joint> joints = new HashMap<JointType, Joint>();
+		joints.put(JointType.HEAD, head);
+		joints.put(JointType.NECK, neck);
+		List<Sensor> sensors = new ArrayList<Sensor>();
+		sensors.add(sensor);
+		Scene scene = new Scene();
+		scene.setJoints(joints);
+		scene.setSensors(sensors);
+		return scene;
+	}
+
+	private static Map<JointType, Joint> createData(Vector3D position) {
+		Joint joint = new Joint(JointType.HEAD, position, Rotation.IDENTITY);
+		joint.setPositionConfidence(0.5f);
+		joint.setOrientationConfidence(0.5f);
+		Map<JointType, Joint> data = new HashMap<JointType, Joint>();
+		data.put(JointType.HEAD, joint);
+		return data;
+	}
+
+	/**
+	 * Sensor without a device whose data is set by the test.
+	 */
+	public static class TestSensor extends Sensor {
+
+		public TestSensor() {
+			super(new HashMap<String, String>());
+			this.collectsAbsoluteData = true;
+		}
+
+		void set(Map<JointType, Joint> data) {
+			setCurrentData(data);
+		}
+
+		@Override
+		public void run() {
+		}
+
+		@Override
+		public void init() {
+		}
+
+		@Override
+		public void terminate() {
+		}
+
+		@Override
+		protected void updateCurrentData() {
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package com.corpus.fuser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.Test;
+
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.scene.Scene;
+import com.corpus.sensor.Sensor;
+
+/**
+ * Tests the {@link KalmanFuser}.
+ * 
+ * @author agent
+ * 
+ */
+public class KalmanFuserTest {
+
+	@Test
+	public void relativeSampleFollowsMovingParent() {
+		Joint head = new Joint(JointType.HEAD, Vector3D.ZERO, Rotation.IDENTITY);
+		Joint neck = new Joint(JointType.NECK, new Vector3D(0, -10, 0), Rotation.IDENTITY, head);
+		HashMap<JointType, Joint> joints = new HashMap<JointType, Joint>();
+		joints.put(JointType.HEAD, head);
+		joints.put(JointType.NECK, neck);
+		Scene scene = new Scene();
+		scene.setJoints(joints);
+
+		// the head is tracked by an absolute sensor, the neck by a sensor
+		// attached to the head which delivers a single sample
+		TestSensor headSensor = new TestSensor(true);
+		TestSensor neckSensor = new TestSensor(false);
+		neckSensor.setRelativePosition(Vector3D.ZERO);
+		neckSensor.setRelativeOrientation(Rotation.IDENTITY);
+		neckSensor.setParent(head);
+		neckSensor.set(createData(JointType.NECK, new Vector3D(0, -10, 0)));
+		List<Sensor> sensors = new ArrayList<Sensor>();
+		sensors.add(headSensor);
+		sensors.add(neckSensor);
+		scene.setSensors(sensors);
+
+		KalmanFuser fuser = new KalmanFuser(new HashMap<String, String>());
+		long time = 1000;
+		for (int i = 0; i <= 30; i++) {
+			headSensor.set(createData(JointType.HEAD, new Vector3D(i, 0, 0)));
+			Calendar timestamp = Calendar.getInstance();
+			timestamp.setTimeInMillis(time += 33);
+			scene.setTimestamp(timestamp);
+			fuser.fuseData(scene);
+		}
+
+		// the neck moved with the head although its sample didn't change
+		double headX = head.getAbsolutePosition().getX();
+		assertEquals(30, headX, 1);
+		assertEquals(headX, neck.getAbsolutePosition().getX(), 1);
+		assertEquals(-10, neck.getAbsolutePosition().getY(), 1e-3);
+	}
+
+	private static Map<JointType, Joint> createData(JointType jointType, Vector3D position) {
+		Joint joint = new Joint(jointType, position, Rotation.IDENTITY);
+		joint.setPositionConfidence(1);
+		joint.setOrientationConfidence(1);
+		Map<JointType, Joint> data = new HashMap<JointType, Joint>();
+		data.put(jointType, joint);
+		return data;
+	}
+
+	/**
+	 * Sensor without a device whose data is set by the test.
+	 */
+	public static class TestSensor extends Sensor {
+
+		public TestSensor(boolean collectsAbsoluteData) {
+			super(new HashMap<String, String>());
+			this.collectsAbsoluteData = collectsAbsoluteData;
+		}
+
+		void set(Map<JointType, Joint> data) {
+			setCurrentData(data);
+		}
+
+		@Override
+		public void run() {
+		}
+
+		@Override
+		public void init() {
+		}
+
+		@Override
+		public void terminate() {
+		}
+
+		@Override
+		protected void updateCurrentData() {
+		}
+	}
+}
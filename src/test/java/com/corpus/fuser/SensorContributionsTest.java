@@ -0,0 +1,235 @@
+package com.corpus.fuser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.Test;
+
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.sensor.Sensor;
+
+/**
+ * Tests the index and the change tracking of the {@link SensorContributions}
+ * and the detection of new samples by the {@link Sensor}.
+ * 
+ * @author agent
+ * 
+ */
+public class SensorContributionsTest {
+
+	@Test
+	public void firstUpdateIndexesAllJoints() {
+		TestSensor sensor = new TestSensor();
+		Map<JointType, Joint> data = createData(1, JointType.HEAD, JointType.NECK);
+		sensor.set(data);
+		SensorContributions contributions = new SensorContributions();
+		contributions.update(sensors(sensor));
+
+		assertEquals(1, contributions.getCount(JointType.HEAD));
+		assertTrue(contributions.getSensor(JointType.HEAD, 0) == sensor);
+		assertTrue(contributions.getSample(JointType.HEAD, 0) == data.get(JointType.HEAD));
+		assertTrue(contributions.isNewSample(JointType.HEAD, 0));
+		assertTrue(contributions.isChanged(JointType.HEAD));
+		assertTrue(contributions.isChanged(JointType.NECK));
+		assertEquals(0, contributions.getCount(JointType.SPINE_BASE));
+		assertFalse(contributions.isChanged(JointType.SPINE_BASE));
+	}
+
+	@Test
+	public void unchangedDataIsNotChanged() {
+		TestSensor sensor = new TestSensor();
+		sensor.set(createData(1, JointType.HEAD));
+		SensorContributions contributions = new SensorContributions();
+		contributions.update(sensors(sensor));
+		contributions.update(sensors(sensor));
+
+		// the sample is still indexed, but it is not new
+		assertEquals(1, contributions.getCount(JointType.HEAD));
+		assertFalse(contributions.isNewSample(JointType.HEAD, 0));
+		assertFalse(contributions.isChanged(JointType.HEAD));
+	}
+
+	@Test
+	public void newSampleChangesOldAndNewJoints() {
+		TestSensor sensor = new TestSensor();
+		sensor.set(createData(1, JointType.HEAD));
+		SensorContributions contributions = new SensorContributions();
+		contributions.update(sensors(sensor));
+
+		// the head is lost, the neck is found
+		sensor.set(createData(2, JointType.NECK));
+		contributions.update(sensors(sensor));
+		assertTrue(contributions.isChanged(JointType.HEAD));
+		assertTrue(contributions.isChanged(JointType.NECK));
+		assertEquals(0, contributions.getCount(JointType.HEAD));
+		assertTrue(contributions.isNewSample(JointType.NECK, 0));
+	}
+
+	@Test
+	public void onlyJointsOfSensorsWithNewSamplesChange() {
+		TestSensor first = new TestSensor();
+		TestSensor second = new TestSensor();
+		first.set(createData(1, JointType.HEAD, JointType.NECK));
+		second.set(createData(1, JointType.NECK, JointType.SPINE_BASE));
+		SensorContributions contributions = new SensorContributions();
+		contributions.update(sensors(first, second));
+		assertEquals(2, contributions.getCount(JointType.NECK));
+
+		second.set(createData(2, JointType.NECK, JointType.SPINE_BASE));
+		contributions.update(sensors(first, second));
+		assertFalse(contributions.isChanged(JointType.HEAD));
+		assertTrue(contributions.isChanged(JointType.NECK));
+		assertTrue(contributions.isChanged(JointType.SPINE_BASE));
+		assertFalse(contributions.isNewSample(JointType.NECK, 0));
+		assertTrue(contributions.isNewSample(JointType.NECK, 1));
+	}
+
+	@Test
+	public void removedSensorChangesItsJoints() {
+		TestSensor first = new TestSensor();
+		TestSensor second = new TestSensor();
+		first.set(createData(1, JointType.HEAD));
+		second.set(createData(1, JointType.NECK));
+		SensorContributions contributions = new SensorContributions();
+		contributions.update(sensors(first, second));
+
+		contributions.update(sensors(first));
+		assertFalse(contributions.isChanged(JointType.HEAD));
+		assertTrue(contributions.isChanged(JointType.NECK));
+		assertEquals(0, contributions.getCount(JointType.NECK));
+
+		// the removed sensor is forgotten
+		contributions.update(sensors(first));
+		assertFalse(contributions.isChanged(JointType.NECK));
+
+		// and is new when it is added again
+		contributions.update(sensors(first, second));
+		assertTrue(contributions.isChanged(JointType.NECK));
+		assertTrue(contributions.isNewSample(JointType.NECK, 0));
+	}
+
+	@Test
+	public void markChangedSensor() {
+		TestSensor sensor = new TestSensor();
+		sensor.set(createData(1, JointType.HEAD));
+		SensorContributions contributions = new SensorContributions();
+		contributions.update(sensors(sensor));
+		contributions.update(sensors(sensor));
+		assertFalse(contributions.isChanged(JointType.HEAD));
+		contributions.markChanged(sensor);
+		assertTrue(contributions.isChanged(JointType.HEAD));
+	}
+
+	@Test
+	public void polledDeviceFrameIsOnlyNewOnce() {
+		TestSensor sensor = new TestSensor();
+		SensorContributions contributions = new SensorContributions();
+		sensor.set(createData(1, JointType.HEAD), 7);
+		contributions.update(sensors(sensor));
+
+		// the device is polled again before it delivers a new frame
+		assertTrue(sensor.isCurrent(7));
+		sensor.set(createData(1, JointType.HEAD), 7);
+		contributions.update(sensors(sensor));
+		assertFalse(contributions.isChanged(JointType.HEAD));
+
+		sensor.set(createData(2, JointType.HEAD), 8);
+		contributions.update(sensors(sensor));
+		assertTrue(contributions.isChanged(JointType.HEAD));
+		assertTrue(contributions.isNewSample(JointType.HEAD, 0));
+	}
+
+	@Test
+	public void equalDataIsCurrentData() {
+		TestSensor sensor = new TestSensor();
+		assertTrue(sensor.isCurrent(new HashMap<JointType, Joint>()));
+		sensor.set(createData(1, JointType.HEAD, JointType.NECK));
+		assertTrue(sensor.isCurrent(createData(1, JointType.HEAD, JointType.NECK)));
+		assertFalse(sensor.isCurrent(createData(2, JointType.HEAD, JointType.NECK)));
+		assertFalse(sensor.isCurrent(createData(1, JointType.HEAD)));
+		assertFalse(sensor.isCurrent(createData(1, JointType.HEAD, JointType.SPINE_BASE)));
+
+		Map<JointType, Joint> data = createData(1, JointType.HEAD, JointType.NECK);
+		data.get(JointType.NECK).setPositionConfidence(0.1f);
+		assertFalse(sensor.isCurrent(data));
+		data = createData(1, JointType.HEAD, JointType.NECK);
+		data.get(JointType.NECK).setAbsoluteOrientation(new Rotation(Vector3D.PLUS_K, 0.1));
+		assertFalse(sensor.isCurrent(data));
+	}
+
+	private static List<Sensor> sensors(Sensor... sensors) {
+		return new ArrayList<Sensor>(Arrays.asList(sensors));
+	}
+
+	/**
+	 * Creates the data of a sensor sample.
+	 * 
+	 * @param x
+	 *            position of the joints along the x axis
+	 * @param jointTypes
+	 *            reported joints
+	 * @return data
+	 */
+	private static Map<JointType, Joint> createData(double x, JointType... jointTypes) {
+		Map<JointType, Joint> data = new HashMap<JointType, Joint>();
+		for (JointType jointType : jointTypes) {
+			Joint joint = new Joint(null, new Vector3D(x, 0, 0), Rotation.IDENTITY);
+			joint.setPositionConfidence(0.5f);
+			joint.setOrientationConfidence(0.5f);
+			data.put(jointType, joint);
+		}
+		return data;
+	}
+
+	/**
+	 * Sensor without a device whose data is set by the test.
+	 */
+	public static class TestSensor extends Sensor {
+
+		public TestSensor() {
+			super(new HashMap<String, String>());
+		}
+
+		void set(Map<JointType, Joint> data) {
+			setCurrentData(data);
+		}
+
+		void set(Map<JointType, Joint> data, long frame) {
+			setCurrentData(data, frame);
+		}
+
+		boolean isCurrent(long frame) {
+			return isCurrentFrame(frame);
+		}
+
+		boolean isCurrent(Map<JointType, Joint> data) {
+			return isCurrentData(data);
+		}
+
+		@Override
+		public void run() {
+		}
+
+		@Override
+		public void init() {
+		}
+
+		@Override
+		public void terminate() {
+		}
+
+		@Override
+		protected void updateCurrentData() {
+		}
+	}
+}
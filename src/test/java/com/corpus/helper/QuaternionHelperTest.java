@@ -0,0 +1,137 @@
+package com.corpus.helper;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.Test;
+
+/**
+ * Tests the interpolation and the rotation vectors of the
+ * {@link QuaternionHelper}.
+ * 
+ * @author agent
+ * 
+ */
+public class QuaternionHelperTest {
+
+	private static final double EPSILON = 1e-9;
+
+	@Test
+	public void slerpEndpoints() {
+		Rotation a = new Rotation(Vector3D.PLUS_K, 0.2);
+		Rotation b = new Rotation(Vector3D.PLUS_K, 1.2);
+		assertEquals(0, Rotation.distance(a, QuaternionHelper.slerp(a, b, 0)), EPSILON);
+		assertEquals(0, Rotation.distance(b, QuaternionHelper.slerp(a, b, 1)), EPSILON);
+	}
+
+	@Test
+	public void slerpHalfway() {
+		Rotation a = new Rotation(Vector3D.PLUS_K, 0.2);
+		Rotation b = new Rotation(Vector3D.PLUS_K, 1.2);
+		Rotation expected = new Rotation(Vector3D.PLUS_K, 0.7);
+		assertEquals(0, Rotation.distance(expected, QuaternionHelper.slerp(a, b, 0.5)), EPSILON);
+	}
+
+	@Test
+	public void slerpExtrapolates() {
+		Rotation a = new Rotation(Vector3D.PLUS_K, 0.2);
+		Rotation b = new Rotation(Vector3D.PLUS_K, 0.7);
+		Rotation expected = new Rotation(Vector3D.PLUS_K, 1.2);
+		assertEquals(0, Rotation.distance(expected, QuaternionHelper.slerp(a, b, 2)), EPSILON);
+	}
+
+	@Test
+	public void slerpTakesShorterArc() {
+		Rotation a = new Rotation(Vector3D.PLUS_K, 0.2);
+		Rotation b = new Rotation(Vector3D.PLUS_K, 1.2);
+		// same rotation as b with the negated quaternion
+		Rotation negatedB = new Rotation(-b.getQ0(), -b.getQ1(), -b.getQ2(), -b.getQ3(), false);
+		Rotation expected = new Rotation(Vector3D.PLUS_K, 0.7);
+		assertEquals(0, Rotation.distance(expected, QuaternionHelper.slerp(a, negatedB, 0.5)), EPSILON);
+	}
+
+	@Test
+	public void slerpInPlaceMatchesSlerp() {
+		Rotation a = new Rotation(new Vector3D(1, 2, 3), 0.4);
+		Rotation b = new Rotation(new Vector3D(-1, 0, 2), 1.1);
+		double[] q = new double[] { 7, a.getQ0(), a.getQ1(), a.getQ2(), a.getQ3() };
+		QuaternionHelper.slerp(q, 1, b.getQ0(), b.getQ1(), b.getQ2(), b.getQ3(), 0.3);
+		Rotation expected = QuaternionHelper.slerp(a, b, 0.3);
+		assertEquals(7, q[0], 0);
+		assertEquals(0, Rotation.distance(expected, new Rotation(q[1], q[2], q[3], q[4], false)), 1e-7);
+		assertEquals(1, q[1] * q[1] + q[2] * q[2] + q[3] * q[3] + q[4] * q[4], EPSILON);
+	}
+
+	@Test
+	public void differenceIsRotationVector() {
+		double[] q = quaternion(new Vector3D(1, 1, 0), 0.5);
+		double[] d = quaternion(Vector3D.PLUS_I, 0.3);
+		// b = d * q
+		double[] b = multiply(d, q);
+		double[] v = new double[4];
+		QuaternionHelper.difference(q, 0, b[0], b[1], b[2], b[3], v, 1);
+		assertEquals(0, v[0], 0);
+		assertEquals(0.3, v[1], EPSILON);
+		assertEquals(0, v[2], EPSILON);
+		assertEquals(0, v[3], EPSILON);
+	}
+
+	@Test
+	public void differenceOfEqualQuaternionsIsZero() {
+		Rotation q = new Rotation(new Vector3D(0, 1, 2), 2);
+		double[] array = new double[] { q.getQ0(), q.getQ1(), q.getQ2(), q.getQ3() };
+		double[] v = new double[3];
+		// -q describes the same rotation
+		QuaternionHelper.difference(array, 0, -q.getQ0(), -q.getQ1(), -q.getQ2(), -q.getQ3(), v, 0);
+		assertEquals(0, v[0], EPSILON);
+		assertEquals(0, v[1], EPSILON);
+		assertEquals(0, v[2], EPSILON);
+	}
+
+	@Test
+	public void rotateInvertsDifference() {
+		Rotation q = new Rotation(new Vector3D(3, -1, 2), 1.3);
+		Rotation b = new Rotation(new Vector3D(0, 2, 1), -0.4);
+		double[] array = new double[] { q.getQ0(), q.getQ1(), q.getQ2(), q.getQ3() };
+		double[] v = new double[3];
+		QuaternionHelper.difference(array, 0, b.getQ0(), b.getQ1(), b.getQ2(), b.getQ3(), v, 0);
+		QuaternionHelper.rotate(array, 0, v[0], v[1], v[2]);
+		assertEquals(0, Rotation.distance(b, new Rotation(array[0], array[1], array[2], array[3], false)), 1e-7);
+	}
+
+	@Test
+	public void rotateByZeroVector() {
+		double[] array = new double[] { 1, 0, 0, 0 };
+		QuaternionHelper.rotate(array, 0, 0, 0, 0);
+		assertEquals(1, array[0], 0);
+		assertEquals(0, array[1], 0);
+	}
+
+	/**
+	 * Creates the quaternion (q0, q1, q2, q3) of a rotation by the given angle
+	 * around the given axis.
+	 * 
+	 * @param axis
+	 * @param angle
+	 *            radians
+	 * @return quaternion
+	 */
+	private static double[] quaternion(Vector3D axis, double angle) {
+		Vector3D v = axis.normalize().scalarMultiply(Math.sin(angle / 2));
+		return new double[] { Math.cos(angle / 2), v.getX(), v.getY(), v.getZ() };
+	}
+
+	/**
+	 * Calculates the Hamilton product a * b.
+	 * 
+	 * @param a
+	 * @param b
+	 * @return product
+	 */
+	private static double[] multiply(double[] a, double[] b) {
+		return new double[] { a[0] * b[0] - a[1] * b[1] - a[2] * b[2] - a[3] * b[3],
+				a[0] * b[1] + a[1] * b[0] + a[2] * b[3] - a[3] * b[2], a[0] * b[2] - a[1] * b[3] + a[2] * b[0] + a[3] * b[1],
+				a[0] * b[3] + a[1] * b[2] - a[2] * b[1] + a[3] * b[0] };
+	}
+}
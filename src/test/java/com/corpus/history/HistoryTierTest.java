@@ -0,0 +1,158 @@
+package com.corpus.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.corpus.scene.JointType;
+
+/**
+ * Tests the aggregation of the {@link HistoryTier} and the merging of
+ * {@link HistoryBucket}s.
+ * 
+ * @author agent
+ * 
+ */
+public class HistoryTierTest {
+
+	private static final JointType[] JOINT_TYPES = new JointType[] { JointType.HEAD };
+	private static final int[] JOINT_INDICES = new int[] { 0 };
+	private static final float[] IDENTITY = new float[] { 1, 0, 0, 0 };
+
+	@Test
+	public void aggregatesMeanMinimumAndMaximum() {
+		HistoryTier tier = new HistoryTier(100, 4, 1);
+		tier.add(0, 1, position(1, 2, 3), 0, IDENTITY, 0);
+		tier.add(50, 1, position(3, 0, 5), 0, IDENTITY, 0);
+		// completes the first bucket
+		tier.add(120, 1, position(0, 0, 0), 0, IDENTITY, 0);
+
+		List<HistoryBucket> buckets = tier.getBuckets(0, 1000, JOINT_TYPES, JOINT_INDICES);
+		assertEquals(1, buckets.size());
+		HistoryBucket bucket = buckets.get(0);
+		assertEquals(0, bucket.getStart());
+		assertEquals(100, bucket.getDuration());
+		assertEquals(2, bucket.getCount());
+		float[] positions = bucket.getPositions();
+		assertEquals(2, positions[0], 1e-6);
+		assertEquals(1, positions[1], 1e-6);
+		assertEquals(4, positions[2], 1e-6);
+		assertEquals(1, positions[3], 1e-6);
+		assertEquals(0, positions[4], 1e-6);
+		assertEquals(3, positions[5], 1e-6);
+		assertEquals(3, positions[6], 1e-6);
+		assertEquals(2, positions[7], 1e-6);
+		assertEquals(5, positions[8], 1e-6);
+	}
+
+	@Test
+	public void alignsNegatedQuaternions() {
+		HistoryTier tier = new HistoryTier(100, 4, 1);
+		float s = (float) Math.sqrt(0.5);
+		tier.add(0, 1, position(0, 0, 0), 0, new float[] { s, s, 0, 0 }, 0);
+		tier.add(10, 1, position(0, 0, 0), 0, new float[] { -s, -s, 0, 0 }, 0);
+		tier.add(100, 1, position(0, 0, 0), 0, IDENTITY, 0);
+
+		float[] orientation = tier.getBuckets(0, 1000, JOINT_TYPES, JOINT_INDICES).get(0).getOrientations();
+		assertEquals(s, Math.abs(orientation[0]), 1e-6);
+		assertEquals(orientation[0], orientation[1], 1e-6);
+	}
+
+	@Test
+	public void missingJointIsNaN() {
+		HistoryTier tier = new HistoryTier(100, 4, 1);
+		float[] missing = new float[HistoryTier.POSITION_SIZE];
+		Arrays.fill(missing, Float.NaN);
+		float[] missingOrientation = new float[] { Float.NaN, Float.NaN, Float.NaN, Float.NaN };
+		tier.add(0, 1, missing, 0, missingOrientation, 0);
+		tier.add(100, 1, position(1, 1, 1), 0, IDENTITY, 0);
+
+		HistoryBucket bucket = tier.getBuckets(0, 1000, JOINT_TYPES, JOINT_INDICES).get(0);
+		assertEquals(1, bucket.getCount());
+		assertTrue(Float.isNaN(bucket.getPositions()[0]));
+		assertTrue(Float.isNaN(bucket.getOrientations()[0]));
+	}
+
+	@Test
+	public void ringBufferKeepsNewestBuckets() {
+		HistoryTier tier = new HistoryTier(100, 2, 1);
+		for (int i = 0; i < 5; i++)
+			tier.add(i * 100, 1, position(i, 0, 0), 0, IDENTITY, 0);
+
+		// buckets 0 to 3 are completed, the last two are kept
+		assertEquals(200, tier.getOldestStart());
+		List<HistoryBucket> buckets = tier.getBuckets(0, 1000, JOINT_TYPES, JOINT_INDICES);
+		assertEquals(2, buckets.size());
+		assertEquals(200, buckets.get(0).getStart());
+		assertEquals(300, buckets.get(1).getStart());
+		assertEquals(3, buckets.get(1).getPositions()[0], 1e-6);
+
+		// only the buckets overlapping the range
+		assertEquals(1, tier.getBuckets(350, 1000, JOINT_TYPES, JOINT_INDICES).size());
+		assertEquals(1, tier.getBuckets(0, 250, JOINT_TYPES, JOINT_INDICES).size());
+	}
+
+	@Test
+	public void completedBucketsArePassedOn() {
+		HistoryTier fine = new HistoryTier(100, 10, 1);
+		HistoryTier coarse = new HistoryTier(1000, 10, 1);
+		fine.setNext(coarse);
+		for (int i = 0; i <= 10; i++)
+			fine.add(i * 100, 1, position(i, 0, 0), 0, IDENTITY, 0);
+		coarse.add(2000, 1, position(0, 0, 0), 0, IDENTITY, 0);
+
+		List<HistoryBucket> buckets = coarse.getBuckets(0, 10000, JOINT_TYPES, JOINT_INDICES);
+		assertEquals(1, buckets.size());
+		assertEquals(10, buckets.get(0).getCount());
+		assertEquals(4.5, buckets.get(0).getPositions()[0], 1e-6);
+		assertEquals(0, buckets.get(0).getPositions()[3], 1e-6);
+		assertEquals(9, buckets.get(0).getPositions()[6], 1e-6);
+	}
+
+	@Test
+	public void mergeReducesToPoints() {
+		List<HistoryBucket> buckets = new ArrayList<HistoryBucket>();
+		for (int i = 0; i < 4; i++)
+			buckets.add(new HistoryBucket(i * 100, 100, i + 1, JOINT_TYPES, position(i, 0, 0), IDENTITY.clone()));
+
+		List<HistoryBucket> merged = HistoryBucket.merge(buckets, 2);
+		assertEquals(2, merged.size());
+		assertEquals(0, merged.get(0).getStart());
+		assertEquals(200, merged.get(0).getDuration());
+		assertEquals(3, merged.get(0).getCount());
+		assertEquals(200, merged.get(1).getStart());
+		assertEquals(7, merged.get(1).getCount());
+		// weighted by the number of frames: (0 * 1 + 1 * 2) / 3
+		assertEquals(2 / 3f, merged.get(0).getPositions()[0], 1e-6);
+		assertEquals(18 / 7f, merged.get(1).getPositions()[0], 1e-6);
+		assertEquals(2, merged.get(1).getPositions()[3], 1e-6);
+		assertEquals(3, merged.get(1).getPositions()[6], 1e-6);
+		assertEquals(1, merged.get(1).getOrientations()[0], 1e-6);
+	}
+
+	@Test
+	public void mergeKeepsFewBuckets() {
+		List<HistoryBucket> buckets = new ArrayList<HistoryBucket>();
+		buckets.add(new HistoryBucket(0, 100, 1, JOINT_TYPES, position(0, 0, 0), IDENTITY.clone()));
+		assertTrue(HistoryBucket.merge(buckets, 2) == buckets);
+		assertTrue(HistoryBucket.merge(buckets, 0) == buckets);
+	}
+
+	/**
+	 * Creates the position values of a single frame (mean, minimum and maximum
+	 * are equal).
+	 * 
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return position values
+	 */
+	private static float[] position(float x, float y, float z) {
+		return new float[] { x, y, z, x, y, z, x, y, z };
+	}
+}
@@ -0,0 +1,123 @@
+package com.corpus.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.Test;
+
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.scene.Scene;
+
+/**
+ * Tests the ring buffers of the {@link JointHistory}.
+ * 
+ * @author agent
+ * 
+ */
+public class JointHistoryTest {
+
+	@Test
+	public void framesAreAddedByAge() {
+		JointHistory history = new JointHistory(Arrays.asList(JointType.HEAD, JointType.NECK), 4);
+		assertEquals(0, history.size());
+		for (int i = 1; i <= 3; i++)
+			history.add(createScene(i, 1000 + i * 10));
+		assertEquals(3, history.size());
+
+		double[] positions = history.getPositions(JointType.HEAD);
+		for (int age = 0; age < 3; age++) {
+			int p = history.slot(age) * JointHistory.POSITION_SIZE;
+			assertEquals(3 - age, positions[p], 0);
+			assertEquals(2, positions[p + 1], 0);
+			assertEquals(1030 - age * 10, history.getTimestamp(age));
+		}
+		int o = history.slot(0) * JointHistory.ORIENTATION_SIZE;
+		assertEquals(1, history.getOrientations(JointType.HEAD)[o], 1e-9);
+		assertTrue(history.getPositionTracked(JointType.HEAD)[history.slot(0)]);
+		assertEquals(0.5f, history.getPositionConfidences(JointType.HEAD)[history.slot(0)], 0);
+	}
+
+	@Test
+	public void oldestFrameIsOverwritten() {
+		JointHistory history = new JointHistory(Arrays.asList(JointType.HEAD), 3);
+		for (int i = 1; i <= 5; i++)
+			history.add(createScene(i, i));
+		assertEquals(3, history.size());
+		assertEquals(3, history.getCapacity());
+		assertEquals(5, history.getTimestamp(0));
+		assertEquals(3, history.getTimestamp(2));
+		assertEquals(3, history.getPositions(JointType.HEAD)[history.slot(2) * JointHistory.POSITION_SIZE], 0);
+		assertEquals(history.getTimestamps()[history.slot(1)], history.getTimestamp(1));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void ageBeyondSizeIsRejected() {
+		JointHistory history = new JointHistory(Arrays.asList(JointType.HEAD), 3);
+		history.add(createScene(1, 1));
+		history.slot(1);
+	}
+
+	@Test
+	public void missingValuesAreNaN() {
+		JointHistory history = new JointHistory(Arrays.asList(JointType.HEAD, JointType.NECK), 3);
+		Scene scene = createScene(1, 1);
+		scene.getJoints().remove(JointType.NECK);
+		history.add(scene);
+		int slot = history.slot(0);
+		assertTrue(Double.isNaN(history.getPositions(JointType.NECK)[slot * JointHistory.POSITION_SIZE]));
+		assertTrue(Double.isNaN(history.getOrientations(JointType.NECK)[slot * JointHistory.ORIENTATION_SIZE]));
+		assertFalse(history.getPositionTracked(JointType.NECK)[slot]);
+		assertTrue(Float.isNaN(history.getOrientationConfidences(JointType.NECK)[slot]));
+
+		// joints which are not part of the body model have no buffers
+		assertNull(history.getPositions(JointType.SPINE_BASE));
+	}
+
+	@Test
+	public void clearRemovesAllFrames() {
+		JointHistory history = new JointHistory(Arrays.asList(JointType.HEAD), 3);
+		history.add(createScene(1, 1));
+		history.add(createScene(2, 2));
+		history.clear();
+		assertEquals(0, history.size());
+		history.add(createScene(3, 3));
+		assertEquals(1, history.size());
+		assertEquals(3, history.getTimestamp(0));
+	}
+
+	/**
+	 * Creates a scene containing the tracked head and the neck as its child.
+	 * 
+	 * @param x
+	 *            position of the head along the x axis
+	 * @param timestamp
+	 *            milliseconds
+	 * @return scene
+	 */
+	private static Scene createScene(double x, long timestamp) {
+		Joint head = new Joint(JointType.HEAD, new Vector3D(x, 2, 3), Rotation.IDENTITY);
+		Joint neck = new Joint(JointType.NECK, new Vector3D(0, -10, 0), Rotation.IDENTITY, head);
+		head.setPositionTracked(true);
+		head.setOrientationTracked(true);
+		head.setPositionConfidence(0.5f);
+		head.setOrientationConfidence(0.5f);
+		HashMap<JointType, Joint> joints = new HashMap<JointType, Joint>();
+		joints.put(JointType.HEAD, head);
+		joints.put(JointType.NECK, neck);
+		Scene scene = new Scene();
+		scene.setJoints(joints);
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(timestamp);
+		scene.setTimestamp(calendar);
+		return scene;
+	}
+}
@@ -0,0 +1,258 @@
+package com.corpus.recording;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Calendar;
+import java.util.HashMap;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.scene.Scene;
+
+/**
+ * Tests the encoding, recovery and seeking of the {@link FrameJournal}.
+ * 
+ * @author agent
+ * 
+ */
+public class FrameJournalTest {
+
+	private File directory;
+	private int segmentSize;
+	private int indexInterval;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = File.createTempFile("journal", "");
+		directory.delete();
+		directory.mkdirs();
+		segmentSize = FrameJournal.SEGMENT_SIZE;
+		indexInterval = FrameJournal.INDEX_INTERVAL;
+	}
+
+	@After
+	public void deleteDirectory() {
+		FrameJournal.SEGMENT_SIZE = segmentSize;
+		FrameJournal.INDEX_INTERVAL = indexInterval;
+		for (File file : directory.listFiles())
+			file.delete();
+		directory.delete();
+	}
+
+	@Test
+	public void encodeDecode() {
+		Scene scene = createScene(42, 1000, 5);
+		Joint neck = scene.getJoints().get(JointType.NECK);
+		neck.setPositionTracked(false);
+		neck.setOrientationConfidence(0.25f);
+		ByteBuffer record = ByteBuffer.wrap(FrameJournal.encode(scene, 100));
+		assertEquals(record.capacity() - FrameJournal.RECORD_HEADER_SIZE, FrameJournal.checkRecord(record));
+
+		Scene decoded = createScene(0, 0, 0);
+		record.position(FrameJournal.RECORD_HEADER_SIZE);
+		FrameJournal.decode(record, decoded);
+		assertEquals(142, decoded.getSequenceNumber());
+		assertEquals(1000, decoded.getTimestamp().getTimeInMillis());
+		Joint head = decoded.getJoints().get(JointType.HEAD);
+		assertEquals(0, new Vector3D(5, 2, 3).distance(head.getAbsolutePosition()), 1e-5);
+		assertTrue(head.getPositionTracked());
+		Joint decodedNeck = decoded.getJoints().get(JointType.NECK);
+		assertEquals(0, Rotation.distance(neck.getAbsoluteOrientation(), decodedNeck.getAbsoluteOrientation()), 1e-5);
+		assertFalse(decodedNeck.getPositionTracked());
+		assertTrue(decodedNeck.getOrientationTracked());
+		assertEquals(0.25f, decodedNeck.getOrientationConfidence(), 0);
+	}
+
+	@Test
+	public void corruptRecordIsRejected() {
+		byte[] record = FrameJournal.encode(createScene(1, 1000, 0));
+		record[record.length - 1] ^= 1;
+		assertEquals(-1, FrameJournal.checkRecord(ByteBuffer.wrap(record)));
+		// incomplete record
+		assertEquals(-1, FrameJournal.checkRecord(ByteBuffer.wrap(FrameJournal.encode(createScene(1, 1000, 0)), 0, 20).slice()));
+	}
+
+	@Test
+	public void closedSegmentIsTruncated() throws IOException, InterruptedException {
+		write(1, 10);
+		File[] segments = FrameJournal.getSegments(directory);
+		assertEquals(1, segments.length);
+		assertEquals(10 * FrameJournal.encode(createScene(1, 0, 0)).length, segments[0].length());
+		assertEquals(10, read().length);
+	}
+
+	@Test
+	public void segmentsAreRolledOver() throws IOException, InterruptedException {
+		int recordLength = FrameJournal.encode(createScene(1, 0, 0)).length;
+		FrameJournal.SEGMENT_SIZE = recordLength * 4 + 4;
+		write(1, 10);
+		assertEquals(3, FrameJournal.getSegments(directory).length);
+		long[] sequenceNumbers = read();
+		assertEquals(10, sequenceNumbers.length);
+		for (int i = 0; i < 10; i++)
+			assertEquals(i + 1, sequenceNumbers[i]);
+	}
+
+	@Test
+	public void tailIsRecovered() throws IOException, InterruptedException {
+		// a segment of a crashed process: preallocated and with an incomplete
+		// record at the end
+		byte[] first = FrameJournal.encode(createScene(1, 1000, 0));
+		byte[] second = FrameJournal.encode(createScene(2, 1033, 0));
+		File segment = FrameJournal.getSegment(directory, 0);
+		RandomAccessFile file = new RandomAccessFile(segment, "rw");
+		try {
+			file.setLength(4096);
+			file.write(first);
+			file.write(second);
+			file.write(second, 0, second.length / 2);
+		} finally {
+			file.close();
+		}
+
+		write(1, 2);
+		assertEquals(2 * first.length, segment.length());
+		assertEquals(2, FrameJournal.getSegments(directory).length);
+		long[] sequenceNumbers = read();
+		assertEquals(4, sequenceNumbers.length);
+		assertEquals(2, sequenceNumbers[1]);
+		// the sequence numbers continue after the recovered frames
+		assertEquals(3, sequenceNumbers[2]);
+		assertEquals(4, sequenceNumbers[3]);
+	}
+
+	@Test
+	public void sequenceNumbersIncreaseAcrossRuns() throws IOException, InterruptedException {
+		write(1, 5);
+		write(1, 5);
+		// an empty run leaves no segment
+		write(1, 0);
+		write(1, 5);
+		assertEquals(3, FrameJournal.getSegments(directory).length);
+		long[] sequenceNumbers = read();
+		assertEquals(15, sequenceNumbers.length);
+		for (int i = 0; i < 15; i++)
+			assertEquals(i + 1, sequenceNumbers[i]);
+	}
+
+	@Test
+	public void seek() throws IOException, InterruptedException {
+		FrameJournal.INDEX_INTERVAL = 4;
+		FrameJournal.SEGMENT_SIZE = FrameJournal.encode(createScene(1, 0, 0)).length * 10;
+		write(1, 50);
+		write(1, 50);
+
+		FrameJournalReader reader = new FrameJournalReader(directory);
+		try {
+			Scene scene = createScene(0, 0, 0);
+			assertEquals(1000, reader.getFirstTimestamp());
+			assertEquals(1000 + 49 * 10, reader.getLastTimestamp());
+
+			// frames of the second run
+			assertTrue(reader.seekSequenceNumber(73));
+			assertTrue(reader.next(scene));
+			assertEquals(73, scene.getSequenceNumber());
+			assertEquals(1000 + 22 * 10, scene.getTimestamp().getTimeInMillis());
+
+			assertTrue(reader.seekSequenceNumber(1));
+			assertTrue(reader.next(scene));
+			assertEquals(1, scene.getSequenceNumber());
+
+			assertTrue(reader.seekTimestamp(1000 + 17 * 10 - 5));
+			assertTrue(reader.next(scene));
+			assertEquals(18, scene.getSequenceNumber());
+
+			assertFalse(reader.seekSequenceNumber(101));
+			assertFalse(reader.next(scene));
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Writes frames in a new run of the {@link FrameJournalWriter}.
+	 * 
+	 * @param first
+	 *            sequence number of the first frame
+	 * @param count
+	 *            number of frames
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void write(long first, int count) throws IOException, InterruptedException {
+		FrameJournalWriter writer = FrameJournalWriter.open(directory);
+		try {
+			for (int i = 0; i < count; i++)
+				writer.append(createScene(first + i, 1000 + i * 10, i));
+		} finally {
+			writer.close();
+		}
+		assertEquals(count, writer.getWrittenFrames());
+	}
+
+	/**
+	 * Reads the sequence numbers of all frames of the journal.
+	 * 
+	 * @return sequence numbers
+	 * @throws IOException
+	 */
+	private long[] read() throws IOException {
+		FrameJournalReader reader = new FrameJournalReader(directory);
+		try {
+			int count = 0;
+			while (reader.skip())
+				count++;
+			reader.rewind();
+			long[] sequenceNumbers = new long[count];
+			for (int i = 0; i < count; i++) {
+				reader.skip();
+				sequenceNumbers[i] = reader.getSequenceNumber();
+			}
+			return sequenceNumbers;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Creates a scene containing the head and the neck as its child.
+	 * 
+	 * @param sequenceNumber
+	 * @param timestamp
+	 *            milliseconds
+	 * @param x
+	 *            position of the head along the x axis
+	 * @return scene
+	 */
+	private static Scene createScene(long sequenceNumber, long timestamp, double x) {
+		Joint head = new Joint(JointType.HEAD, new Vector3D(x, 2, 3), Rotation.IDENTITY);
+		Joint neck = new Joint(JointType.NECK, new Vector3D(0, -10, 0), Rotation.IDENTITY, head);
+		neck.setAbsoluteOrientation(new Rotation(Vector3D.PLUS_J, 0.5));
+		head.setPositionTracked(true);
+		head.setOrientationTracked(true);
+		neck.setPositionTracked(true);
+		neck.setOrientationTracked(true);
+		HashMap<JointType, Joint> joints = new HashMap<JointType, Joint>();
+		joints.put(JointType.HEAD, head);
+		joints.put(JointType.NECK, neck);
+		Scene scene = new Scene();
+		scene.setJoints(joints);
+		scene.setSequenceNumber(sequenceNumber);
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(timestamp);
+		scene.setTimestamp(calendar);
+		return scene;
+	}
+}
@@ -0,0 +1,182 @@
+package com.corpus.recording;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.sensor.Sensor;
+
+/**
+ * Tests writing and reading capture files.
+ * 
+ * @author agent
+ * 
+ */
+public class SensorCaptureTest {
+
+	private File directory;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = File.createTempFile("capture", "");
+		directory.delete();
+		directory.mkdirs();
+	}
+
+	@After
+	public void deleteDirectory() {
+		SensorCaptureWriter.stop();
+		for (File file : directory.listFiles())
+			file.delete();
+		directory.delete();
+	}
+
+	@Test
+	public void roundTrip() throws IOException {
+		File file = new File(directory, "session.cap");
+		Sensor sensor = new TestSensor();
+		SensorCaptureWriter.start(file);
+		SensorCaptureWriter writer = SensorCaptureWriter.getInstance();
+		writer.writeSample(sensor, createData(1));
+		writer.writeFrame(1, 1000);
+		writer.writeSample(sensor, createData(2));
+		writer.writeFrame(2, 1033);
+		SensorCaptureWriter.stop();
+
+		SensorCaptureReader reader = new SensorCaptureReader(file);
+		try {
+			assertEquals(SensorCaptureWriter.SENSOR, reader.next());
+			assertEquals(sensor.getId(), reader.getSensorId());
+			assertEquals(TestSensor.class.getName(), reader.getSensorClass());
+			assertEquals(sensor.getCollectsAbsoluteData(), reader.getCollectsAbsoluteData());
+
+			assertEquals(SensorCaptureWriter.SAMPLE, reader.next());
+			Joint joint = reader.getData().get(JointType.HEAD);
+			assertEquals(0, new Vector3D(1, 2, 3).distance(joint.getAbsolutePosition()), 1e-9);
+			assertEquals(0, Rotation.distance(Rotation.IDENTITY, joint.getAbsoluteOrientation()), 1e-9);
+			assertEquals(0.5f, joint.getPositionConfidence(), 0);
+
+			assertEquals(SensorCaptureWriter.FRAME, reader.next());
+			assertEquals(1, reader.getSequenceNumber());
+			assertEquals(1000, reader.getTimestamp());
+
+			// the sensor is declared only once
+			assertEquals(SensorCaptureWriter.SAMPLE, reader.next());
+			assertEquals(sensor.getId(), reader.getSensorId());
+			assertEquals(2, reader.getData().get(JointType.HEAD).getAbsolutePosition().getX(), 1e-9);
+			assertEquals(SensorCaptureWriter.FRAME, reader.next());
+			assertEquals(2, reader.getSequenceNumber());
+			assertEquals(SensorCaptureReader.END, reader.next());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void existingCaptureIsNotAppended() throws IOException {
+		File file = new File(directory, "session.cap");
+		SensorCaptureWriter.start(file);
+		assertEquals(file, SensorCaptureWriter.getInstance().getFile());
+		SensorCaptureWriter.start(file);
+		assertEquals(new File(directory, "session-1.cap"), SensorCaptureWriter.getInstance().getFile());
+		SensorCaptureWriter.start(file);
+		assertEquals(new File(directory, "session-2.cap"), SensorCaptureWriter.getInstance().getFile());
+	}
+
+	@Test
+	public void corruptTailEndsCapture() throws IOException {
+		File file = new File(directory, "session.cap");
+		SensorCaptureWriter.start(file);
+		SensorCaptureWriter.getInstance().writeFrame(1, 1000);
+		SensorCaptureWriter.stop();
+
+		// unwritten block of a crashed capture
+		FileOutputStream out = new FileOutputStream(file, true);
+		out.write(new byte[100]);
+		out.close();
+
+		SensorCaptureReader reader = new SensorCaptureReader(file);
+		try {
+			assertEquals(SensorCaptureWriter.FRAME, reader.next());
+			assertEquals(SensorCaptureReader.END, reader.next());
+			assertEquals(SensorCaptureReader.END, reader.next());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void truncatedRecordEndsCapture() throws IOException {
+		File file = new File(directory, "session.cap");
+		SensorCaptureWriter.start(file);
+		SensorCaptureWriter.getInstance().writeFrame(1, 1000);
+		SensorCaptureWriter.getInstance().writeFrame(2, 1033);
+		SensorCaptureWriter.stop();
+		truncate(file, file.length() - 5);
+
+		SensorCaptureReader reader = new SensorCaptureReader(file);
+		try {
+			assertEquals(SensorCaptureWriter.FRAME, reader.next());
+			assertEquals(SensorCaptureReader.END, reader.next());
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static void truncate(File file, long length) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			randomAccessFile.setLength(length);
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	private static Map<JointType, Joint> createData(double x) {
+		Joint joint = new Joint(JointType.HEAD, new Vector3D(x, 2, 3), Rotation.IDENTITY);
+		joint.setPositionConfidence(0.5f);
+		joint.setOrientationConfidence(0.25f);
+		Map<JointType, Joint> data = new HashMap<JointType, Joint>();
+		data.put(JointType.HEAD, joint);
+		return data;
+	}
+
+	/**
+	 * Sensor without a device.
+	 */
+	public static class TestSensor extends Sensor {
+
+		public TestSensor() {
+			super(new HashMap<String, String>());
+		}
+
+		@Override
+		public void run() {
+		}
+
+		@Override
+		public void init() {
+		}
+
+		@Override
+		public void terminate() {
+		}
+
+		@Override
+		protected void updateCurrentData() {
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package com.corpus.web.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.Test;
+
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.scene.Scene;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests the keyframes and deltas of the {@link DeltaEncoder}.
+ * 
+ * @author agent
+ * 
+ */
+public class DeltaEncoderTest {
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	@Test
+	public void firstFrameIsKeyframe() throws IOException {
+		DeltaEncoder encoder = new DeltaEncoder(100, 0.1, 0.01);
+		JsonNode message = parse(encoder.encode(createScene(1, 0, 0)));
+		assertEquals("keyframe", message.get("type").asText());
+		assertEquals(1, message.get("seq").asLong());
+		assertEquals(1, message.get("frame").asLong());
+		assertEquals(2, message.get("joints").size());
+		assertEquals("HEAD", message.get("joints").get(1).get("parent").asText());
+	}
+
+	@Test
+	public void unchangedFrameIsSkipped() throws IOException {
+		DeltaEncoder encoder = new DeltaEncoder(100, 0.1, 0.01);
+		encoder.encode(createScene(1, 0, 0));
+		assertNull(encoder.encode(createScene(2, 0, 0)));
+		assertNull(encoder.encode(createScene(3, 0.05, 0)));
+	}
+
+	@Test
+	public void deltaContainsChangedJointsOnly() throws IOException {
+		DeltaEncoder encoder = new DeltaEncoder(100, 0.1, 0.01);
+		encoder.encode(createScene(1, 0, 0));
+		JsonNode message = parse(encoder.encode(createScene(2, 1, 0)));
+		assertEquals("delta", message.get("type").asText());
+		assertEquals(2, message.get("seq").asLong());
+		assertEquals(1, message.get("joints").size());
+		JsonNode joint = message.get("joints").get(0);
+		assertEquals("NECK", joint.get("jointType").asText());
+		assertEquals(11, joint.get("absolutePosition").get("x").asDouble(), 1e-3);
+		assertFalse(joint.has("absoluteOrientation"));
+		assertFalse(joint.has("positionConfidence"));
+	}
+
+	@Test
+	public void changesBelowEpsilonAccumulate() throws IOException {
+		// deltas are computed against the sent state, not the last frame
+		DeltaEncoder encoder = new DeltaEncoder(100, 0.1, 0.01);
+		encoder.encode(createScene(1, 0, 0));
+		assertNull(encoder.encode(createScene(2, 0.06, 0)));
+		assertTrue(encoder.encode(createScene(3, 0.12, 0)) != null);
+	}
+
+	@Test
+	public void orientationChangeIsSent() throws IOException {
+		DeltaEncoder encoder = new DeltaEncoder(100, 0.1, 0.01);
+		encoder.encode(createScene(1, 0, 0));
+		JsonNode joint = parse(encoder.encode(createScene(2, 0, 0.1))).get("joints").get(0);
+		assertTrue(joint.has("absoluteOrientation"));
+		assertFalse(joint.has("absolutePosition"));
+	}
+
+	@Test
+	public void keyframeInterval() throws IOException {
+		DeltaEncoder encoder = new DeltaEncoder(3, 0.1, 0.01);
+		assertEquals("keyframe", parse(encoder.encode(createScene(1, 0, 0))).get("type").asText());
+		assertEquals("delta", parse(encoder.encode(createScene(2, 1, 0))).get("type").asText());
+		assertEquals("delta", parse(encoder.encode(createScene(3, 2, 0))).get("type").asText());
+		assertEquals("keyframe", parse(encoder.encode(createScene(4, 2, 0))).get("type").asText());
+	}
+
+	@Test
+	public void changedModelForcesKeyframe() throws IOException {
+		DeltaEncoder encoder = new DeltaEncoder(100, 0.1, 0.01);
+		encoder.encode(createScene(1, 0, 0));
+		Scene scene = createScene(2, 0, 0);
+		scene.getJoints().remove(JointType.NECK);
+		JsonNode message = parse(encoder.encode(scene));
+		assertEquals("keyframe", message.get("type").asText());
+		assertEquals(1, message.get("joints").size());
+	}
+
+	@Test
+	public void resyncAndReset() throws IOException {
+		DeltaEncoder encoder = new DeltaEncoder(100, 0.1, 0.01);
+		assertNull(encoder.getKeyframe());
+		encoder.encode(createScene(1, 0, 0));
+		encoder.encode(createScene(2, 1, 0));
+
+		// the resync keyframe contains the reference state and keeps the
+		// sequence number
+		JsonNode keyframe = parse(encoder.getKeyframe());
+		assertEquals(2, keyframe.get("seq").asLong());
+		assertEquals(11, keyframe.get("joints").get(1).get("absolutePosition").get("x").asDouble(), 1e-3);
+
+		encoder.reset();
+		JsonNode message = parse(encoder.encode(createScene(3, 1, 0)));
+		assertEquals("keyframe", message.get("type").asText());
+		assertEquals(3, message.get("seq").asLong());
+	}
+
+	@Test
+	public void selectedJointsAndFields() throws IOException {
+		DeltaEncoder encoder = new DeltaEncoder(100, 0.1, 0.01, Arrays.asList(JointType.HEAD), Arrays.asList("absolutePosition"));
+		JsonNode message = parse(encoder.encode(createScene(1, 0, 0)));
+		assertEquals(1, message.get("joints").size());
+		JsonNode joint = message.get("joints").get(0);
+		assertEquals("HEAD", joint.get("jointType").asText());
+		assertTrue(joint.has("absolutePosition"));
+		assertFalse(joint.has("absoluteOrientation"));
+		assertFalse(joint.has("positionConfidence"));
+
+		// changes of joints which are not selected are not sent
+		assertNull(encoder.encode(createScene(2, 5, 0)));
+	}
+
+	private static JsonNode parse(String json) throws IOException {
+		return mapper.readTree(json);
+	}
+
+	/**
+	 * Creates a scene containing the head and the neck as its child.
+	 * 
+	 * @param sequenceNumber
+	 * @param neckOffset
+	 *            offset of the neck along the x axis (centimeter)
+	 * @param neckAngle
+	 *            rotation of the neck around the y axis (radians)
+	 * @return scene
+	 */
+	private static Scene createScene(long sequenceNumber, double neckOffset, double neckAngle) {
+		Joint head = new Joint(JointType.HEAD, new Vector3D(0, 0, 0), Rotation.IDENTITY);
+		Joint neck = new Joint(JointType.NECK, new Vector3D(10, 0, 0), Rotation.IDENTITY, head);
+		neck.setAbsolutePosition(new Vector3D(10 + neckOffset, 0, 0));
+		neck.setAbsoluteOrientation(new Rotation(Vector3D.PLUS_J, neckAngle));
+		HashMap<JointType, Joint> joints = new HashMap<JointType, Joint>();
+		joints.put(JointType.HEAD, head);
+		joints.put(JointType.NECK, neck);
+		Scene scene = new Scene();
+		scene.setJoints(joints);
+		scene.setSequenceNumber(sequenceNumber);
+		return scene;
+	}
+}
@@ -0,0 +1,103 @@
+package com.corpus.web.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.Test;
+
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.scene.Scene;
+
+/**
+ * Tests the frame selection of the {@link Downsampling} modes.
+ * 
+ * @author agent
+ * 
+ */
+public class DownsamplingTest {
+
+	private static final List<JointType> HEAD = Arrays.asList(JointType.HEAD);
+
+	@Test
+	public void fewFramesAreKept() {
+		List<Scene> frames = createFrames(10);
+		assertTrue(Downsampling.DECIMATE.select(frames, HEAD, 10) == frames);
+		assertTrue(Downsampling.MINMAX.select(frames, HEAD, 20) == frames);
+		assertTrue(Downsampling.MINMAX.select(frames, HEAD, 0) == frames);
+	}
+
+	@Test
+	public void decimateKeepsFirstAndLast() {
+		List<Scene> frames = createFrames(100);
+		List<Scene> selected = Downsampling.DECIMATE.select(frames, HEAD, 5);
+		assertEquals(5, selected.size());
+		assertEquals(0, selected.get(0).getSequenceNumber());
+		assertEquals(49, selected.get(2).getSequenceNumber());
+		assertEquals(99, selected.get(4).getSequenceNumber());
+	}
+
+	@Test
+	public void minMaxKeepsPeaks() {
+		List<Scene> frames = createFrames(100);
+		setHead(frames.get(37), new Vector3D(1000, 0, 0));
+		setHead(frames.get(61), new Vector3D(0, -1000, 0));
+		List<Scene> selected = Downsampling.MINMAX.select(frames, HEAD, 16);
+		assertTrue(selected.contains(frames.get(37)));
+		assertTrue(selected.contains(frames.get(61)));
+		assertTrue(selected.contains(frames.get(0)));
+		assertTrue(selected.contains(frames.get(99)));
+		assertChronological(selected);
+	}
+
+	@Test
+	public void minMaxDoesNotExceedTarget() {
+		List<Scene> frames = createFrames(1000);
+		List<JointType> jointTypes = Arrays.asList(JointType.HEAD, JointType.NECK);
+		for (int points : new int[] { 14, 50, 100, 333 }) {
+			List<Scene> selected = Downsampling.MINMAX.select(frames, jointTypes, points);
+			assertTrue(selected.size() + " > " + points, selected.size() <= points);
+			assertChronological(selected);
+		}
+	}
+
+	private static void assertChronological(List<Scene> selected) {
+		for (int i = 1; i < selected.size(); i++)
+			assertTrue(selected.get(i - 1).getSequenceNumber() < selected.get(i).getSequenceNumber());
+	}
+
+	/**
+	 * Creates frames of the head and the neck moving on different noisy
+	 * curves, thus the extremes of the coordinates lie in different frames.
+	 * 
+	 * @param count
+	 * @return frames
+	 */
+	private static List<Scene> createFrames(int count) {
+		List<Scene> frames = new ArrayList<Scene>();
+		for (int i = 0; i < count; i++) {
+			Joint head = new Joint(JointType.HEAD, new Vector3D(Math.sin(i * 0.7), Math.cos(i * 1.3), Math.sin(i * 2.9)), Rotation.IDENTITY);
+			Joint neck = new Joint(JointType.NECK, Vector3D.ZERO, Rotation.IDENTITY, head);
+			neck.setAbsolutePosition(new Vector3D(Math.cos(i * 0.3), Math.sin(i * 1.9), Math.cos(i * 2.3)));
+			HashMap<JointType, Joint> joints = new HashMap<JointType, Joint>();
+			joints.put(JointType.HEAD, head);
+			joints.put(JointType.NECK, neck);
+			Scene scene = new Scene();
+			scene.setJoints(joints);
+			scene.setSequenceNumber(i);
+			frames.add(scene);
+		}
+		return frames;
+	}
+
+	private static void setHead(Scene scene, Vector3D position) {
+		scene.getJoints().get(JointType.HEAD).setAbsolutePosition(position);
+	}
+}
@@ -0,0 +1,113 @@
+package com.corpus.web.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.glassfish.grizzly.GrizzlyFuture;
+import org.glassfish.grizzly.websockets.WebSocket;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the handling of stalled writes by the {@link ClientQueue}.
+ * 
+ * @author agent
+ * 
+ */
+public class ClientQueueTest {
+
+	private int sendTimeout;
+
+	@Before
+	public void saveTimeout() {
+		sendTimeout = WebSocketHandler.SEND_TIMEOUT;
+		WebSocketHandler.SEND_TIMEOUT = 20;
+	}
+
+	@After
+	public void restoreTimeout() {
+		WebSocketHandler.SEND_TIMEOUT = sendTimeout;
+	}
+
+	@Test
+	public void stalledWriteMakesClientBehind() throws InterruptedException {
+		TestSocket socket = new TestSocket(false);
+		ClientQueue queue = new ClientQueue(1, socket.create(), 30, QueuePolicy.DROP_OLDEST);
+		assertTrue(queue.offer("frame"));
+		Thread sender = new Thread(queue);
+		sender.start();
+		Thread.sleep(100);
+		assertTrue(queue.isBehind(0));
+		assertEquals(1L, queue.getStatistics().get("stalls"));
+		assertTrue(sender.isAlive());
+
+		// the sender gives up when the evicted client is disconnected
+		socket.connected = false;
+		sender.join(1000);
+		assertFalse(sender.isAlive());
+	}
+
+	@Test
+	public void completedWriteIsSent() throws InterruptedException {
+		ClientQueue queue = new ClientQueue(1, new TestSocket(true).create(), 30, QueuePolicy.DROP_OLDEST);
+		assertTrue(queue.offer("frame"));
+		queue.run();
+		assertFalse(queue.isBehind(0));
+		assertEquals(1L, queue.getStatistics().get("sent"));
+		assertEquals(0L, queue.getStatistics().get("stalls"));
+	}
+
+	/**
+	 * WebSocket whose writes complete immediately or never.
+	 */
+	private static class TestSocket {
+
+		private final boolean writable;
+		private volatile boolean connected = true;
+
+		TestSocket(boolean writable) {
+			this.writable = writable;
+		}
+
+		WebSocket create() {
+			return (WebSocket) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { WebSocket.class },
+					new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) {
+							if (method.getName().equals("isConnected"))
+								return connected;
+							if (method.getName().equals("send"))
+								return createFuture();
+							return null;
+						}
+					});
+		}
+
+		private GrizzlyFuture<?> createFuture() {
+			return (GrizzlyFuture<?>) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { GrizzlyFuture.class },
+					new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+							if (method.getName().equals("get")) {
+								if (writable)
+									return null;
+								if (args != null)
+									Thread.sleep(((TimeUnit) args[1]).toMillis((Long) args[0]));
+								throw new TimeoutException();
+							}
+							if (method.getName().equals("isDone"))
+								return writable;
+							return null;
+						}
+					});
+		}
+	}
+}
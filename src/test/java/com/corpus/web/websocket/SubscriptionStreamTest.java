@@ -0,0 +1,109 @@
+package com.corpus.web.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Calendar;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.corpus.controller.Controller;
+import com.corpus.scene.Joint;
+import com.corpus.scene.JointType;
+import com.corpus.scene.Scene;
+
+/**
+ * Tests the rate limit of the {@link SubscriptionStream}.
+ * 
+ * @author agent
+ * 
+ */
+public class SubscriptionStreamTest {
+
+	// jitter of the frame timestamps in milliseconds
+	private static final long[] JITTER = { 0, 2, -1, 1, -2, 1, 0, -1 };
+
+	private int updateFrequency;
+	private int outputFrequency;
+
+	@Before
+	public void saveFrequencies() {
+		updateFrequency = Controller.UPDATE_FREQUENCY;
+		outputFrequency = Controller.OUTPUT_FREQUENCY;
+	}
+
+	@After
+	public void restoreFrequencies() {
+		Controller.UPDATE_FREQUENCY = updateFrequency;
+		Controller.OUTPUT_FREQUENCY = outputFrequency;
+	}
+
+	@Test
+	public void everySecondFrameIsSentAtHalfTheFrameRate() {
+		Controller.UPDATE_FREQUENCY = 30;
+		Controller.OUTPUT_FREQUENCY = 90;
+		SubscriptionStream stream = new SubscriptionStream(new Subscription(null, null, StreamFormat.LIST, 45));
+		assertEquals(20, countSent(stream, 90, 40));
+	}
+
+	@Test
+	public void everyFrameIsSentAtTheFrameRate() {
+		Controller.UPDATE_FREQUENCY = 60;
+		Controller.OUTPUT_FREQUENCY = 0;
+		SubscriptionStream stream = new SubscriptionStream(new Subscription(null, null, StreamFormat.LIST, 60));
+		assertEquals(40, countSent(stream, 60, 40));
+	}
+
+	@Test
+	public void fractionalPeriodsAreNotTruncated() {
+		// 2.5 milliseconds between two messages, half a frame is less than a
+		// millisecond
+		Controller.UPDATE_FREQUENCY = 1200;
+		Controller.OUTPUT_FREQUENCY = 0;
+		SubscriptionStream stream = new SubscriptionStream(new Subscription(null, null, StreamFormat.LIST, 400));
+		assertNotNull(stream.encode(createScene(1000)));
+		assertNull(stream.encode(createScene(1002)));
+		assertNotNull(stream.encode(createScene(1003)));
+	}
+
+	@Test
+	public void unlimitedStreamSendsEveryFrame() {
+		SubscriptionStream stream = new SubscriptionStream(new Subscription(null, null, StreamFormat.LIST, 0));
+		assertNotNull(stream.encode(createScene(1000)));
+		assertNotNull(stream.encode(createScene(1000)));
+	}
+
+	/**
+	 * Passes frames with jittered timestamps to the stream.
+	 * 
+	 * @param stream
+	 * @param frameRate
+	 *            frames per second
+	 * @param frames
+	 *            number of frames
+	 * @return number of frames encoded
+	 */
+	private static int countSent(SubscriptionStream stream, int frameRate, int frames) {
+		int sent = 0;
+		for (int i = 0; i < frames; i++) {
+			long timestamp = 1000 + Math.round(i * 1000d / frameRate) + JITTER[i % JITTER.length];
+			if (stream.encode(createScene(timestamp)) != null)
+				sent++;
+		}
+		return sent;
+	}
+
+	private static Scene createScene(long timestamp) {
+		HashMap<JointType, Joint> joints = new HashMap<JointType, Joint>();
+		Scene scene = new Scene();
+		scene.setJoints(joints);
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(timestamp);
+		scene.setTimestamp(calendar);
+		return scene;
+	}
+}